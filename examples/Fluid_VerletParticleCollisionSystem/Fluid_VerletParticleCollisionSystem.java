@@ -13,6 +13,7 @@ package Fluid_VerletParticleCollisionSystem;
 
 import com.thomasdiewald.pixelflow.java.DwPixelFlow;
 import com.thomasdiewald.pixelflow.java.fluid.DwFluid2D;
+import com.thomasdiewald.pixelflow.java.fluid.DwFluidParticleCoupling2D;
 import com.thomasdiewald.pixelflow.java.softbodydynamics.DwPhysics;
 import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle2D;
 
@@ -34,7 +35,9 @@ public class Fluid_VerletParticleCollisionSystem extends PApplet {
   // handles the collisions.
   // To add fluid-velocity (simulated on the GPU) to particles (simulated on the
   // CPU) the velocity data needs to be transfered, which is a rather expensive 
-  // thing to do.
+  // thing to do. DwFluidParticleCoupling2D only transfers the velocity at the
+  // particle positions, and can also add the particle motion back to the
+  // fluid (two-way coupling, coupling.param.particle_force).
   //
   //
   // controls:
@@ -151,6 +154,9 @@ public class Fluid_VerletParticleCollisionSystem extends PApplet {
   // verlet physics, handles the update-step
   DwPhysics<DwParticle2D> physics;
   
+  // fluid <-> particles
+  DwFluidParticleCoupling2D coupling;
+  
   
   // some state variables for the GUI/display
   int     BACKGROUND_COLOR           = 0;
@@ -218,6 +224,8 @@ public class Fluid_VerletParticleCollisionSystem extends PApplet {
     
     physics = new DwPhysics<DwParticle2D>(param_physics);
     
+    coupling = new DwFluidParticleCoupling2D(context);
+    
     
    
     // particle system object
@@ -246,9 +254,6 @@ public class Fluid_VerletParticleCollisionSystem extends PApplet {
   
   
 
-  
-  // float buffer for pixel transfer from OpenGL to the host application
-  float[] fluid_velocity;
 
   public void draw() {    
 
@@ -276,33 +281,6 @@ public class Fluid_VerletParticleCollisionSystem extends PApplet {
     
 
 
-    // Transfer velocity data from the GPU to the host-application
-    // This is in general a bad idea because such operations are very slow. So 
-    // either do everything in shaders, and avoid memory transfer when possible, 
-    // or do it very rarely. however, this is just an example for convenience.
-    fluid_velocity = fluid.getVelocity(fluid_velocity);
-    
-    // add force: FLuid Velocity
-    float[] fluid_vxy = new float[2];
-    for (DwParticle2D particle : particlesystem.particles) {
-
-      int px_view = Math.round(particle.cx);
-      int py_view = Math.round(height - 1 - particle.cy); // invert y
-      
-      int px_grid = px_view/fluid.grid_scale;
-      int py_grid = py_view/fluid.grid_scale;
-
-      int w_grid  = fluid.tex_velocity.src.w;
-
-      int PIDX    = py_grid * w_grid + px_grid;
-
-      fluid_vxy[0] = +fluid_velocity[PIDX * 2 + 0] * 0.05f * particlesystem.MULT_FLUID;
-      fluid_vxy[1] = -fluid_velocity[PIDX * 2 + 1] * 0.05f * particlesystem.MULT_FLUID; // invert y
-      
-      particle.addForce(fluid_vxy);
-    }
-    
-    
     //  add force: Middle Mouse Button (MMB) -> particle[0]
     if(mousePressed && mouseButton == CENTER){
       float[] mouse = {mouseX, mouseY};
@@ -322,7 +300,12 @@ public class Fluid_VerletParticleCollisionSystem extends PApplet {
     physics.param.iterations_collisions = collision_detection ? 4 : 0;
     
     physics.setParticles(particlesystem.particles, particlesystem.particles.length);
-    physics.update(1);
+    
+    // physics step, coupled with the fluid: the fluid velocity is gathered at
+    // the particles only, and transferred while the physics step is running.
+    coupling.param.fluid_force = 0.05f * particlesystem.MULT_FLUID;
+//    coupling.param.particle_force = 0.1f; // two-way coupling, particles push the fluid
+    coupling.update(fluid, physics, 1);
     
    
     
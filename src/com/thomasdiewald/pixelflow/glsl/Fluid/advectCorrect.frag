@@ -0,0 +1,63 @@
+/**
+ * 
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ * 
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+#version 150 
+
+precision mediump float;
+precision mediump int;
+
+out vec4 glFragColor;
+
+uniform sampler2D tex_velocity;
+uniform sampler2D tex_source;   // phi
+uniform sampler2D tex_forward;  // advect(phi, +timestep)
+uniform sampler2D tex_backward; // advect(advect(phi, +timestep), -timestep)
+uniform sampler2D tex_obstacleC;
+
+uniform vec2  wh;
+uniform vec2  wh_inv;
+uniform float timestep;
+uniform float rdx;
+uniform float dissipation;
+uniform int   bfecc;
+
+void main(){
+  vec2 posn = gl_FragCoord.xy * wh_inv;
+  
+  float oC = texture(tex_obstacleC, posn).x;
+  if (oC == 1.0) {
+    glFragColor = vec4(0);
+    return;
+  }
+  
+  vec2 velocity = texture(tex_velocity, posn).xy;
+  vec2 posn_back = posn - timestep * rdx * velocity * wh_inv;
+  
+  vec4 phi;
+  if(bfecc == 1){
+    // advect(phi + (phi - backward) / 2), bilinear sampling is linear
+    phi = 1.5 * texture(tex_source, posn_back) - 0.5 * texture(tex_backward, posn_back);
+  } else {
+    // maccormack
+    phi = texture(tex_forward, posn) + 0.5 * (texture(tex_source, posn) - texture(tex_backward, posn));
+  }
+  
+  // limiter: range of the 4 texels around the backtraced position
+  vec2 posn_texel = (floor(posn_back * wh - 0.5) + 0.5) * wh_inv;
+  vec4 s00 = texture(tex_source, posn_texel);
+  vec4 s10 = texture(tex_source, posn_texel + vec2(wh_inv.x, 0));
+  vec4 s01 = texture(tex_source, posn_texel + vec2(0, wh_inv.y));
+  vec4 s11 = texture(tex_source, posn_texel + wh_inv);
+  vec4 lo = min(min(s00, s10), min(s01, s11));
+  vec4 hi = max(max(s00, s10), max(s01, s11));
+  
+  glFragColor = dissipation * clamp(phi, lo, hi);
+}
+
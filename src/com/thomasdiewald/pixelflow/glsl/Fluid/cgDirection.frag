@@ -0,0 +1,41 @@
+/**
+ * 
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ * 
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+#version 150
+
+precision mediump float;
+precision mediump int;
+
+out float glFragColor;
+
+uniform sampler2D tex_r;
+uniform sampler2D tex_p;
+uniform sampler2D tex_weight;
+
+uniform vec4  boundary; // top, bottom, right, left
+uniform float beta;
+
+void main(){
+
+  ivec2 pos = ivec2(gl_FragCoord.xy);
+  ivec2 wh  = textureSize(tex_r, 0);
+  
+  vec4  wN   = texelFetch(tex_weight, pos, 0);
+  vec4  bN   = vec4(pos.y == wh.y-1, pos.y == 0, pos.x == wh.x-1, pos.x == 0);
+  float diag = dot(wN, vec4(1.0)) + dot(wN * bN, boundary);
+  if (diag <= 0.0) { 
+    glFragColor = 0.0; 
+    return;
+  }
+  
+  // p = z + beta * p, z = r / diag (jacobi preconditioner)
+  glFragColor = texelFetch(tex_r, pos, 0).x / diag + beta * texelFetch(tex_p, pos, 0).x;
+}
+
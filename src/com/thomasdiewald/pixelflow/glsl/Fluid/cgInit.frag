@@ -0,0 +1,52 @@
+/**
+ * 
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ * 
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+#version 150
+
+precision mediump float;
+precision mediump int;
+
+out vec4 glFragColor;
+
+uniform sampler2D tex_x;
+uniform sampler2D tex_b;
+uniform sampler2D tex_weight;
+
+uniform vec4  boundary; // top, bottom, right, left
+uniform float alpha;
+
+void main(){
+
+  ivec2 pos = ivec2(gl_FragCoord.xy);
+  ivec2 wh  = textureSize(tex_x, 0);
+  
+  vec4  wN   = texelFetch(tex_weight, pos, 0);
+  vec4  bN   = vec4(pos.y == wh.y-1, pos.y == 0, pos.x == wh.x-1, pos.x == 0);
+  float diag = dot(wN, vec4(1.0)) + dot(wN * bN, boundary);
+  if (diag <= 0.0) { 
+    glFragColor = vec4(0.0); 
+    return;
+  }
+  
+  vec4 xN;
+  xN.x = texelFetch(tex_x, min(pos + ivec2(0,1), wh-1), 0).x;
+  xN.y = texelFetch(tex_x, max(pos - ivec2(0,1),    0), 0).x;
+  xN.z = texelFetch(tex_x, min(pos + ivec2(1,0), wh-1), 0).x;
+  xN.w = texelFetch(tex_x, max(pos - ivec2(1,0),    0), 0).x;
+  float xC = texelFetch(tex_x, pos, 0).x;
+  float bC = texelFetch(tex_b, pos, 0).x;
+  
+  // r = alpha * b - A * x, A = diag - sum(weight * neighbor)
+  float r = alpha * bC - (diag * xC - dot(wN * (1.0 - bN), xN));
+  
+  // residual, r * z (z = r / diag), r * r
+  glFragColor = vec4(r, r * r / diag, r * r, 0.0);
+}
+
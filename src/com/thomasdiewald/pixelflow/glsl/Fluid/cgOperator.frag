@@ -0,0 +1,47 @@
+/**
+ * 
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ * 
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+#version 150
+
+precision mediump float;
+precision mediump int;
+
+out vec2 glFragColor;
+
+uniform sampler2D tex_p;
+uniform sampler2D tex_weight;
+
+uniform vec4 boundary; // top, bottom, right, left
+
+void main(){
+
+  ivec2 pos = ivec2(gl_FragCoord.xy);
+  ivec2 wh  = textureSize(tex_p, 0);
+  
+  vec4  wN   = texelFetch(tex_weight, pos, 0);
+  vec4  bN   = vec4(pos.y == wh.y-1, pos.y == 0, pos.x == wh.x-1, pos.x == 0);
+  float diag = dot(wN, vec4(1.0)) + dot(wN * bN, boundary);
+  if (diag <= 0.0) { 
+    glFragColor = vec2(0.0); 
+    return;
+  }
+  
+  vec4 pN;
+  pN.x = texelFetch(tex_p, min(pos + ivec2(0,1), wh-1), 0).x;
+  pN.y = texelFetch(tex_p, max(pos - ivec2(0,1),    0), 0).x;
+  pN.z = texelFetch(tex_p, min(pos + ivec2(1,0), wh-1), 0).x;
+  pN.w = texelFetch(tex_p, max(pos - ivec2(1,0),    0), 0).x;
+  float pC = texelFetch(tex_p, pos, 0).x;
+  
+  // q = A * p, and p * q
+  float q = diag * pC - dot(wN * (1.0 - bN), pN);
+  glFragColor = vec2(q, pC * q);
+}
+
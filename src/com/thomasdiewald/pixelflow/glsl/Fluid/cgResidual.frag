@@ -0,0 +1,44 @@
+/**
+ * 
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ * 
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+#version 150
+
+precision mediump float;
+precision mediump int;
+
+out vec4 glFragColor;
+
+uniform sampler2D tex_r;
+uniform sampler2D tex_q;
+uniform sampler2D tex_weight;
+
+uniform vec4  boundary; // top, bottom, right, left
+uniform float alpha;
+
+void main(){
+
+  ivec2 pos = ivec2(gl_FragCoord.xy);
+  ivec2 wh  = textureSize(tex_r, 0);
+  
+  vec4  wN   = texelFetch(tex_weight, pos, 0);
+  vec4  bN   = vec4(pos.y == wh.y-1, pos.y == 0, pos.x == wh.x-1, pos.x == 0);
+  float diag = dot(wN, vec4(1.0)) + dot(wN * bN, boundary);
+  if (diag <= 0.0) { 
+    glFragColor = vec4(0.0); 
+    return;
+  }
+  
+  // r -= alpha * q
+  float r = texelFetch(tex_r, pos, 0).x - alpha * texelFetch(tex_q, pos, 0).x;
+  
+  // residual, r * z (z = r / diag), r * r
+  glFragColor = vec4(r, r * r / diag, r * r, 0.0);
+}
+
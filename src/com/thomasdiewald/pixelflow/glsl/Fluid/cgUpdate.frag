@@ -0,0 +1,30 @@
+/**
+ * 
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ * 
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+#version 150
+
+precision mediump float;
+precision mediump int;
+
+out float glFragColor;
+
+uniform sampler2D tex_x;
+uniform sampler2D tex_p;
+
+uniform float alpha;
+
+void main(){
+
+  ivec2 pos = ivec2(gl_FragCoord.xy);
+  
+  // x += alpha * p
+  glFragColor = texelFetch(tex_x, pos, 0).x + alpha * texelFetch(tex_p, pos, 0).x;
+}
+
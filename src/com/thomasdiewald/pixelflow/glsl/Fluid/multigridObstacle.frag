@@ -0,0 +1,33 @@
+/**
+ * 
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ * 
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+#version 150
+
+precision mediump float;
+precision mediump int;
+
+out float glFragColor;
+
+uniform sampler2D tex_obstacle; // finer level
+
+void main(){
+  
+  // bottom-left child
+  ivec2 pos = ivec2(gl_FragCoord.xy) * 2;
+  
+  // obstacle, if all children are obstacles
+  float o00 = texelFetchOffset(tex_obstacle, pos, 0, ivec2(0,0)).x;
+  float o10 = texelFetchOffset(tex_obstacle, pos, 0, ivec2(1,0)).x;
+  float o01 = texelFetchOffset(tex_obstacle, pos, 0, ivec2(0,1)).x;
+  float o11 = texelFetchOffset(tex_obstacle, pos, 0, ivec2(1,1)).x;
+  
+  glFragColor = (min(min(o00, o10), min(o01, o11)) == 1.0) ? 1.0 : 0.0;
+}
+
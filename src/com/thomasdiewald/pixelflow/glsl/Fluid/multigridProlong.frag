@@ -0,0 +1,54 @@
+/**
+ * 
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ * 
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+#version 150
+
+precision mediump float;
+precision mediump int;
+
+out float glFragColor;
+
+uniform sampler2D tex_x;          // this level
+uniform sampler2D tex_obstacle;   // this level
+uniform sampler2D tex_x_coarse;
+uniform sampler2D tex_obstacle_coarse;
+
+void main(){
+
+  ivec2 pos = ivec2(gl_FragCoord.xy);
+  ivec2 whc = textureSize(tex_x_coarse, 0);
+  
+  float xC = texelFetch(tex_x, pos, 0).x;
+  float oC = texelFetch(tex_obstacle, pos, 0).x;
+  if (oC == 1.0) { 
+    glFragColor = xC; 
+    return;
+  }
+  
+  // coarse cells below/left, and the weights of the cells above/right
+  ivec2 c0 = (pos - 1) >> 1;
+  vec2  f  = mix(vec2(0.75), vec2(0.25), vec2(pos & 1));
+  
+  // bilinear, obstacles are skipped, outside the coarse level is 0
+  float sum = 0.0, sum_w = 0.0;
+  for(int k = 0; k < 4; k++){
+    ivec2 c  = c0 + ivec2(k & 1, k >> 1);
+    float wk = ((k & 1) == 0 ? 1.0 - f.x : f.x) * ((k >> 1) == 0 ? 1.0 - f.y : f.y);
+    if(any(lessThan(c, ivec2(0))) || any(greaterThanEqual(c, whc))){
+      sum_w += wk;
+    } else if(texelFetch(tex_obstacle_coarse, c, 0).x != 1.0){
+      sum   += wk * texelFetch(tex_x_coarse, c, 0).x;
+      sum_w += wk;
+    }
+  }
+  
+  glFragColor = xC + ((sum_w > 0.0) ? sum / sum_w : 0.0);
+}
+
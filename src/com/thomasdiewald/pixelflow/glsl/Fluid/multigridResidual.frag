@@ -0,0 +1,56 @@
+/**
+ * 
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ * 
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+#version 150
+
+precision mediump float;
+precision mediump int;
+
+out vec2 glFragColor;
+
+uniform sampler2D tex_x;
+uniform sampler2D tex_b;
+uniform sampler2D tex_obstacle;
+uniform sampler2D tex_weight;
+
+uniform vec4  boundary; // top, bottom, right, left
+uniform float rscale;
+
+void main(){
+
+  ivec2 pos = ivec2(gl_FragCoord.xy);
+  ivec2 wh  = textureSize(tex_x, 0);
+  
+  float oC = texelFetch(tex_obstacle, pos, 0).x;
+  if (oC == 1.0) { 
+    glFragColor = vec2(0.0); 
+    return;
+  }
+  
+  // same operator as in multigridSmooth.frag
+  vec4 bN = vec4(pos.y == wh.y-1, pos.y == 0, pos.x == wh.x-1, pos.x == 0);
+  
+  vec4 xN;
+  xN.x = texelFetch(tex_x, min(pos + ivec2(0,1), wh-1), 0).x;
+  xN.y = texelFetch(tex_x, max(pos - ivec2(0,1),    0), 0).x;
+  xN.z = texelFetch(tex_x, min(pos + ivec2(1,0), wh-1), 0).x;
+  xN.w = texelFetch(tex_x, max(pos - ivec2(1,0),    0), 0).x;
+  float xC = texelFetch(tex_x, pos, 0).x;
+  float bC = texelFetch(tex_b, pos, 0).x;
+  
+  vec4  wN   = texelFetch(tex_weight, pos, 0);
+  float sum  = dot(wN * (1.0 - bN), xN);
+  float diag = dot(wN, vec4(1.0)) + dot(wN * bN, boundary);
+  
+  // residual, and its square for the norm
+  float r = bC - (sum - diag * xC) * rscale;
+  glFragColor = vec2(r, r * r);
+}
+
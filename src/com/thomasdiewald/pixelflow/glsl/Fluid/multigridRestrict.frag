@@ -0,0 +1,40 @@
+/**
+ * 
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ * 
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+#version 150
+
+precision mediump float;
+precision mediump int;
+
+out float glFragColor;
+
+uniform sampler2D tex_r;        // finer level
+uniform sampler2D tex_obstacle; // this level
+
+void main(){
+
+  ivec2 pos = ivec2(gl_FragCoord.xy);
+  
+  float oC = texelFetch(tex_obstacle, pos, 0).x;
+  if (oC == 1.0) { 
+    glFragColor = 0.0; 
+    return;
+  }
+  
+  // average of the 4 children
+  ivec2 fpos = pos * 2;
+  float r00 = texelFetchOffset(tex_r, fpos, 0, ivec2(0,0)).x;
+  float r10 = texelFetchOffset(tex_r, fpos, 0, ivec2(1,0)).x;
+  float r01 = texelFetchOffset(tex_r, fpos, 0, ivec2(0,1)).x;
+  float r11 = texelFetchOffset(tex_r, fpos, 0, ivec2(1,1)).x;
+  
+  glFragColor = (r00 + r10 + r01 + r11) * 0.25;
+}
+
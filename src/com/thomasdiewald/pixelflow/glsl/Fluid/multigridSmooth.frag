@@ -0,0 +1,65 @@
+/**
+ * 
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ * 
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+#version 150
+
+precision mediump float;
+precision mediump int;
+
+out float glFragColor;
+
+uniform sampler2D tex_x;
+uniform sampler2D tex_b;
+uniform sampler2D tex_obstacle;
+uniform sampler2D tex_weight;
+
+uniform vec4  boundary; // top, bottom, right, left
+uniform float alpha;
+uniform float omega;
+uniform int   parity; // -1 ... all cells, 0/1 ... red/black cells
+
+void main(){
+
+  ivec2 pos = ivec2(gl_FragCoord.xy);
+  ivec2 wh  = textureSize(tex_x, 0);
+  
+  float oC = texelFetch(tex_obstacle, pos, 0).x;
+  if (oC == 1.0) { 
+    glFragColor = 0.0; 
+    return;
+  }
+  
+  // red-black gauss-seidel, the other cells are copied
+  if(parity >= 0 && ((pos.x + pos.y) & 1) != parity){
+    glFragColor = texelFetch(tex_x, pos, 0).x;
+    return;
+  }
+  
+  // 1 for faces at the border of the level
+  vec4 bN = vec4(pos.y == wh.y-1, pos.y == 0, pos.x == wh.x-1, pos.x == 0);
+  
+  vec4 xN;
+  xN.x = texelFetch(tex_x, min(pos + ivec2(0,1), wh-1), 0).x;
+  xN.y = texelFetch(tex_x, max(pos - ivec2(0,1),    0), 0).x;
+  xN.z = texelFetch(tex_x, min(pos + ivec2(1,0), wh-1), 0).x;
+  xN.w = texelFetch(tex_x, max(pos - ivec2(1,0),    0), 0).x;
+  float xC = texelFetch(tex_x, pos, 0).x;
+  float bC = texelFetch(tex_b, pos, 0).x;
+  
+  // weighted sum of the neighbors, and the diagonal. outside, x is 
+  // extrapolated from the border cell: x_outside = -boundary * xC
+  vec4  wN   = texelFetch(tex_weight, pos, 0);
+  float sum  = dot(wN * (1.0 - bN), xN);
+  float diag = dot(wN, vec4(1.0)) + dot(wN * bN, boundary);
+  
+  float xJ = (diag > 0.0) ? (sum + alpha * bC) / diag : 0.0;
+  glFragColor = mix(xC, xJ, omega);
+}
+
@@ -0,0 +1,55 @@
+/**
+ * 
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ * 
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+#version 150
+
+precision mediump float;
+precision mediump int;
+
+out vec4 glFragColor;
+
+uniform sampler2D tex_obstacle; // this level
+uniform sampler2D tex_weight;   // finer level
+
+uniform int level;
+
+void main(){
+
+  ivec2 pos = ivec2(gl_FragCoord.xy);
+  
+  // face weights: top, bottom, right, left
+  if(level == 0){
+    ivec2 wh = textureSize(tex_obstacle, 0);
+    float oC = texelFetch(tex_obstacle, pos, 0).x;
+    if(oC == 1.0){
+      glFragColor = vec4(0);
+      return;
+    }
+    // open faces between fluid cells, and at the border of the grid
+    vec4 oN;
+    oN.x = (pos.y < wh.y-1) ? texelFetchOffset(tex_obstacle, pos, 0, + ivec2(0,1)).x : 0.0;
+    oN.y = (pos.y > 0     ) ? texelFetchOffset(tex_obstacle, pos, 0, - ivec2(0,1)).x : 0.0;
+    oN.z = (pos.x < wh.x-1) ? texelFetchOffset(tex_obstacle, pos, 0, + ivec2(1,0)).x : 0.0;
+    oN.w = (pos.x > 0     ) ? texelFetchOffset(tex_obstacle, pos, 0, - ivec2(1,0)).x : 0.0;
+    glFragColor = 1.0 - oN;
+  } else {
+    // average of the two faces of the finer level
+    ivec2 fpos = pos * 2;
+    vec4 w00 = texelFetchOffset(tex_weight, fpos, 0, ivec2(0,0));
+    vec4 w10 = texelFetchOffset(tex_weight, fpos, 0, ivec2(1,0));
+    vec4 w01 = texelFetchOffset(tex_weight, fpos, 0, ivec2(0,1));
+    vec4 w11 = texelFetchOffset(tex_weight, fpos, 0, ivec2(1,1));
+    glFragColor.x = (w01.x + w11.x) * 0.5;
+    glFragColor.y = (w00.y + w10.y) * 0.5;
+    glFragColor.z = (w10.z + w11.z) * 0.5;
+    glFragColor.w = (w00.w + w01.w) * 0.5;
+  }
+}
+
@@ -0,0 +1,34 @@
+/**
+ * 
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ * 
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+#version 150
+
+precision mediump float;
+precision mediump int;
+
+in vec2 splat_velocity;
+
+out vec2 glFragColor;
+
+uniform sampler2D tex_obstacleC;
+uniform vec2      wh_inv;
+
+void main(){
+
+  float oC = texture(tex_obstacleC, gl_FragCoord.xy * wh_inv).x;
+  
+  float dist = length(gl_PointCoord * 2.0 - 1.0);
+  if(dist >= 1.0 || oC == 1.0){
+    discard;
+  }
+  
+  // linear falloff, added to the velocity (blending)
+  glFragColor = splat_velocity * (1.0 - dist);
+}
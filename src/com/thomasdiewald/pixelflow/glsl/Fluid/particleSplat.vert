@@ -0,0 +1,30 @@
+/**
+ * 
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ * 
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+#version 150
+
+precision mediump float;
+precision mediump int;
+
+out vec2 splat_velocity;
+
+uniform sampler2D tex_splat; // x, y (viewport), velocity
+uniform vec2  wh_viewport_inv;
+uniform float point_size;   // diameter, fluid cells
+
+void main(){
+  int w = textureSize(tex_splat, 0).x;
+  vec4 data = texelFetch(tex_splat, ivec2(gl_VertexID % w, gl_VertexID / w), 0);
+  
+  splat_velocity = data.zw;
+  
+  gl_Position  = vec4(data.xy * wh_viewport_inv * 2.0 - 1.0, 0, 1); // ndc: [-1, +1]
+  gl_PointSize = point_size;
+}
@@ -0,0 +1,40 @@
+/**
+ * 
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ * 
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+#version 150
+
+precision mediump float;
+precision mediump int;
+
+out vec4 glFragColor;
+
+uniform sampler2D tex_src; // finer level
+
+void main(){
+
+  ivec2 pos = ivec2(gl_FragCoord.xy);
+  ivec2 wh  = textureSize(tex_src, 0);
+  
+  // sum of the children, the last row/column also covers the odd 
+  // row/column of the finer level
+  ivec2 lo = pos * 2;
+  ivec2 hi = lo + 2;
+  if(hi.x + 2 > wh.x) hi.x = wh.x;
+  if(hi.y + 2 > wh.y) hi.y = wh.y;
+  
+  vec4 sum = vec4(0.0);
+  for(int y = lo.y; y < hi.y; y++){
+    for(int x = lo.x; x < hi.x; x++){
+      sum += texelFetch(tex_src, ivec2(x, y), 0);
+    }
+  }
+  glFragColor = sum;
+}
+
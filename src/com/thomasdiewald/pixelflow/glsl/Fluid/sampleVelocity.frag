@@ -0,0 +1,29 @@
+/**
+ * 
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ * 
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+#version 150 
+
+precision mediump float;
+precision mediump int;
+
+out vec2 glFragColor;
+
+uniform sampler2D tex_velocity;
+uniform sampler2D tex_position; // sample positions, viewport coordinates
+
+uniform vec2 wh_viewport_inv;
+
+void main(){
+  vec2 pos = texelFetch(tex_position, ivec2(gl_FragCoord.xy), 0).xy;
+  
+  // bilinear, outside the grid is 0
+  glFragColor = texture(tex_velocity, pos * wh_viewport_inv).xy;
+}
+
@@ -0,0 +1,46 @@
+/**
+ * 
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ * 
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+#version 150 
+
+precision mediump float;
+precision mediump int;
+
+out float glFragColor;
+
+uniform sampler2D tex_velocity;
+uniform sampler2D tex_density;
+uniform sampler2D tex_temperature;
+
+uniform int   tile_size;
+uniform float temperature_ambient;
+
+void main(){
+
+  ivec2 wh = textureSize(tex_velocity, 0);
+  ivec2 lo = ivec2(gl_FragCoord.xy) * tile_size;
+  ivec2 hi = min(lo + tile_size, wh);
+  
+  // max of |velocity|, |density| and |temperature - ambient| of the tile
+  float activity = 0.0;
+  for(int y = lo.y; y < hi.y; y++){
+    for(int x = lo.x; x < hi.x; x++){
+      ivec2 pos = ivec2(x, y);
+      vec2  v = texelFetch(tex_velocity   , pos, 0).xy;
+      vec4  d = texelFetch(tex_density    , pos, 0);
+      float t = texelFetch(tex_temperature, pos, 0).x - temperature_ambient;
+      activity = max(activity, max(abs(v.x), abs(v.y)));
+      activity = max(activity, max(max(abs(d.x), abs(d.y)), max(abs(d.z), abs(d.w))));
+      activity = max(activity, abs(t));
+    }
+  }
+  glFragColor = activity;
+}
+
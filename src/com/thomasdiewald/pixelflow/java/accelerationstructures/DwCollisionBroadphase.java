@@ -0,0 +1,41 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+
+package com.thomasdiewald.pixelflow.java.accelerationstructures;
+
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+ * Common interface of the collision detection structures,
+ * e.g. DwCollisionGrid, DwCollisionSortedGrid, DwCollisionCube.
+ *
+ * A pair of objects (a, b) is only guaranteed to be reported if
+ * dist(a, b) < a.radCollision() + b.radCollision(). Some structures report
+ * pairs further apart too (DwCollisionGrid, DwCollisionCube), others reject
+ * them before calling update() (DwCollisionSortedGrid,
+ * DwCollisionMultiLevelGrid), so the objects must not rely on either.
+ *
+ * @author Thomas Diewald
+ */
+public interface DwCollisionBroadphase {
+
+  // builds the structure and calls update()/updateUnique() for all object pairs
+  // that may collide.
+  public void updateCollisions(DwCollisionObject[] particles, int num_particles);
+
+  // same as above, but collisions are only solved for the first num_queries
+  // objects of "queries", a subset of particles.
+  public void updateCollisions(DwCollisionObject[] particles, int num_particles, DwCollisionObject[] queries, int num_queries);
+
+  // multi-threaded collision solve, pool can be null
+  public void setParallel(boolean parallel, ForkJoinPool pool);
+  public boolean isParallel();
+}
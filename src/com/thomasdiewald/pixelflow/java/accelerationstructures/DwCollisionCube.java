@@ -10,8 +10,20 @@
 
 package com.thomasdiewald.pixelflow.java.accelerationstructures;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
-public class DwCollisionCube{
+/**
+ * 3D version of the DwCollisionGrid.
+ * 
+ * Particles are binned into a uniform grid of cubic cells, so each particle is 
+ * only tested against the particles of the cells it overlaps in x, y and z.
+ * All buffers are kept and only grow when necessary.
+ * 
+ * @author Thomas Diewald
+ *
+ */
+public class DwCollisionCube implements DwCollisionBroadphase{
   
   private float CELL_SIZE = 10f;
   private int   GRID_X; 
@@ -21,15 +33,29 @@ public class DwCollisionCube{
   private int[]             HEAD = new int[0];
   private int[]             NEXT = new int[0];
   private DwCollisionObject[] DATA = new DwCollisionObject[0];
+  
+  // per list-entry flags, used for the parallel collision solve, see DwCollisionGrid
+  private static final byte FIRST_X = 1;
+  private static final byte FIRST_Y = 2;
+  private static final byte FIRST_Z = 4;
+  private static final byte FIRST_XYZ = FIRST_X | FIRST_Y | FIRST_Z;
+  private byte[]            FLAG = new byte[0];
+  
+  // parallel collision solve
+  private boolean      parallel = false;
+  private ForkJoinPool pool;
+  private int          chunk_size = 2048;
 
   public DwCollisionCube(){
   }
   
   private void resize(int gx, int gy, int gz, int PPLL_size){
     
+    int cells = gx * gy * gz;
+    
     // HEAD pointers
-    if( (gx * gy * gz) > HEAD.length){
-      HEAD = new int[gx * gy * gz];
+    if(cells > HEAD.length){
+      HEAD = new int[cells];
 //      System.out.println("CollisionGridAccelerator.resize -> HEAD: "+gx+", "+gy+", "+gz);
     }
 
@@ -38,16 +64,17 @@ public class DwCollisionCube{
       int size_new = (int)(PPLL_size * 1.2f);
       NEXT = new int            [size_new];
       DATA = new DwCollisionObject[size_new];
+      FLAG = new byte             [size_new];
 //      System.out.println("CollisionGridAccelerator.resize -> NEXT/DATA: "+size_new+", "+PPLL_size);
     }
     
-    // clear NEXT pointers
-    for(int i = 0; i < HEAD.length; i++) HEAD[i] = 0;
+    // clear HEAD pointers, only the used part
+    for(int i = 0; i < cells; i++) HEAD[i] = 0;
 //    for(int i = 0; i < NEXT.length; i++) NEXT[i] = 0;
 //    for(int i = 0; i < DATA.length; i++) DATA[i] = null; 
 
-    // reset HEAD pointer
-    HEAD_PTR = 0;
+    // reset HEAD pointer, 0 is reserved for the end of a list
+    HEAD_PTR = 1;
     
     // set grid size
     GRID_X = gx;
@@ -70,24 +97,28 @@ public class DwCollisionCube{
       py -= bounds[1];
       pz -= bounds[2];
       
-      int xmin = (int)((px-pr)/CELL_SIZE); // xmin = Math.max(xmin, 0);
-      int xmax = (int)((px+pr)/CELL_SIZE); // xmax = Math.min(xmax, GRID_X-1);
-      int ymin = (int)((py-pr)/CELL_SIZE); // ymin = Math.max(ymin, 0);
-      int ymax = (int)((py+pr)/CELL_SIZE); // ymax = Math.min(ymax, GRID_Y-1);
-      int zmin = (int)((pz-pr)/CELL_SIZE); // zmin = Math.max(zmin, 0);
-      int zmax = (int)((pz+pr)/CELL_SIZE); // zmax = Math.min(zmax, GRID_Z-1);
+      int xmin = (int)((px-pr)/CELL_SIZE);  xmin = Math.max(xmin, 0);
+      int xmax = (int)((px+pr)/CELL_SIZE);  xmax = Math.min(xmax, GRID_X-1);
+      int ymin = (int)((py-pr)/CELL_SIZE);  ymin = Math.max(ymin, 0);
+      int ymax = (int)((py+pr)/CELL_SIZE);  ymax = Math.min(ymax, GRID_Y-1);
+      int zmin = (int)((pz-pr)/CELL_SIZE);  zmin = Math.max(zmin, 0);
+      int zmax = (int)((pz+pr)/CELL_SIZE);  zmax = Math.min(zmax, GRID_Z-1);
+      
+      int count = (xmax - xmin + 1) * (ymax - ymin + 1) * (zmax - zmin + 1);
+      if(HEAD_PTR + count > NEXT.length){
+        HEAD_PTR += count; // keep counting for reallocation size
+        continue;
+      }
+      
       for(int z = zmin; z <= zmax ; z++){
         for(int y = ymin; y <= ymax ; y++){
           for(int x = xmin; x <= xmax ; x++){
-            int gid = z * GRID_X * GRID_Y + y * GRID_X + x;
+            int gid = (z * GRID_Y + y) * GRID_X + x;
             int new_head = HEAD_PTR++;
             int old_head = HEAD[gid]; HEAD[gid] = new_head; // xchange head pointer
-            if(new_head < NEXT.length){
-              NEXT[new_head] = old_head;
-              DATA[new_head] = particle;
-            } else {
-              // keep counting for reallocation size
-            }
+            NEXT[new_head] = old_head;
+            DATA[new_head] = particle;
+            FLAG[new_head] = (byte)((x == xmin ? FIRST_X : 0) | (y == ymin ? FIRST_Y : 0) | (z == zmin ? FIRST_Z : 0));
           }
         }
       }
@@ -97,7 +128,60 @@ public class DwCollisionCube{
   
   
   
-  private void solveCollisions(DwCollisionObject[] particles, int num_particles){
+  /**
+   * Thread-safe version of the collision solve, without using the objects 
+   * collision pointer. A pair is only tested in the first common cell 
+   * (min x, min y, min z) of both cell-ranges, which is also the first cell
+   * the sequential version hits.
+   * 
+   * @param particle
+   */
+  public void solveCollisionUnique(DwCollisionObject particle){
+    float pr = particle.radCollision();
+    float px = particle.x();
+    float py = particle.y();
+    float pz = particle.z();
+    
+    px -= bounds[0];
+    py -= bounds[1];
+    pz -= bounds[2];
+    
+    int xmin = (int)((px-pr)/CELL_SIZE);  xmin = Math.max(xmin, 0);
+    int xmax = (int)((px+pr)/CELL_SIZE);  xmax = Math.min(xmax, GRID_X-1);
+    int ymin = (int)((py-pr)/CELL_SIZE);  ymin = Math.max(ymin, 0);
+    int ymax = (int)((py+pr)/CELL_SIZE);  ymax = Math.min(ymax, GRID_Y-1);
+    int zmin = (int)((pz-pr)/CELL_SIZE);  zmin = Math.max(zmin, 0);
+    int zmax = (int)((pz+pr)/CELL_SIZE);  zmax = Math.min(zmax, GRID_Z-1);
+    
+    for(int z = zmin; z <= zmax ; z++){
+      int first_z = (z == zmin) ? FIRST_Z : 0;
+      for(int y = ymin; y <= ymax ; y++){
+        int first_yz = first_z | ((y == ymin) ? FIRST_Y : 0);
+        for(int x = xmin; x <= xmax ; x++){
+          int first_xyz = first_yz | ((x == xmin) ? FIRST_X : 0);
+          int gid = (z * GRID_Y + y) * GRID_X + x;
+          int head = HEAD[gid];
+          while(head > 0){
+            if(((first_xyz | FLAG[head]) & FIRST_XYZ) == FIRST_XYZ){
+              particle.updateUnique(DATA[head]);
+            }
+            head = NEXT[head];
+          }
+        }
+      }
+    }
+  }
+  
+  
+  private void solveCollisions(DwCollisionObject[] particles, int num_particles, DwCollisionObject[] queries, int num_queries){
+    
+    if(parallel && num_queries > chunk_size){
+      if(pool == null){
+        pool = new ForkJoinPool();
+      }
+      pool.invoke(new SolveCollisionsTask(queries, 0, num_queries));
+      return;
+    }
     
     // reset states
     for(int i = 0; i < num_particles; i++){
@@ -105,8 +189,8 @@ public class DwCollisionCube{
     }
     
     // solve collisions
-    for(int i = 0; i < num_particles; i++){
-      DwCollisionObject particle = particles[i];
+    for(int i = 0; i < num_queries; i++){
+      DwCollisionObject particle = queries[i];
 
       float pr = particle.radCollision();
       float px = particle.x();
@@ -117,16 +201,16 @@ public class DwCollisionCube{
       py -= bounds[1];
       pz -= bounds[2];
       
-      int xmin = (int)((px-pr)/CELL_SIZE); // xmin = Math.max(xmin, 0);
-      int xmax = (int)((px+pr)/CELL_SIZE); // xmax = Math.min(xmax, GRID_X-1);
-      int ymin = (int)((py-pr)/CELL_SIZE); // ymin = Math.max(ymin, 0);
-      int ymax = (int)((py+pr)/CELL_SIZE); // ymax = Math.min(ymax, GRID_Y-1);
-      int zmin = (int)((pz-pr)/CELL_SIZE); // zmin = Math.max(zmin, 0);
-      int zmax = (int)((pz+pr)/CELL_SIZE); // zmax = Math.min(zmax, GRID_Z-1);
+      int xmin = (int)((px-pr)/CELL_SIZE);  xmin = Math.max(xmin, 0);
+      int xmax = (int)((px+pr)/CELL_SIZE);  xmax = Math.min(xmax, GRID_X-1);
+      int ymin = (int)((py-pr)/CELL_SIZE);  ymin = Math.max(ymin, 0);
+      int ymax = (int)((py+pr)/CELL_SIZE);  ymax = Math.min(ymax, GRID_Y-1);
+      int zmin = (int)((pz-pr)/CELL_SIZE);  zmin = Math.max(zmin, 0);
+      int zmax = (int)((pz+pr)/CELL_SIZE);  zmax = Math.min(zmax, GRID_Z-1);
       for(int z = zmin; z <= zmax ; z++){
         for(int y = ymin; y <= ymax ; y++){
           for(int x = xmin; x <= xmax ; x++){
-            int gid = z * GRID_X * GRID_Y + y * GRID_X + x;
+            int gid = (z * GRID_Y + y) * GRID_X + x;
             int head = HEAD[gid];
             while(head > 0){
               DwCollisionObject othr = DATA[head];
@@ -142,6 +226,51 @@ public class DwCollisionCube{
   }
   
   
+  private class SolveCollisionsTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    
+    final DwCollisionObject[] particles;
+    final int lo, hi;
+    
+    SolveCollisionsTask(DwCollisionObject[] particles, int lo, int hi){
+      this.particles = particles;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected void compute() {
+      if(hi - lo <= chunk_size){
+        for(int i = lo; i < hi; i++){
+          solveCollisionUnique(particles[i]);
+        }
+      } else {
+        int mid = (lo + hi) >>> 1;
+        invokeAll(new SolveCollisionsTask(particles, lo, mid), 
+                  new SolveCollisionsTask(particles, mid, hi));
+      }
+    }
+  }
+  
+  
+  public void setParallel(boolean parallel){
+    this.parallel = parallel;
+  }
+  
+  public void setParallel(boolean parallel, ForkJoinPool pool){
+    this.parallel = parallel;
+    this.pool = pool;
+  }
+  
+  public boolean isParallel(){
+    return parallel;
+  }
+  
+  public void setParallelChunkSize(int chunk_size){
+    this.chunk_size = Math.max(1, chunk_size);
+  }
+  
+  
   public float[] bounds = new float[6];
   
   public void computeBounds(DwCollisionObject[] particles, int num_particles){ 
@@ -180,7 +309,8 @@ public class DwCollisionCube{
     bounds[4] = y_max;
     bounds[5] = z_max;
 //    CELL_SIZE *= 2;
-    CELL_SIZE = (r_sum * 2) / particles.length;
+    CELL_SIZE = (r_sum * 2) / Math.max(num_particles, 1);
+    if(!(CELL_SIZE > 0)) CELL_SIZE = 1;
   }
   
 
@@ -191,13 +321,32 @@ public class DwCollisionCube{
   }
   
   public void updateCollisions(DwCollisionObject[] particles, int num_particles){
+    updateCollisions(particles, num_particles, particles, num_particles);
+  }
+  
+  /**
+   * Same as updateCollisions(particles, num_particles), but collisions are only
+   * solved for the first num_queries objects of "queries", e.g. to skip
+   * resting objects. All particles are in the grid, so the queries still 
+   * collide with the others.
+   * 
+   * @param particles   all objects
+   * @param num_particles
+   * @param queries     objects to solve the collisions for, a subset of particles
+   * @param num_queries
+   */
+  public void updateCollisions(DwCollisionObject[] particles, int num_particles, DwCollisionObject[] queries, int num_queries){
+    
+    if(num_particles <= 0){
+      return;
+    }
 
     // 0) prepare dimensions, size,
     computeBounds(particles, num_particles);
-    int gx = (int) Math.ceil((bounds[3] - bounds[0] +1)/CELL_SIZE);
-    int gy = (int) Math.ceil((bounds[4] - bounds[1] +1)/CELL_SIZE);
-    int gz = (int) Math.ceil((bounds[5] - bounds[2] +1)/CELL_SIZE);
-    int ppll_len = particles.length * 4 + 1; // just a guess
+    int gx = (int) Math.ceil((bounds[3] - bounds[0])/CELL_SIZE)+1;
+    int gy = (int) Math.ceil((bounds[4] - bounds[1])/CELL_SIZE)+1;
+    int gz = (int) Math.ceil((bounds[5] - bounds[2])/CELL_SIZE)+1;
+    int ppll_len = num_particles * 8 + 1; // just a guess
     
     // 1) resize if necessary
     resize(gx, gy, gz, ppll_len);
@@ -212,7 +361,7 @@ public class DwCollisionCube{
     }
     
     // 3) solve collisions for each particle
-    solveCollisions(particles, num_particles);
+    solveCollisions(particles, num_particles, queries, num_queries);
   }
 
   
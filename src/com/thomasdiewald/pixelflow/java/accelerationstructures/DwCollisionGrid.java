@@ -11,8 +11,10 @@
 package com.thomasdiewald.pixelflow.java.accelerationstructures;
 
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
-public class DwCollisionGrid{
+public class DwCollisionGrid implements DwCollisionBroadphase{
   
   private float CELL_SIZE = 10f;
   private int   GRID_X; 
@@ -22,6 +24,29 @@ public class DwCollisionGrid{
   private int[]             HEAD = new int[0];
   private int[]             NEXT = new int[0];
   private DwCollisionObject[] DATA = new DwCollisionObject[0];
+  
+  // per list-entry flags, used for the parallel collision solve
+  // FIRST_X ... entry is in the first column of the objects cell-range
+  // FIRST_Y ... entry is in the first row    of the objects cell-range
+  private static final byte FIRST_X = 1;
+  private static final byte FIRST_Y = 2;
+  private byte[]            FLAG = new byte[0];
+  
+  // parallel collision solve
+  private boolean      parallel = false;
+  private ForkJoinPool pool;
+  private int          chunk_size = 2048;
+  
+  // incremental update, the grid of the previous update is kept and only 
+  // objects whose cell-range changed get relinked.
+  // Each object owns a fixed block of list-entries [BASE[i], BASE[i+1]), large 
+  // enough for any cell-range of its radius. The lists are doubly linked.
+  private boolean incremental = false;
+  private int     inc_num_particles = -1;
+  private int[]   PREV  = new int[0]; // previous list-entry, 0 ... list head
+  private int[]   CELL  = new int[0]; // cell of a list-entry
+  private int[]   BASE  = new int[0]; // first list-entry of each object
+  private int[]   RANGE = new int[0]; // cell-range of each object: xmin, ymin, xmax, ymax
 
   public DwCollisionGrid(){
   }
@@ -32,6 +57,7 @@ public class DwCollisionGrid{
   
   
   public void init(float[] bounds_, float max_radius){
+    inc_num_particles = -1;
     CELL_SIZE = max_radius * 2;
     bounds = bounds_;
     int gx = (int) Math.ceil((bounds[3] - bounds[0])/CELL_SIZE)+1;
@@ -55,6 +81,7 @@ public class DwCollisionGrid{
       int size_new = (int)(PPLL_size * 1.2f);
       NEXT = new int              [size_new];
       DATA = new DwCollisionObject[size_new];
+      FLAG = new byte             [size_new];
 //      System.out.println("CollisionGridAccelerator.resize -> NEXT/DATA: "+size_new+", "+PPLL_size);
     }
     
@@ -63,8 +90,8 @@ public class DwCollisionGrid{
 //    for(int i = 0; i < NEXT.length; i++) NEXT[i] = 0;
 //    for(int i = 0; i < DATA.length; i++) DATA[i] = null; 
 
-    // reset HEAD pointer
-    HEAD_PTR = 0;
+    // reset HEAD pointer, 0 is reserved for the end of a list
+    HEAD_PTR = 1;
     
     // set grid size
     GRID_X = gx;
@@ -77,28 +104,27 @@ public class DwCollisionGrid{
     int TMP_HEAD_PTR = HEAD_PTR;
     insert(object);
     
-    // resize if necessary
+    // grow if necessary, and insert again
     if(HEAD_PTR > NEXT.length){
-      // push
-      int[]               TMP_HEAD = Arrays.copyOf(HEAD, HEAD.length);
-      int[]               TMP_NEXT = Arrays.copyOf(NEXT, NEXT.length);
-      DwCollisionObject[] TMP_DATA = Arrays.copyOf(DATA, DATA.length);
-      
-      // realloc
-      resize(GRID_X, GRID_Y, HEAD_PTR);
-      
-      // pop
+      grow(HEAD_PTR);
       HEAD_PTR = TMP_HEAD_PTR;
-      System.arraycopy(TMP_HEAD, 0, HEAD, 0, TMP_HEAD.length);
-      System.arraycopy(TMP_NEXT, 0, NEXT, 0, TMP_NEXT.length);
-      System.arraycopy(TMP_DATA, 0, DATA, 0, TMP_DATA.length);
-      
-      // insert again
       insert(object);
     }
   }
   
   
+  /**
+   * Doubles the capacity of the list-entries. The existing lists stay valid,
+   * HEAD is not touched, so there is no need to clear and rebuild the grid.
+   */
+  private void grow(int PPLL_size){
+    int size_new = Math.max(PPLL_size, NEXT.length * 2);
+    NEXT = Arrays.copyOf(NEXT, size_new);
+    DATA = Arrays.copyOf(DATA, size_new);
+    FLAG = Arrays.copyOf(FLAG, size_new);
+  }
+  
+  
 //  public void testCollision
   
   
@@ -128,6 +154,7 @@ public class DwCollisionGrid{
         int old_head = HEAD[gid]; HEAD[gid] = new_head; // xchange head pointer
         NEXT[new_head] = old_head;
         DATA[new_head] = object;
+        FLAG[new_head] = (byte)((x == xmin ? FIRST_X : 0) | (y == ymin ? FIRST_Y : 0));
       }
     }
   }
@@ -170,7 +197,58 @@ public class DwCollisionGrid{
   
   
   
-  private void solveCollisions(DwCollisionObject[] particles, int num_particles){
+  /**
+   * Same as solveCollision(), but without using the objects collision pointer
+   * for skipping already tested objects, and therefore safe to be called from
+   * multiple threads at the same time.
+   * 
+   * Two overlapping cell-ranges always share a rectangle of cells. The pair is 
+   * only tested in the first cell (min x, min y) of that rectangle, which 
+   * is also the cell in which the sequential version tests it. So both produce
+   * the same results in the same order.
+   * 
+   * @param object
+   */
+  public void solveCollisionUnique(DwCollisionObject object){
+    float pr = object.radCollision();
+    float px = object.x();
+    float py = object.y();
+    
+    px -= bounds[0];
+    py -= bounds[1];
+    
+    int xmin = (int)((px-pr)/CELL_SIZE);  xmin = Math.max(xmin, 0);
+    int xmax = (int)((px+pr)/CELL_SIZE);  xmax = Math.min(xmax, GRID_X-1);
+    int ymin = (int)((py-pr)/CELL_SIZE);  ymin = Math.max(ymin, 0);
+    int ymax = (int)((py+pr)/CELL_SIZE);  ymax = Math.min(ymax, GRID_Y-1);
+
+    for(int y = ymin; y <= ymax ; y++){
+      int first_y = (y == ymin) ? FIRST_Y : 0;
+      for(int x = xmin; x <= xmax ; x++){
+        int first_xy = first_y | ((x == xmin) ? FIRST_X : 0);
+        int gid = y * GRID_X + x;
+        int head = HEAD[gid];
+        while(head > 0){
+          // first common cell: (x == xmin || x == othr_xmin) && (y == ymin || y == othr_ymin)
+          if(((first_xy | FLAG[head]) & (FIRST_X | FIRST_Y)) == (FIRST_X | FIRST_Y)){
+            object.updateUnique(DATA[head]);
+          }
+          head = NEXT[head];
+        }
+      }
+    }
+  }
+  
+  
+  private void solveCollisions(DwCollisionObject[] particles, int num_particles, DwCollisionObject[] queries, int num_queries){
+    
+    if(parallel && num_queries > chunk_size){
+      if(pool == null){
+        pool = new ForkJoinPool();
+      }
+      pool.invoke(new SolveCollisionsTask(queries, 0, num_queries));
+      return;
+    }
     
     // reset states
     for(int i = 0; i < num_particles; i++){
@@ -178,12 +256,98 @@ public class DwCollisionGrid{
     }
     
     // solve collisions
-    for(int i = 0; i < num_particles; i++){
-      solveCollision(particles[i]);  
+    for(int i = 0; i < num_queries; i++){
+      solveCollision(queries[i]);  
+    }
+  }
+  
+  
+  /**
+   * Solves the collisions of the particles in [lo, hi). Ranges larger than 
+   * chunk_size are split in two halves.
+   * Each particle only writes its own collision state, so all tasks can run 
+   * concurrently.
+   */
+  private class SolveCollisionsTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    
+    final DwCollisionObject[] particles;
+    final int lo, hi;
+    
+    SolveCollisionsTask(DwCollisionObject[] particles, int lo, int hi){
+      this.particles = particles;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected void compute() {
+      if(hi - lo <= chunk_size){
+        for(int i = lo; i < hi; i++){
+          solveCollisionUnique(particles[i]);
+        }
+      } else {
+        int mid = (lo + hi) >>> 1;
+        invokeAll(new SolveCollisionsTask(particles, lo, mid), 
+                  new SolveCollisionsTask(particles, mid, hi));
+      }
     }
   }
   
   
+  /**
+   * Enables/Disables the multi-threaded collision solve.
+   * The results are the same as for the single-threaded version.
+   * 
+   * @param parallel
+   */
+  public void setParallel(boolean parallel){
+    this.parallel = parallel;
+  }
+  
+  /**
+   * @param pool the pool used for the parallel collision solve, if null a new one is created on demand.
+   */
+  public void setParallel(boolean parallel, ForkJoinPool pool){
+    this.parallel = parallel;
+    this.pool = pool;
+  }
+  
+  public boolean isParallel(){
+    return parallel;
+  }
+  
+  /**
+   * @param chunk_size number of particles a single task solves at least.
+   */
+  public void setParallelChunkSize(int chunk_size){
+    this.chunk_size = Math.max(1, chunk_size);
+  }
+  
+  
+  /**
+   * Enables/Disables the incremental update of the grid.
+   * 
+   * Instead of rebuilding the grid on each call of updateCollisions(), only
+   * objects whose cell-range changed get relinked. The grid is fully rebuilt
+   * when the objects, their radii or their number changed, or when an object 
+   * leaves the grid bounds. The bounds get a margin for this reason.
+   * 
+   * The same pairs are tested, but the lists are ordered differently, so the 
+   * results may differ in the last bits from the non-incremental version.
+   * 
+   * @param incremental
+   */
+  public void setIncremental(boolean incremental){
+    this.incremental = incremental;
+    this.inc_num_particles = -1;
+  }
+  
+  public boolean isIncremental(){
+    return incremental;
+  }
+  
+  
   public float[] bounds = new float[6];
   
   public void computeBounds(DwCollisionObject[] particles, int num_particles){ 
@@ -219,7 +383,13 @@ public class DwCollisionGrid{
     bounds[3] = x_max;
     bounds[4] = y_max;
     bounds[5] = z_max;
-    CELL_SIZE = (r_sum * 2) /particles.length;
+    CELL_SIZE = cellSize(r_sum, num_particles);
+  }
+  
+  // average diameter of the first num_particles objects, 1 if there is none
+  static float cellSize(float r_sum, int num_particles){
+    float cell_size = (r_sum * 2) / Math.max(num_particles, 1);
+    return (cell_size > 0) ? cell_size : 1;
   }
   
 
@@ -230,12 +400,41 @@ public class DwCollisionGrid{
   }
   
   public void updateCollisions(DwCollisionObject[] particles, int num_particles){
+    updateCollisions(particles, num_particles, particles, num_particles);
+  }
+  
+  /**
+   * Same as updateCollisions(particles, num_particles), but collisions are only
+   * solved for the first num_queries objects of "queries", e.g. to skip
+   * resting objects. All particles are in the grid, so the queries still 
+   * collide with the others.
+   * 
+   * @param particles   all objects
+   * @param num_particles
+   * @param queries     objects to solve the collisions for, a subset of particles
+   * @param num_queries
+   */
+  public void updateCollisions(DwCollisionObject[] particles, int num_particles, DwCollisionObject[] queries, int num_queries){
+    
+    if(num_particles <= 0){
+      inc_num_particles = -1;
+      return;
+    }
+    
+    if(incremental){
+      if(!relink(particles, num_particles)){
+        rebuild(particles, num_particles);
+      }
+      solveCollisions(particles, num_particles, queries, num_queries);
+      return;
+    }
+    inc_num_particles = -1;
 
     // 0) prepare dimensions, size,
     computeBounds(particles, num_particles);
     int gx = (int) Math.ceil((bounds[3] - bounds[0])/CELL_SIZE)+1;
     int gy = (int) Math.ceil((bounds[4] - bounds[1])/CELL_SIZE)+1;
-    int ppll_len = particles.length * 4 + 1; // just a guess
+    int ppll_len = num_particles * 4 + 1; // just a guess
     
     // 1) resize if necessary
     resize(gx, gy, ppll_len);
@@ -250,7 +449,150 @@ public class DwCollisionGrid{
     }
     
     // 3) solve collisions for each particle
-    solveCollisions(particles, num_particles);
+    solveCollisions(particles, num_particles, queries, num_queries);
+  }
+  
+  
+  
+  /**
+   * incremental mode: full rebuild, with some margin around the bounds.
+   */
+  private void rebuild(DwCollisionObject[] particles, int num_particles){
+    
+    // 0) prepare dimensions, size, same cell-size as in the non-incremental version
+    computeBounds(particles, num_particles);
+    float mx = (bounds[3] - bounds[0]) * 0.125f + CELL_SIZE;
+    float my = (bounds[4] - bounds[1]) * 0.125f + CELL_SIZE;
+    bounds[0] -= mx; bounds[3] += mx;
+    bounds[1] -= my; bounds[4] += my;
+    int gx = (int) Math.ceil((bounds[3] - bounds[0])/CELL_SIZE)+1;
+    int gy = (int) Math.ceil((bounds[4] - bounds[1])/CELL_SIZE)+1;
+    
+    // 1) list-entries, each object gets as many as its cell-range can cover
+    if(BASE.length < num_particles + 1){
+      BASE  = new int[num_particles + 1];
+      RANGE = new int[num_particles * 4];
+    }
+    int ppll_len = 1;
+    for(int i = 0; i < num_particles; i++){
+      DwCollisionObject object = particles[i];
+      float pr = object.radCollision();
+      float px = object.x() - bounds[0];
+      float py = object.y() - bounds[1];
+      int k = i * 4;
+      int xmin = RANGE[k  ] = (int)((px-pr)/CELL_SIZE);
+      int ymin = RANGE[k+1] = (int)((py-pr)/CELL_SIZE);
+      int xmax = RANGE[k+2] = (int)((px+pr)/CELL_SIZE);
+      int ymax = RANGE[k+3] = (int)((py+pr)/CELL_SIZE);
+      int cells = (int) Math.ceil(2 * pr / CELL_SIZE) + 1;
+      BASE[i] = ppll_len;
+      ppll_len += Math.max(cells, xmax - xmin + 1) * Math.max(cells, ymax - ymin + 1);
+    }
+    BASE[num_particles] = ppll_len;
+    
+    resize(gx, gy, ppll_len);
+    if(PREV.length < NEXT.length){
+      PREV = new int[NEXT.length];
+      CELL = new int[NEXT.length];
+    }
+    
+    // 2) link objects
+    for(int i = 0; i < num_particles; i++){
+      int k = i * 4;
+      link(i, particles[i], RANGE[k], RANGE[k+1], RANGE[k+2], RANGE[k+3]);
+    }
+    inc_num_particles = num_particles;
+  }
+  
+  
+  /**
+   * incremental mode: relinks all objects whose cell-range changed.
+   * 
+   * @return false, if a full rebuild is required
+   */
+  private boolean relink(DwCollisionObject[] particles, int num_particles){
+    
+    if(num_particles != inc_num_particles){
+      return false;
+    }
+    
+    float r_sum = 0;
+    for(int i = 0; i < num_particles; i++){
+      DwCollisionObject object = particles[i];
+      float pr = object.radCollision();
+      float px = object.x() - bounds[0];
+      float py = object.y() - bounds[1];
+      r_sum += pr;
+      
+      // object changed
+      if(DATA[BASE[i]] != object){
+        return false;
+      }
+
+      // object left the grid
+      if(px - pr < 0 || py - pr < 0){
+        return false;
+      }
+      int xmin = (int)((px-pr)/CELL_SIZE);
+      int xmax = (int)((px+pr)/CELL_SIZE);
+      int ymin = (int)((py-pr)/CELL_SIZE);
+      int ymax = (int)((py+pr)/CELL_SIZE);
+      if(xmax >= GRID_X || ymax >= GRID_Y){
+        return false;
+      }
+      
+      int k = i * 4;
+      if(xmin == RANGE[k] && ymin == RANGE[k+1] && xmax == RANGE[k+2] && ymax == RANGE[k+3]){
+        continue;
+      }
+      
+      // radius changed, more cells than list-entries
+      if((xmax - xmin + 1) * (ymax - ymin + 1) > BASE[i+1] - BASE[i]){
+        return false;
+      }
+      
+      unlink(i);
+      link(i, object, xmin, ymin, xmax, ymax);
+    }
+    
+    // cell-size changed, see computeBounds()
+    return cellSize(r_sum, num_particles) == CELL_SIZE;
+  }
+  
+  
+  private void link(int i, DwCollisionObject object, int xmin, int ymin, int xmax, int ymax){
+    int entry = BASE[i];
+    for(int y = ymin; y <= ymax ; y++){
+      for(int x = xmin; x <= xmax ; x++){
+        int gid = y * GRID_X + x;
+        int old_head = HEAD[gid];
+        if(old_head > 0) PREV[old_head] = entry;
+        HEAD[gid] = entry;
+        NEXT[entry] = old_head;
+        PREV[entry] = 0;
+        CELL[entry] = gid;
+        DATA[entry] = object;
+        FLAG[entry] = (byte)((x == xmin ? FIRST_X : 0) | (y == ymin ? FIRST_Y : 0));
+        entry++;
+      }
+    }
+    int k = i * 4;
+    RANGE[k  ] = xmin;
+    RANGE[k+1] = ymin;
+    RANGE[k+2] = xmax;
+    RANGE[k+3] = ymax;
+  }
+  
+  
+  private void unlink(int i){
+    int k = i * 4;
+    int count = (RANGE[k+2] - RANGE[k] + 1) * (RANGE[k+3] - RANGE[k+1] + 1);
+    for(int entry = BASE[i], end = entry + count; entry < end; entry++){
+      int prev = PREV[entry];
+      int next = NEXT[entry];
+      if(prev > 0) NEXT[prev] = next; else HEAD[CELL[entry]] = next;
+      if(next > 0) PREV[next] = prev;
+    }
   }
 
   
@@ -0,0 +1,376 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+
+package com.thomasdiewald.pixelflow.java.accelerationstructures;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Hierarchical grid (2D, x/y), for objects with very different radii.
+ *
+ * The cell size doubles from level to level. Level 0 has the cell size of the
+ * DwCollisionGrid (twice the average radius), each object goes into the lowest
+ * level whose cells are at least as large as its diameter.
+ *
+ * Each object is stored only once, in the cell of its center, so the insertion
+ * cost doesn't depend on the radius distribution. A query visits all non-empty
+ * levels, its range is extended by the largest radius of the level.
+ *
+ * The cells of all levels are counting-sorted into one contiguous array, see
+ * DwCollisionSortedGrid. Each pair is found exactly once per object, the
+ * single-threaded and the multi-threaded solve produce the same results.
+ * As in DwCollisionSortedGrid, pairs whose distance is not smaller than the
+ * sum of their radCollision() are rejected without calling update().
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwCollisionMultiLevelGrid implements DwCollisionBroadphase{
+
+  static private final int MAX_LEVELS = 24;
+
+  // per level
+  private int     num_levels = 0;
+  private float[] LEVEL_CELL_SIZE = new float[MAX_LEVELS];
+  private float[] LEVEL_RAD_MAX   = new float[MAX_LEVELS];
+  private int[]   LEVEL_COUNT     = new int  [MAX_LEVELS];
+  private int[]   LEVEL_GRID_X    = new int  [MAX_LEVELS];
+  private int[]   LEVEL_GRID_Y    = new int  [MAX_LEVELS];
+  private int[]   LEVEL_OFFSET    = new int  [MAX_LEVELS + 1]; // first cell
+
+  // entries of cell "cid": [START[cid], START[cid+1]), one entry per object
+  private int[]               START = new int[1];
+  private int[]               FILL  = new int[0];
+  private int[]               CELL  = new int[0]; // cell of each object
+  private int                 ENTRIES;
+  private DwCollisionObject[] DATA = new DwCollisionObject[0];
+  private float[]             X    = new float[0];
+  private float[]             Y    = new float[0];
+  private float[]             R    = new float[0];
+
+  // solve in cell order
+  private boolean reorder = true;
+
+  // parallel collision solve
+  private boolean      parallel = false;
+  private ForkJoinPool pool;
+  private int          chunk_size = 2048;
+
+
+  public DwCollisionMultiLevelGrid(){
+  }
+
+
+  public void setReorder(boolean reorder){
+    this.reorder = reorder;
+  }
+
+  public boolean isReorder(){
+    return reorder;
+  }
+
+  public void setParallel(boolean parallel){
+    this.parallel = parallel;
+  }
+
+  /**
+   * @param pool the pool used for the parallel collision solve, if null a new one is created on demand.
+   */
+  public void setParallel(boolean parallel, ForkJoinPool pool){
+    this.parallel = parallel;
+    this.pool = pool;
+  }
+
+  public boolean isParallel(){
+    return parallel;
+  }
+
+  /**
+   * @param chunk_size number of objects a single task solves at least.
+   */
+  public void setParallelChunkSize(int chunk_size){
+    this.chunk_size = Math.max(1, chunk_size);
+  }
+
+  public int getNumLevels(){
+    return num_levels;
+  }
+
+  public int getLevelCount(int level){
+    return LEVEL_COUNT[level];
+  }
+
+
+
+  public float[] bounds = new float[6];
+
+  // object centers, the radius is handled by the queries
+  private void computeBounds(DwCollisionObject[] particles, int num_particles){
+    float x_min = +Float.MAX_VALUE;
+    float y_min = +Float.MAX_VALUE;
+    float x_max = -Float.MAX_VALUE;
+    float y_max = -Float.MAX_VALUE;
+    float r_sum = 0;
+    float r_max = 0;
+
+    for(int i = 0; i < num_particles; i++){
+      float x = particles[i].x();
+      float y = particles[i].y();
+      float r = particles[i].radCollision();
+      r_sum += r;
+
+      if(x < x_min) x_min = x;
+      if(x > x_max) x_max = x;
+      if(y < y_min) y_min = y;
+      if(y > y_max) y_max = y;
+      if(r > r_max) r_max = r;
+    }
+
+    bounds[0] = x_min;
+    bounds[1] = y_min;
+    bounds[3] = x_max;
+    bounds[4] = y_max;
+
+    // level 0, same cell size as DwCollisionGrid, but not much more cells 
+    // than objects, e.g. for a few small objects that are far apart
+    float cell_size = (r_sum * 2) / num_particles;
+    float extent    = Math.max(x_max - x_min, y_max - y_min);
+    long  cells_max = num_particles * 4L + 1024;
+    if(!(cell_size > 0) || (extent / cell_size) * (extent / cell_size) > cells_max){
+      cell_size = extent / (float) Math.sqrt(cells_max);
+    }
+    cell_size = Math.max(cell_size, Float.MIN_NORMAL);
+
+    // levels, until the largest object fits
+    num_levels = 0;
+    int cells = 0;
+    do {
+      int gx = (int) ((x_max - x_min) / cell_size) + 1;
+      int gy = (int) ((y_max - y_min) / cell_size) + 1;
+      LEVEL_CELL_SIZE[num_levels] = cell_size;
+      LEVEL_RAD_MAX  [num_levels] = 0;
+      LEVEL_COUNT    [num_levels] = 0;
+      LEVEL_GRID_X   [num_levels] = gx;
+      LEVEL_GRID_Y   [num_levels] = gy;
+      LEVEL_OFFSET   [num_levels] = cells;
+      cells += gx * gy;
+      cell_size *= 2;
+      num_levels++;
+    } while(r_max * 2 > LEVEL_CELL_SIZE[num_levels-1] && num_levels < MAX_LEVELS);
+    LEVEL_OFFSET[num_levels] = cells;
+  }
+
+
+  private int getLevel(float r){
+    int level = 0;
+    while(r * 2 > LEVEL_CELL_SIZE[level] && level < num_levels - 1){
+      level++;
+    }
+    return level;
+  }
+
+
+
+  public void updateCollisions(DwCollisionObject[] particles){
+    updateCollisions(particles, particles.length);
+  }
+
+  public void updateCollisions(DwCollisionObject[] particles, int num_particles){
+    updateCollisions(particles, num_particles, particles, num_particles);
+  }
+
+  public void updateCollisions(DwCollisionObject[] particles, int num_particles, DwCollisionObject[] queries, int num_queries){
+
+    if(num_particles <= 0){
+      return;
+    }
+
+    // 0) prepare levels
+    computeBounds(particles, num_particles);
+
+    // 1) resize if necessary
+    resize(LEVEL_OFFSET[num_levels], num_particles);
+
+    // 2) create sorted cell lists
+    create(particles, num_particles);
+
+    // 3) solve collisions
+    solveCollisions(particles, num_particles, queries, num_queries);
+  }
+
+
+  private void resize(int cells, int num_particles){
+    if(cells + 1 > START.length){
+      START = new int[cells + 1];
+      FILL  = new int[cells];
+    }
+    if(num_particles > DATA.length){
+      int len = (int)(num_particles * 1.25f);
+      CELL = new int  [len];
+      DATA = new DwCollisionObject[len];
+      X    = new float[len];
+      Y    = new float[len];
+      R    = new float[len];
+    }
+    ENTRIES = num_particles;
+  }
+
+
+  private void create(DwCollisionObject[] particles, int num_particles){
+
+    int cells = LEVEL_OFFSET[num_levels];
+    Arrays.fill(START, 0, cells + 1, 0);
+
+    // 1) level and cell of each object
+    for(int i = 0; i < num_particles; i++){
+      DwCollisionObject object = particles[i];
+      float pr = object.radCollision();
+      int level = getLevel(pr);
+      float cell_size = LEVEL_CELL_SIZE[level];
+      int x = (int)((object.x() - bounds[0]) / cell_size);
+      int y = (int)((object.y() - bounds[1]) / cell_size);
+      x = Math.min(x, LEVEL_GRID_X[level] - 1);
+      y = Math.min(y, LEVEL_GRID_Y[level] - 1);
+
+      int cid = LEVEL_OFFSET[level] + y * LEVEL_GRID_X[level] + x;
+      CELL[i] = cid;
+      START[cid + 1]++;
+      LEVEL_COUNT[level]++;
+      if(pr > LEVEL_RAD_MAX[level]) LEVEL_RAD_MAX[level] = pr;
+    }
+
+    // 2) prefix sum
+    for(int i = 0; i < cells; i++){
+      START[i + 1] += START[i];
+    }
+    System.arraycopy(START, 0, FILL, 0, cells);
+
+    // 3) scatter, entries of a cell keep the order of the objects array
+    for(int i = 0; i < num_particles; i++){
+      DwCollisionObject object = particles[i];
+      int pos = FILL[CELL[i]]++;
+      DATA[pos] = object;
+      X   [pos] = object.x();
+      Y   [pos] = object.y();
+      R   [pos] = object.radCollision();
+    }
+  }
+
+
+
+  /**
+   * Tests the object against all objects of all levels it may overlap.
+   */
+  private void solveCollision(DwCollisionObject object, float px, float py, float pr){
+
+    float gx = px - bounds[0];
+    float gy = py - bounds[1];
+
+    for(int level = 0; level < num_levels; level++){
+      if(LEVEL_COUNT[level] == 0) continue;
+
+      float cell_size = LEVEL_CELL_SIZE[level];
+      float ext = pr + LEVEL_RAD_MAX[level];
+      int   grid_x = LEVEL_GRID_X[level];
+      int   offset = LEVEL_OFFSET[level];
+
+      int xmin = (int)((gx-ext)/cell_size);  xmin = Math.max(xmin, 0);
+      int xmax = (int)((gx+ext)/cell_size);  xmax = Math.min(xmax, grid_x-1);
+      int ymin = (int)((gy-ext)/cell_size);  ymin = Math.max(ymin, 0);
+      int ymax = (int)((gy+ext)/cell_size);  ymax = Math.min(ymax, LEVEL_GRID_Y[level]-1);
+
+      for(int y = ymin; y <= ymax ; y++){
+        int row = offset + y * grid_x;
+        for(int e = START[row + xmin], end = START[row + xmax + 1]; e < end; e++){
+          float dx = X[e] - px;
+          float dy = Y[e] - py;
+          float rr = R[e] + pr;
+          if(dx*dx + dy*dy < rr*rr){
+            object.updateUnique(DATA[e]);
+          }
+        }
+      }
+    }
+  }
+
+
+
+  private void solveCollisions(DwCollisionObject[] particles, int num_particles, DwCollisionObject[] queries, int num_queries){
+
+    // solve in cell order
+    boolean cell_order = reorder && queries == particles && num_queries == num_particles;
+    int count = cell_order ? ENTRIES : num_queries;
+
+    if(parallel && count > chunk_size){
+      if(pool == null){
+        pool = new ForkJoinPool();
+      }
+      pool.invoke(new SolveCollisionsTask(queries, cell_order, 0, count));
+      return;
+    }
+
+    // reset states
+    for(int i = 0; i < num_particles; i++){
+      particles[i].resetCollisionPtr();
+    }
+
+    solveCollisions(queries, cell_order, 0, count);
+  }
+
+
+  private void solveCollisions(DwCollisionObject[] queries, boolean cell_order, int lo, int hi){
+    if(cell_order){
+      for(int e = lo; e < hi; e++){
+        solveCollision(DATA[e], X[e], Y[e], R[e]);
+      }
+    } else {
+      for(int i = lo; i < hi; i++){
+        DwCollisionObject object = queries[i];
+        solveCollision(object, object.x(), object.y(), object.radCollision());
+      }
+    }
+  }
+
+
+
+  /**
+   * Solves the collisions of the queries (or entries) in [lo, hi). Ranges
+   * larger than chunk_size are split in two halves.
+   */
+  private class SolveCollisionsTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    final DwCollisionObject[] queries;
+    final boolean cell_order;
+    final int lo, hi;
+
+    SolveCollisionsTask(DwCollisionObject[] queries, boolean cell_order, int lo, int hi){
+      this.queries = queries;
+      this.cell_order = cell_order;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected void compute() {
+      if(hi - lo <= chunk_size){
+        solveCollisions(queries, cell_order, lo, hi);
+      } else {
+        int mid = (lo + hi) >>> 1;
+        invokeAll(new SolveCollisionsTask(queries, cell_order, lo, mid),
+                  new SolveCollisionsTask(queries, cell_order, mid, hi));
+      }
+    }
+  }
+
+}
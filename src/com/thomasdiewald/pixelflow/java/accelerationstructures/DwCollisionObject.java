@@ -12,15 +12,32 @@ package com.thomasdiewald.pixelflow.java.accelerationstructures;
 
 
 
+/**
+ * Object that is tested for collisions by a DwCollisionBroadphase.
+ * 
+ * radCollision() is the radius of influence: two objects can only interact if
+ * the distance of their centers is smaller than the sum of their collision
+ * radii. The broadphases may skip all other pairs without calling update(),
+ * e.g. DwCollisionSortedGrid and DwCollisionMultiLevelGrid reject them on
+ * their cached copies, so an object must not expect calls for pairs further
+ * apart, even if its own test in update() would use a larger distance.
+ * 
+ * @author Thomas Diewald
+ *
+ */
 public interface DwCollisionObject {
 
   public void resetCollisionPtr();
   public void update(DwCollisionObject othr);
+  // same as update(), but without marking "othr" as already tested.
+  // the caller must make sure, each pair is tested only once.
+  public void updateUnique(DwCollisionObject othr);
 
   public float x();
   public float y();
   public float z();
   public float rad();
+  // radius of influence, must not change during updateCollisions()
   public float radCollision();
   public int getCollisionCount();
 }
@@ -0,0 +1,438 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+
+package com.thomasdiewald.pixelflow.java.accelerationstructures;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Sort-based alternative to the DwCollisionGrid (2D, x/y).
+ *
+ * Same cells and same cell-ranges as the DwCollisionGrid, but instead of
+ * per-cell linked lists, the entries are counting-sorted by cell, so the
+ * entries of a cell are contiguous in memory. Each entry keeps a copy of the
+ * objects position and collision radius, so neighbors that don't overlap are
+ * rejected without touching the object. This requires radCollision() to be
+ * the full radius of influence of an object, see DwCollisionObject.
+ *
+ * Options:
+ *
+ * Z-order: the cells are sorted by their Morton code instead of row by row,
+ *          so cells that are close in 2D are also close in memory.
+ *
+ * Reorder: the collisions are solved in cell order instead of the order of the
+ *          objects array, so consecutive queries visit the same cells.
+ *          Only used if all objects are solved.
+ *
+ * Each pair is tested in the first common cell of both cell-ranges only, as in
+ * DwCollisionGrid.solveCollisionUnique(), so the single-threaded and the
+ * multi-threaded solve produce the same results.
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwCollisionSortedGrid implements DwCollisionBroadphase{
+
+  private float CELL_SIZE = 10f;
+  private int   GRID_X;
+  private int   GRID_Y;
+
+  // entries of cell "gid": [START[key], START[key+1]), key = RANK[gid] or gid
+  private int[]               START = new int[1];
+  private int[]               FILL  = new int[0];
+  private int                 ENTRIES;
+  private DwCollisionObject[] DATA = new DwCollisionObject[0];
+  private float[]             X    = new float[0];
+  private float[]             Y    = new float[0];
+  private float[]             R    = new float[0];
+  private byte[]              FLAG = new byte[0];
+
+  // per object cell-range: xmin, ymin, xmax, ymax
+  private int[]               RANGE = new int[0];
+
+  // see DwCollisionGrid
+  private static final byte FIRST_X = 1;
+  private static final byte FIRST_Y = 2;
+  private static final byte FIRST_XY = FIRST_X | FIRST_Y;
+
+  // Z-order, cell -> position in Morton order
+  private boolean zorder = false;
+  private int[]   RANK   = new int[0];
+  private long[]  MORTON = new long[0];
+  private int     RANK_X = -1;
+  private int     RANK_Y = -1;
+
+  // solve in cell order
+  private boolean reorder = true;
+
+  // parallel collision solve
+  private boolean      parallel = false;
+  private ForkJoinPool pool;
+  private int          chunk_size = 2048;
+
+
+  public DwCollisionSortedGrid(){
+  }
+
+
+  public void setZOrder(boolean zorder){
+    this.zorder = zorder;
+  }
+
+  public boolean isZOrder(){
+    return zorder;
+  }
+
+  public void setReorder(boolean reorder){
+    this.reorder = reorder;
+  }
+
+  public boolean isReorder(){
+    return reorder;
+  }
+
+  public void setParallel(boolean parallel){
+    this.parallel = parallel;
+  }
+
+  /**
+   * @param pool the pool used for the parallel collision solve, if null a new one is created on demand.
+   */
+  public void setParallel(boolean parallel, ForkJoinPool pool){
+    this.parallel = parallel;
+    this.pool = pool;
+  }
+
+  public boolean isParallel(){
+    return parallel;
+  }
+
+  /**
+   * @param chunk_size number of objects a single task solves at least.
+   */
+  public void setParallelChunkSize(int chunk_size){
+    this.chunk_size = Math.max(1, chunk_size);
+  }
+
+
+
+  public float[] bounds = new float[6];
+
+  public void computeBounds(DwCollisionObject[] particles, int num_particles){
+    float x_min = +Float.MAX_VALUE;
+    float y_min = +Float.MAX_VALUE;
+    float x_max = -Float.MAX_VALUE;
+    float y_max = -Float.MAX_VALUE;
+
+    float r_sum = 0;
+
+    for(int i = 0; i < num_particles; i++){
+      float x = particles[i].x();
+      float y = particles[i].y();
+      float r = particles[i].radCollision();
+      r_sum += r;
+
+      if(x-r < x_min) x_min = x-r;
+      if(x+r > x_max) x_max = x+r;
+      if(y-r < y_min) y_min = y-r;
+      if(y+r > y_max) y_max = y+r;
+    }
+
+    bounds[0] = x_min;
+    bounds[1] = y_min;
+    bounds[3] = x_max;
+    bounds[4] = y_max;
+    CELL_SIZE = DwCollisionGrid.cellSize(r_sum, num_particles);
+  }
+
+
+
+  private void resize(int gx, int gy, int num_particles){
+    int cells = gx * gy;
+    if(cells + 1 > START.length){
+      START = new int[cells + 1];
+      FILL  = new int[cells];
+    }
+    if(num_particles * 4 > RANGE.length){
+      RANGE = new int[num_particles * 4];
+    }
+    GRID_X = gx;
+    GRID_Y = gy;
+
+    if(zorder && (gx != RANK_X || gy != RANK_Y)){
+      computeRanks(gx, gy);
+    }
+  }
+
+
+  private void resizeEntries(int entries){
+    if(entries > DATA.length){
+      int len = (int)(entries * 1.25f);
+      DATA = new DwCollisionObject[len];
+      X    = new float[len];
+      Y    = new float[len];
+      R    = new float[len];
+      FLAG = new byte [len];
+    }
+    ENTRIES = entries;
+  }
+
+
+  /**
+   * Morton order of the cells, only computed when the grid size changes.
+   */
+  private void computeRanks(int gx, int gy){
+    int cells = gx * gy;
+    if(cells > RANK.length){
+      RANK   = new int [cells];
+      MORTON = new long[cells];
+    }
+    for(int y = 0, gid = 0; y < gy; y++){
+      for(int x = 0; x < gx; x++, gid++){
+        MORTON[gid] = (morton(x, y) << 32) | gid;
+      }
+    }
+    Arrays.sort(MORTON, 0, cells);
+    for(int i = 0; i < cells; i++){
+      RANK[(int) MORTON[i]] = i;
+    }
+    RANK_X = gx;
+    RANK_Y = gy;
+  }
+
+  static private long morton(int x, int y){
+    return spread(x) | (spread(y) << 1);
+  }
+
+  // inserts a 0-bit between each of the lower 16 bits
+  static private long spread(int v){
+    long x = v & 0xFFFFL;
+    x = (x | (x << 8)) & 0x00FF00FFL;
+    x = (x | (x << 4)) & 0x0F0F0F0FL;
+    x = (x | (x << 2)) & 0x33333333L;
+    x = (x | (x << 1)) & 0x55555555L;
+    return x;
+  }
+
+
+
+  public void updateCollisions(DwCollisionObject[] particles){
+    updateCollisions(particles, particles.length);
+  }
+
+  public void updateCollisions(DwCollisionObject[] particles, int num_particles){
+    updateCollisions(particles, num_particles, particles, num_particles);
+  }
+
+  public void updateCollisions(DwCollisionObject[] particles, int num_particles, DwCollisionObject[] queries, int num_queries){
+
+    if(num_particles <= 0){
+      return;
+    }
+
+    // 0) prepare dimensions, size
+    computeBounds(particles, num_particles);
+    int gx = (int) Math.ceil((bounds[3] - bounds[0])/CELL_SIZE)+1;
+    int gy = (int) Math.ceil((bounds[4] - bounds[1])/CELL_SIZE)+1;
+
+    // 1) resize if necessary
+    resize(gx, gy, num_particles);
+
+    // 2) create sorted cell lists
+    create(particles, num_particles);
+
+    // 3) solve collisions
+    solveCollisions(particles, num_particles, queries, num_queries);
+  }
+
+
+
+  private void create(DwCollisionObject[] particles, int num_particles){
+
+    final boolean zorder = this.zorder;
+    int cells = GRID_X * GRID_Y;
+    Arrays.fill(START, 0, cells + 1, 0);
+
+    // 1) count entries per cell
+    int entries = 0;
+    for(int i = 0; i < num_particles; i++){
+      DwCollisionObject object = particles[i];
+      float pr = object.radCollision();
+      float px = object.x() - bounds[0];
+      float py = object.y() - bounds[1];
+
+      int xmin = (int)((px-pr)/CELL_SIZE);  xmin = Math.max(xmin, 0);
+      int xmax = (int)((px+pr)/CELL_SIZE);  xmax = Math.min(xmax, GRID_X-1);
+      int ymin = (int)((py-pr)/CELL_SIZE);  ymin = Math.max(ymin, 0);
+      int ymax = (int)((py+pr)/CELL_SIZE);  ymax = Math.min(ymax, GRID_Y-1);
+
+      int k = i * 4;
+      RANGE[k  ] = xmin;
+      RANGE[k+1] = ymin;
+      RANGE[k+2] = xmax;
+      RANGE[k+3] = ymax;
+
+      for(int y = ymin; y <= ymax ; y++){
+        for(int x = xmin; x <= xmax ; x++){
+          int gid = y * GRID_X + x;
+          START[(zorder ? RANK[gid] : gid) + 1]++;
+        }
+      }
+      entries += (xmax - xmin + 1) * (ymax - ymin + 1);
+    }
+
+    // 2) prefix sum
+    for(int i = 0; i < cells; i++){
+      START[i + 1] += START[i];
+    }
+    System.arraycopy(START, 0, FILL, 0, cells);
+    resizeEntries(entries);
+
+    // 3) scatter, entries of a cell keep the order of the objects array
+    for(int i = 0; i < num_particles; i++){
+      DwCollisionObject object = particles[i];
+      float pr = object.radCollision();
+      float px = object.x();
+      float py = object.y();
+
+      int k = i * 4;
+      int xmin = RANGE[k  ];
+      int ymin = RANGE[k+1];
+      int xmax = RANGE[k+2];
+      int ymax = RANGE[k+3];
+
+      for(int y = ymin; y <= ymax ; y++){
+        for(int x = xmin; x <= xmax ; x++){
+          int gid = y * GRID_X + x;
+          int pos = FILL[zorder ? RANK[gid] : gid]++;
+          DATA[pos] = object;
+          X   [pos] = px;
+          Y   [pos] = py;
+          R   [pos] = pr;
+          FLAG[pos] = (byte)((x == xmin ? FIRST_X : 0) | (y == ymin ? FIRST_Y : 0));
+        }
+      }
+    }
+  }
+
+
+
+  /**
+   * Tests the object against all entries of its cell-range.
+   * Each pair is only tested in the first common cell of both cell-ranges.
+   */
+  private void solveCollision(DwCollisionObject object, float px, float py, float pr){
+
+    final boolean zorder = this.zorder;
+
+    float gx = px - bounds[0];
+    float gy = py - bounds[1];
+
+    int xmin = (int)((gx-pr)/CELL_SIZE);  xmin = Math.max(xmin, 0);
+    int xmax = (int)((gx+pr)/CELL_SIZE);  xmax = Math.min(xmax, GRID_X-1);
+    int ymin = (int)((gy-pr)/CELL_SIZE);  ymin = Math.max(ymin, 0);
+    int ymax = (int)((gy+pr)/CELL_SIZE);  ymax = Math.min(ymax, GRID_Y-1);
+
+    for(int y = ymin; y <= ymax ; y++){
+      int first_y = (y == ymin) ? FIRST_Y : 0;
+      for(int x = xmin; x <= xmax ; x++){
+        int first_xy = first_y | ((x == xmin) ? FIRST_X : 0);
+        int gid = y * GRID_X + x;
+        int key = zorder ? RANK[gid] : gid;
+        for(int e = START[key], end = START[key+1]; e < end; e++){
+          if(((first_xy | FLAG[e]) & FIRST_XY) == FIRST_XY){
+            float dx = X[e] - px;
+            float dy = Y[e] - py;
+            float rr = R[e] + pr;
+            if(dx*dx + dy*dy < rr*rr){
+              object.updateUnique(DATA[e]);
+            }
+          }
+        }
+      }
+    }
+  }
+
+
+
+  private void solveCollisions(DwCollisionObject[] particles, int num_particles, DwCollisionObject[] queries, int num_queries){
+
+    // solve in cell order, each object once, in the first cell of its cell-range
+    boolean cell_order = reorder && queries == particles && num_queries == num_particles;
+    int count = cell_order ? ENTRIES : num_queries;
+
+    if(parallel && count > chunk_size){
+      if(pool == null){
+        pool = new ForkJoinPool();
+      }
+      pool.invoke(new SolveCollisionsTask(queries, cell_order, 0, count));
+      return;
+    }
+
+    // reset states
+    for(int i = 0; i < num_particles; i++){
+      particles[i].resetCollisionPtr();
+    }
+
+    solveCollisions(queries, cell_order, 0, count);
+  }
+
+
+  private void solveCollisions(DwCollisionObject[] queries, boolean cell_order, int lo, int hi){
+    if(cell_order){
+      for(int e = lo; e < hi; e++){
+        if(FLAG[e] == FIRST_XY){
+          solveCollision(DATA[e], X[e], Y[e], R[e]);
+        }
+      }
+    } else {
+      for(int i = lo; i < hi; i++){
+        DwCollisionObject object = queries[i];
+        solveCollision(object, object.x(), object.y(), object.radCollision());
+      }
+    }
+  }
+
+
+
+  /**
+   * Solves the collisions of the queries (or entries) in [lo, hi). Ranges
+   * larger than chunk_size are split in two halves.
+   */
+  private class SolveCollisionsTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    final DwCollisionObject[] queries;
+    final boolean cell_order;
+    final int lo, hi;
+
+    SolveCollisionsTask(DwCollisionObject[] queries, boolean cell_order, int lo, int hi){
+      this.queries = queries;
+      this.cell_order = cell_order;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected void compute() {
+      if(hi - lo <= chunk_size){
+        solveCollisions(queries, cell_order, lo, hi);
+      } else {
+        int mid = (lo + hi) >>> 1;
+        invokeAll(new SolveCollisionsTask(queries, cell_order, lo, mid),
+                  new SolveCollisionsTask(queries, cell_order, mid, hi));
+      }
+    }
+  }
+
+}
@@ -0,0 +1,56 @@
+/**
+ * 
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ * 
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+package com.thomasdiewald.pixelflow.java.accelerationstructures;
+
+import java.util.Arrays;
+
+
+// same as DwStack, but for primitive ints, no boxing
+public class DwIntStack{
+  
+  private int[] stack;
+  private int ptr = 0;
+  private int size = 10;
+  
+  public DwIntStack(){
+    stack = new int[size];
+  }
+  
+  public void push(int value){
+    if(ptr >= size){
+      size  = (int) Math.ceil(size * 1.3333f);
+      stack = Arrays.copyOf(stack, size);
+    }
+    stack[ptr++] = value;
+  }
+  
+  public int pop(){
+    return stack[--ptr];
+  }
+  public int pop(int idx){
+    int item = stack[idx];
+    stack[idx] = stack[--ptr];
+    return item;
+  }
+  
+  public int size(){
+    return ptr;
+  }
+  
+  public boolean isEmpty(){
+    return ptr == 0;
+  }
+  
+  public void clear(){
+    ptr = 0;
+  }
+  
+}
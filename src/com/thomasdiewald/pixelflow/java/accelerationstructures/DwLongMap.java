@@ -0,0 +1,186 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+package com.thomasdiewald.pixelflow.java.accelerationstructures;
+
+import java.util.Arrays;
+
+
+/**
+ * HashMap with primitive long keys, open addressing and linear probing.
+ *
+ * No boxing and no entry objects, e.g. for mapping index-pairs
+ * (see pack(int, int)) to objects. null values are not allowed.
+ *
+ * @author Thomas Diewald
+ */
+public class DwLongMap<T>{
+
+  private long[]   keys;
+  private Object[] vals;
+  private int      mask;
+  private int      size;
+
+  public DwLongMap(){
+    this(16);
+  }
+
+  public DwLongMap(int capacity){
+    int len = 16;
+    while(len < capacity * 2) len <<= 1;
+    keys = new long  [len];
+    vals = new Object[len];
+    mask = len - 1;
+  }
+
+
+  /**
+   * @return a unique key for the pair (a, b)
+   */
+  static public final long pack(int a, int b){
+    return ((long)a << 32) | (b & 0xFFFFFFFFL);
+  }
+
+  static private final int hash(long key){
+    // murmur3, fmix64
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    key *= 0xc4ceb9fe1a85ec53L;
+    key ^= key >>> 33;
+    return (int) key;
+  }
+
+
+  @SuppressWarnings("unchecked")
+  public T get(long key){
+    int pos = hash(key) & mask;
+    while(vals[pos] != null){
+      if(keys[pos] == key){
+        return (T) vals[pos];
+      }
+      pos = (pos + 1) & mask;
+    }
+    return null;
+  }
+
+
+  /**
+   * @return the previous value, or null
+   */
+  @SuppressWarnings("unchecked")
+  public T put(long key, T val){
+    if(val == null){
+      throw new NullPointerException("DwLongMap: null values are not allowed");
+    }
+    int pos = hash(key) & mask;
+    while(vals[pos] != null){
+      if(keys[pos] == key){
+        T old = (T) vals[pos];
+        vals[pos] = val;
+        return old;
+      }
+      pos = (pos + 1) & mask;
+    }
+    keys[pos] = key;
+    vals[pos] = val;
+    if(++size * 2 > keys.length){
+      rehash(keys.length * 2);
+    }
+    return null;
+  }
+
+
+  private void rehash(int len){
+    long[]   keys_old = keys;
+    Object[] vals_old = vals;
+    keys = new long  [len];
+    vals = new Object[len];
+    mask = len - 1;
+    for(int i = 0; i < keys_old.length; i++){
+      if(vals_old[i] != null){
+        int pos = hash(keys_old[i]) & mask;
+        while(vals[pos] != null){
+          pos = (pos + 1) & mask;
+        }
+        keys[pos] = keys_old[i];
+        vals[pos] = vals_old[i];
+      }
+    }
+  }
+
+
+  /**
+   * @return the removed value, or null
+   */
+  @SuppressWarnings("unchecked")
+  public T remove(long key){
+    int pos = hash(key) & mask;
+    while(vals[pos] != null){
+      if(keys[pos] == key){
+        T old = (T) vals[pos];
+        vals[pos] = null;
+        size--;
+        // shift the following entries of the probe sequence back
+        int gap = pos;
+        pos = (pos + 1) & mask;
+        while(vals[pos] != null){
+          int home = hash(keys[pos]) & mask;
+          if(((pos - home) & mask) >= ((pos - gap) & mask)){
+            keys[gap] = keys[pos];
+            vals[gap] = vals[pos];
+            vals[pos] = null;
+            gap = pos;
+          }
+          pos = (pos + 1) & mask;
+        }
+        return old;
+      }
+      pos = (pos + 1) & mask;
+    }
+    return null;
+  }
+
+
+  /**
+   * Number of slots, for iterating the entries: 
+   * valueAt(slot) is null for empty slots.
+   */
+  public int capacity(){
+    return keys.length;
+  }
+
+  public long keyAt(int slot){
+    return keys[slot];
+  }
+
+  @SuppressWarnings("unchecked")
+  public T valueAt(int slot){
+    return (T) vals[slot];
+  }
+
+
+  public boolean containsKey(long key){
+    return get(key) != null;
+  }
+
+  public int size(){
+    return size;
+  }
+
+  public boolean isEmpty(){
+    return size == 0;
+  }
+
+  public void clear(){
+    Arrays.fill(vals, null);
+    size = 0;
+  }
+
+}
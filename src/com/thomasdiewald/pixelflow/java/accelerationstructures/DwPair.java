@@ -21,6 +21,9 @@ public class DwPair<T> {
     this.hashcode = a.hashCode() + b.hashCode()*31;
   }
   
+  public final T a(){ return a; }
+  public final T b(){ return b; }
+  
   @Override  
   public final int hashCode() { return hashcode; }
   
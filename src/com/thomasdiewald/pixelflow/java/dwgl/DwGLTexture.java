@@ -278,7 +278,7 @@ public class DwGLTexture{
     DwGLTexture tex = this;
     
     // create a new texture, the size of the given region, and copy the pixels to it
-    if( x != 0 && y != 0 && w != this.w && h != this.h){
+    if( x != 0 || y != 0 || w != this.w || h != this.h){
       tex = createTexSubImage(x,y,w,h);
     }
     
@@ -410,21 +410,22 @@ public class DwGLTexture{
   
   
   
-// not tested
-//  public boolean setData(Buffer data, int offset_x, int offset_y, int size_x, int size_y){
-//    if( offset_x + size_x > this.w ) return false;
-//    if( offset_y + size_y > this.h ) return false;
-//    
-//    gl.glBindTexture  (target, HANDLE[0]);
-//    gl.glTexSubImage2D(target, 0, offset_x, offset_y, size_x, size_y, format, type, data);
-//    gl.glBindTexture  (target, 0);
-//    
-//    return true;
-//  }
-//  
-//  public boolean setData(Buffer data){
-//    return setData(data, 0, 0, w, h);
-//  }   
+  // upload data (format, type, num_channel of the texture) to the given region
+  public boolean setData(Buffer data, int offset_x, int offset_y, int size_x, int size_y){
+    if( offset_x + size_x > this.w ) return false;
+    if( offset_y + size_y > this.h ) return false;
+    
+    gl.glBindTexture  (target, HANDLE[0]);
+    gl.glTexSubImage2D(target, 0, offset_x, offset_y, size_x, size_y, format, type, data);
+    gl.glBindTexture  (target, 0);
+    
+    DwGLError.debug(gl, "DwGLTexture.setData");
+    return true;
+  }
+  
+  public boolean setData(Buffer data){
+    return setData(data, 0, 0, w, h);
+  }   
 
   
   public void clear(float v){
@@ -0,0 +1,278 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+
+
+package com.thomasdiewald.pixelflow.java.dwgl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import com.jogamp.opengl.GL2ES2;
+import com.jogamp.opengl.GL2ES3;
+import com.jogamp.opengl.GL2GL3;
+import com.thomasdiewald.pixelflow.java.DwPixelFlow;
+
+
+/**
+ *
+ * Asynchronous texture readback, by a ring of pixel buffer objects (PBO).
+ *
+ * read() starts the transfer of the texture into the next PBO and returns
+ * immediately. The data is copied to the host, once the GPU is done, which is
+ * usually one or two frames later. So instead of stalling the pipeline on
+ * each readback (DwGLTexture.getFloatTextureData), the data is one or
+ * two frames old.
+ *
+ * <pre><code>
+ * // each frame
+ * reader.read(tex);
+ * data = reader.getFloat(data); // latest finished transfer, or null
+ * </code></pre>
+ *
+ * Only if all buffers are in use, read() waits for the oldest one. The PBOs
+ * and the direct buffer for the result are only reallocated, if the size of
+ * the data changes. All methods need to be called with an active GL context.
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwGLTextureReader{
+
+  public DwPixelFlow context;
+  private GL2ES2 gl;
+
+  // ring of pbos, pending transfers: [head, head + num_pending)
+  private int   num_buffers;
+  private int[] HANDLE_pbo;
+  private int[] pbo_size;
+  private long[] sync;
+  private int[] region; // w, h, num_channel
+  private int   head;
+  private int   num_pending;
+
+  // latest finished transfer
+  private ByteBuffer  buffer;
+  private FloatBuffer buffer_F;
+  private int w, h, num_channel;
+  private boolean has_data;
+
+
+  /**
+   * @param num_buffers 2 ... double buffered, 3 ... triple buffered
+   */
+  public DwGLTextureReader(DwPixelFlow context, int num_buffers){
+    this.context = context;
+    this.num_buffers = Math.max(1, num_buffers);
+    HANDLE_pbo = new int [this.num_buffers];
+    pbo_size   = new int [this.num_buffers];
+    sync       = new long[this.num_buffers];
+    region     = new int [this.num_buffers * 3];
+  }
+
+
+  public void release(){
+    if(gl != null){
+      GL2GL3 gl23 = gl.getGL2GL3();
+      for(int i = 0; i < num_buffers; i++){
+        if(sync[i] != 0){
+          gl23.glDeleteSync(sync[i]);
+          sync[i] = 0;
+        }
+        pbo_size[i] = 0;
+      }
+      gl.glDeleteBuffers(num_buffers, HANDLE_pbo, 0);
+      HANDLE_pbo = new int[num_buffers];
+      gl = null;
+    }
+    head = 0;
+    num_pending = 0;
+    has_data = false;
+  }
+
+
+  public int w(){
+    return w;
+  }
+  public int h(){
+    return h;
+  }
+  public int numChannel(){
+    return num_channel;
+  }
+
+  /**
+   * @return number of transfers, that are not finished
+   */
+  public int numPending(){
+    return num_pending;
+  }
+
+
+
+  public void read(DwGLTexture tex){
+    read(tex, 0, 0, tex.w, tex.h);
+  }
+
+  /**
+   * Starts the transfer of the given texture region. Waits for the oldest
+   * transfer, if all buffers are in use.
+   */
+  public void read(DwGLTexture tex, int x, int y, int w, int h){
+    if(gl == null){
+      gl = context.gl;
+      gl.glGenBuffers(num_buffers, HANDLE_pbo, 0);
+    }
+
+    if(num_pending == num_buffers){
+      finish(head, true);
+    }
+
+    int idx  = (head + num_pending) % num_buffers;
+    int size = w * h * tex.num_channel * tex.byte_per_channel;
+
+    context.beginDraw(tex);
+    gl.glBindBuffer(GL2ES3.GL_PIXEL_PACK_BUFFER, HANDLE_pbo[idx]);
+    if(pbo_size[idx] != size){
+      gl.glBufferData(GL2ES3.GL_PIXEL_PACK_BUFFER, size, null, GL2ES3.GL_STREAM_READ);
+      pbo_size[idx] = size;
+    }
+    gl.glReadPixels(x, y, w, h, tex.format, tex.type, 0);
+    gl.glBindBuffer(GL2ES3.GL_PIXEL_PACK_BUFFER, 0);
+    context.endDraw();
+
+    sync[idx] = gl.getGL2GL3().glFenceSync(GL2ES3.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+    region[idx * 3 + 0] = w;
+    region[idx * 3 + 1] = h;
+    region[idx * 3 + 2] = tex.num_channel;
+    num_pending++;
+
+    DwGLError.debug(gl, "DwGLTextureReader.read");
+  }
+
+
+
+  /**
+   * Copies the latest finished transfer to the host, older ones are skipped.
+   *
+   * @param wait true ... wait for all pending transfers
+   * @return true, if there is new data
+   */
+  public boolean update(boolean wait){
+    if(num_pending == 0){
+      return false;
+    }
+
+    // transfers finish in order, so search backwards for the latest one
+    int latest = -1;
+    if(wait){
+      latest = num_pending - 1;
+    } else {
+      GL2GL3 gl23 = gl.getGL2GL3();
+      for(int i = num_pending - 1; i >= 0 && latest == -1; i--){
+        int idx = (head + i) % num_buffers;
+        int status = gl23.glClientWaitSync(sync[idx], 0, 0);
+        if(status == GL2ES3.GL_ALREADY_SIGNALED || status == GL2ES3.GL_CONDITION_SATISFIED){
+          latest = i;
+        }
+      }
+    }
+
+    for(int i = 0; i <= latest; i++){
+      finish(head, i == latest);
+    }
+    return latest != -1;
+  }
+
+
+  /**
+   * Removes the oldest transfer, and copies its data, if required.
+   */
+  private void finish(int idx, boolean copy){
+    GL2GL3 gl23 = gl.getGL2GL3();
+    if(copy){
+      gl23.glClientWaitSync(sync[idx], GL2ES3.GL_SYNC_FLUSH_COMMANDS_BIT, Long.MAX_VALUE);
+
+      int size = pbo_size[idx];
+      if(buffer == null || buffer.capacity() < size){
+        buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+      }
+      gl.glBindBuffer(GL2ES3.GL_PIXEL_PACK_BUFFER, HANDLE_pbo[idx]);
+      ByteBuffer mapped = gl.glMapBufferRange(GL2ES3.GL_PIXEL_PACK_BUFFER, 0, size, GL2ES3.GL_MAP_READ_BIT);
+      buffer.clear();
+      if(mapped != null){
+        buffer.put(mapped);
+      }
+      buffer.flip();
+      buffer_F = buffer.asFloatBuffer();
+      gl.glUnmapBuffer(GL2ES3.GL_PIXEL_PACK_BUFFER);
+      gl.glBindBuffer(GL2ES3.GL_PIXEL_PACK_BUFFER, 0);
+
+      w           = region[idx * 3 + 0];
+      h           = region[idx * 3 + 1];
+      num_channel = region[idx * 3 + 2];
+      has_data    = true;
+    }
+    gl23.glDeleteSync(sync[idx]);
+    sync[idx] = 0;
+    head = (head + 1) % num_buffers;
+    num_pending--;
+
+    DwGLError.debug(gl, "DwGLTextureReader.finish");
+  }
+
+
+
+  /**
+   * @return direct buffer (native byte order) of the latest finished transfer,
+   *         or null. It is reused by the next transfer.
+   */
+  public ByteBuffer getBuffer(){
+    update(false);
+    return has_data ? buffer : null;
+  }
+
+  /**
+   * @return data of the latest finished transfer, w * h * num_channel floats,
+   *         or null. "data" is reused, if it has the right size.
+   */
+  public float[] getFloat(float[] data){
+    update(false);
+    if(!has_data){
+      return null;
+    }
+    int data_len = w * h * num_channel;
+    if(data == null || data.length != data_len){
+      data = new float[data_len];
+    }
+    buffer_F.rewind();
+    buffer_F.get(data);
+    return data;
+  }
+
+  /**
+   * @return data of the latest finished transfer, w * h * num_channel bytes,
+   *         or null. "data" is reused, if it has the right size.
+   */
+  public byte[] getByte(byte[] data){
+    update(false);
+    if(!has_data){
+      return null;
+    }
+    int data_len = w * h * num_channel;
+    if(data == null || data.length != data_len){
+      data = new byte[data_len];
+    }
+    buffer.rewind();
+    buffer.get(data);
+    return data;
+  }
+
+}
@@ -12,10 +12,15 @@
 package com.thomasdiewald.pixelflow.java.fluid;
 
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
 import com.jogamp.opengl.GL2ES2;
 import com.thomasdiewald.pixelflow.java.DwPixelFlow;
 import com.thomasdiewald.pixelflow.java.dwgl.DwGLSLProgram;
 import com.thomasdiewald.pixelflow.java.dwgl.DwGLTexture;
+import com.thomasdiewald.pixelflow.java.dwgl.DwGLTextureReader;
 import com.thomasdiewald.pixelflow.java.dwgl.DwGLTexture.TexturePingPong;
 
 import processing.core.PConstants;
@@ -24,6 +29,16 @@ import processing.opengl.PGraphics2D;;
 
 public class DwFluid2D{
 
+  // pressure solvers, Param.pressure_solver
+  static public final int PRESSURE_JACOBI    = 0;
+  static public final int PRESSURE_MULTIGRID = 1;
+  static public final int PRESSURE_SOR       = 2;
+  static public final int PRESSURE_CG        = 3;
+  
+  // advection schemes, Param.advection
+  static public final int ADVECT_SEMI_LAGRANGE = 0;
+  static public final int ADVECT_MACCORMACK    = 1;
+  static public final int ADVECT_BFECC         = 2;
   
   static public class Param{
     // buoyancy: temperature
@@ -49,6 +64,45 @@ public class DwFluid2D{
     public int     num_jacobi_projection   = 40;
     public int     num_jacobi_diffuse      = 20;
     
+    // pressure solver: PRESSURE_JACOBI ...... num_jacobi_projection iterations
+    //                  PRESSURE_MULTIGRID ... V-cycles
+    //                  PRESSURE_SOR ......... red-black gauss-seidel, over-relaxed
+    //                  PRESSURE_CG .......... preconditioned conjugate gradient
+    // see DwFluidPressure2D
+    public int     pressure_solver         = PRESSURE_JACOBI;
+    
+    // multigrid: max number of V-cycles, smoothing iterations on each level
+    // before and after the coarse grid correction
+    public int     num_multigrid_cycles    = 4;
+    public int     num_multigrid_smooth    = 2;
+    
+    // sor, cg: max number of iterations, over-relaxation of sor (1 < omega < 2,
+    // 0 ... optimal for the grid size) and the number of sor iterations 
+    // between two residual checks
+    public int     num_pressure_iterations = 200;
+    public float   sor_omega               = 0;
+    public int     pressure_check_interval = 10;
+    
+    // multigrid, sor, cg: early exit, when the residual dropped below 
+    // pressure_tolerance * (first residual). 0 ... no early exit, on the GPU
+    // this also skips the residual readback (except for cg)
+    public float   pressure_tolerance      = 0.01f;
+    
+    // advection: ADVECT_SEMI_LAGRANGE ... single backtrace, smooths out detail
+    //            ADVECT_MACCORMACK ...... forward + backward step, error correction
+    //            ADVECT_BFECC ........... back and forth error compensation
+    // both corrected schemes are clamped to the values around the backtraced
+    // position, and take 3 passes instead of 1
+    public int     advection               = ADVECT_SEMI_LAGRANGE;
+    
+    // tiled update (GPU), see DwFluidTiles2D: tile size in cells, 0 ... off.
+    // a tile is active above tile_threshold, plus tile_dilation tiles around
+    // it, which should cover the distance the fluid moves in one update.
+    // only the local passes are tiled, the projection runs on the full grid
+    public int     tile_size               = 0;
+    public float   tile_threshold          = 0.001f;
+    public int     tile_dilation           = 1;
+    
     // solution quality/performance
     public float   timestep                = 0.125f;
     public float   gridscale               = 1.0f;
@@ -60,6 +114,14 @@ public class DwFluid2D{
   
   //update counter
   public  int   simulation_step;
+
+  // pressure solver of the last update: iterations (V-cycles for the
+  // multigrid) and the root mean square of the residual, -1 ... not measured
+  public  int   pressure_iterations;
+  public  float pressure_residual = -1;
+  
+  // tiled update: fraction of the grid, that was updated in the last update
+  public  float active_area = 1;
   
   // dimension
   public  int   grid_scale;
@@ -80,9 +142,14 @@ public class DwFluid2D{
   public DwGLTexture     tex_divergence  = new DwGLTexture();
   public DwGLTexture     tex_curl        = new DwGLTexture();
   
+  // maccormack, bfecc: forward and backward step, created on demand
+  private DwGLTexture    tex_advect_forward  = new DwGLTexture();
+  private DwGLTexture    tex_advect_backward = new DwGLTexture();
+  
   // shaders ... will be created by GLScope, and also released there
   private DwGLSLProgram shader_obstacleBounds;
   private DwGLSLProgram shader_advect        ; 
+  private DwGLSLProgram shader_advectCorrect ; 
   private DwGLSLProgram shader_buoyancy      ; 
   private DwGLSLProgram shader_divergence    ; 
   private DwGLSLProgram shader_jacobi        ; 
@@ -91,6 +158,7 @@ public class DwFluid2D{
   private DwGLSLProgram shader_vorticityForce;
   private DwGLSLProgram shader_renderFluid   ;
   private DwGLSLProgram shader_renderVelocityStreams;
+  private DwGLSLProgram shader_sampleVelocity;
   
   private DwGLSLProgram shader_addVelocityBlob   ; 
   private DwGLSLProgram shader_addDensityBlob    ; 
@@ -99,6 +167,28 @@ public class DwFluid2D{
   private DwGLSLProgram shader_addObstacleTexture; 
   
 
+  // multigrid, sor, cg pressure solvers, created on demand
+  private DwFluidPressure2D pressure_solver;
+  
+  // active tiles, created on demand
+  private DwFluidTiles2D tiles;
+  
+  // asynchronous readback, created on demand
+  private DwGLTextureReader reader_velocity;
+  private DwGLTextureReader reader_density;
+  
+  // sampleVelocity(): positions, velocities, SAMPLE_TEX_W texels per row.
+  // the number of rows only grows, in powers of two, only the first 
+  // sample_rows are used
+  static private final int SAMPLE_TEX_W = 256;
+  private DwGLTexture tex_sample_position = new DwGLTexture();
+  private DwGLTexture tex_sample_velocity = new DwGLTexture();
+  private FloatBuffer sample_position;
+  private float[]     sample_velocity;
+  private int         sample_rows;
+  private DwGLTextureReader reader_sample;
+  private int         sample_count_pending = -1;
+
   // callbacks
   private FluidData CB_fluid_data;
   private Advect    CB_advect;
@@ -110,6 +200,7 @@ public class DwFluid2D{
     
     shader_obstacleBounds        = context.createShader(DwPixelFlow.SHADER_DIR+"Fluid/obstacleBounds.frag");
     shader_advect                = context.createShader(DwPixelFlow.SHADER_DIR+"Fluid/advect.frag"        ); 
+    shader_advectCorrect         = context.createShader(DwPixelFlow.SHADER_DIR+"Fluid/advectCorrect.frag" ); 
     shader_buoyancy              = context.createShader(DwPixelFlow.SHADER_DIR+"Fluid/buoyancy.frag"      ); 
     shader_divergence            = context.createShader(DwPixelFlow.SHADER_DIR+"Fluid/divergence.frag"    ); 
     shader_jacobi                = context.createShader(DwPixelFlow.SHADER_DIR+"Fluid/jacobi.frag"        ); 
@@ -118,6 +209,7 @@ public class DwFluid2D{
     shader_vorticityForce        = context.createShader(DwPixelFlow.SHADER_DIR+"Fluid/vorticityForce.frag");
     shader_renderFluid           = context.createShader(DwPixelFlow.SHADER_DIR+"Fluid/renderFluid.frag");
     shader_renderVelocityStreams = context.createShader(DwPixelFlow.SHADER_DIR+"Fluid/renderVelocityStreams.vert", DwPixelFlow.SHADER_DIR+"Fluid/renderVelocityStreams.frag");
+    shader_sampleVelocity        = context.createShader(DwPixelFlow.SHADER_DIR+"Fluid/sampleVelocity.frag");
    
     
     shader_addVelocityBlob       = context.createShader(DwPixelFlow.SHADER_DIR+"addData/addVelocityBlob.frag"   );
@@ -142,6 +234,29 @@ public class DwFluid2D{
     tex_pressure   .release();
     tex_obstacleC  .release();
     tex_obstacleN  .release();
+    tex_advect_forward .release();
+    tex_advect_backward.release();
+    if(pressure_solver != null){
+      pressure_solver.release();
+    }
+    if(tiles != null){
+      tiles.release();
+      tiles = null;
+    }
+    tex_sample_position.release();
+    tex_sample_velocity.release();
+    if(reader_sample != null){
+      reader_sample.release();
+      reader_sample = null;
+    }
+    if(reader_velocity != null){
+      reader_velocity.release();
+      reader_velocity = null;
+    }
+    if(reader_density != null){
+      reader_density.release();
+      reader_density = null;
+    }
   }
   
   public void reset(){
@@ -269,6 +384,19 @@ public class DwFluid2D{
       context.begin();
     }
     
+    // active tiles, for the remaining passes and the next advection
+    if(param.tile_size > 0){
+      if(tiles == null){
+        tiles = new DwFluidTiles2D(context);
+      }
+      tiles.update(this);
+      active_area = tiles.getActiveArea();
+    } else if(tiles != null){
+      tiles.release();
+      tiles = null;
+      active_area = 1;
+    }
+    
     
     // buoyancy
     if(param.apply_buoyancy){
@@ -293,11 +421,20 @@ public class DwFluid2D{
     // the divergence of a vector field is a scalar field.
     divergence(tex_velocity.src, tex_divergence);
   
-    // jacobi solver
+    // pressure solver
     tex_pressure.src.clear(0);
-    for (int i = 0; i < param.num_jacobi_projection; ++i) {
-      jacobiPressure(tex_pressure.src, tex_divergence, tex_pressure.dst);
-      tex_pressure.swap();
+    if(param.pressure_solver != PRESSURE_JACOBI){
+      if(pressure_solver == null){
+        pressure_solver = new DwFluidPressure2D(context);
+      }
+      pressure_solver.update(this);
+    } else {
+      for (int i = 0; i < param.num_jacobi_projection; ++i) {
+        jacobiPressure(tex_pressure.src, tex_divergence, tex_pressure.dst);
+        tex_pressure.swap();
+      }
+      pressure_iterations = param.num_jacobi_projection;
+      pressure_residual   = -1;
     }
     
     // subtract pressure-gradients (scalar-field) from intermediate velocities.
@@ -319,6 +456,37 @@ public class DwFluid2D{
 
 
   
+  /**
+   * fullscreen quad, or only the active tiles.
+   * The projection passes (divergence, jacobi, gradient) always draw the full
+   * grid, the pressure is global.
+   */
+  private void drawQuad(DwGLSLProgram shader){
+    drawQuad(shader, 0);
+  }
+  
+  /**
+   * same as drawQuad(shader), the active tiles are extended by margin cells.
+   */
+  private void drawQuad(DwGLSLProgram shader, int margin){
+    if(tiles != null){
+      tiles.drawQuad(shader, margin);
+    } else {
+      shader.drawFullScreenQuad();
+    }
+  }
+  
+  /**
+   * a tiled pass draws only the active tiles to tex_dst, the rest is copied 
+   * from tex_src, so both ping-pong buffers agree outside the active tiles.
+   */
+  private void copyInactive(DwGLTexture tex_src, DwGLTexture tex_dst){
+    if(tiles != null){
+      tiles.copyInactive(tex_src, tex_dst);
+    }
+  }
+  
+  
   private void createObstacleN(){                                         
     context.beginDraw(tex_obstacleN.dst);
     shader_obstacleBounds.begin();
@@ -333,16 +501,52 @@ public class DwFluid2D{
   
  
   private void advect(DwGLTexture tex_velocity, DwGLTexture tex_source, DwGLTexture tex_dst, float dissipation){
+    copyInactive(tex_source, tex_dst);
+    if(param.advection == ADVECT_SEMI_LAGRANGE){
+      advect(tex_velocity, tex_source, tex_dst, dissipation, param.timestep);
+      return;
+    }
+    
+    int w = fluid_w;
+    int h = fluid_h;
+    tex_advect_forward .resize(context, GL2ES2.GL_RGBA16F, w, h, GL2ES2.GL_RGBA, GL2ES2.GL_FLOAT, GL2ES2.GL_LINEAR, 4,4);
+    tex_advect_backward.resize(context, GL2ES2.GL_RGBA16F, w, h, GL2ES2.GL_RGBA, GL2ES2.GL_FLOAT, GL2ES2.GL_LINEAR, 4,4);
+    
+    // forward, and back again
+    advect(tex_velocity, tex_source        , tex_advect_forward , 1.0f, +param.timestep);
+    advect(tex_velocity, tex_advect_forward, tex_advect_backward, 1.0f, -param.timestep);
+    
+    // error correction + limiter
+    context.beginDraw(tex_dst);
+    shader_advectCorrect.begin();
+    shader_advectCorrect.uniform2f     ("wh"           , fluid_w, fluid_h); 
+    shader_advectCorrect.uniform2f     ("wh_inv"       , fluid_w_inv, fluid_h_inv); 
+    shader_advectCorrect.uniform1f     ("timestep"     , param.timestep          );
+    shader_advectCorrect.uniform1f     ("rdx"          , 1.0f / param.gridscale  ); 
+    shader_advectCorrect.uniform1f     ("dissipation"  , dissipation             );
+    shader_advectCorrect.uniform1i     ("bfecc"        , (param.advection == ADVECT_BFECC) ? 1 : 0);
+    shader_advectCorrect.uniformTexture("tex_velocity" , tex_velocity       );
+    shader_advectCorrect.uniformTexture("tex_source"   , tex_source         );
+    shader_advectCorrect.uniformTexture("tex_forward"  , tex_advect_forward );
+    shader_advectCorrect.uniformTexture("tex_backward" , tex_advect_backward);
+    shader_advectCorrect.uniformTexture("tex_obstacleC", tex_obstacleC.src  );
+    drawQuad(shader_advectCorrect);
+    shader_advectCorrect.end();
+    context.endDraw();    
+    context.errorCheck("Fluid.advectCorrect");
+  }
+  
+  private void advect(DwGLTexture tex_velocity, DwGLTexture tex_source, DwGLTexture tex_dst, float dissipation, float timestep){
     context.beginDraw(tex_dst);
     shader_advect.begin();
     shader_advect.uniform2f     ("wh_inv"       , fluid_w_inv, fluid_h_inv); 
-    shader_advect.uniform1f     ("timestep"     , param.timestep          );
+    shader_advect.uniform1f     ("timestep"     , timestep                );
     shader_advect.uniform1f     ("rdx"          , 1.0f / param.gridscale        ); 
     shader_advect.uniform1f     ("dissipation"  , dissipation             );
     shader_advect.uniformTexture("tex_velocity" , tex_velocity );
     shader_advect.uniformTexture("tex_source"   , tex_source   );
     shader_advect.uniformTexture("tex_obstacleC", tex_obstacleC.src);
-    shader_advect.drawFullScreenQuad();
+    drawQuad(shader_advect);
     shader_advect.end();
     context.endDraw();    
     context.errorCheck("Fluid.advect");
@@ -363,6 +567,7 @@ public class DwFluid2D{
   
   
   private void buoyancy(DwGLTexture tex_velocity, DwGLTexture tex_temperature, DwGLTexture tex_density, DwGLTexture tex_dst){
+    copyInactive(tex_velocity, tex_dst);
     context.beginDraw(tex_dst);
     shader_buoyancy.begin();
     shader_buoyancy.uniform2f     ("wh_inv"             , fluid_w_inv, fluid_h_inv ); 
@@ -373,7 +578,7 @@ public class DwFluid2D{
     shader_buoyancy.uniformTexture("tex_velocity"       , tex_velocity   );
     shader_buoyancy.uniformTexture("tex_temperature"    , tex_temperature);
     shader_buoyancy.uniformTexture("tex_density"        , tex_density    );
-    shader_buoyancy.drawFullScreenQuad();
+    drawQuad(shader_buoyancy);
     shader_buoyancy.end();
     context.endDraw();
     context.errorCheck("Fluid.buoyancy");
@@ -381,13 +586,16 @@ public class DwFluid2D{
   
   
   private void vorticity(DwGLTexture tex_velocity, DwGLTexture tex_dst, float vorticity){
+    copyInactive(tex_velocity, tex_dst);
+    
+    // one cell beyond the active tiles, the force samples the curl of the neighbors
     context.beginDraw(tex_curl);
     shader_vorticityCurl.begin();
     shader_vorticityCurl.uniform2f     ("wh_inv"       , fluid_w_inv, fluid_h_inv); 
     shader_vorticityCurl.uniform1f     ("halfrdx"      , 0.5f / param.gridscale        );
     shader_vorticityCurl.uniformTexture("tex_velocity" , tex_velocity );
     shader_vorticityCurl.uniformTexture("tex_obstacleC", tex_obstacleC.src);
-    shader_vorticityCurl.drawFullScreenQuad();
+    drawQuad(shader_vorticityCurl, 1);
     shader_vorticityCurl.end();
     context.endDraw();
     context.errorCheck("Fluid.vorticity - Curl");
@@ -400,7 +608,7 @@ public class DwFluid2D{
     shader_vorticityForce.uniform1f     ("vorticity"   , vorticity               );              
     shader_vorticityForce.uniformTexture("tex_velocity", tex_velocity);
     shader_vorticityForce.uniformTexture("tex_curl"    , tex_curl    );
-    shader_vorticityForce.drawFullScreenQuad();
+    drawQuad(shader_vorticityForce);
     shader_vorticityForce.end();
     context.endDraw();
     context.errorCheck("Fluid.vorticity - Force");
@@ -447,12 +655,23 @@ public class DwFluid2D{
   }
   
 
+  /**
+   * Scale of the pressure gradient, times 1/gridscale.
+   * 
+   * The divergence uses 0.5, so the converged solvers (multigrid, sor, cg) 
+   * need the same scale to remove it. The jacobi projection keeps 1.0, which 
+   * makes up for its few iterations and is what the examples are tuned for.
+   */
+  static float gradientScale(int pressure_solver){
+    return (pressure_solver == PRESSURE_JACOBI) ? 1.0f : 0.5f;
+  }
+  
+
   private void gradient(DwGLTexture tex_velocity, DwGLTexture tex_pressure,  DwGLTexture tex_dst){
     context.beginDraw(tex_dst);
     shader_gradient.begin();
     shader_gradient.uniform2f     ("wh_inv"       , fluid_w_inv, fluid_h_inv);
-    shader_gradient.uniform1f     ("halfrdx"      , 1.0f / param.gridscale);
-//    shader_gradient.uniform1f     ("halfrdx"      , 0.5f / param.gridscale);
+    shader_gradient.uniform1f     ("halfrdx"      , gradientScale(param.pressure_solver) / param.gridscale);
     shader_gradient.uniformTexture("tex_velocity" , tex_velocity );
     shader_gradient.uniformTexture("tex_pressure" , tex_pressure );
     shader_gradient.uniformTexture("tex_obstacleC", tex_obstacleC.src);
@@ -606,6 +825,154 @@ public class DwFluid2D{
   }
   
   
+  /**
+   * Bilinear velocity at the given positions, same coordinates as 
+   * addVelocity() (viewport, y-up). Only the velocities of the samples are
+   * transferred, count * 2 floats (rounded up to full rows of 256), instead
+   * of the whole grid. The sample textures only grow, so a changing count
+   * doesn't reallocate them each call.
+   * 
+   * Can be used within the FluidData callback, e.g. to move particles.
+   * 
+   * @param positions_xy [x0, y0, x1, y1, ...]
+   * @param count number of positions
+   * @param data_F2 [vx0, vy0, vx1, vy1, ...], reused if it has the right size
+   * @return velocities, count * 2 floats
+   */
+  public float[] sampleVelocity(float[] positions_xy, int count, float[] data_F2){
+    int data_len = count * 2;
+    if(data_F2 == null || data_F2.length != data_len){
+      data_F2 = new float[data_len];
+    }
+    if(count <= 0){
+      return data_F2;
+    }
+    
+    context.begin();
+    
+    sampleVelocity(positions_xy, count);
+    
+    // transfer
+    sample_velocity = tex_sample_velocity.getFloatTextureData(sample_velocity, 0, 0, SAMPLE_TEX_W, sample_rows);
+    System.arraycopy(sample_velocity, 0, data_F2, 0, data_len);
+    
+    context.end("Fluid.sampleVelocity");
+    return data_F2;
+  }
+  
+  
+  /**
+   * Same as sampleVelocity(), but asynchronous: gathers the velocities and 
+   * starts their transfer. sampleVelocityEnd() returns them, e.g. after some
+   * CPU work in between.
+   * 
+   * @param positions_xy [x0, y0, x1, y1, ...]
+   * @param count number of positions
+   */
+  public void sampleVelocityBegin(float[] positions_xy, int count){
+    sample_count_pending = Math.max(count, 0);
+    if(count <= 0){
+      return;
+    }
+    if(reader_sample == null){
+      reader_sample = new DwGLTextureReader(context, 2);
+    }
+    context.begin();
+    sampleVelocity(positions_xy, count);
+    reader_sample.read(tex_sample_velocity, 0, 0, SAMPLE_TEX_W, sample_rows);
+    context.end("Fluid.sampleVelocityBegin");
+  }
+  
+  /**
+   * Waits for the transfer of the last sampleVelocityBegin().
+   * 
+   * @param data_F2 [vx0, vy0, vx1, vy1, ...], reused if it has the right size
+   * @return velocities, count * 2 floats, or null without a previous 
+   *         sampleVelocityBegin()
+   */
+  public float[] sampleVelocityEnd(float[] data_F2){
+    if(sample_count_pending < 0){
+      return null;
+    }
+    int data_len = sample_count_pending * 2;
+    sample_count_pending = -1;
+    if(data_F2 == null || data_F2.length != data_len){
+      data_F2 = new float[data_len];
+    }
+    if(data_len == 0){
+      return data_F2;
+    }
+    context.begin();
+    reader_sample.update(true);
+    sample_velocity = reader_sample.getFloat(sample_velocity);
+    System.arraycopy(sample_velocity, 0, data_F2, 0, data_len);
+    context.end("Fluid.sampleVelocityEnd");
+    return data_F2;
+  }
+  
+  
+  /**
+   * uploads the positions and renders the velocities into the first 
+   * sample_rows rows of tex_sample_velocity
+   */
+  private void sampleVelocity(float[] positions_xy, int count){
+    int w = SAMPLE_TEX_W;
+    int h = (count + w - 1) / w;
+    
+    // grow in powers of two, so a changing count doesn't reallocate
+    int h_tex = Math.max(tex_sample_velocity.h, 1);
+    while(h_tex < h){
+      h_tex *= 2;
+    }
+    tex_sample_position.resize(context, GL2ES2.GL_RG32F, w, h_tex, GL2ES2.GL_RG, GL2ES2.GL_FLOAT, GL2ES2.GL_NEAREST, 2,4);
+    tex_sample_velocity.resize(context, GL2ES2.GL_RG32F, w, h_tex, GL2ES2.GL_RG, GL2ES2.GL_FLOAT, GL2ES2.GL_NEAREST, 2,4);
+    sample_rows = h;
+    
+    // upload positions, the last row is padded with zeros
+    int data_len = count * 2;
+    if(sample_position == null || sample_position.capacity() < w * h * 2){
+      sample_position = ByteBuffer.allocateDirect(w * h_tex * 2 * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+    sample_position.clear();
+    sample_position.put(positions_xy, 0, data_len);
+    while(sample_position.position() < w * h * 2){
+      sample_position.put(0);
+    }
+    sample_position.flip();
+    tex_sample_position.setData(sample_position, 0, 0, w, h);
+    
+    // gather, only the used rows
+    context.beginDraw(tex_sample_velocity);
+    shader_sampleVelocity.begin();
+    shader_sampleVelocity.uniform2f     ("wh_viewport_inv", 1.0f / viewp_w, 1.0f / viewp_h);
+    shader_sampleVelocity.uniformTexture("tex_velocity"   , tex_velocity.src);
+    shader_sampleVelocity.uniformTexture("tex_position"   , tex_sample_position);
+    shader_sampleVelocity.drawFullScreenQuad(0, 0, w, h);
+    shader_sampleVelocity.end();
+    context.endDraw();
+  }
+  
+  
+  /**
+   * Same as getVelocity(), but without stalling the pipeline: starts the 
+   * transfer of the current velocity and returns the latest finished one, 
+   * which is usually one or two updates old. See DwGLTextureReader.
+   * 
+   * @param data_F2 [x0, y0, x1, y1, ...]
+   * @return null, until the first transfer is finished
+   */
+  public float[] getVelocityAsync(float[] data_F2){
+    if(reader_velocity == null){
+      reader_velocity = new DwGLTextureReader(context, 3);
+    }
+    context.begin();
+    reader_velocity.read(tex_velocity.src);
+    float[] data = reader_velocity.getFloat(data_F2);
+    context.end("Fluid.getVelocityAsync");
+    return data;
+  }
+  
+  
   
   /**
    * example code for filling the pixels of a pgraphics object
@@ -646,6 +1013,24 @@ public class DwFluid2D{
     return data;
   }
   
+  /**
+   * Same as getDensity(), but the data is one or two updates old, see
+   * getVelocityAsync().
+   * 
+   * @param data_F4 [r0, g0, b0, a0, r1, g1, b1, a1, ...]
+   * @return null, until the first transfer is finished
+   */
+  public float[] getDensityAsync(float[] data_F4){
+    if(reader_density == null){
+      reader_density = new DwGLTextureReader(context, 3);
+    }
+    context.begin();
+    reader_density.read(tex_density.src);
+    float[] data = reader_density.getFloat(data_F4);
+    context.end("Fluid.getDensityAsync");
+    return data;
+  }
+  
   
   
   
@@ -790,6 +1175,10 @@ public class DwFluid2D{
     CB_fluid_data = cb_fluid_data;
   }  
   
+  public FluidData getCallback_FluiData(){
+    return CB_fluid_data;
+  }
+  
   public void addCallback_Advect(Advect cb_advect){
     CB_advect = cb_advect;
   }
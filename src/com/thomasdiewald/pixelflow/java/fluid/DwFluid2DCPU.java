@@ -0,0 +1,1521 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+
+
+package com.thomasdiewald.pixelflow.java.fluid;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ *
+ * CPU implementation of DwFluid2D, no OpenGL context required.
+ *
+ * Same grid layout, same Param and same passes as the shaders in glsl/Fluid/:
+ * advect, buoyancy, vorticity, divergence, jacobi-pressure and gradient, and
+ * the pressure solvers of DwFluidPressure2D.
+ * The grids are float[] arrays, row by row, starting at the bottom (same as
+ * the textures), samples outside the grid are 0 (same as GL_CLAMP_TO_BORDER).
+ *
+ * The passes run in parallel over rows. Each cell is computed from the
+ * previous state only, so the results are the same for any number of threads.
+ *
+ * The textures of DwFluid2D are 16bit floats, the grids here are 32bit, so
+ * results only differ within half-float precision.
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwFluid2DCPU {
+
+
+  /**
+   * float[] counterpart of DwGLTexture.TexturePingPong
+   */
+  static public class Grid {
+    public float[] src = new float[0];
+    public float[] dst = new float[0];
+    public int num_channel;
+
+    public void resize(int w, int h, int num_channel){
+      this.num_channel = num_channel;
+      int len = w * h * num_channel;
+      if(src.length != len){
+        src = new float[len];
+        dst = new float[len];
+      }
+    }
+
+    public void swap(){
+      float[] tmp = src;
+      src = dst;
+      dst = tmp;
+    }
+
+    public void clear(float v){
+      Arrays.fill(src, v);
+      Arrays.fill(dst, v);
+    }
+  }
+
+
+  //update counter
+  public  int   simulation_step;
+
+  // dimension
+  public  int   grid_scale;
+  public  int   fluid_w, fluid_h;
+  public  int   viewp_w, viewp_h;
+
+  // fluid parameters
+  public DwFluid2D.Param param = new DwFluid2D.Param();
+
+  // pressure solver of the last update: iterations (V-cycles for the
+  // multigrid) and the root mean square of the residual, -1 ... not measured
+  public int   pressure_iterations;
+  public float pressure_residual = -1;
+
+  // grids
+  public Grid grid_velocity    = new Grid(); // x, y
+  public Grid grid_density     = new Grid(); // r, g, b, a
+  public Grid grid_pressure    = new Grid();
+  public Grid grid_temperature = new Grid();
+  public Grid grid_obstacleC   = new Grid(); // 1 ... obstacle
+  public Grid grid_obstacleN   = new Grid(); // top, bottom, right, left
+  public Grid grid_divergence  = new Grid();
+  public Grid grid_curl        = new Grid();
+
+  // callbacks
+  private FluidData CB_fluid_data;
+  private Advect    CB_advect;
+
+  // parallel update
+  private boolean      parallel = true;
+  private ForkJoinPool pool;
+  private int          chunk_size = 16384;
+
+
+  public DwFluid2DCPU(int viewport_width, int viewport_height, int fluidgrid_scale){
+    resize(viewport_width, viewport_height, fluidgrid_scale);
+  }
+
+
+  public void setParallel(boolean parallel){
+    this.parallel = parallel;
+  }
+
+  /**
+   * @param pool the pool used for the parallel update, if null a new one is created on demand.
+   */
+  public void setParallel(boolean parallel, ForkJoinPool pool){
+    this.parallel = parallel;
+    this.pool = pool;
+  }
+
+  public boolean isParallel(){
+    return parallel;
+  }
+
+  /**
+   * @param chunk_size number of cells a single task updates at least.
+   */
+  public void setParallelChunkSize(int chunk_size){
+    this.chunk_size = Math.max(1, chunk_size);
+  }
+
+
+  public void reset(){
+    grid_velocity   .clear(0);
+    grid_density    .clear(0);
+    grid_temperature.clear(0);
+    grid_pressure   .clear(0);
+    grid_obstacleC  .clear(0);
+    grid_obstacleN  .clear(0);
+    grid_curl       .clear(0);
+    grid_divergence .clear(0);
+    simulation_step = 0;
+  }
+
+
+  public void resize(int viewport_width, int viewport_height, int fluidgrid_scale) {
+
+    this.grid_scale = Math.max(1, fluidgrid_scale);
+
+    viewp_w = viewport_width;
+    viewp_h = viewport_height;
+
+    fluid_w = Math.max(1, viewp_w / grid_scale);
+    fluid_h = Math.max(1, viewp_h / grid_scale);
+
+    int w = fluid_w;
+    int h = fluid_h;
+
+    grid_velocity   .resize(w, h, 2);
+    grid_density    .resize(w, h, 4);
+    grid_temperature.resize(w, h, 1);
+    grid_curl       .resize(w, h, 1);
+    grid_divergence .resize(w, h, 1);
+    grid_pressure   .resize(w, h, 1);
+    grid_obstacleC  .resize(w, h, 1);
+    grid_obstacleN  .resize(w, h, 4);
+
+    reset();
+  }
+
+
+
+
+  public void update(float timestep) {
+    param.timestep = timestep;
+    update();
+  }
+
+  public void update(){
+
+    // create cell-neighbor scalefactors
+    createObstacleN();
+
+    // 1) advect, same dissipation mapping as DwFluid2D
+    float v_diss = (float)Math.pow(param.dissipation_velocity   , 0.05f);
+    float d_diss = (float)Math.pow(param.dissipation_density    , 0.05f);
+    float t_diss = (float)Math.pow(param.dissipation_temperature, 0.05f);
+
+    advect(grid_velocity.src, grid_velocity   , v_diss);
+    advect(grid_velocity.src, grid_density    , d_diss);
+    advect(grid_velocity.src, grid_temperature, t_diss);
+
+    if(CB_advect != null){
+      CB_advect.update(this);
+    }
+
+    // 2) diffuse ... not used, same as DwFluid2D
+
+    // 3) add forces
+    if(CB_fluid_data != null){
+      CB_fluid_data.update(this);
+    }
+
+    if(param.apply_buoyancy){
+      run(PASS_BUOYANCY);
+      grid_velocity.swap();
+    }
+
+    // a vorticity of 0 doesn't change the velocity
+    if(param.vorticity > 0.0){
+      run(PASS_CURL);
+      run(PASS_VORTICITY);
+      grid_velocity.swap();
+    }
+
+    // 4) projection
+    run(PASS_DIVERGENCE);
+
+    Arrays.fill(grid_pressure.src, 0);
+    switch(param.pressure_solver){
+      case DwFluid2D.PRESSURE_MULTIGRID: multigrid(); break;
+      case DwFluid2D.PRESSURE_SOR      : sor(); break;
+      case DwFluid2D.PRESSURE_CG       : conjugateGradient(); break;
+      default:
+        for (int i = 0; i < param.num_jacobi_projection; ++i) {
+          run(PASS_JACOBI);
+          grid_pressure.swap();
+        }
+        pressure_iterations = param.num_jacobi_projection;
+        pressure_residual   = -1;
+        break;
+    }
+
+    run(PASS_GRADIENT);
+    grid_velocity.swap();
+
+    simulation_step++;
+  }
+
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // PASSES
+  //////////////////////////////////////////////////////////////////////////////
+
+  static private final int PASS_OBSTACLE_N = 0;
+  static private final int PASS_ADVECT     = 1;
+  static private final int PASS_BUOYANCY   = 2;
+  static private final int PASS_CURL       = 3;
+  static private final int PASS_VORTICITY  = 4;
+  static private final int PASS_DIVERGENCE = 5;
+  static private final int PASS_JACOBI     = 6;
+  static private final int PASS_GRADIENT   = 7;
+  static private final int PASS_MG_LEVEL    = 8;
+  static private final int PASS_MG_SMOOTH   = 9;
+  static private final int PASS_MG_RESIDUAL = 10;
+  static private final int PASS_MG_RESTRICT = 11;
+  static private final int PASS_MG_PROLONG  = 12;
+  static private final int PASS_CG_INIT      = 13;
+  static private final int PASS_CG_OPERATOR  = 14;
+  static private final int PASS_CG_UPDATE    = 15;
+  static private final int PASS_CG_DIRECTION = 16;
+  static private final int PASS_ADVECT_CORRECT = 17;
+
+  // advect arguments
+  private float[] advect_velocity;
+  private float[] advect_src;
+  private float[] advect_dst;
+  private int     advect_nc;
+  private float   advect_timestep;
+  private float   advect_dissipation;
+
+  // maccormack, bfecc: forward and backward step
+  private float[] advect_forward  = new float[0];
+  private float[] advect_backward = new float[0];
+
+
+  private void createObstacleN(){
+    run(PASS_OBSTACLE_N);
+  }
+
+  private void advect(float[] velocity, Grid grid, float dissipation){
+    int nc = grid.num_channel;
+    if(param.advection == DwFluid2D.ADVECT_SEMI_LAGRANGE){
+      advect(velocity, grid.src, grid.dst, nc, param.timestep, dissipation);
+    } else {
+      int len = fluid_w * fluid_h * 4;
+      if(advect_forward.length != len){
+        advect_forward  = new float[len];
+        advect_backward = new float[len];
+      }
+      // forward, and back again
+      advect(velocity, grid.src      , advect_forward , nc, +param.timestep, 1);
+      advect(velocity, advect_forward, advect_backward, nc, -param.timestep, 1);
+      // error correction + limiter
+      advect_src = grid.src;
+      advect_dst = grid.dst;
+      advect_timestep = param.timestep;
+      advect_dissipation = dissipation;
+      run(PASS_ADVECT_CORRECT);
+    }
+    grid.swap();
+  }
+
+  private void advect(float[] velocity, float[] src, float[] dst, int nc, float timestep, float dissipation){
+    advect_velocity    = velocity;
+    advect_src         = src;
+    advect_dst         = dst;
+    advect_nc          = nc;
+    advect_timestep    = timestep;
+    advect_dissipation = dissipation;
+    run(PASS_ADVECT);
+  }
+
+
+  private void run(int pass){
+    run(pass, fluid_w, fluid_h);
+  }
+
+  private void run(int pass, int w, int h){
+    int rows = Math.max(1, chunk_size / w);
+    if(parallel && h > rows){
+      if(pool == null) pool = new ForkJoinPool();
+      pool.invoke(new RowTask(pass, 0, h, rows));
+    } else {
+      runRows(pass, 0, h);
+    }
+  }
+
+  private void runRows(int pass, int y0, int y1){
+    switch(pass){
+      case PASS_OBSTACLE_N: obstacleN (y0, y1); break;
+      case PASS_ADVECT    : advect    (y0, y1); break;
+      case PASS_BUOYANCY  : buoyancy  (y0, y1); break;
+      case PASS_CURL      : curl      (y0, y1); break;
+      case PASS_VORTICITY : vorticity (y0, y1); break;
+      case PASS_DIVERGENCE: divergence(y0, y1); break;
+      case PASS_JACOBI    : jacobi    (y0, y1); break;
+      case PASS_GRADIENT  : gradient  (y0, y1); break;
+      case PASS_MG_LEVEL   : multigridLevel   (y0, y1); break;
+      case PASS_MG_SMOOTH  : multigridSmooth  (y0, y1); break;
+      case PASS_MG_RESIDUAL: multigridResidual(y0, y1); break;
+      case PASS_MG_RESTRICT: multigridRestrict(y0, y1); break;
+      case PASS_MG_PROLONG : multigridProlong (y0, y1); break;
+      case PASS_CG_INIT     : conjugateGradientInit     (y0, y1); break;
+      case PASS_CG_OPERATOR : conjugateGradientOperator (y0, y1); break;
+      case PASS_CG_UPDATE   : conjugateGradientUpdate   (y0, y1); break;
+      case PASS_CG_DIRECTION: conjugateGradientDirection(y0, y1); break;
+      case PASS_ADVECT_CORRECT: advectCorrect(y0, y1); break;
+    }
+  }
+
+  private class RowTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    final int pass, lo, hi, rows;
+
+    RowTask(int pass, int lo, int hi, int rows){
+      this.pass = pass;
+      this.lo   = lo;
+      this.hi   = hi;
+      this.rows = rows;
+    }
+
+    @Override
+    protected void compute() {
+      if(hi - lo <= rows){
+        runRows(pass, lo, hi);
+      } else {
+        int mid = (lo + hi) >>> 1;
+        invokeAll(new RowTask(pass, lo, mid, rows),
+                  new RowTask(pass, mid, hi, rows));
+      }
+    }
+  }
+
+
+
+
+  // neighbors of each cell: top, bottom, right, left.
+  private void obstacleN(int y0, int y1){
+    int w = fluid_w, h = fluid_h;
+    float[] oC = grid_obstacleC.src;
+    float[] oN = grid_obstacleN.src;
+    for(int y = y0; y < y1; y++){
+      for(int x = 0, i = y * w; x < w; x++, i++){
+        oN[i*4+0] = (y < h-1) ? oC[i+w] : 0;
+        oN[i*4+1] = (y > 0  ) ? oC[i-w] : 0;
+        oN[i*4+2] = (x < w-1) ? oC[i+1] : 0;
+        oN[i*4+3] = (x > 0  ) ? oC[i-1] : 0;
+      }
+    }
+  }
+
+
+  private void advect(int y0, int y1){
+    int w = fluid_w, h = fluid_h;
+    int nc = advect_nc;
+    float[] vel = advect_velocity;
+    float[] src = advect_src;
+    float[] dst = advect_dst;
+    float[] oC  = grid_obstacleC.src;
+    float scale = advect_timestep / param.gridscale;
+    float dissipation = advect_dissipation;
+
+    for(int y = y0; y < y1; y++){
+      for(int x = 0, i = y * w; x < w; x++, i++){
+        if(oC[i] == 1.0f){
+          for(int c = 0; c < nc; c++) dst[i*nc+c] = 0;
+          continue;
+        }
+        // backtrace, in texel coordinates
+        float px = x - scale * vel[i*2+0];
+        float py = y - scale * vel[i*2+1];
+        sampleBilinear(src, w, h, nc, px, py, dst, i*nc, dissipation);
+      }
+    }
+  }
+
+
+  // maccormack:  forward + (src - backward) / 2
+  // bfecc     :  src + (src - backward) / 2, at the backtraced position
+  // clamped to the range of the 4 source texels at the backtraced position.
+  private void advectCorrect(int y0, int y1){
+    int w = fluid_w, h = fluid_h;
+    int nc = advect_nc;
+    float[] vel = advect_velocity;
+    float[] src = advect_src;
+    float[] fwd = advect_forward;
+    float[] bwd = advect_backward;
+    float[] dst = advect_dst;
+    float[] oC  = grid_obstacleC.src;
+    float scale = advect_timestep / param.gridscale;
+    float dissipation = advect_dissipation;
+    boolean bfecc = param.advection == DwFluid2D.ADVECT_BFECC;
+
+    float[] phi_src = new float[nc];
+    float[] phi_bwd = new float[nc];
+
+    for(int y = y0; y < y1; y++){
+      for(int x = 0, i = y * w; x < w; x++, i++){
+        if(oC[i] == 1.0f){
+          for(int c = 0; c < nc; c++) dst[i*nc+c] = 0;
+          continue;
+        }
+        // backtrace, in texel coordinates
+        float px = x - scale * vel[i*2+0];
+        float py = y - scale * vel[i*2+1];
+
+        if(bfecc){
+          sampleBilinear(src, w, h, nc, px, py, phi_src, 0, 1);
+          sampleBilinear(bwd, w, h, nc, px, py, phi_bwd, 0, 1);
+        }
+
+        int x0 = (int) Math.floor(px), x1 = x0 + 1;
+        int y0_ = (int) Math.floor(py), y1_ = y0_ + 1;
+        boolean bx0 = x0  >= 0 && x0  < w, bx1 = x1  >= 0 && x1  < w;
+        boolean by0 = y0_ >= 0 && y0_ < h, by1 = y1_ >= 0 && y1_ < h;
+
+        for(int c = 0; c < nc; c++){
+          float phi;
+          if(bfecc){
+            phi = 1.5f * phi_src[c] - 0.5f * phi_bwd[c];
+          } else {
+            phi = fwd[i*nc+c] + 0.5f * (src[i*nc+c] - bwd[i*nc+c]);
+          }
+          // limiter, texels outside the grid are 0
+          float s00 = (by0 && bx0) ? src[((y0_) * w + x0) * nc + c] : 0;
+          float s10 = (by0 && bx1) ? src[((y0_) * w + x1) * nc + c] : 0;
+          float s01 = (by1 && bx0) ? src[((y1_) * w + x0) * nc + c] : 0;
+          float s11 = (by1 && bx1) ? src[((y1_) * w + x1) * nc + c] : 0;
+          float lo = Math.min(Math.min(s00, s10), Math.min(s01, s11));
+          float hi = Math.max(Math.max(s00, s10), Math.max(s01, s11));
+          dst[i*nc+c] = clamp(phi, lo, hi) * dissipation;
+        }
+      }
+    }
+  }
+
+
+  /**
+   * bilinear sample at texel coordinates (px, py), texels outside the grid are 0.
+   */
+  static private void sampleBilinear(float[] src, int w, int h, int nc, float px, float py, float[] dst, int dst_idx, float scale){
+
+    float fx = (float) Math.floor(px);
+    float fy = (float) Math.floor(py);
+    int x0 = (int) fx, x1 = x0 + 1;
+    int y0 = (int) fy, y1 = y0 + 1;
+    float tx = px - fx;
+    float ty = py - fy;
+
+    float w00 = (1-tx) * (1-ty);
+    float w10 = (  tx) * (1-ty);
+    float w01 = (1-tx) * (  ty);
+    float w11 = (  tx) * (  ty);
+
+    boolean bx0 = x0 >= 0 && x0 < w, bx1 = x1 >= 0 && x1 < w;
+    boolean by0 = y0 >= 0 && y0 < h, by1 = y1 >= 0 && y1 < h;
+
+    int i00 = (y0 * w + x0) * nc;
+    int i10 = i00 + nc;
+    int i01 = i00 + w * nc;
+    int i11 = i01 + nc;
+
+    for(int c = 0; c < nc; c++){
+      float v = 0;
+      if(by0 && bx0) v += w00 * src[i00+c];
+      if(by0 && bx1) v += w10 * src[i10+c];
+      if(by1 && bx0) v += w01 * src[i01+c];
+      if(by1 && bx1) v += w11 * src[i11+c];
+      dst[dst_idx+c] = v * scale;
+    }
+  }
+
+
+  private void buoyancy(int y0, int y1){
+    int w = fluid_w;
+    float[] vel  = grid_velocity.src;
+    float[] dst  = grid_velocity.dst;
+    float[] temp = grid_temperature.src;
+    float[] dens = grid_density.src;
+
+    float temperature_ambient = param.temperature_ambient;
+    float timestep            = param.timestep;
+    float fluid_buoyancy      = param.fluid_buoyancy;
+    float fluid_weight        = param.fluid_weight;
+
+    for(int y = y0; y < y1; y++){
+      for(int x = 0, i = y * w; x < w; x++, i++){
+        float vx = vel[i*2+0];
+        float vy = vel[i*2+1];
+        float dtemp = temp[i] - temperature_ambient;
+        if(dtemp != 0.0f){
+          float density = dens[i*4+3];
+          vy += timestep * dtemp * fluid_buoyancy - density * fluid_weight;
+        }
+        dst[i*2+0] = vx;
+        dst[i*2+1] = vy;
+      }
+    }
+  }
+
+
+  private void curl(int y0, int y1){
+    int w = fluid_w, h = fluid_h;
+    float[] vel  = grid_velocity.src;
+    float[] oC   = grid_obstacleC.src;
+    float[] curl = grid_curl.src;
+    float halfrdx = 0.5f / param.gridscale;
+
+    for(int y = y0; y < y1; y++){
+      for(int x = 0, i = y * w; x < w; x++, i++){
+        if(oC[i] == 1.0f){
+          curl[i] = 0;
+          continue;
+        }
+        float vTx = (y < h-1) ? vel[(i+w)*2+0] : 0;
+        float vBx = (y > 0  ) ? vel[(i-w)*2+0] : 0;
+        float vRy = (x < w-1) ? vel[(i+1)*2+1] : 0;
+        float vLy = (x > 0  ) ? vel[(i-1)*2+1] : 0;
+        curl[i] = halfrdx * ((vTx - vBx) - (vRy - vLy));
+      }
+    }
+  }
+
+
+  private void vorticity(int y0, int y1){
+    int w = fluid_w, h = fluid_h;
+    float[] vel  = grid_velocity.src;
+    float[] dst  = grid_velocity.dst;
+    float[] curl = grid_curl.src;
+    float halfrdx = 0.5f / param.gridscale;
+    float scale = param.timestep * param.vorticity;
+
+    for(int y = y0; y < y1; y++){
+      for(int x = 0, i = y * w; x < w; x++, i++){
+        float cT = (y < h-1) ? Math.abs(curl[i+w]) : 0;
+        float cB = (y > 0  ) ? Math.abs(curl[i-w]) : 0;
+        float cR = (x < w-1) ? Math.abs(curl[i+1]) : 0;
+        float cL = (x > 0  ) ? Math.abs(curl[i-1]) : 0;
+        float cC = curl[i];
+
+        // normalize
+        float dx = halfrdx * (cT - cB) + 0.000001f;
+        float dy = halfrdx * (cR - cL) + 0.000001f;
+        float dd = (float) Math.sqrt(dx*dx + dy*dy);
+        float fvc = cC * scale / dd;
+
+        dst[i*2+0] = vel[i*2+0] - dx * fvc;
+        dst[i*2+1] = vel[i*2+1] + dy * fvc;
+      }
+    }
+  }
+
+
+  private void divergence(int y0, int y1){
+    int w = fluid_w, h = fluid_h;
+    float[] vel = grid_velocity.src;
+    float[] oC  = grid_obstacleC.src;
+    float[] oN  = grid_obstacleN.src;
+    float[] div = grid_divergence.src;
+    float halfrdx = 0.5f / param.gridscale;
+
+    for(int y = y0; y < y1; y++){
+      for(int x = 0, i = y * w; x < w; x++, i++){
+        if(oC[i] == 1.0f){
+          div[i] = 0;
+          continue;
+        }
+        float vTy = (y < h-1) ? vel[(i+w)*2+1] : 0;
+        float vBy = (y > 0  ) ? vel[(i-w)*2+1] : 0;
+        float vRx = (x < w-1) ? vel[(i+1)*2+0] : 0;
+        float vLx = (x > 0  ) ? vel[(i-1)*2+0] : 0;
+        float vCx = vel[i*2+0];
+        float vCy = vel[i*2+1];
+
+        // no-slip (zero) velocity boundary conditions
+        // use negative center velocity if neighbor is an obstacle
+        vTy = mix(vTy, -vCy, oN[i*4+0]);
+        vBy = mix(vBy, -vCy, oN[i*4+1]);
+        vRx = mix(vRx, -vCx, oN[i*4+2]);
+        vLx = mix(vLx, -vCx, oN[i*4+3]);
+
+        div[i] = halfrdx * ((vRx - vLx) + (vTy - vBy));
+      }
+    }
+  }
+
+
+  private void jacobi(int y0, int y1){
+    int w = fluid_w, h = fluid_h;
+    float[] p   = grid_pressure.src;
+    float[] dst = grid_pressure.dst;
+    float[] b   = grid_divergence.src;
+    float[] oC  = grid_obstacleC.src;
+    float[] oN  = grid_obstacleN.src;
+    float alpha = -(param.gridscale * param.gridscale);
+    float rBeta = 0.25f;
+
+    for(int y = y0; y < y1; y++){
+      for(int x = 0, i = y * w; x < w; x++, i++){
+        if(oC[i] == 1.0f){
+          dst[i] = 0;
+          continue;
+        }
+        float xC = p[i];
+        float xT = (y < h-1) ? p[i+w] : 0;
+        float xB = (y > 0  ) ? p[i-w] : 0;
+        float xR = (x < w-1) ? p[i+1] : 0;
+        float xL = (x > 0  ) ? p[i-1] : 0;
+
+        // pure Neumann pressure boundary
+        // use center x (pressure) if neighbor is an obstacle
+        xT = mix(xT, xC, oN[i*4+0]);
+        xB = mix(xB, xC, oN[i*4+1]);
+        xR = mix(xR, xC, oN[i*4+2]);
+        xL = mix(xL, xC, oN[i*4+3]);
+
+        dst[i] = (xL + xR + xB + xT + alpha * b[i]) * rBeta;
+      }
+    }
+  }
+
+
+  private void gradient(int y0, int y1){
+    int w = fluid_w, h = fluid_h;
+    float[] vel = grid_velocity.src;
+    float[] dst = grid_velocity.dst;
+    float[] p   = grid_pressure.src;
+    float[] oC  = grid_obstacleC.src;
+    float[] oN  = grid_obstacleN.src;
+    // same scale as DwFluid2D.gradient()
+    float halfrdx = DwFluid2D.gradientScale(param.pressure_solver) / param.gridscale;
+
+    for(int y = y0; y < y1; y++){
+      for(int x = 0, i = y * w; x < w; x++, i++){
+        if(oC[i] == 1.0f){
+          dst[i*2+0] = 0;
+          dst[i*2+1] = 0;
+          continue;
+        }
+        float pC = p[i];
+        float pT = (y < h-1) ? p[i+w] : 0;
+        float pB = (y > 0  ) ? p[i-w] : 0;
+        float pR = (x < w-1) ? p[i+1] : 0;
+        float pL = (x > 0  ) ? p[i-1] : 0;
+
+        // pure Neumann pressure boundary
+        // use center pressure if neighbor is an obstacle
+        pT = mix(pT, pC, oN[i*4+0]);
+        pB = mix(pB, pC, oN[i*4+1]);
+        pR = mix(pR, pC, oN[i*4+2]);
+        pL = mix(pL, pC, oN[i*4+3]);
+
+        dst[i*2+0] = vel[i*2+0] - halfrdx * (pR - pL);
+        dst[i*2+1] = vel[i*2+1] - halfrdx * (pT - pB);
+      }
+    }
+  }
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // PRESSURE SOLVERS
+  //
+  // Same system as the jacobi-pressure pass: sum(x_neighbor) - 4 * x = h^2 * b,
+  // x_neighbor = x for obstacles (Neumann) and 0 outside the grid (Dirichlet).
+  //
+  // Each cell has a weight for each of its 4 faces, the fraction of the fluid
+  // grid faces that are open: 1 between two fluid cells, 0 next to an
+  // obstacle. Outside the grid, x is extrapolated from the border cell.
+  //
+  //   sum(weight * x_neighbor) - diag * x = h^2 * b
+  //
+  // MULTIGRID: cell-centered V-cycle, each coarse cell covers 2x2 cells of the
+  // finer level and is an obstacle if all of them are obstacles. Odd
+  // rows/columns at the top/right border are not covered by the coarser level.
+  //
+  //   smooth ..... damped jacobi
+  //   restrict ... average of the 4 residuals
+  //   prolong .... bilinear interpolation of the coarse correction, skipping
+  //                coarse obstacles
+  //
+  // SOR: red-black gauss-seidel, over-relaxed by param.sor_omega.
+  //
+  // CG: conjugate gradient, jacobi (diagonal) preconditioner.
+  //
+  // The gradient of their pressure is applied with the scale of the
+  // divergence, see DwFluid2D.gradientScale().
+  //
+  // Same as DwFluidPressure2D.
+  //////////////////////////////////////////////////////////////////////////////
+
+  // coarsest level is at most 8 x 8, solved by plain jacobi iterations
+  static private final int   MULTIGRID_COARSE_SIZE       = 8;
+  static private final int   MULTIGRID_COARSE_ITERATIONS = 32;
+  static private final float MULTIGRID_OMEGA             = 0.8f;
+
+  static private class Level {
+    int w, h;
+    float   scale;        // (cell size)^2
+    float[] boundary = new float[4]; // top, bottom, right, left
+    Grid    x = new Grid(); // pressure, or the correction on coarse levels
+    float[] b;            // divergence, or the restricted residual
+    float[] r = new float[0];
+    float[] obstacle = new float[0];
+    float[] weight   = new float[0]; // top, bottom, right, left
+    float[] diag     = new float[0];
+  }
+
+  private Level[] levels = new Level[0];
+  private int     num_levels;
+
+  // conjugate gradient
+  private float[] cg_r = new float[0];
+  private float[] cg_p = new float[0];
+  private float[] cg_q = new float[0];
+  private float   cg_alpha;
+  private float   cg_beta;
+
+  // pass arguments
+  private Level    mg_level;
+  private Level    mg_level_other;
+  private float    mg_omega;
+  private int      mg_parity;
+  private double[] mg_row_sum = new double[0]; // 2 per row
+
+
+  /**
+   * @param count number of levels, 1 ... fluid grid only, 0 ... all levels
+   */
+  private void multigridLevels(int count){
+    int w = fluid_w;
+    int h = fluid_h;
+    if(count <= 0){
+      count = 1;
+      while(Math.max(w, h) > MULTIGRID_COARSE_SIZE && Math.min(w, h) >= 4){
+        w = w / 2;
+        h = h / 2;
+        count++;
+      }
+    }
+
+    if(levels.length < count){
+      levels = Arrays.copyOf(levels, count);
+    }
+    num_levels = count;
+
+    w = fluid_w;
+    h = fluid_h;
+    for(int l = 0; l < num_levels; l++){
+      if(levels[l] == null){
+        levels[l] = new Level();
+      }
+      Level level = levels[l];
+      level.w = w;
+      level.h = h;
+      level.scale = (float) Math.pow(param.gridscale * (1 << l), 2);
+      level.boundary[0] = multigridBoundary(l, fluid_h, h);
+      level.boundary[1] = multigridBoundary(l, 1 << l, 1);
+      level.boundary[2] = multigridBoundary(l, fluid_w, w);
+      level.boundary[3] = multigridBoundary(l, 1 << l, 1);
+      if(level.r.length != w * h){
+        level.r      = new float[w * h];
+        level.weight = new float[w * h * 4];
+        level.diag   = new float[w * h];
+      }
+      if(l == 0){
+        level.b        = grid_divergence.src;
+        level.obstacle = grid_obstacleC.src;
+      } else {
+        level.x.resize(w, h, 1);
+        if(level.obstacle.length != w * h || level.b == grid_divergence.src){
+          level.b        = new float[w * h];
+          level.obstacle = new float[w * h];
+        }
+      }
+      mg_level = level;
+      mg_level_other = (l > 0) ? levels[l - 1] : null;
+      run(PASS_MG_LEVEL, w, h);
+      w = w / 2;
+      h = h / 2;
+    }
+
+    if(mg_row_sum.length < fluid_h * 2){
+      mg_row_sum = new double[fluid_h * 2];
+    }
+  }
+
+
+  /**
+   * Outside the grid, each level extrapolates x from the border cell, so that
+   * it is 0 where it is 0 for the fluid grid: half a fluid grid cell outside.
+   *
+   * @param level
+   * @param size_fine size of the fluid grid, in fluid grid cells
+   * @param size size of the level, in cells of the level
+   * @return factor f, x_outside = -f * x_border
+   */
+  static private float multigridBoundary(int level, int size_fine, int size){
+    float cell = 1 << level;
+    // distance from the center of the border cell to x = 0, in fluid grid
+    // cells. all levels are aligned at the left/bottom border.
+    float d = size_fine + 0.5f - (size - 0.5f) * cell;
+    return (cell - d) / d;
+  }
+
+
+  private void multigrid(){
+    multigridLevels(0);
+
+    Level fine = levels[0];
+    fine.x = grid_pressure;
+    float tolerance = param.pressure_tolerance;
+    float residual_first = 0;
+    float residual = -1;
+
+    int cycle = 0;
+    for(; cycle < param.num_multigrid_cycles; cycle++){
+
+      // 1) pre-smoothing + residual on the fluid grid, early exit
+      multigridSmooth(fine, param.num_multigrid_smooth, MULTIGRID_OMEGA);
+      residual = multigridResidual(fine);
+      if(cycle == 0){
+        residual_first = residual;
+      } else if(residual <= tolerance * residual_first){
+        break;
+      }
+
+      // 2) restrict down to the coarsest level
+      for(int l = 1; l < num_levels; l++){
+        Level level = levels[l];
+        mg_level = level;
+        mg_level_other = levels[l - 1];
+        run(PASS_MG_RESTRICT, level.w, level.h);
+        Arrays.fill(level.x.src, 0);
+        if(l < num_levels - 1){
+          multigridSmooth(level, param.num_multigrid_smooth, MULTIGRID_OMEGA);
+          multigridResidual(level);
+        } else {
+          multigridSmooth(level, MULTIGRID_COARSE_ITERATIONS, 1.0f);
+        }
+      }
+
+      // 3) prolong the corrections up to the fluid grid + post-smoothing
+      for(int l = num_levels - 2; l >= 0; l--){
+        Level level = levels[l];
+        mg_level = level;
+        mg_level_other = levels[l + 1];
+        run(PASS_MG_PROLONG, level.w, level.h);
+        multigridSmooth(level, param.num_multigrid_smooth, MULTIGRID_OMEGA);
+      }
+    }
+
+    if(cycle == param.num_multigrid_cycles && cycle > 0){
+      residual = multigridResidual(fine);
+    }
+    pressure_iterations = cycle;
+    pressure_residual   = residual;
+  }
+
+
+  private void sor(){
+    multigridLevels(1);
+
+    Level fine = levels[0];
+    fine.x = grid_pressure;
+    float tolerance = param.pressure_tolerance;
+    int   interval  = Math.max(1, param.pressure_check_interval);
+    float omega     = getOmegaSOR(param.sor_omega, fluid_w, fluid_h);
+    float residual_first = multigridResidual(fine);
+    float residual = residual_first;
+
+    int iter = 0;
+    while(iter < param.num_pressure_iterations){
+      // red, then black cells
+      multigridSmooth(fine, 1, omega, 0);
+      multigridSmooth(fine, 1, omega, 1);
+      iter++;
+      if(iter % interval == 0 || iter == param.num_pressure_iterations){
+        residual = multigridResidual(fine);
+        if(residual <= tolerance * residual_first){
+          break;
+        }
+      }
+    }
+
+    pressure_iterations = iter;
+    pressure_residual   = residual;
+  }
+
+
+  /**
+   * @return omega, or if omega is 0, the optimal one for the poisson equation
+   *         on a w x h grid: 2 / (1 + sin(PI / max(w, h)))
+   */
+  static private float getOmegaSOR(float omega, int w, int h){
+    if(omega > 0) return omega;
+    return (float) (2.0 / (1.0 + Math.sin(Math.PI / Math.max(2, Math.max(w, h)))));
+  }
+
+
+  private void conjugateGradient(){
+    multigridLevels(1);
+
+    Level fine = levels[0];
+    fine.x = grid_pressure;
+    int len = fluid_w * fluid_h;
+    if(cg_r.length != len){
+      cg_r = new float[len];
+      cg_p = new float[len];
+      cg_q = new float[len];
+    }
+    mg_level = fine;
+
+    // the system is solved for -(h^2 * b), which makes it positive definite
+    // r = -(h^2 * b) - A * x, p = r / diag
+    run(PASS_CG_INIT);
+    double rz = sumRows(0);
+    double rr = sumRows(1);
+
+    float tolerance = param.pressure_tolerance;
+    double rr_first = rr;
+
+    int iter = 0;
+    while(iter < param.num_pressure_iterations && rr > tolerance * tolerance * rr_first && rz > 0){
+      // q = A * p
+      run(PASS_CG_OPERATOR);
+      double pq = sumRows(0);
+      if(pq <= 0) break;
+
+      // x += alpha * p, r -= alpha * q
+      cg_alpha = (float) (rz / pq);
+      run(PASS_CG_UPDATE);
+      double rz_new = sumRows(0);
+      rr = sumRows(1);
+      iter++;
+
+      // p = r / diag + beta * p
+      cg_beta = (float) (rz_new / rz);
+      rz = rz_new;
+      run(PASS_CG_DIRECTION);
+    }
+
+    // the updated residual drifts from the true one, float precision
+    pressure_iterations = iter;
+    pressure_residual   = multigridResidual(fine);
+  }
+
+
+  private double sumRows(int idx){
+    double sum = 0;
+    for(int y = 0; y < fluid_h; y++){
+      sum += mg_row_sum[y * 2 + idx];
+    }
+    return sum;
+  }
+
+
+  private void multigridSmooth(Level level, int iterations, float omega){
+    multigridSmooth(level, iterations, omega, -1);
+  }
+
+  /**
+   * @param parity -1 ... all cells, 0/1 ... only cells with (x + y) % 2 == parity
+   */
+  private void multigridSmooth(Level level, int iterations, float omega, int parity){
+    mg_level  = level;
+    mg_omega  = omega;
+    mg_parity = parity;
+    for(int i = 0; i < iterations; i++){
+      run(PASS_MG_SMOOTH, level.w, level.h);
+      level.x.swap();
+    }
+  }
+
+
+  /**
+   * @return root mean square of the residual
+   */
+  private float multigridResidual(Level level){
+    mg_level = level;
+    run(PASS_MG_RESIDUAL, level.w, level.h);
+    double sum = 0;
+    for(int y = 0; y < level.h; y++){
+      sum += mg_row_sum[y * 2];
+    }
+    return (float) Math.sqrt(sum / (level.w * level.h));
+  }
+
+
+  // weighted sum of the 4 neighbors, neighbors outside the level are skipped
+  static private float neighborSum(float[] p, float[] wt, int x, int y, int i, int w, int h){
+    float sum = 0;
+    if(y < h-1) sum += wt[i*4+0] * p[i+w];
+    if(y > 0  ) sum += wt[i*4+1] * p[i-w];
+    if(x < w-1) sum += wt[i*4+2] * p[i+1];
+    if(x > 0  ) sum += wt[i*4+3] * p[i-1];
+    return sum;
+  }
+
+
+  // obstacles, face weights and the diagonal, from the obstacles of the fluid
+  // grid, or from the finer level.
+  private void multigridLevel(int y0, int y1){
+    Level c = mg_level, f = mg_level_other;
+    int w = c.w, h = c.h;
+    float[] o  = c.obstacle;
+    float[] wt = c.weight;
+    float[] bd = c.boundary;
+
+    for(int y = y0; y < y1; y++){
+      for(int x = 0, i = y * w; x < w; x++, i++){
+        if(f == null){
+          boolean solid = o[i] == 1.0f;
+          wt[i*4+0] = (solid) ? 0 : (y < h-1) ? 1 - o[i+w] : 1;
+          wt[i*4+1] = (solid) ? 0 : (y > 0  ) ? 1 - o[i-w] : 1;
+          wt[i*4+2] = (solid) ? 0 : (x < w-1) ? 1 - o[i+1] : 1;
+          wt[i*4+3] = (solid) ? 0 : (x > 0  ) ? 1 - o[i-1] : 1;
+        } else {
+          int fi = (y * 2) * f.w + (x * 2); // bottom-left child
+          float[] fw = f.weight;
+          float[] fo = f.obstacle;
+          float solid = Math.min(Math.min(fo[fi], fo[fi+1]), Math.min(fo[fi+f.w], fo[fi+f.w+1]));
+          o[i] = (solid == 1.0f) ? 1.0f : 0.0f;
+          wt[i*4+0] = (fw[(fi+f.w)*4+0] + fw[(fi+f.w+1)*4+0]) * 0.5f;
+          wt[i*4+1] = (fw[(fi    )*4+1] + fw[(fi    +1)*4+1]) * 0.5f;
+          wt[i*4+2] = (fw[(fi+1  )*4+2] + fw[(fi+f.w+1)*4+2]) * 0.5f;
+          wt[i*4+3] = (fw[(fi    )*4+3] + fw[(fi+f.w  )*4+3]) * 0.5f;
+        }
+        // faces at the border also carry the extrapolated outside value
+        float diag = wt[i*4+0] + wt[i*4+1] + wt[i*4+2] + wt[i*4+3];
+        if(y == h-1) diag += wt[i*4+0] * bd[0];
+        if(y == 0  ) diag += wt[i*4+1] * bd[1];
+        if(x == w-1) diag += wt[i*4+2] * bd[2];
+        if(x == 0  ) diag += wt[i*4+3] * bd[3];
+        c.diag[i] = diag;
+      }
+    }
+  }
+
+
+  private void multigridSmooth(int y0, int y1){
+    Level level = mg_level;
+    int w = level.w, h = level.h;
+    float[] p   = level.x.src;
+    float[] dst = level.x.dst;
+    float[] b   = level.b;
+    float[] o   = level.obstacle;
+    float[] wt  = level.weight;
+    float[] dg  = level.diag;
+    float alpha = -level.scale;
+    float omega = mg_omega;
+    int parity  = mg_parity;
+
+    for(int y = y0; y < y1; y++){
+      for(int x = 0, i = y * w; x < w; x++, i++){
+        if(o[i] == 1.0f){
+          dst[i] = 0;
+          continue;
+        }
+        if(parity >= 0 && ((x + y) & 1) != parity){
+          dst[i] = p[i];
+          continue;
+        }
+        float sum = neighborSum(p, wt, x, y, i, w, h);
+        float xJ = (dg[i] > 0) ? (sum + alpha * b[i]) / dg[i] : 0;
+        dst[i] = mix(p[i], xJ, omega);
+      }
+    }
+  }
+
+
+  private void multigridResidual(int y0, int y1){
+    Level level = mg_level;
+    int w = level.w, h = level.h;
+    float[] p  = level.x.src;
+    float[] b  = level.b;
+    float[] r  = level.r;
+    float[] o  = level.obstacle;
+    float[] wt = level.weight;
+    float[] dg = level.diag;
+    float rscale = 1.0f / level.scale;
+
+    for(int y = y0; y < y1; y++){
+      double sum_sq = 0;
+      for(int x = 0, i = y * w; x < w; x++, i++){
+        if(o[i] == 1.0f){
+          r[i] = 0;
+          continue;
+        }
+        float sum = neighborSum(p, wt, x, y, i, w, h);
+        float res = b[i] - (sum - dg[i] * p[i]) * rscale;
+        r[i] = res;
+        sum_sq += res * res;
+      }
+      mg_row_sum[y * 2] = sum_sq;
+    }
+  }
+
+
+  private void multigridRestrict(int y0, int y1){
+    Level c = mg_level, f = mg_level_other;
+    for(int y = y0; y < y1; y++){
+      for(int x = 0, i = y * c.w; x < c.w; x++, i++){
+        int fi = (y * 2) * f.w + (x * 2);
+        float sum = f.r[fi] + f.r[fi+1] + f.r[fi+f.w] + f.r[fi+f.w+1];
+        c.b[i] = (c.obstacle[i] == 1.0f) ? 0 : sum * 0.25f;
+      }
+    }
+  }
+
+
+  private void multigridProlong(int y0, int y1){
+    Level f = mg_level, c = mg_level_other;
+    float[] p  = f.x.src;
+    float[] pc = c.x.src;
+    float[] oc = c.obstacle;
+    for(int y = y0; y < y1; y++){
+      // coarse cells below/above, and the weight of the upper one
+      int   cy0 = (y - 1) >> 1;
+      int   cy1 = cy0 + 1;
+      float fy  = ((y & 1) == 0) ? 0.75f : 0.25f;
+      for(int x = 0, i = y * f.w; x < f.w; x++, i++){
+        if(f.obstacle[i] == 1.0f) continue;
+        int   cx0 = (x - 1) >> 1;
+        int   cx1 = cx0 + 1;
+        float fx  = ((x & 1) == 0) ? 0.75f : 0.25f;
+        // bilinear, obstacles are skipped, outside the level is 0
+        float sum = 0, sum_w = 0;
+        for(int k = 0; k < 4; k++){
+          int   cx = ((k & 1) == 0) ? cx0 : cx1;
+          int   cy = ((k & 2) == 0) ? cy0 : cy1;
+          float wk = (((k & 1) == 0) ? 1 - fx : fx) * (((k & 2) == 0) ? 1 - fy : fy);
+          if(cx < 0 || cy < 0 || cx >= c.w || cy >= c.h){
+            sum_w += wk;
+          } else if(oc[cy * c.w + cx] != 1.0f){
+            sum   += wk * pc[cy * c.w + cx];
+            sum_w += wk;
+          }
+        }
+        if(sum_w > 0){
+          p[i] += sum / sum_w;
+        }
+      }
+    }
+  }
+
+
+  private void conjugateGradientInit(int y0, int y1){
+    Level level = mg_level;
+    int w = level.w, h = level.h;
+    float[] x  = level.x.src;
+    float[] b  = level.b;
+    float[] wt = level.weight;
+    float[] dg = level.diag;
+    float[] r  = cg_r;
+    float[] p  = cg_p;
+    float alpha = -level.scale;
+
+    for(int y = y0; y < y1; y++){
+      double rz = 0, rr = 0;
+      for(int i = y * w, x_ = 0; x_ < w; x_++, i++){
+        if(dg[i] <= 0){
+          r[i] = p[i] = 0;
+          continue;
+        }
+        float res = alpha * b[i] - (dg[i] * x[i] - neighborSum(x, wt, x_, y, i, w, h));
+        r[i] = res;
+        p[i] = res / dg[i];
+        rz += res * p[i];
+        rr += res * res;
+      }
+      mg_row_sum[y * 2 + 0] = rz;
+      mg_row_sum[y * 2 + 1] = rr;
+    }
+  }
+
+
+  private void conjugateGradientOperator(int y0, int y1){
+    Level level = mg_level;
+    int w = level.w, h = level.h;
+    float[] wt = level.weight;
+    float[] dg = level.diag;
+    float[] p  = cg_p;
+    float[] q  = cg_q;
+
+    for(int y = y0; y < y1; y++){
+      double pq = 0;
+      for(int i = y * w, x = 0; x < w; x++, i++){
+        q[i] = (dg[i] <= 0) ? 0 : dg[i] * p[i] - neighborSum(p, wt, x, y, i, w, h);
+        pq += p[i] * q[i];
+      }
+      mg_row_sum[y * 2] = pq;
+    }
+  }
+
+
+  private void conjugateGradientUpdate(int y0, int y1){
+    Level level = mg_level;
+    int w = level.w;
+    float[] x  = level.x.src;
+    float[] dg = level.diag;
+    float[] r  = cg_r;
+    float[] p  = cg_p;
+    float[] q  = cg_q;
+    float alpha = cg_alpha;
+
+    for(int y = y0; y < y1; y++){
+      double rz = 0, rr = 0;
+      for(int i = y * w, end = i + w; i < end; i++){
+        if(dg[i] <= 0) continue;
+        x[i] += alpha * p[i];
+        r[i] -= alpha * q[i];
+        rz += r[i] * r[i] / dg[i];
+        rr += r[i] * r[i];
+      }
+      mg_row_sum[y * 2 + 0] = rz;
+      mg_row_sum[y * 2 + 1] = rr;
+    }
+  }
+
+
+  private void conjugateGradientDirection(int y0, int y1){
+    Level level = mg_level;
+    int w = level.w;
+    float[] dg = level.diag;
+    float[] r  = cg_r;
+    float[] p  = cg_p;
+    float beta = cg_beta;
+
+    for(int i = y0 * w, end = y1 * w; i < end; i++){
+      p[i] = (dg[i] <= 0) ? 0 : r[i] / dg[i] + beta * p[i];
+    }
+  }
+
+
+  static private float mix(float a, float b, float t){
+    return a + (b - a) * t;
+  }
+
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // DATA TRANSFER
+  //////////////////////////////////////////////////////////////////////////////
+
+  // [x0, y0, x1, y1, ...], same as DwFluid2D, GPU_DATA_READ == 0
+  public float[] getVelocity(float[] data_F2, int x, int y, int w, int h){
+    return getGridData(grid_velocity, data_F2, x, y, w, h);
+  }
+
+  public float[] getVelocity(float[] data_F2){
+    return getGridData(grid_velocity, data_F2, 0, 0, fluid_w, fluid_h);
+  }
+
+  /**
+   * Bilinear velocity at the given positions (viewport, y-up), same as
+   * DwFluid2D.sampleVelocity().
+   */
+  public float[] sampleVelocity(float[] positions_xy, int count, float[] data_F2){
+    int data_len = count * 2;
+    if(data_F2 == null || data_F2.length != data_len){
+      data_F2 = new float[data_len];
+    }
+    float sx = fluid_w / (float) viewp_w;
+    float sy = fluid_h / (float) viewp_h;
+    for(int i = 0; i < data_len; i += 2){
+      float px = positions_xy[i+0] * sx - 0.5f;
+      float py = positions_xy[i+1] * sy - 0.5f;
+      sampleBilinear(grid_velocity.src, fluid_w, fluid_h, 2, px, py, data_F2, i, 1.0f);
+    }
+    return data_F2;
+  }
+
+  // [r0, g0, b0, a0, r1, g1, b1, a1, ...], same as DwFluid2D, GPU_DATA_READ == 0
+  public float[] getDensity(float[] data_F4, int x, int y, int w, int h){
+    return getGridData(grid_density, data_F4, x, y, w, h);
+  }
+
+  public float[] getDensity(float[] data_F4){
+    return getGridData(grid_density, data_F4, 0, 0, fluid_w, fluid_h);
+  }
+
+  private float[] getGridData(Grid grid, float[] data, int x, int y, int w, int h){
+    int nc = grid.num_channel;
+    int data_len = w * h * nc;
+    if(data == null || data.length != data_len){
+      data = new float[data_len];
+    }
+    for(int row = 0; row < h; row++){
+      System.arraycopy(grid.src, ((y + row) * fluid_w + x) * nc, data, row * w * nc, w * nc);
+    }
+    return data;
+  }
+
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // ADD FLUID DATA: density, velocity, temperature, obstacles
+  //
+  // Same blend modes as the addData shaders, used by DwFluid2D
+  // px, py, radius are in viewport coordinates, y-up.
+  //////////////////////////////////////////////////////////////////////////////
+
+  public void addVelocity(float px, float py, float radius, float vx, float vy){
+    addVelocity(px, py, radius, vx, vy, 2, 0.5f);
+  }
+
+  public void addVelocity(float px, float py, float radius, float vx, float vy, int blend_mode, float mix){
+    float[] v = grid_velocity.src;
+
+    float sx = fluid_w / (float) viewp_w;
+    float sy = fluid_h / (float) viewp_h;
+    float data_x = px * sx;
+    float data_y = py * sy;
+    float data_r = radius * (sx + sy) * 0.5f;
+
+    int xmin = Math.max(0, (int) Math.floor(data_x - data_r)), xmax = Math.min(fluid_w-1, (int) Math.ceil(data_x + data_r));
+    int ymin = Math.max(0, (int) Math.floor(data_y - data_r)), ymax = Math.min(fluid_h-1, (int) Math.ceil(data_y + data_r));
+
+    for(int y = ymin; y <= ymax; y++){
+      for(int x = xmin; x <= xmax; x++){
+        float dx = x + 0.5f - data_x;
+        float dy = y + 0.5f - data_y;
+        float dist = (float) Math.sqrt(dx*dx + dy*dy);
+        if(dist >= data_r) continue;
+
+        int i = (y * fluid_w + x) * 2;
+        float dist_norm = 1.0f - clamp(dist / data_r, 0, 1);
+
+        // REPLACE
+        if(blend_mode == 0){
+          v[i+0] = vx;
+          v[i+1] = vy;
+        }
+        // ADD
+        if(blend_mode == 1){
+          float falloff = clamp((float) Math.sqrt(dist_norm * 0.1f), 0, 1);
+          v[i+0] += vx * falloff;
+          v[i+1] += vy * falloff;
+        }
+        // MAX_MAGNITUDE
+        if(blend_mode == 2){
+          float nx = vx * dist_norm;
+          float ny = vy * dist_norm;
+          if(v[i+0]*v[i+0] + v[i+1]*v[i+1] <= nx*nx + ny*ny){
+            v[i+0] = mix(v[i+0], nx, mix);
+            v[i+1] = mix(v[i+1], ny, mix);
+          }
+        }
+      }
+    }
+  }
+
+
+  public void addDensity(float px, float py, float radius, float r, float g, float b, float intensity){
+    addDensity(px, py, radius, r, g, b, intensity, 2);
+  }
+
+  public void addDensity(float px, float py, float radius, float r, float g, float b, float intensity, int blend_mode){
+    float[] d = grid_density.src;
+    float[] dNew = {r, g, b, intensity};
+
+    float sx = fluid_w / (float) viewp_w;
+    float sy = fluid_h / (float) viewp_h;
+    float data_x = px * sx;
+    float data_y = py * sy;
+    float data_r = radius * (sx + sy) * 0.5f;
+
+    int xmin = Math.max(0, (int) Math.floor(data_x - data_r)), xmax = Math.min(fluid_w-1, (int) Math.ceil(data_x + data_r));
+    int ymin = Math.max(0, (int) Math.floor(data_y - data_r)), ymax = Math.min(fluid_h-1, (int) Math.ceil(data_y + data_r));
+
+    for(int y = ymin; y <= ymax; y++){
+      for(int x = xmin; x <= xmax; x++){
+        float dx = x + 0.5f - data_x;
+        float dy = y + 0.5f - data_y;
+        float dist = (float) Math.sqrt(dx*dx + dy*dy);
+        if(dist >= data_r) continue;
+
+        int i = (y * fluid_w + x) * 4;
+        float dist_norm = 1.0f - clamp(dist / data_r, 0, 1);
+
+        for(int c = 0; c < 4; c++){
+          float dOld = d[i+c];
+          switch(blend_mode){
+            case 0: d[i+c] = dNew[c]; break; // REPLACE
+            case 1: d[i+c] = mix(dOld, dNew[c], dist_norm * dist_norm); break; // MIX_FALLOFF
+            case 2: d[i+c] = Math.max(dOld, dNew[c] * (float) Math.sqrt(Math.sqrt(dist_norm))); break; // MAX_FALLOFF
+            case 3: d[i+c] = Math.max(dOld, dNew[c]); break; // MAX
+            case 4: d[i+c] = (c < 3) ? dNew[c] : dOld; break; // NEW_RGB_OLD_A
+            case 5: d[i+c] = (dNew[c] + dOld) * 0.5f; break; // OLD_NEW_AVG
+            case 6: d[i+c] = mix(dOld, mix(dNew[c], dOld, 0.99f) * 0.99f, dist_norm * dist_norm); break; // OLD_REDUCE
+          }
+        }
+      }
+    }
+  }
+
+
+  public void addTemperature(float px, float py, float radius, float temperature){
+    float[] t = grid_temperature.src;
+
+    float sx = fluid_w / (float) viewp_w;
+    float sy = fluid_h / (float) viewp_h;
+    float data_x = px * sx;
+    float data_y = py * sy;
+    float data_r = radius * (sx + sy) * 0.5f;
+
+    int xmin = Math.max(0, (int) Math.floor(data_x - data_r)), xmax = Math.min(fluid_w-1, (int) Math.ceil(data_x + data_r));
+    int ymin = Math.max(0, (int) Math.floor(data_y - data_r)), ymax = Math.min(fluid_h-1, (int) Math.ceil(data_y + data_r));
+
+    for(int y = ymin; y <= ymax; y++){
+      for(int x = xmin; x <= xmax; x++){
+        float dx = x + 0.5f - data_x;
+        float dy = y + 0.5f - data_y;
+        if(dx*dx + dy*dy < data_r*data_r){
+          t[y * fluid_w + x] = temperature;
+        }
+      }
+    }
+  }
+
+
+  /**
+   * Every pixel that is not fully transparent black becomes an obstacle,
+   * same as DwFluid2D.addObstacles(PGraphics2D).
+   *
+   * @param pixels ARGB, row by row, starting at the top (e.g. PGraphics.pixels)
+   * @param w width of the image
+   * @param h height of the image
+   */
+  public void addObstacles(int[] pixels, int w, int h){
+    float[] oC = grid_obstacleC.src;
+    for(int y = 0; y < fluid_h; y++){
+      int py = h - 1 - (int) ((y + 0.5f) * h / fluid_h);
+      for(int x = 0; x < fluid_w; x++){
+        int px = (int) ((x + 0.5f) * w / fluid_w);
+        oC[y * fluid_w + x] = (pixels[py * w + px] != 0) ? 1.0f : 0.0f;
+      }
+    }
+  }
+
+
+  static private float clamp(float a, float lo, float hi){
+    return a < lo ? lo : a > hi ? hi : a;
+  }
+
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Interfaces
+  //////////////////////////////////////////////////////////////////////////////
+
+  public void addCallback_FluiData(FluidData cb_fluid_data){
+    CB_fluid_data = cb_fluid_data;
+  }
+
+  public FluidData getCallback_FluiData(){
+    return CB_fluid_data;
+  }
+
+  public void addCallback_Advect(Advect cb_advect){
+    CB_advect = cb_advect;
+  }
+
+  static public interface FluidData{
+    public void update(DwFluid2DCPU fluid);
+  }
+  static public interface Advect{
+    public void update(DwFluid2DCPU fluid);
+  }
+
+}
@@ -0,0 +1,716 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+
+
+package com.thomasdiewald.pixelflow.java.fluid;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+
+import com.thomasdiewald.pixelflow.java.dwgl.DwGLTexture;
+
+
+/**
+ *
+ * Batch mode for DwFluid2D and DwFluid2DCPU, e.g. for baking sequences offline.
+ *
+ * Steps the fluid for a number of updates, with sources from a Schedule, and
+ * dumps velocity, density and temperature of every stride-th step (including
+ * step 0) to a file. A run can be resumed from any dumped step.
+ *
+ * <pre><code>
+ * DwFluid2DCPU fluid = new DwFluid2DCPU(800, 600, 2); // no OpenGL context
+ * DwFluidBatch2D batch = new DwFluidBatch2D(new DwFluidBatch2D.FluidCPU(fluid));
+ * batch.stride   = 10;
+ * batch.schedule = new DwFluidBatch2D.Schedule() {
+ *   public void update(DwFluidBatch2D.Fluid fluid, int step) {
+ *     if(step < 100) fluid.addDensity(400, 100, 30, 1, 1, 1, 1);
+ *   }
+ * };
+ * batch.run(new File("fluid.bin"), 1000);
+ * batch.resume(new File("fluid.bin"), 500, 1000); // recompute from step 500
+ * </code></pre>
+ *
+ * The schedule only gets the step number, so a resumed run adds the same
+ * sources as the original. It is called from the FluidData callback of the
+ * fluid, same place as in an interactive update. A FluidData callback the
+ * fluid already has is kept: during the run it is called before the schedule,
+ * afterwards it is restored. For an exact resume, it must not add anything
+ * (e.g. mouse input) that the schedule doesn't reproduce. Params, obstacles
+ * and the timestep are not part of the file and have to be set up the same
+ * way.
+ *
+ * DwFluid2DCPU resumes bit-exact. DwFluid2D needs an OpenGL context (e.g. of
+ * a sketch, that is not shown) and is exact too, except with Param.tile_size
+ * > 0, where the first update after resuming uses the tiles of the last one.
+ *
+ * File, little endian:
+ *
+ *   header (64 bytes)
+ *     int   magic ("DWFB"), version
+ *     int   fields (VELOCITY | DENSITY | TEMPERATURE), bytes per value (4, 2)
+ *     int   fluid_w, fluid_h, viewp_w, viewp_h, grid_scale
+ *     int   stride
+ *     float timestep
+ *     int   number of frames
+ *     long  frame size (bytes)
+ *
+ *   frame i, at 64 + i * frame size
+ *     int   step (= i * stride), 0
+ *     velocity    (fluid_w * fluid_h * 2), if dumped
+ *     density     (fluid_w * fluid_h * 4), if dumped
+ *     temperature (fluid_w * fluid_h * 1), if dumped
+ *
+ * Values are floats, or half floats (half_float = true), which halves the
+ * size, but resuming from a half float frame is not exact.
+ *
+ * The frames are written and read by positional FileChannel transfers
+ * through one reused buffer, the file is not kept mapped: mappings can't be
+ * released before they are garbage collected, which would pile up one per
+ * frame and lock the file (e.g. on Windows, for the next run). The layout
+ * suits memory-mapping the finished file for playback.
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwFluidBatch2D {
+
+  static public final int VELOCITY    = 1;
+  static public final int DENSITY     = 2;
+  static public final int TEMPERATURE = 4;
+  static public final int FIELDS_ALL  = VELOCITY | DENSITY | TEMPERATURE;
+
+  static public final int FILE_MAGIC   = 0x44574642; // "DWFB"
+  static public final int FILE_VERSION = 1;
+  static public final int HEADER_SIZE  = 64;
+
+  static private final int[] FIELD_LIST = { VELOCITY, DENSITY, TEMPERATURE };
+
+
+  public interface Schedule {
+    /**
+     * adds the sources of the given step (0, 1, 2, ...)
+     */
+    public void update(Fluid fluid, int step);
+  }
+
+
+  // dump every stride-th step
+  public int      stride     = 1;
+  public int      fields     = FIELDS_ALL;
+  public boolean  half_float = false;
+  public Schedule schedule;
+
+  public Fluid fluid;
+
+  public DwFluidBatch2D(Fluid fluid){
+    this.fluid = fluid;
+  }
+
+
+
+  /**
+   * Dumps the current state of the fluid as step 0, and runs num_steps
+   * updates.
+   */
+  public void run(File file, int num_steps) throws IOException {
+    fluid.setStep(0);
+    Dump dump = Dump.create(file, fluid, fields, half_float ? 2 : 4, stride);
+    try {
+      dump.write(fluid);
+      run(dump, num_steps);
+    } finally {
+      dump.close();
+    }
+  }
+
+
+  /**
+   * Loads the given step from the file, and runs it to num_steps. Frames after
+   * the given step are replaced.
+   */
+  public void resume(File file, int step, int num_steps) throws IOException {
+    Dump dump = Dump.open(file, true);
+    try {
+      if(dump.fields != FIELDS_ALL){
+        throw new IOException("DwFluidBatch2D.resume: "+file+" has no complete fluid state");
+      }
+      if(dump.w != fluid.w() || dump.h != fluid.h()){
+        throw new IOException("DwFluidBatch2D.resume: "+file+" grid size doesn't match: "+dump.w+" x "+dump.h);
+      }
+      int frame = step / dump.stride;
+      if(step % dump.stride != 0 || frame >= dump.num_frames){
+        throw new IOException("DwFluidBatch2D.resume: step "+step+" is not in "+file);
+      }
+      for(int field : FIELD_LIST){
+        fluid.setField(field, dump.read(frame, field, null));
+      }
+      fluid.setStep(step);
+      dump.setNumFrames(frame + 1);
+      run(dump, num_steps);
+    } finally {
+      dump.close();
+    }
+  }
+
+
+  private void run(Dump dump, int num_steps) throws IOException {
+    fluid.beginSchedule(schedule);
+    try {
+      while(fluid.getStep() < num_steps){
+        fluid.update();
+        if(fluid.getStep() % dump.stride == 0){
+          dump.write(fluid);
+        }
+      }
+    } finally {
+      fluid.endSchedule();
+    }
+  }
+
+
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // FILE
+  //////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Dump file, also for reading the frames back.
+   */
+  static public class Dump {
+
+    public int   fields;
+    public int   bytes_per_value;
+    public int   w, h;
+    public int   viewp_w, viewp_h, grid_scale;
+    public int   stride;
+    public float timestep;
+    public int   num_frames;
+    public long  frame_size;
+
+    private RandomAccessFile file;
+    private FileChannel      channel;
+    private ByteBuffer       header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private ByteBuffer       buffer; // frame data, reused
+    private boolean          writable;
+
+    private float[] data;
+
+
+    static private Dump create(File file, Fluid fluid, int fields, int bytes_per_value, int stride) throws IOException {
+      Dump dump = new Dump();
+      dump.fields          = fields;
+      dump.bytes_per_value = bytes_per_value;
+      dump.w               = fluid.w();
+      dump.h               = fluid.h();
+      dump.viewp_w         = fluid.viewportW();
+      dump.viewp_h         = fluid.viewportH();
+      dump.grid_scale      = fluid.gridScale();
+      dump.stride          = Math.max(1, stride);
+      dump.timestep        = fluid.timestep();
+      dump.num_frames      = 0;
+      dump.frame_size      = 8 + (long) dump.w * dump.h * numChannels(fields) * bytes_per_value;
+
+      // an existing file is truncated, not deleted and recreated
+      dump.openFile(file, true);
+      dump.file.setLength(0);
+      dump.header.putInt(FILE_MAGIC);
+      dump.header.putInt(FILE_VERSION);
+      dump.header.putInt(dump.fields);
+      dump.header.putInt(dump.bytes_per_value);
+      dump.header.putInt(dump.w);
+      dump.header.putInt(dump.h);
+      dump.header.putInt(dump.viewp_w);
+      dump.header.putInt(dump.viewp_h);
+      dump.header.putInt(dump.grid_scale);
+      dump.header.putInt(dump.stride);
+      dump.header.putFloat(dump.timestep);
+      dump.header.putInt(dump.num_frames);
+      dump.header.putLong(dump.frame_size);
+      dump.writeHeader();
+      return dump;
+    }
+
+
+    static public Dump open(File file) throws IOException {
+      return open(file, false);
+    }
+
+    static private Dump open(File file, boolean writable) throws IOException {
+      if(!file.isFile() || file.length() < HEADER_SIZE){
+        throw new IOException("DwFluidBatch2D: "+file+" is not a fluid dump");
+      }
+      Dump dump = new Dump();
+      dump.openFile(file, writable);
+      ByteBuffer hd = dump.header;
+      try {
+        dump.readFully(hd, 0);
+      } catch (IOException e){
+        dump.close();
+        throw e;
+      }
+      hd.flip();
+      if(hd.getInt() != FILE_MAGIC || hd.getInt() != FILE_VERSION){
+        dump.close();
+        throw new IOException("DwFluidBatch2D: "+file+" is not a fluid dump");
+      }
+      dump.fields          = hd.getInt();
+      dump.bytes_per_value = hd.getInt();
+      dump.w               = hd.getInt();
+      dump.h               = hd.getInt();
+      dump.viewp_w         = hd.getInt();
+      dump.viewp_h         = hd.getInt();
+      dump.grid_scale      = hd.getInt();
+      dump.stride          = hd.getInt();
+      dump.timestep        = hd.getFloat();
+      dump.num_frames      = hd.getInt();
+      dump.frame_size      = hd.getLong();
+
+      // frames of an interrupted run
+      long frames_max = (file.length() - HEADER_SIZE) / dump.frame_size;
+      dump.num_frames = (int) Math.min(dump.num_frames, frames_max);
+      return dump;
+    }
+
+
+    private void openFile(File file, boolean writable) throws IOException {
+      this.writable = writable;
+      this.file     = new RandomAccessFile(file, writable ? "rw" : "r");
+      this.channel  = this.file.getChannel();
+    }
+
+    public void close() throws IOException {
+      if(file != null){
+        try {
+          // the channel is closed already, after an interrupted write
+          if(writable && channel.isOpen()){
+            channel.force(false);
+          }
+        } finally {
+          file.close();
+          file    = null;
+          channel = null;
+        }
+      }
+    }
+
+
+    private void writeHeader() throws IOException {
+      header.clear();
+      writeFully(header, 0);
+    }
+
+    private void setNumFrames(int num_frames) throws IOException {
+      this.num_frames = num_frames;
+      header.putInt(44, num_frames);
+      writeHeader();
+    }
+
+    private long framePosition(int frame){
+      return HEADER_SIZE + frame * frame_size;
+    }
+
+    /**
+     * @return the reused buffer, cleared, limited to size bytes
+     */
+    private ByteBuffer buffer(int size){
+      if(buffer == null || buffer.capacity() < size){
+        buffer = ByteBuffer.allocateDirect(Math.max(size, (int) frame_size)).order(ByteOrder.LITTLE_ENDIAN);
+      }
+      buffer.clear();
+      buffer.limit(size);
+      return buffer;
+    }
+
+    private void readFully(ByteBuffer dst, long position) throws IOException {
+      long start = position - dst.position();
+      while(dst.hasRemaining()){
+        if(channel.read(dst, start + dst.position()) < 0){
+          throw new EOFException("DwFluidBatch2D: unexpected end of file");
+        }
+      }
+    }
+
+    private void writeFully(ByteBuffer src, long position) throws IOException {
+      long start = position - src.position();
+      while(src.hasRemaining()){
+        channel.write(src, start + src.position());
+      }
+    }
+
+
+    /**
+     * appends a frame, the header is updated after the frame is written
+     */
+    private void write(Fluid fluid) throws IOException {
+      ByteBuffer buffer = buffer((int) frame_size);
+      buffer.putInt(fluid.getStep());
+      buffer.putInt(0);
+      for(int field : FIELD_LIST){
+        if((fields & field) != 0){
+          data = fluid.getField(field, data);
+          put(buffer, data);
+        }
+      }
+      buffer.flip();
+      writeFully(buffer, framePosition(num_frames));
+      setNumFrames(num_frames + 1);
+    }
+
+
+    /**
+     * @return the step of the given frame
+     */
+    public int step(int frame) throws IOException {
+      ByteBuffer buffer = buffer(4);
+      readFully(buffer, framePosition(frame));
+      return buffer.getInt(0);
+    }
+
+    /**
+     * @param frame 0 ... num_frames - 1, step = frame * stride
+     * @param field VELOCITY, DENSITY or TEMPERATURE
+     * @param data reused, if it has the right size
+     * @return data of the field, same layout as DwFluid2DCPU.getVelocity() etc.,
+     *         or null if the field is not in the file
+     */
+    public float[] read(int frame, int field, float[] data) throws IOException {
+      if((fields & field) == 0 || frame < 0 || frame >= num_frames){
+        return null;
+      }
+      int data_len = w * h * numChannels(field);
+      if(data == null || data.length != data_len){
+        data = new float[data_len];
+      }
+
+      int offset = 8;
+      for(int f : FIELD_LIST){
+        if(f == field) break;
+        if((fields & f) != 0){
+          offset += w * h * numChannels(f) * bytes_per_value;
+        }
+      }
+
+      ByteBuffer buffer = buffer(data_len * bytes_per_value);
+      readFully(buffer, framePosition(frame) + offset);
+      buffer.flip();
+      get(buffer, data);
+      return data;
+    }
+
+
+    private void put(ByteBuffer buffer, float[] data){
+      if(bytes_per_value == 4){
+        FloatBuffer buffer_F = buffer.asFloatBuffer();
+        buffer_F.put(data);
+        buffer.position(buffer.position() + data.length * 4);
+      } else {
+        for(int i = 0; i < data.length; i++){
+          buffer.putShort(toHalf(data[i]));
+        }
+      }
+    }
+
+    private void get(ByteBuffer buffer, float[] data){
+      if(bytes_per_value == 4){
+        buffer.asFloatBuffer().get(data);
+      } else {
+        for(int i = 0; i < data.length; i++){
+          data[i] = fromHalf(buffer.getShort());
+        }
+      }
+    }
+
+  }
+
+
+  static private int numChannels(int fields){
+    int nc = 0;
+    if((fields & VELOCITY   ) != 0) nc += 2;
+    if((fields & DENSITY    ) != 0) nc += 4;
+    if((fields & TEMPERATURE) != 0) nc += 1;
+    return nc;
+  }
+
+
+  /**
+   * float -> half float, round to nearest even, denormals and +-inf included
+   */
+  static public short toHalf(float f){
+    int bits = Float.floatToRawIntBits(f);
+    int sign = (bits >>> 16) & 0x8000;
+    int abs  = bits & 0x7FFFFFFF;
+    int val  = abs + 0x0FFF + ((abs >>> 13) & 1); // rounded, ties to even
+
+    if(abs >= 0x7F800000){                   // inf, nan
+      return (short)(sign | 0x7C00 | ((abs & 0x007FFFFF) >>> 13) | ((abs > 0x7F800000) ? 0x200 : 0));
+    }
+    if(val >= 0x47800000){                   // overflow
+      return (short)(sign | 0x7C00);
+    }
+    if(val >= 0x38800000){                   // normal
+      return (short)(sign | ((val - 0x38000000) >>> 13));
+    }
+    if(abs < 0x33000000){                    // too small, +-0
+      return (short) sign;
+    }
+    int shift = 126 - (abs >>> 23);          // denormal
+    int mant  = (abs & 0x7FFFFF) | 0x800000;
+    return (short)(sign | ((mant + (1 << (shift - 1)) - 1 + ((mant >>> shift) & 1)) >>> shift));
+  }
+
+  /**
+   * half float -> float
+   */
+  static public float fromHalf(short h){
+    int bits = h & 0xFFFF;
+    int sign = (bits & 0x8000) << 16;
+    int exp  = (bits >>> 10) & 0x1F;
+    int mant = bits & 0x3FF;
+    if(exp == 0){
+      // +-0, denormal
+      float v = mant * (1.0f / (1 << 24));
+      return sign == 0 ? v : -v;
+    }
+    if(exp == 31){
+      return Float.intBitsToFloat(sign | 0x7F800000 | (mant << 13));
+    }
+    return Float.intBitsToFloat(sign | ((exp + 112) << 23) | (mant << 13));
+  }
+
+
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // FLUID
+  //////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * The part of DwFluid2D/DwFluid2DCPU the batch mode needs, and the sources
+   * for the schedule.
+   */
+  static public abstract class Fluid {
+    public abstract int   w();
+    public abstract int   h();
+    public abstract int   viewportW();
+    public abstract int   viewportH();
+    public abstract int   gridScale();
+    public abstract float timestep();
+
+    public abstract int  getStep();
+    public abstract void setStep(int step);
+    public abstract void update();
+    /**
+     * installs the schedule (can be null), chained after the current
+     * FluidData callback, endSchedule() restores that callback
+     */
+    abstract void beginSchedule(Schedule schedule);
+    abstract void endSchedule();
+
+    /**
+     * @return velocity (2 floats per cell), density (4) or temperature (1)
+     */
+    public abstract float[] getField(int field, float[] data);
+    public abstract void    setField(int field, float[] data);
+
+    public abstract void addVelocity   (float px, float py, float radius, float vx, float vy);
+    public abstract void addDensity    (float px, float py, float radius, float r, float g, float b, float intensity);
+    public abstract void addTemperature(float px, float py, float radius, float temperature);
+  }
+
+
+
+  static public class FluidCPU extends Fluid {
+
+    public final DwFluid2DCPU fluid;
+
+    public FluidCPU(DwFluid2DCPU fluid){
+      this.fluid = fluid;
+    }
+
+    @Override public int   w()        { return fluid.fluid_w; }
+    @Override public int   h()        { return fluid.fluid_h; }
+    @Override public int   viewportW(){ return fluid.viewp_w; }
+    @Override public int   viewportH(){ return fluid.viewp_h; }
+    @Override public int   gridScale(){ return fluid.grid_scale; }
+    @Override public float timestep() { return fluid.param.timestep; }
+
+    @Override public int  getStep()        { return fluid.simulation_step; }
+    @Override public void setStep(int step){ fluid.simulation_step = step; }
+    @Override public void update()         { fluid.update(); }
+
+    private DwFluid2DCPU.FluidData callback_user;
+
+    @Override
+    void beginSchedule(final Schedule schedule){
+      final DwFluid2DCPU.FluidData callback = callback_user = fluid.getCallback_FluiData();
+      fluid.addCallback_FluiData(new DwFluid2DCPU.FluidData() {
+        @Override
+        public void update(DwFluid2DCPU fluid_) {
+          if(callback != null){
+            callback.update(fluid_);
+          }
+          if(schedule != null){
+            schedule.update(FluidCPU.this, fluid.simulation_step);
+          }
+        }
+      });
+    }
+
+    @Override
+    void endSchedule(){
+      fluid.addCallback_FluiData(callback_user);
+      callback_user = null;
+    }
+
+    private DwFluid2DCPU.Grid getGrid(int field){
+      switch(field){
+        case VELOCITY   : return fluid.grid_velocity;
+        case DENSITY    : return fluid.grid_density;
+        case TEMPERATURE: return fluid.grid_temperature;
+      }
+      return null;
+    }
+
+    @Override
+    public float[] getField(int field, float[] data){
+      float[] src = getGrid(field).src;
+      if(data == null || data.length != src.length){
+        data = new float[src.length];
+      }
+      System.arraycopy(src, 0, data, 0, src.length);
+      return data;
+    }
+
+    @Override
+    public void setField(int field, float[] data){
+      float[] dst = getGrid(field).src;
+      System.arraycopy(data, 0, dst, 0, dst.length);
+    }
+
+    @Override
+    public void addVelocity(float px, float py, float radius, float vx, float vy){
+      fluid.addVelocity(px, py, radius, vx, vy);
+    }
+    @Override
+    public void addDensity(float px, float py, float radius, float r, float g, float b, float intensity){
+      fluid.addDensity(px, py, radius, r, g, b, intensity);
+    }
+    @Override
+    public void addTemperature(float px, float py, float radius, float temperature){
+      fluid.addTemperature(px, py, radius, temperature);
+    }
+  }
+
+
+
+  /**
+   * DwFluid2D, needs an OpenGL context, e.g. of a sketch that is not shown.
+   * The fields are transferred synchronously.
+   */
+  static public class FluidGPU extends Fluid {
+
+    public final DwFluid2D fluid;
+
+    private FloatBuffer buffer;
+
+    public FluidGPU(DwFluid2D fluid){
+      this.fluid = fluid;
+    }
+
+    @Override public int   w()        { return fluid.fluid_w; }
+    @Override public int   h()        { return fluid.fluid_h; }
+    @Override public int   viewportW(){ return fluid.viewp_w; }
+    @Override public int   viewportH(){ return fluid.viewp_h; }
+    @Override public int   gridScale(){ return fluid.grid_scale; }
+    @Override public float timestep() { return fluid.param.timestep; }
+
+    @Override public int  getStep()        { return fluid.simulation_step; }
+    @Override public void setStep(int step){ fluid.simulation_step = step; }
+    @Override public void update()         { fluid.update(); }
+
+    private DwFluid2D.FluidData callback_user;
+
+    @Override
+    void beginSchedule(final Schedule schedule){
+      final DwFluid2D.FluidData callback = callback_user = fluid.getCallback_FluiData();
+      fluid.addCallback_FluiData(new DwFluid2D.FluidData() {
+        @Override
+        public void update(DwFluid2D fluid_) {
+          if(callback != null){
+            callback.update(fluid_);
+          }
+          if(schedule != null){
+            schedule.update(FluidGPU.this, fluid.simulation_step);
+          }
+        }
+      });
+    }
+
+    @Override
+    void endSchedule(){
+      fluid.addCallback_FluiData(callback_user);
+      callback_user = null;
+    }
+
+    private DwGLTexture getTexture(int field){
+      switch(field){
+        case VELOCITY   : return fluid.tex_velocity   .src;
+        case DENSITY    : return fluid.tex_density    .src;
+        case TEMPERATURE: return fluid.tex_temperature.src;
+      }
+      return null;
+    }
+
+    @Override
+    public float[] getField(int field, float[] data){
+      fluid.context.begin();
+      data = getTexture(field).getFloatTextureData(data);
+      fluid.context.end("DwFluidBatch2D.getField");
+      return data;
+    }
+
+    @Override
+    public void setField(int field, float[] data){
+      if(buffer == null || buffer.capacity() < data.length){
+        buffer = ByteBuffer.allocateDirect(data.length * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+      }
+      buffer.clear();
+      buffer.put(data);
+      buffer.flip();
+      fluid.context.begin();
+      getTexture(field).setData(buffer);
+      fluid.context.end("DwFluidBatch2D.setField");
+    }
+
+    @Override
+    public void addVelocity(float px, float py, float radius, float vx, float vy){
+      fluid.addVelocity(px, py, radius, vx, vy);
+    }
+    @Override
+    public void addDensity(float px, float py, float radius, float r, float g, float b, float intensity){
+      fluid.addDensity(px, py, radius, r, g, b, intensity);
+    }
+    @Override
+    public void addTemperature(float px, float py, float radius, float temperature){
+      fluid.addTemperature(px, py, radius, temperature);
+    }
+  }
+
+}
@@ -0,0 +1,230 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+
+
+package com.thomasdiewald.pixelflow.java.fluid;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2ES2;
+import com.thomasdiewald.pixelflow.java.DwPixelFlow;
+import com.thomasdiewald.pixelflow.java.dwgl.DwGLSLProgram;
+import com.thomasdiewald.pixelflow.java.dwgl.DwGLTexture;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.DwPhysics;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle2D;
+
+
+/**
+ *
+ * Two-way coupling of DwPhysics particles (CPU) and DwFluid2D (GPU).
+ *
+ *   fluid -> particles: acceleration = fluid_force * u
+ *   particles -> fluid: u += particle_force * mass * (v / velocity_scale - u)
+ *
+ * u ... fluid velocity at the particle, v ... particle velocity (pixels per
+ * update). The particles are in screen coordinates (y-down), the same as
+ * the viewport of the fluid.
+ *
+ * The fluid velocity is gathered only at the particle positions and
+ * transferred asynchronously while the physics step runs on the CPU, see
+ * DwFluid2D.sampleVelocityBegin(). The momentum of all particles is added to
+ * the fluid in a single draw (particleSplat.vert/.frag, points with additive
+ * blending).
+ *
+ * <pre><code>
+ * // each frame, instead of physics.update(timestep)
+ * fluid.update();
+ * coupling.update(fluid, physics, timestep);
+ * </code></pre>
+ *
+ * The forces are computed from the state before the physics step, so they
+ * take effect in the next one.
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwFluidParticleCoupling2D{
+
+  static public class Param {
+
+    // fluid -> particles, acceleration per fluid velocity
+    public float fluid_force    = 0.04f;
+
+    // particles -> fluid, per particle mass, 0 ... one-way coupling (default),
+    // e.g. 0.1 for two-way coupling
+    public float particle_force = 0.0f;
+
+    // particle velocity (pixels per update), that matches a fluid velocity of 1
+    public float velocity_scale = 1.0f;
+
+    // radius of the particle splat, viewport pixels
+    public float splat_radius   = 8.0f;
+  }
+
+  static private final int TEX_W = 256;
+
+  public Param param = new Param();
+
+  public DwPixelFlow context;
+
+  private DwGLSLProgram shader_splat;
+
+  // x, y, velocity, TEX_W texels per row, the rows only grow
+  private DwGLTexture tex_splat = new DwGLTexture();
+
+  private FloatBuffer buffer;
+  private float[]     positions = new float[0];
+  private float[]     fluid_velocity;
+
+  // particles of the current step, velocity before the physics step
+  private DwParticle2D[] particles;
+  private int            particles_count;
+  private float[]        particles_velocity = new float[0];
+  private boolean        pending;
+  private float[]        acc = new float[2];
+
+
+  public DwFluidParticleCoupling2D(DwPixelFlow context){
+    this.context = context;
+    shader_splat = context.createShader(DwPixelFlow.SHADER_DIR+"Fluid/particleSplat.vert", DwPixelFlow.SHADER_DIR+"Fluid/particleSplat.frag");
+  }
+
+  public void release(){
+    tex_splat.release();
+  }
+
+
+  /**
+   * begin(), physics.update(timestep), end()
+   */
+  public void update(DwFluid2D fluid, DwPhysics<? extends DwParticle2D> physics, float timestep){
+    begin(fluid, physics.getParticles(), physics.getParticlesCount());
+    physics.update(timestep);
+    end(fluid);
+  }
+
+
+
+  /**
+   * Gathers the fluid velocity at the particles and starts the transfer.
+   */
+  public void begin(DwFluid2D fluid, DwParticle2D[] particles, int count){
+    this.particles       = particles;
+    this.particles_count = (particles == null) ? 0 : count;
+    this.pending         = false;
+    if(particles_count == 0){
+      return;
+    }
+
+    if(particles_velocity.length < particles_count * 2){
+      particles_velocity = new float[particles_count * 2];
+      positions          = new float[particles_count * 2];
+    }
+
+    // positions, flipped to y-up, and velocities before the physics step
+    for(int i = 0; i < particles_count; i++){
+      DwParticle2D particle = particles[i];
+      positions[i * 2 + 0] = particle.cx;
+      positions[i * 2 + 1] = fluid.viewp_h - particle.cy;
+      particles_velocity[i * 2 + 0] = particle.cx - particle.px;
+      particles_velocity[i * 2 + 1] = particle.cy - particle.py;
+    }
+
+    fluid.sampleVelocityBegin(positions, particles_count);
+    pending = true;
+  }
+
+
+
+  /**
+   * Waits for the transfer, adds the fluid forces to the particles and the
+   * particle momentum to the fluid.
+   */
+  public void end(DwFluid2D fluid){
+    if(!pending){
+      return;
+    }
+    pending = false;
+
+    fluid_velocity = fluid.sampleVelocityEnd(fluid_velocity);
+
+    // fluid -> particles
+    for(int i = 0; i < particles_count; i++){
+      acc[0] = +fluid_velocity[i * 2 + 0] * param.fluid_force;
+      acc[1] = -fluid_velocity[i * 2 + 1] * param.fluid_force; // y-down
+      particles[i].addForce(acc);
+    }
+
+    // particles -> fluid
+    if(param.particle_force != 0){
+      context.begin();
+      splat(fluid);
+      context.end("DwFluidParticleCoupling2D.end");
+    }
+  }
+
+
+
+  private void splat(DwFluid2D fluid){
+    int w = TEX_W;
+    int h = (particles_count + w - 1) / w;
+    int h_tex = Math.max(tex_splat.h, 1);
+    while(h_tex < h){
+      h_tex *= 2;
+    }
+    if(buffer == null || buffer.capacity() < w * h * 4){
+      buffer = ByteBuffer.allocateDirect(w * h_tex * 4 * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    float vscale = 1.0f / param.velocity_scale;
+
+    buffer.clear();
+    for(int i = 0; i < particles_count; i++){
+      DwParticle2D particle = particles[i];
+      float ux = fluid_velocity[i * 2 + 0];
+      float uy = fluid_velocity[i * 2 + 1];
+      float vx = +particles_velocity[i * 2 + 0] * vscale;
+      float vy = -particles_velocity[i * 2 + 1] * vscale; // y-up
+      float k  = param.particle_force * particle.mass;
+      buffer.put(particle.cx);
+      buffer.put(fluid.viewp_h - particle.cy);
+      buffer.put(k * (vx - ux));
+      buffer.put(k * (vy - uy));
+    }
+    while(buffer.position() < w * h * 4){
+      buffer.put(0);
+    }
+    buffer.flip();
+
+    tex_splat.resize(context, GL2ES2.GL_RGBA32F, w, h_tex, GL2ES2.GL_RGBA, GL2ES2.GL_FLOAT, GL2ES2.GL_NEAREST, 4,4);
+    tex_splat.setData(buffer, 0, 0, w, h);
+
+    GL2ES2 gl = context.gl;
+    context.beginDraw(fluid.tex_velocity.src);
+    gl.glEnable(GL.GL_BLEND);
+    gl.glBlendEquation(GL.GL_FUNC_ADD);
+    gl.glBlendFunc(GL.GL_ONE, GL.GL_ONE);
+    shader_splat.begin();
+    shader_splat.uniform2f     ("wh_viewport_inv", 1.0f / fluid.viewp_w, 1.0f / fluid.viewp_h);
+    shader_splat.uniform1f     ("point_size"     , 2 * param.splat_radius * fluid.fluid_w / (float) fluid.viewp_w);
+    shader_splat.uniform2f     ("wh_inv"         , 1.0f / fluid.fluid_w, 1.0f / fluid.fluid_h);
+    shader_splat.uniformTexture("tex_splat"      , tex_splat);
+    shader_splat.uniformTexture("tex_obstacleC"  , fluid.tex_obstacleC.src);
+    shader_splat.drawFullScreenPoints(0, 0, fluid.fluid_w, fluid.fluid_h, particles_count);
+    shader_splat.end();
+    gl.glDisable(GL.GL_BLEND);
+    context.endDraw();
+    context.errorCheck("DwFluidParticleCoupling2D.splat");
+  }
+
+}
@@ -0,0 +1,603 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+
+
+package com.thomasdiewald.pixelflow.java.fluid;
+
+import com.jogamp.opengl.GL2ES2;
+import com.thomasdiewald.pixelflow.java.DwPixelFlow;
+import com.thomasdiewald.pixelflow.java.dwgl.DwGLSLProgram;
+import com.thomasdiewald.pixelflow.java.dwgl.DwGLTexture;
+import com.thomasdiewald.pixelflow.java.dwgl.DwGLTexture.TexturePingPong;
+
+
+/**
+ *
+ * Pressure solvers for DwFluid2D, Param.pressure_solver:
+ *
+ *   PRESSURE_MULTIGRID ... V-cycles
+ *   PRESSURE_SOR ......... red-black gauss-seidel, over-relaxed
+ *   PRESSURE_CG .......... conjugate gradient, jacobi (diagonal) preconditioner
+ *
+ * All solve the same system as the jacobi-pressure pass,
+ * sum(x_neighbor) - 4 * x = h^2 * b, and stop at Param.pressure_tolerance.
+ * Iterations and the final residual end up in DwFluid2D.pressure_iterations
+ * and DwFluid2D.pressure_residual. The residual only measures the poisson
+ * solve, the divergence that is left after the gradient pass depends on
+ * DwFluid2D.gradientScale().
+ *
+ * Multigrid, cell-centered:
+ *
+ *   level 0 ... fluid grid, tex_pressure, tex_divergence, tex_obstacleC
+ *   level n ... (w >> n) x (h >> n), down to 8 x 8
+ *
+ *   smooth ..... damped jacobi
+ *   restrict ... average of the 4 residuals
+ *   prolong .... bilinear interpolation of the coarse correction, skipping
+ *                coarse obstacles
+ *
+ * Obstacles, walls and the open border keep their place on all levels by face
+ * weights (fraction of open fluid grid faces) and the extrapolation factors
+ * of the border cells.
+ *
+ * Residuals and dot products are summed on the GPU, down to a texture of at
+ * most 8 x 8, which is read back. Each readback stalls the pipeline:
+ * multigrid/sor read back once per check (none if pressure_tolerance is 0),
+ * cg twice per iteration.
+ *
+ * DwFluid2DCPU uses the same schemes.
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwFluidPressure2D{
+
+  // coarsest level is at most 8 x 8, solved by plain jacobi iterations
+  static public final int   COARSE_SIZE       = 8;
+  static public final int   COARSE_ITERATIONS = 32;
+  static public final float OMEGA             = 0.8f;
+
+  static private class Level {
+    int w, h;
+    float   scale;                   // (cell size)^2
+    float[] boundary = new float[4]; // top, bottom, right, left
+    TexturePingPong x;               // pressure, or the correction on coarse levels
+    DwGLTexture     b;               // divergence, or the restricted residual
+    DwGLTexture     r        = new DwGLTexture(); // residual, residual^2
+    DwGLTexture     obstacle;
+    DwGLTexture     weight   = new DwGLTexture(); // top, bottom, right, left
+  }
+
+  public DwPixelFlow context;
+
+  private DwGLSLProgram shader_obstacle;
+  private DwGLSLProgram shader_weight;
+  private DwGLSLProgram shader_smooth;
+  private DwGLSLProgram shader_residual;
+  private DwGLSLProgram shader_restrict;
+  private DwGLSLProgram shader_prolong;
+  private DwGLSLProgram shader_reduce;
+  private DwGLSLProgram shader_cgInit;
+  private DwGLSLProgram shader_cgOperator;
+  private DwGLSLProgram shader_cgUpdate;
+  private DwGLSLProgram shader_cgResidual;
+  private DwGLSLProgram shader_cgDirection;
+
+  private Level[] levels = new Level[0];
+  private int     num_levels;
+
+  // sums, down to the coarsest level
+  private DwGLTexture[] tex_reduce = new DwGLTexture[0];
+  private float[] reduce_data;
+  private float[] reduce_sum = new float[4];
+
+  // conjugate gradient
+  private TexturePingPong tex_cg_r = new TexturePingPong(); // r, r * z, r * r
+  private TexturePingPong tex_cg_p = new TexturePingPong();
+  private DwGLTexture     tex_cg_q = new DwGLTexture();     // q, p * q
+
+
+  public DwFluidPressure2D(DwPixelFlow context){
+    this.context = context;
+
+    shader_obstacle    = context.createShader(DwPixelFlow.SHADER_DIR+"Fluid/multigridObstacle.frag");
+    shader_weight      = context.createShader(DwPixelFlow.SHADER_DIR+"Fluid/multigridWeight.frag"  );
+    shader_smooth      = context.createShader(DwPixelFlow.SHADER_DIR+"Fluid/multigridSmooth.frag"  );
+    shader_residual    = context.createShader(DwPixelFlow.SHADER_DIR+"Fluid/multigridResidual.frag");
+    shader_restrict    = context.createShader(DwPixelFlow.SHADER_DIR+"Fluid/multigridRestrict.frag");
+    shader_prolong     = context.createShader(DwPixelFlow.SHADER_DIR+"Fluid/multigridProlong.frag" );
+    shader_reduce      = context.createShader(DwPixelFlow.SHADER_DIR+"Fluid/pressureReduce.frag"   );
+    shader_cgInit      = context.createShader(DwPixelFlow.SHADER_DIR+"Fluid/cgInit.frag"           );
+    shader_cgOperator  = context.createShader(DwPixelFlow.SHADER_DIR+"Fluid/cgOperator.frag"       );
+    shader_cgUpdate    = context.createShader(DwPixelFlow.SHADER_DIR+"Fluid/cgUpdate.frag"         );
+    shader_cgResidual  = context.createShader(DwPixelFlow.SHADER_DIR+"Fluid/cgResidual.frag"       );
+    shader_cgDirection = context.createShader(DwPixelFlow.SHADER_DIR+"Fluid/cgDirection.frag"      );
+  }
+
+
+  public void release(){
+    for(int l = 0; l < levels.length; l++){
+      levels[l].r.release();
+      levels[l].weight.release();
+      // level 0 uses the textures of the fluid
+      if(l > 0 && levels[l].x != null){
+        levels[l].x.release();
+        levels[l].b.release();
+        levels[l].obstacle.release();
+      }
+      tex_reduce[l].release();
+    }
+    tex_cg_r.release();
+    tex_cg_p.release();
+    tex_cg_q.release();
+    levels = new Level[0];
+    num_levels = 0;
+    tex_reduce = new DwGLTexture[0];
+  }
+
+  public int getNumLevels(){
+    return num_levels;
+  }
+
+
+  /**
+   * Outside the grid, each level extrapolates x from the border cell, so that
+   * it is 0 where it is 0 for the fluid grid: half a fluid grid cell outside.
+   *
+   * @return factor f, x_outside = -f * x_border
+   */
+  static private float getBoundary(int level, int size_fine, int size){
+    float cell = 1 << level;
+    // distance from the center of the border cell to x = 0, in fluid grid
+    // cells. all levels are aligned at the left/bottom border.
+    float d = size_fine + 0.5f - (size - 0.5f) * cell;
+    return (cell - d) / d;
+  }
+
+  /**
+   * @return omega, or if omega is 0, the optimal one for the poisson equation
+   *         on a w x h grid: 2 / (1 + sin(PI / max(w, h)))
+   */
+  static private float getOmegaSOR(float omega, int w, int h){
+    if(omega > 0) return omega;
+    return (float) (2.0 / (1.0 + Math.sin(Math.PI / Math.max(2, Math.max(w, h)))));
+  }
+
+
+  /**
+   * @param count number of levels, 1 ... fluid grid only, 0 ... all levels
+   */
+  private void resize(DwFluid2D fluid, int count){
+    int w = fluid.fluid_w;
+    int h = fluid.fluid_h;
+    int count_max = 1;
+    while(Math.max(w, h) > COARSE_SIZE && Math.min(w, h) >= 4){
+      w = w / 2;
+      h = h / 2;
+      count_max++;
+    }
+    if(count <= 0){
+      count = count_max;
+    }
+
+    if(levels.length != count_max){
+      release();
+      levels     = new Level[count_max];
+      tex_reduce = new DwGLTexture[count_max];
+      for(int l = 0; l < count_max; l++){
+        levels[l] = new Level();
+        tex_reduce[l] = new DwGLTexture();
+      }
+    }
+    num_levels = count;
+
+    w = fluid.fluid_w;
+    h = fluid.fluid_h;
+    for(int l = 0; l < count_max; l++){
+      tex_reduce[l].resize(context, GL2ES2.GL_RGBA32F, w, h, GL2ES2.GL_RGBA, GL2ES2.GL_FLOAT, GL2ES2.GL_NEAREST, 4,4);
+
+      if(l < num_levels){
+        Level level = levels[l];
+        level.w = w;
+        level.h = h;
+        level.scale = (float) Math.pow(fluid.param.gridscale * (1 << l), 2);
+        level.boundary[0] = getBoundary(l, fluid.fluid_h, h);
+        level.boundary[1] = getBoundary(l, 1 << l, 1);
+        level.boundary[2] = getBoundary(l, fluid.fluid_w, w);
+        level.boundary[3] = getBoundary(l, 1 << l, 1);
+
+        level.r     .resize(context, GL2ES2.GL_RG32F  , w, h, GL2ES2.GL_RG  , GL2ES2.GL_FLOAT, GL2ES2.GL_NEAREST, 2,4);
+        level.weight.resize(context, GL2ES2.GL_RGBA16F, w, h, GL2ES2.GL_RGBA, GL2ES2.GL_FLOAT, GL2ES2.GL_NEAREST, 4,4);
+
+        if(l == 0){
+          level.x        = fluid.tex_pressure;
+          level.b        = fluid.tex_divergence;
+          level.obstacle = fluid.tex_obstacleC.src;
+        } else {
+          if(level.x == null){
+            level.x        = new TexturePingPong();
+            level.b        = new DwGLTexture();
+            level.obstacle = new DwGLTexture();
+          }
+          level.x       .resize(context, GL2ES2.GL_R32F, w, h, GL2ES2.GL_RED, GL2ES2.GL_FLOAT        , GL2ES2.GL_NEAREST, 1,4);
+          level.b       .resize(context, GL2ES2.GL_R32F, w, h, GL2ES2.GL_RED, GL2ES2.GL_FLOAT        , GL2ES2.GL_NEAREST, 1,4);
+          level.obstacle.resize(context, GL2ES2.GL_R8  , w, h, GL2ES2.GL_RED, GL2ES2.GL_UNSIGNED_BYTE, GL2ES2.GL_NEAREST, 1,1);
+          obstacle(level, levels[l-1]);
+        }
+        weight(level, (l > 0) ? levels[l-1] : null, l);
+      }
+
+      w = w / 2;
+      h = h / 2;
+    }
+  }
+
+
+  /**
+   * Solves for fluid.tex_pressure, using the current fluid.tex_pressure as
+   * initial guess.
+   */
+  public void update(DwFluid2D fluid){
+    context.begin();
+    switch(fluid.param.pressure_solver){
+      case DwFluid2D.PRESSURE_MULTIGRID: multigrid(fluid); break;
+      case DwFluid2D.PRESSURE_SOR      : sor(fluid); break;
+      case DwFluid2D.PRESSURE_CG       : conjugateGradient(fluid); break;
+    }
+    context.end("DwFluidPressure2D.update");
+  }
+
+
+  private void multigrid(DwFluid2D fluid){
+    resize(fluid, 0);
+
+    DwFluid2D.Param param = fluid.param;
+    Level fine = levels[0];
+    float tolerance = param.pressure_tolerance;
+    float residual_first = 0;
+    float residual = -1;
+
+    int cycle = 0;
+    for(; cycle < param.num_multigrid_cycles; cycle++){
+
+      // 1) pre-smoothing + residual on the fluid grid, early exit
+      smooth(fine, param.num_multigrid_smooth, OMEGA, -1);
+      residual(fine);
+      if(tolerance > 0){
+        residual = getResidual(fine);
+        if(cycle == 0){
+          residual_first = residual;
+        } else if(residual <= tolerance * residual_first){
+          break;
+        }
+      }
+
+      // 2) restrict down to the coarsest level
+      for(int l = 1; l < num_levels; l++){
+        Level level = levels[l];
+        restrict(level, levels[l-1]);
+        level.x.src.clear(0);
+        if(l < num_levels - 1){
+          smooth(level, param.num_multigrid_smooth, OMEGA, -1);
+          residual(level);
+        } else {
+          smooth(level, COARSE_ITERATIONS, 1.0f, -1);
+        }
+      }
+
+      // 3) prolong the corrections up to the fluid grid + post-smoothing
+      for(int l = num_levels - 2; l >= 0; l--){
+        Level level = levels[l];
+        prolong(level, levels[l+1]);
+        smooth(level, param.num_multigrid_smooth, OMEGA, -1);
+      }
+    }
+
+    if(tolerance > 0 && cycle == param.num_multigrid_cycles && cycle > 0){
+      residual(fine);
+      residual = getResidual(fine);
+    }
+    fluid.pressure_iterations = cycle;
+    fluid.pressure_residual   = residual;
+  }
+
+
+  private void sor(DwFluid2D fluid){
+    resize(fluid, 1);
+
+    DwFluid2D.Param param = fluid.param;
+    Level fine = levels[0];
+    float tolerance = param.pressure_tolerance;
+    int   interval  = Math.max(1, param.pressure_check_interval);
+    float omega     = getOmegaSOR(param.sor_omega, fine.w, fine.h);
+    float residual_first = 0;
+    float residual = -1;
+    if(tolerance > 0){
+      residual(fine);
+      residual = residual_first = getResidual(fine);
+    }
+
+    int iter = 0;
+    while(iter < param.num_pressure_iterations){
+      // red, then black cells
+      smooth(fine, 1, omega, 0);
+      smooth(fine, 1, omega, 1);
+      iter++;
+      if(tolerance > 0 && (iter % interval == 0 || iter == param.num_pressure_iterations)){
+        residual(fine);
+        residual = getResidual(fine);
+        if(residual <= tolerance * residual_first){
+          break;
+        }
+      }
+    }
+
+    fluid.pressure_iterations = iter;
+    fluid.pressure_residual   = residual;
+  }
+
+
+  private void conjugateGradient(DwFluid2D fluid){
+    resize(fluid, 1);
+
+    DwFluid2D.Param param = fluid.param;
+    Level fine = levels[0];
+    int w = fine.w;
+    int h = fine.h;
+    tex_cg_r.resize(context, GL2ES2.GL_RGBA32F, w, h, GL2ES2.GL_RGBA, GL2ES2.GL_FLOAT, GL2ES2.GL_NEAREST, 4,4);
+    tex_cg_p.resize(context, GL2ES2.GL_R32F   , w, h, GL2ES2.GL_RED , GL2ES2.GL_FLOAT, GL2ES2.GL_NEAREST, 1,4);
+    tex_cg_q.resize(context, GL2ES2.GL_RG32F  , w, h, GL2ES2.GL_RG  , GL2ES2.GL_FLOAT, GL2ES2.GL_NEAREST, 2,4);
+
+    // the system is solved for -(h^2 * b), which makes it positive definite
+    // r = -(h^2 * b) - A * x, p = r / diag
+    cgInit(fine);
+    float[] sum = reduce(tex_cg_r.src);
+    double rz = sum[1];
+    double rr = sum[2];
+    tex_cg_p.src.clear(0);
+    cgDirection(fine, 0);
+
+    float  tolerance = param.pressure_tolerance;
+    double rr_first  = rr;
+
+    int iter = 0;
+    while(iter < param.num_pressure_iterations && rr > tolerance * tolerance * rr_first && rz > 0){
+      // q = A * p
+      cgOperator(fine);
+      double pq = reduce(tex_cg_q)[1];
+      if(pq <= 0) break;
+
+      // x += alpha * p, r -= alpha * q
+      float alpha = (float) (rz / pq);
+      cgUpdate(fine, alpha);
+      cgResidual(fine, alpha);
+      sum = reduce(tex_cg_r.src);
+      double rz_new = sum[1];
+      rr = sum[2];
+      iter++;
+
+      // p = r / diag + beta * p
+      cgDirection(fine, (float) (rz_new / rz));
+      rz = rz_new;
+    }
+
+    // the updated residual drifts from the true one, float precision
+    residual(fine);
+    fluid.pressure_iterations = iter;
+    fluid.pressure_residual   = getResidual(fine);
+  }
+
+
+
+
+  /**
+   * @return sum of each channel of tex_src, the returned array is reused
+   */
+  private float[] reduce(DwGLTexture tex_src){
+    for(int l = 1; l < tex_reduce.length; l++){
+      DwGLTexture tex_dst = tex_reduce[l];
+      context.beginDraw(tex_dst);
+      shader_reduce.begin();
+      shader_reduce.uniformTexture("tex_src", tex_src);
+      shader_reduce.drawFullScreenQuad();
+      shader_reduce.end();
+      context.endDraw();
+      context.errorCheck("DwFluidPressure2D.reduce");
+      tex_src = tex_dst;
+    }
+
+    reduce_data = tex_src.getFloatTextureData(reduce_data);
+    int nc = tex_src.num_channel;
+    for(int c = 0; c < 4; c++){
+      double sum = 0;
+      for(int i = c; c < nc && i < reduce_data.length; i += nc){
+        sum += reduce_data[i];
+      }
+      reduce_sum[c] = (float) sum;
+    }
+    return reduce_sum;
+  }
+
+
+  /**
+   * @return root mean square of the residual, of the last call to residual(level)
+   */
+  private float getResidual(Level level){
+    float sum_sq = reduce(level.r)[1];
+    return (float) Math.sqrt(sum_sq / (level.w * level.h));
+  }
+
+
+  private void obstacle(Level level, Level fine){
+    context.beginDraw(level.obstacle);
+    shader_obstacle.begin();
+    shader_obstacle.uniformTexture("tex_obstacle", fine.obstacle);
+    shader_obstacle.drawFullScreenQuad();
+    shader_obstacle.end();
+    context.endDraw();
+    context.errorCheck("DwFluidPressure2D.obstacle");
+  }
+
+
+  private void weight(Level level, Level fine, int l){
+    context.beginDraw(level.weight);
+    shader_weight.begin();
+    shader_weight.uniform1i     ("level"       , l);
+    shader_weight.uniformTexture("tex_obstacle", level.obstacle);
+    shader_weight.uniformTexture("tex_weight"  , (fine != null) ? fine.weight : level.obstacle);
+    shader_weight.drawFullScreenQuad();
+    shader_weight.end();
+    context.endDraw();
+    context.errorCheck("DwFluidPressure2D.weight");
+  }
+
+
+  /**
+   * @param parity -1 ... all cells, 0/1 ... only cells with (x + y) % 2 == parity
+   */
+  private void smooth(Level level, int iterations, float omega, int parity){
+    for(int i = 0; i < iterations; i++){
+      context.beginDraw(level.x.dst);
+      shader_smooth.begin();
+      shader_smooth.uniform4f     ("boundary"    , level.boundary[0], level.boundary[1], level.boundary[2], level.boundary[3]);
+      shader_smooth.uniform1f     ("alpha"       , -level.scale);
+      shader_smooth.uniform1f     ("omega"       , omega);
+      shader_smooth.uniform1i     ("parity"      , parity);
+      shader_smooth.uniformTexture("tex_x"       , level.x.src);
+      shader_smooth.uniformTexture("tex_b"       , level.b);
+      shader_smooth.uniformTexture("tex_obstacle", level.obstacle);
+      shader_smooth.uniformTexture("tex_weight"  , level.weight);
+      shader_smooth.drawFullScreenQuad();
+      shader_smooth.end();
+      context.endDraw();
+      context.errorCheck("DwFluidPressure2D.smooth");
+      level.x.swap();
+    }
+  }
+
+
+  private void residual(Level level){
+    context.beginDraw(level.r);
+    shader_residual.begin();
+    shader_residual.uniform4f     ("boundary"    , level.boundary[0], level.boundary[1], level.boundary[2], level.boundary[3]);
+    shader_residual.uniform1f     ("rscale"      , 1.0f / level.scale);
+    shader_residual.uniformTexture("tex_x"       , level.x.src);
+    shader_residual.uniformTexture("tex_b"       , level.b);
+    shader_residual.uniformTexture("tex_obstacle", level.obstacle);
+    shader_residual.uniformTexture("tex_weight"  , level.weight);
+    shader_residual.drawFullScreenQuad();
+    shader_residual.end();
+    context.endDraw();
+    context.errorCheck("DwFluidPressure2D.residual");
+  }
+
+
+  private void restrict(Level level, Level fine){
+    context.beginDraw(level.b);
+    shader_restrict.begin();
+    shader_restrict.uniformTexture("tex_r"       , fine.r);
+    shader_restrict.uniformTexture("tex_obstacle", level.obstacle);
+    shader_restrict.drawFullScreenQuad();
+    shader_restrict.end();
+    context.endDraw();
+    context.errorCheck("DwFluidPressure2D.restrict");
+  }
+
+
+  private void prolong(Level level, Level coarse){
+    context.beginDraw(level.x.dst);
+    shader_prolong.begin();
+    shader_prolong.uniformTexture("tex_x"              , level.x.src);
+    shader_prolong.uniformTexture("tex_obstacle"       , level.obstacle);
+    shader_prolong.uniformTexture("tex_x_coarse"       , coarse.x.src);
+    shader_prolong.uniformTexture("tex_obstacle_coarse", coarse.obstacle);
+    shader_prolong.drawFullScreenQuad();
+    shader_prolong.end();
+    context.endDraw();
+    context.errorCheck("DwFluidPressure2D.prolong");
+    level.x.swap();
+  }
+
+
+  private void cgInit(Level level){
+    context.beginDraw(tex_cg_r.dst);
+    shader_cgInit.begin();
+    shader_cgInit.uniform4f     ("boundary"  , level.boundary[0], level.boundary[1], level.boundary[2], level.boundary[3]);
+    shader_cgInit.uniform1f     ("alpha"     , -level.scale);
+    shader_cgInit.uniformTexture("tex_x"     , level.x.src);
+    shader_cgInit.uniformTexture("tex_b"     , level.b);
+    shader_cgInit.uniformTexture("tex_weight", level.weight);
+    shader_cgInit.drawFullScreenQuad();
+    shader_cgInit.end();
+    context.endDraw();
+    context.errorCheck("DwFluidPressure2D.cgInit");
+    tex_cg_r.swap();
+  }
+
+
+  private void cgOperator(Level level){
+    context.beginDraw(tex_cg_q);
+    shader_cgOperator.begin();
+    shader_cgOperator.uniform4f     ("boundary"  , level.boundary[0], level.boundary[1], level.boundary[2], level.boundary[3]);
+    shader_cgOperator.uniformTexture("tex_p"     , tex_cg_p.src);
+    shader_cgOperator.uniformTexture("tex_weight", level.weight);
+    shader_cgOperator.drawFullScreenQuad();
+    shader_cgOperator.end();
+    context.endDraw();
+    context.errorCheck("DwFluidPressure2D.cgOperator");
+  }
+
+
+  private void cgUpdate(Level level, float alpha){
+    context.beginDraw(level.x.dst);
+    shader_cgUpdate.begin();
+    shader_cgUpdate.uniform1f     ("alpha", alpha);
+    shader_cgUpdate.uniformTexture("tex_x", level.x.src);
+    shader_cgUpdate.uniformTexture("tex_p", tex_cg_p.src);
+    shader_cgUpdate.drawFullScreenQuad();
+    shader_cgUpdate.end();
+    context.endDraw();
+    context.errorCheck("DwFluidPressure2D.cgUpdate");
+    level.x.swap();
+  }
+
+
+  private void cgResidual(Level level, float alpha){
+    context.beginDraw(tex_cg_r.dst);
+    shader_cgResidual.begin();
+    shader_cgResidual.uniform4f     ("boundary"  , level.boundary[0], level.boundary[1], level.boundary[2], level.boundary[3]);
+    shader_cgResidual.uniform1f     ("alpha"     , alpha);
+    shader_cgResidual.uniformTexture("tex_r"     , tex_cg_r.src);
+    shader_cgResidual.uniformTexture("tex_q"     , tex_cg_q);
+    shader_cgResidual.uniformTexture("tex_weight", level.weight);
+    shader_cgResidual.drawFullScreenQuad();
+    shader_cgResidual.end();
+    context.endDraw();
+    context.errorCheck("DwFluidPressure2D.cgResidual");
+    tex_cg_r.swap();
+  }
+
+
+  private void cgDirection(Level level, float beta){
+    context.beginDraw(tex_cg_p.dst);
+    shader_cgDirection.begin();
+    shader_cgDirection.uniform4f     ("boundary"  , level.boundary[0], level.boundary[1], level.boundary[2], level.boundary[3]);
+    shader_cgDirection.uniform1f     ("beta"      , beta);
+    shader_cgDirection.uniformTexture("tex_r"     , tex_cg_r.src);
+    shader_cgDirection.uniformTexture("tex_p"     , tex_cg_p.src);
+    shader_cgDirection.uniformTexture("tex_weight", level.weight);
+    shader_cgDirection.drawFullScreenQuad();
+    shader_cgDirection.end();
+    context.endDraw();
+    context.errorCheck("DwFluidPressure2D.cgDirection");
+    tex_cg_p.swap();
+  }
+
+}
@@ -0,0 +1,336 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+
+
+package com.thomasdiewald.pixelflow.java.fluid;
+
+import java.util.Arrays;
+
+import com.jogamp.opengl.GL2ES2;
+import com.thomasdiewald.pixelflow.java.DwPixelFlow;
+import com.thomasdiewald.pixelflow.java.dwgl.DwGLSLProgram;
+import com.thomasdiewald.pixelflow.java.dwgl.DwGLTexture;
+import com.thomasdiewald.pixelflow.java.dwgl.DwGLTextureReader;
+
+
+/**
+ *
+ * Active tiles of DwFluid2D, Param.tile_size > 0.
+ *
+ * The fluid grid is split into tiles of tile_size x tile_size cells. A tile is
+ * active, if |velocity|, |density| or |temperature - ambient| of any of its
+ * cells is above Param.tile_threshold, or if it is within Param.tile_dilation
+ * tiles of such a tile. The simulation passes only draw the active tiles,
+ * merged to rectangles: advection, buoyancy and vorticity. The projection
+ * (divergence, pressure, gradient) is global and always runs on the full
+ * grid, a tiled pressure solve would impose p = 0 around the active tiles.
+ *
+ * Tiles that turn inactive get their velocity (below tile_threshold) cleared.
+ * Density and temperature are kept, faint density doesn't disappear, but it
+ * is neither advected nor dissipated while its tile is inactive. The global
+ * projection still corrects the velocity of inactive tiles.
+ * Before each tiled pass, the inactive tiles are copied from the source to
+ * the ping-pong destination (copyInactive()), so both buffers hold the same
+ * state outside the active tiles, no matter how many passes run. The curl is
+ * drawn one cell beyond the active tiles, for the vorticity force of the
+ * border cells. Obstacles and the domain border are handled per cell by the
+ * shaders, as before.
+ *
+ * The activity is measured on the GPU, one texel per tile, and read back
+ * asynchronously (DwGLTextureReader), so it is one or two updates old. The
+ * dilation band has to cover the distance the fluid moves in one update, i.e.
+ * tile_dilation * tile_size > |velocity| * timestep, it is widened by the age
+ * of the readback. Until the first readback finishes, all tiles are active.
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwFluidTiles2D{
+
+  public DwPixelFlow context;
+
+  private DwGLSLProgram shader_activity;
+  private DwGLTexture   tex_activity = new DwGLTexture();
+  private DwGLTextureReader activity_reader;
+  private float[]       activity;
+
+  // tile grid
+  private int tile_size;
+  private int tiles_x, tiles_y;
+  private int fluid_w, fluid_h;
+
+  // active tiles, current and last update
+  private boolean[] active      = new boolean[0];
+  private boolean[] active_prev = new boolean[0];
+  private boolean[] active_tmp  = new boolean[0];
+  private int       num_active;
+
+  // active tiles, merged to rectangles: x, y, w, h (cells)
+  private int   num_rects;
+  private int[] rects = new int[0];
+
+  // rectangles of the tiles to clear
+  private int   num_rects_clear;
+  private int[] rects_clear = new int[0];
+
+  // inactive tiles, merged to rectangles
+  private int   num_rects_inactive;
+  private int[] rects_inactive = new int[0];
+
+  // merge: rectangles of the previous/current row
+  private int[] open      = new int[0];
+  private int[] open_next = new int[0];
+
+
+  public DwFluidTiles2D(DwPixelFlow context){
+    this.context = context;
+    shader_activity = context.createShader(DwPixelFlow.SHADER_DIR+"Fluid/tileActivity.frag");
+    activity_reader = new DwGLTextureReader(context, 2);
+  }
+
+  public void release(){
+    tex_activity.release();
+    activity_reader.release();
+  }
+
+
+  /**
+   * @return fraction of the fluid grid, covered by active tiles
+   */
+  public float getActiveArea(){
+    return (tiles_x * tiles_y == 0) ? 1 : num_active / (float) (tiles_x * tiles_y);
+  }
+
+
+
+  private void resize(DwFluid2D fluid){
+    int size = Math.max(1, fluid.param.tile_size);
+    if(size == tile_size && fluid.fluid_w == fluid_w && fluid.fluid_h == fluid_h){
+      return;
+    }
+
+    tile_size = size;
+    fluid_w   = fluid.fluid_w;
+    fluid_h   = fluid.fluid_h;
+    tiles_x   = (fluid_w + tile_size - 1) / tile_size;
+    tiles_y   = (fluid_h + tile_size - 1) / tile_size;
+
+    int num_tiles = tiles_x * tiles_y;
+    tex_activity.resize(context, GL2ES2.GL_R32F, tiles_x, tiles_y, GL2ES2.GL_RED, GL2ES2.GL_FLOAT, GL2ES2.GL_NEAREST, 1,4);
+    activity    = new float  [num_tiles];
+    active      = new boolean[num_tiles];
+    active_prev = new boolean[num_tiles];
+    active_tmp  = new boolean[num_tiles];
+    rects       = new int[num_tiles * 4];
+    rects_clear = new int[num_tiles * 4];
+    rects_inactive = new int[num_tiles * 4];
+    open        = new int[tiles_x];
+    open_next   = new int[tiles_x];
+
+    // unknown content, everything is active
+    Arrays.fill(active, true);
+    num_active = num_tiles;
+    num_rects = merge(active, rects);
+    num_rects_inactive = 0;
+  }
+
+
+
+  /**
+   * Updates the active tiles from the latest finished activity readback, and
+   * clears the velocity of the tiles, that turned inactive.
+   */
+  public void update(DwFluid2D fluid){
+    resize(fluid);
+
+    DwFluid2D.Param param = fluid.param;
+
+    // 1) activity per tile
+    context.beginDraw(tex_activity);
+    shader_activity.begin();
+    shader_activity.uniform1i     ("tile_size"          , tile_size);
+    shader_activity.uniform1f     ("temperature_ambient", param.temperature_ambient);
+    shader_activity.uniformTexture("tex_velocity"       , fluid.tex_velocity   .src);
+    shader_activity.uniformTexture("tex_density"        , fluid.tex_density    .src);
+    shader_activity.uniformTexture("tex_temperature"    , fluid.tex_temperature.src);
+    shader_activity.drawFullScreenQuad();
+    shader_activity.end();
+    context.endDraw();
+    context.errorCheck("DwFluidTiles2D.activity");
+
+    // 2) readback, of this or a previous update
+    activity_reader.read(tex_activity);
+    float[] data = activity_reader.getFloat(activity);
+    if(data == null || activity_reader.w() != tiles_x || activity_reader.h() != tiles_y){
+      // no data yet, or of a different tile grid
+      return;
+    }
+    activity = data;
+    int age = activity_reader.numPending();
+
+    // 3) threshold, and dilation band, widened by the age of the data
+    boolean[] tmp = active_prev;
+    active_prev = active;
+    active = tmp;
+
+    for(int i = 0; i < activity.length; i++){
+      active_tmp[i] = activity[i] > param.tile_threshold;
+    }
+    dilate(active_tmp, active, Math.max(0, param.tile_dilation) * (1 + age));
+
+    num_active = 0;
+    for(int i = 0; i < active.length; i++){
+      if(active[i]) num_active++;
+      active_tmp[i] = active_prev[i] && !active[i];
+    }
+
+    // 4) reset the velocity of tiles, that turned inactive. the pressure and
+    //    divergence are recomputed on the full grid each update
+    num_rects       = merge(active    , rects      );
+    num_rects_clear = merge(active_tmp, rects_clear);
+    if(num_rects_clear > 0){
+      clear(fluid.tex_velocity.src, fluid.tex_velocity.dst, fluid.tex_curl);
+    }
+
+    for(int i = 0; i < active.length; i++){
+      active_tmp[i] = !active[i];
+    }
+    num_rects_inactive = merge(active_tmp, rects_inactive);
+  }
+
+
+  /**
+   * Draws the fullscreen quad of the current shader, restricted to the
+   * active tiles.
+   */
+  public void drawQuad(DwGLSLProgram shader){
+    drawQuad(shader, 0);
+  }
+
+  /**
+   * Same as drawQuad(shader), the active rectangles are extended by the given
+   * number of cells.
+   */
+  public void drawQuad(DwGLSLProgram shader, int margin){
+    for(int i = 0; i < num_rects * 4; i += 4){
+      int x0 = Math.max(rects[i+0] - margin, 0);
+      int y0 = Math.max(rects[i+1] - margin, 0);
+      int x1 = Math.min(rects[i+0] + rects[i+2] + margin, fluid_w);
+      int y1 = Math.min(rects[i+1] + rects[i+3] + margin, fluid_h);
+      shader.drawFullScreenQuad(x0, y0, x1 - x0, y1 - y0);
+    }
+  }
+
+
+  /**
+   * Copies the inactive tiles of src to dst, before a pass that only draws the
+   * active tiles to dst. src and dst have the same format, e.g. a ping-pong
+   * pair.
+   */
+  public void copyInactive(DwGLTexture src, DwGLTexture dst){
+    if(num_rects_inactive == 0){
+      return;
+    }
+    GL2ES2 gl = context.gl;
+    context.beginDraw(src);
+    gl.glBindTexture(dst.target, dst.HANDLE[0]);
+    for(int i = 0; i < num_rects_inactive * 4; i += 4){
+      int x = rects_inactive[i+0], y = rects_inactive[i+1];
+      gl.glCopyTexSubImage2D(dst.target, 0, x, y, x, y, rects_inactive[i+2], rects_inactive[i+3]);
+    }
+    gl.glBindTexture(dst.target, 0);
+    context.endDraw();
+    context.errorCheck("DwFluidTiles2D.copyInactive");
+  }
+
+
+  private void clear(DwGLTexture ... tex){
+    GL2ES2 gl = context.gl;
+    for(DwGLTexture dst : tex){
+      context.beginDraw(dst);
+      gl.glEnable(GL2ES2.GL_SCISSOR_TEST);
+      gl.glClearColor(0, 0, 0, 0);
+      for(int i = 0; i < num_rects_clear * 4; i += 4){
+        gl.glScissor(rects_clear[i+0], rects_clear[i+1], rects_clear[i+2], rects_clear[i+3]);
+        gl.glClear(GL2ES2.GL_COLOR_BUFFER_BIT);
+      }
+      gl.glDisable(GL2ES2.GL_SCISSOR_TEST);
+      context.endDraw();
+    }
+    context.errorCheck("DwFluidTiles2D.clear");
+  }
+
+
+  /**
+   * dst = src, dilated by the given number of tiles (square)
+   */
+  private void dilate(boolean[] src, boolean[] dst, int r){
+    for(int y = 0; y < tiles_y; y++){
+      int y0 = Math.max(y - r, 0), y1 = Math.min(y + r, tiles_y - 1);
+      for(int x = 0; x < tiles_x; x++){
+        int x0 = Math.max(x - r, 0), x1 = Math.min(x + r, tiles_x - 1);
+        boolean set = false;
+        for(int yy = y0; yy <= y1 && !set; yy++){
+          for(int xx = x0; xx <= x1 && !set; xx++){
+            set = src[yy * tiles_x + xx];
+          }
+        }
+        dst[y * tiles_x + x] = set;
+      }
+    }
+  }
+
+
+  /**
+   * Merges the set tiles to rectangles (cells, clipped to the fluid grid):
+   * horizontal runs, which are extended downwards as long as the next row has
+   * the same run.
+   *
+   * @return number of rectangles
+   */
+  private int merge(boolean[] tiles, int[] dst){
+    int count = 0;
+    int num_open = 0, num_open_next = 0;
+    for(int y = 0; y < tiles_y; y++){
+      num_open_next = 0;
+      for(int x = 0; x < tiles_x; x++){
+        if(!tiles[y * tiles_x + x]) continue;
+        int x0 = x;
+        while(x + 1 < tiles_x && tiles[y * tiles_x + x + 1]) x++;
+
+        int px = x0 * tile_size;
+        int py = y  * tile_size;
+        int pw = Math.min((x + 1) * tile_size, fluid_w) - px;
+        int ph = Math.min((y + 1) * tile_size, fluid_h) - py;
+
+        // same run in the previous row: extend, else new rectangle
+        int r = -1;
+        for(int i = 0; i < num_open && r == -1; i++){
+          int o = open[i];
+          if(dst[o*4+0] == px && dst[o*4+2] == pw) r = o;
+        }
+        if(r != -1){
+          dst[r*4+3] += ph;
+        } else {
+          r = count++;
+          dst[r*4+0] = px;
+          dst[r*4+1] = py;
+          dst[r*4+2] = pw;
+          dst[r*4+3] = ph;
+        }
+        open_next[num_open_next++] = r;
+      }
+      int[] tmp = open; open = open_next; open_next = tmp;
+      num_open = num_open_next;
+    }
+    return count;
+  }
+
+}
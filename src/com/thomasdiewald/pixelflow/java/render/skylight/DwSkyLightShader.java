@@ -20,6 +20,8 @@ import java.util.ArrayList;
 import com.jogamp.opengl.GL2;
 import com.thomasdiewald.pixelflow.java.DwPixelFlow;
 import com.thomasdiewald.pixelflow.java.dwgl.DwGLTextureUtils;
+import com.thomasdiewald.pixelflow.java.sampling.DwSampleSet;
+import com.thomasdiewald.pixelflow.java.sampling.DwSampleSetCache;
 import com.thomasdiewald.pixelflow.java.sampling.DwSampling;
 
 import processing.core.PApplet;
@@ -43,6 +45,14 @@ public class DwSkyLightShader {
     public float   solar_zenith  = 0;
     public float   sample_focus  = 1f;
     
+    // precomputed sample directions, see DwSampleSet, passes beyond
+    // sample_count get new directions computed on demand
+    public int     sample_pattern = DwSampleSet.HALTON;
+    public int     sample_count   = 4096;
+    
+    // max number of directions kept in "samples"
+    public int     sample_history = 4096;
+    
     public float   iterations = 20;
 //    public boolean singlesided = true;
     public int     shadowmap_size = 1024;
@@ -66,7 +76,11 @@ public class DwSkyLightShader {
   public DwShadowMap shadowmap;
   public PGraphics3D[] pg_shading = new PGraphics3D[2];
 
+  // the last param.sample_history sample directions, used as a ring buffer
   public ArrayList<float[]> samples = new ArrayList<float[]>();
+  
+  public DwSampleSetCache sample_cache = DwSampleSetCache.SHARED;
+  private DwSampleSet sample_set;
 
   public int RENDER_PASS = 0;
  
@@ -110,34 +124,32 @@ public class DwSkyLightShader {
   }
 
   
+  // per pass temporaries
+  private float[] center = {0,0,0};
+  private float[] up     = new float[3];
+  private float[] sample = new float[3];
+  
+  public DwSampleSet getSampleSet(){
+    int sample_count = Math.max(1, param.sample_count);
+    if(sample_set == null || !sample_set.matches(param.sample_pattern, sample_count, param.sample_focus)){
+      sample_set = sample_cache.get(param.sample_pattern, sample_count, param.sample_focus);
+    }
+    return sample_set;
+  }
+  
   public void generateSampleDirection(){
    
     // create shadowmap direction
-    float[] center = {0,0,0};
+    DwSampling.uniformSampleSphere_Halton(RENDER_PASS+1, up);
     
-
-    float[] up = DwSampling.uniformSampleSphere_Halton(RENDER_PASS+1);
-    
-    // create new sample direction
-//    float[] sample = DwSampling.uniformSampleHemisphere_Halton(RENDER_PASS+2);
-    float[] sample = DwSampling.uniformSampleSphere_Halton(RENDER_PASS+2);
-    float[] eye = new float[3];
-    eye[0] = sample[0] * param.sample_focus;
-    eye[1] = sample[1] * param.sample_focus;
-    eye[2] = sample[2] + (1.0f-param.sample_focus);
-    
-    // project to bounding-sphere
-    float dd = (float)Math.sqrt(eye[0]*eye[0] + eye[1]*eye[1] + eye[2]*eye[2]);
-    eye[0] /= dd;
-    eye[1] /= dd;
-    eye[2] /= dd;
+    // sample direction, focused and projected to the bounding-sphere
+    getSampleSet().get(RENDER_PASS, sample);
 
     // rotate
     mat_sun.reset();
     mat_sun.rotateZ(param.solar_azimuth * TO_RAD);
     mat_sun.rotateY(param.solar_zenith  * TO_RAD);
-    eye = mat_sun.mult(eye, new float[3]);
-    samples.add(eye);
+    float[] eye = mat_sun.mult(sample, nextHistoryEntry());
     
     shadowmap.setDirection(eye, center, up);
     
@@ -176,6 +188,20 @@ public class DwSkyLightShader {
   }
   
 
+  private float[] nextHistoryEntry(){
+    int capacity = Math.max(1, param.sample_history);
+    while(samples.size() > capacity){
+      samples.remove(samples.size() - 1);
+    }
+    if(samples.size() < capacity){
+      float[] entry = new float[3];
+      samples.add(entry);
+      return entry;
+    }
+    return samples.get(RENDER_PASS % capacity);
+  }
+  
+
   public void setGeometryBuffer(DwScreenSpaceGeometryBuffer geombuffer){
     this.geombuffer = geombuffer;
   }
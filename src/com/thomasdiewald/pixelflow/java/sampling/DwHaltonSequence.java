@@ -0,0 +1,119 @@
+/**
+ * 
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ * 
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+package com.thomasdiewald.pixelflow.java.sampling;
+
+
+/**
+ * 
+ * Incremental 2D Halton sequence, same points as DwSampling.halton(), up to
+ * rounding. The radical inverse is kept as exact integer numerator and scaled
+ * by a precomputed 1/base^K in double precision, so each value has a fixed
+ * error of a few ulps instead of the error halton() accumulates per digit.
+ * 
+ * The digits of the index are kept per dimension, so advancing the index only
+ * touches the digits that carry over, O(1) amortized, and there are no
+ * divisions.
+ * 
+ * @author Thomas Diewald
+ *
+ */
+public class DwHaltonSequence implements DwSequence2D{
+  
+  private final Dimension dim0;
+  private final Dimension dim1;
+  private int index;
+  
+  public DwHaltonSequence(){
+    this(2, 3);
+  }
+  
+  public DwHaltonSequence(int base0, int base1){
+    dim0 = new Dimension(base0);
+    dim1 = new Dimension(base1);
+    setIndex(0);
+  }
+  
+  @Override
+  public void setIndex(int index){
+    this.index = index;
+    dim0.setIndex(index);
+    dim1.setIndex(index);
+  }
+  
+  @Override
+  public int getIndex(){
+    return index;
+  }
+  
+  @Override
+  public void next(float[] dst, int off){
+    dst[off + 0] = DwSampling.toUnitFloat(dim0.value);
+    dst[off + 1] = DwSampling.toUnitFloat(dim1.value);
+    dim0.increment();
+    dim1.increment();
+    index++;
+  }
+  
+  
+  
+  /**
+   * radical inverse of a single base. The value is kept as exact integer 
+   * numerator over base^K, with K digits covering any positive int.
+   * Only the final scaling, numerator * (1/base^K), is rounded.
+   */
+  static private class Dimension {
+    final int    base;
+    final int    K;
+    final long[] weight; // weight of digit i: base^(K-1-i)
+    final int[]  digits;
+    final double denom_inv;
+    long   numerator;
+    double value;
+    
+    Dimension(int base){
+      this.base = base;
+      int k = 0;
+      for(long p = 1; p <= Integer.MAX_VALUE; p *= base) k++;
+      K = k;
+      weight = new long[K];
+      digits = new int[K + 1];
+      long p = 1;
+      for(int i = K - 1; i >= 0; i--){
+        weight[i] = p;
+        p *= base;
+      }
+      denom_inv = 1.0 / p;
+    }
+    
+    void setIndex(int index){
+      numerator = 0;
+      for(int i = 0; i < K; i++){
+        digits[i] = index % base;
+        numerator += digits[i] * weight[i];
+        index /= base;
+      }
+      value = numerator * denom_inv;
+    }
+    
+    void increment(){
+      int i = 0;
+      while(digits[i] == base - 1){
+        digits[i] = 0;
+        numerator -= (base - 1) * weight[i];
+        i++;
+      }
+      if(i < K){
+        digits[i]++;
+        numerator += weight[i];
+      }
+      value = numerator * denom_inv;
+    }
+  }
+  
+}
@@ -0,0 +1,61 @@
+/**
+ * 
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ * 
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+package com.thomasdiewald.pixelflow.java.sampling;
+
+
+/**
+ * 
+ * R2 sequence, the 2D generalization of the golden ratio sequence.
+ * 
+ *   x(n) = fract(0.5 + n * (1/g, 1/g^2)), g^3 = g + 1 (plastic number)
+ * 
+ * http://extremelearning.com.au/unreasonable-effectiveness-of-quasirandom-sequences/
+ * 
+ * @author Thomas Diewald
+ *
+ */
+public class DwR2Sequence implements DwSequence2D{
+  
+  static public final double G  = 1.32471795724474602596;
+  static public final double A0 = 1.0 / G;
+  static public final double A1 = 1.0 / (G * G);
+  
+  private int index;
+  private double x0, x1;
+  
+  public DwR2Sequence(){
+    setIndex(0);
+  }
+  
+  @Override
+  public void setIndex(int index){
+    this.index = index;
+    x0 = fract(0.5 + index * A0);
+    x1 = fract(0.5 + index * A1);
+  }
+  
+  @Override
+  public int getIndex(){
+    return index;
+  }
+  
+  @Override
+  public void next(float[] dst, int off){
+    dst[off + 0] = DwSampling.toUnitFloat(x0);
+    dst[off + 1] = DwSampling.toUnitFloat(x1);
+    index++;
+    x0 += A0; if(x0 >= 1.0) x0 -= 1.0;
+    x1 += A1; if(x1 >= 1.0) x1 -= 1.0;
+  }
+  
+  static private double fract(double x){
+    return x - Math.floor(x);
+  }
+  
+}
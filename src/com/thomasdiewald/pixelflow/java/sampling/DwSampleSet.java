@@ -0,0 +1,268 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+package com.thomasdiewald.pixelflow.java.sampling;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+
+/**
+ *
+ * Precomputed set of unit directions, e.g. for progressive rendering, where
+ * pass i uses direction i.
+ *
+ * The directions are distributed on the sphere and then focused towards +z:
+ *
+ *   dir = normalize(sample * focus + (0, 0, 1 - focus))
+ *
+ * so focus = 1 covers the whole sphere, focus -> 0 a narrow cone around +z.
+ * The unfocused directions are shared by all focused copies, see focus().
+ *
+ * Patterns:
+ *   HALTON     ... Halton (2,3), starting at index 2, same as the original sky-light sampling.
+ *   SOBOL      ... Owen-scrambled Sobol, each prefix of 2^m directions is stratified.
+ *   BLUE_NOISE ... Mitchell's best-candidate, each prefix is well spread out.
+ *
+ * Directions beyond count are not repeated, they are computed on demand from
+ * the Halton or Sobol sequence of the pattern (BLUE_NOISE continues with the
+ * Sobol directions), so accumulating more than count passes still converges.
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwSampleSet {
+
+  static public final int HALTON     = 0;
+  static public final int SOBOL      = 1;
+  static public final int BLUE_NOISE = 2;
+
+  static private final int FILE_MAGIC   = 0x44575353; // "DWSS"
+  static private final int FILE_VERSION = 2;
+
+  // candidates per new direction, BLUE_NOISE
+  static public int BLUE_NOISE_CANDIDATES = 16;
+
+  static private final int SOBOL_SEED = 0x5EED;
+
+  public final int   pattern;
+  public final int   count;
+  public final float focus;
+
+  // x, y, z, focused
+  public final float[] directions;
+
+  // x, y, z, unfocused, shared with all sets of the same pattern and count
+  private final float[] sphere;
+
+  private DwSampleSet(int pattern, int count, float focus, float[] sphere){
+    this.pattern = pattern;
+    this.count = count;
+    this.focus = focus;
+    this.sphere = sphere;
+    if(focus == 1f){
+      this.directions = sphere;
+    } else {
+      this.directions = new float[count * 3];
+      for(int i = 0; i < count * 3; i += 3){
+        focus(sphere, i, focus, directions, i);
+      }
+    }
+  }
+
+
+  /**
+   * @return direction of idx, computed on demand for idx >= count
+   */
+  public float[] get(int idx, float[] dst){
+    if(idx < count){
+      idx *= 3;
+      dst[0] = directions[idx + 0];
+      dst[1] = directions[idx + 1];
+      dst[2] = directions[idx + 2];
+    } else {
+      sphereDirection(pattern, idx, dst);
+      focus(dst, 0, focus, dst, 0);
+    }
+    return dst;
+  }
+
+  public boolean matches(int pattern, int count, float focus){
+    return this.pattern == pattern && this.count == count && this.focus == focus;
+  }
+
+  /**
+   * @return set of the same pattern and count, focused by "focus". The
+   *         unfocused directions are not recomputed.
+   */
+  public DwSampleSet focus(float focus){
+    return (focus == this.focus) ? this : new DwSampleSet(pattern, count, focus, sphere);
+  }
+
+
+
+
+  /**
+   * @param count number of precomputed directions, at least 1
+   */
+  static public DwSampleSet create(int pattern, int count, float focus){
+    count = Math.max(count, 1);
+    float[] dirs = new float[count * 3];
+
+    switch(pattern){
+      case SOBOL:
+        DwSampling.uniformSampleSphere(new DwSobolSequence(SOBOL_SEED), count, dirs);
+        break;
+      case BLUE_NOISE:
+        createBlueNoise(count, dirs);
+        break;
+      default:
+        for(int i = 0; i < count; i++){
+          haltonDirection(i, dirs, i * 3);
+        }
+        break;
+    }
+    return new DwSampleSet(pattern, count, focus, dirs);
+  }
+
+
+  static private void sphereDirection(int pattern, int idx, float[] dst){
+    if(pattern == SOBOL || pattern == BLUE_NOISE){
+      DwSobolSequence sobol = new DwSobolSequence(SOBOL_SEED);
+      sobol.setIndex(idx);
+      DwSampling.uniformSampleSphere(sobol, 1, dst);
+    } else {
+      haltonDirection(idx, dst, 0);
+    }
+  }
+
+  static private void haltonDirection(int idx, float[] dst, int off){
+    DwSampling.uniformSampleSphere(DwSampling.halton(idx+2, 2), DwSampling.halton(idx+2, 3), dst, off);
+  }
+
+
+  // focus, and project to the unit sphere
+  static private void focus(float[] src, int i, float focus, float[] dst, int j){
+    float x = src[i + 0] * focus;
+    float y = src[i + 1] * focus;
+    float z = src[i + 2] + (1.0f - focus);
+    float dd = (float) Math.sqrt(x*x + y*y + z*z);
+    dst[j + 0] = x / dd;
+    dst[j + 1] = y / dd;
+    dst[j + 2] = z / dd;
+  }
+
+
+  /**
+   * Mitchell's best-candidate, the candidates are taken from a scrambled
+   * Sobol sequence. O(count^2 * BLUE_NOISE_CANDIDATES), which is why the sets
+   * are meant to be cached.
+   */
+  static private void createBlueNoise(int count, float[] dirs){
+    DwSobolSequence sobol = new DwSobolSequence(0xB10E);
+    int num_candidates = Math.max(1, BLUE_NOISE_CANDIDATES);
+    float[] candidates = new float[num_candidates * 3];
+
+    for(int i = 0; i < count; i++){
+      DwSampling.uniformSampleSphere(sobol, (i == 0) ? 1 : num_candidates, candidates);
+
+      int   best_idx = 0;
+      float best_dot = Float.MAX_VALUE;
+      for(int c = 0; i > 0 && c < num_candidates; c++){
+        float cx = candidates[c * 3 + 0];
+        float cy = candidates[c * 3 + 1];
+        float cz = candidates[c * 3 + 2];
+
+        // nearest direction = largest dot product
+        float max_dot = -Float.MAX_VALUE;
+        for(int j = 0; j < i * 3 && max_dot < best_dot; j += 3){
+          float dot = cx * dirs[j] + cy * dirs[j+1] + cz * dirs[j+2];
+          if(dot > max_dot) max_dot = dot;
+        }
+        if(max_dot < best_dot){
+          best_dot = max_dot;
+          best_idx = c;
+        }
+      }
+      System.arraycopy(candidates, best_idx * 3, dirs, i * 3, 3);
+    }
+  }
+
+
+
+
+  /**
+   * Writes the unfocused directions, focus is applied after loading.
+   */
+  public void save(File file){
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+      out.writeInt(FILE_MAGIC);
+      out.writeInt(FILE_VERSION);
+      out.writeInt(pattern);
+      out.writeInt(count);
+      for(int i = 0; i < count * 3; i++){
+        out.writeFloat(sphere[i]);
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    } finally {
+      try {
+        if (out != null) {
+          out.close();
+        }
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+
+  /**
+   * @return the unfocused sample set (focus = 1), or null if the file doesn't
+   *         exist or is not valid
+   */
+  static public DwSampleSet load(File file){
+    if(!file.isFile()){
+      return null;
+    }
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      if(in.readInt() != FILE_MAGIC  ) return null;
+      if(in.readInt() != FILE_VERSION) return null;
+      int pattern = in.readInt();
+      int count   = in.readInt();
+      if(count <= 0 || count * 12L + 16 != file.length()) return null;
+      float[] directions = new float[count * 3];
+      for(int i = 0; i < count * 3; i++){
+        directions[i] = in.readFloat();
+      }
+      return new DwSampleSet(pattern, count, 1f, directions);
+    } catch (IOException e) {
+      e.printStackTrace();
+      return null;
+    } finally {
+      try {
+        if (in != null) {
+          in.close();
+        }
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+}
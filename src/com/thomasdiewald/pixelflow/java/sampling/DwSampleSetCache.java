@@ -0,0 +1,103 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+package com.thomasdiewald.pixelflow.java.sampling;
+
+import java.io.File;
+import java.util.ArrayList;
+
+
+/**
+ *
+ * Cache of DwSampleSets, keyed by pattern and count.
+ *
+ * Only the unfocused sets are cached, focused sets are created from them on
+ * each get() in O(count), so changing the focus doesn't grow the cache.
+ *
+ * Sets are kept in memory, and if a directory is set, also written to/read
+ * from disk, so the (blue-noise) precomputation is only done once.
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwSampleSetCache {
+
+  // shared by default, e.g. by all DwSkyLightShader instances
+  static public final DwSampleSetCache SHARED = new DwSampleSetCache();
+
+  private ArrayList<DwSampleSet> sets = new ArrayList<DwSampleSet>();
+  private File directory;
+
+  public DwSampleSetCache(){
+  }
+
+  /**
+   * @param directory directory for the sample set files, null ... memory only
+   */
+  public synchronized void setDirectory(File directory){
+    this.directory = directory;
+  }
+
+  public synchronized File getDirectory(){
+    return directory;
+  }
+
+  public synchronized void clear(){
+    sets.clear();
+  }
+
+
+  /**
+   * @param count number of precomputed directions, values below 1 are clamped to 1
+   */
+  public synchronized DwSampleSet get(int pattern, int count, float focus){
+    return get(pattern, count).focus(focus);
+  }
+
+
+  // unfocused set
+  private DwSampleSet get(int pattern, int count){
+    count = Math.max(count, 1);
+
+    // 1) memory
+    for(DwSampleSet set : sets){
+      if(set.matches(pattern, count, 1f)){
+        return set;
+      }
+    }
+
+    // 2) disk
+    File file = null;
+    DwSampleSet set = null;
+    if(directory != null){
+      file = new File(directory, getFileName(pattern, count));
+      set = DwSampleSet.load(file);
+      if(set != null && !set.matches(pattern, count, 1f)){
+        set = null;
+      }
+    }
+
+    // 3) create
+    if(set == null){
+      set = DwSampleSet.create(pattern, count, 1f);
+      if(file != null){
+        directory.mkdirs();
+        set.save(file);
+      }
+    }
+
+    sets.add(set);
+    return set;
+  }
+
+
+  static public String getFileName(int pattern, int count){
+    return "sampleset_"+pattern+"_"+count+".bin";
+  }
+
+}
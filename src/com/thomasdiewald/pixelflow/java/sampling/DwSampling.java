@@ -19,6 +19,10 @@ public class DwSampling {
   
   
   static public double halton(int index, int base){
+    if(base == 2 && index >= 0){
+      // radical inverse of base 2 is a bit reversal
+      return (Integer.reverse(index) & 0xFFFFFFFFL) * 0x1.0p-32;
+    }
     double result = 0;
     double f = 1f / base;
     int i = index;
@@ -48,27 +52,15 @@ public class DwSampling {
   
   
   static public float[] uniformSampleSphere_Halton(int index, int p1, int p2){
-    double phi = halton(index, p1) * PI_TWO;    // [0,2*PI]
-    double rnd = halton(index, p2) * 2.0 - 1.0; // [-1,+1]
-    double rad = Math.sqrt(1.0 - rnd*rnd);
-    
-    double X   = Math.cos(phi) * rad;
-    double Y   = Math.sin(phi) * rad;
-    double Z   = rnd;
-    return float3(X,Y,Z);
+    return uniformSampleSphere(halton(index, p1), halton(index, p2), new float[3], 0);
   }
   
   static public float[] uniformSampleSphere_Halton(int index){
-    double phi = halton(index, 2) * PI_TWO;    // [0,2*PI]
-    double rnd = halton(index, 3) * 2.0 - 1.0; // [-1,+1]
-    
-    double rad = Math.sqrt(1.0 - rnd*rnd);
-    
-    double X   = Math.cos(phi) * rad;
-    double Y   = Math.sin(phi) * rad;
-    double Z   = rnd;
-    
-    return float3(X,Y,Z);
+    return uniformSampleSphere(halton(index, 2), halton(index, 3), new float[3], 0);
+  }
+  
+  static public float[] uniformSampleSphere_Halton(int index, float[] dst){
+    return uniformSampleSphere(halton(index, 2), halton(index, 3), dst, 0);
   }
   
   
@@ -90,14 +82,7 @@ public class DwSampling {
 
   
   public static float[] uniformSampleSphere_Random() {
-    double phi = Math.random() * PI_TWO;      // [0,2*PI] 
-    double rnd = Math.random() * 2.0 - 1.0;   // [-1,+1]  
-    double rad = Math.sqrt(1.0 - rnd*rnd);
-    
-    double X   = Math.cos(phi) * rad;
-    double Y   = Math.sin(phi) * rad;
-    double Z   = rnd;
-    return float3(X,Y,Z);
+    return uniformSampleSphere(Math.random(), Math.random(), new float[3], 0);
   }
   
   
@@ -130,26 +115,148 @@ public class DwSampling {
 
   // same as cosineSampleHemisphere(scale, 0);
   public static float[] uniformSampleHemisphere_Halton(int index){
-    double phi = halton(index, 2) * PI_TWO;
-    double rnd = halton(index, 3);
-    double rad = Math.sqrt(1.0 - rnd*rnd);
-    double X   = Math.cos(phi) * rad;
-    double Y   = Math.sin(phi) * rad;
-    double Z   = rnd;
-    return float3(X,Y,Z);
+    return uniformSampleHemisphere(halton(index, 2), halton(index, 3), new float[3], 0);
   }
   
   // same as cosineSampleHemisphere(scale, 1);
   public static float[] cosineSampleHemisphere_Halton(int index){
-    double phi = halton(index, 2) * PI_TWO ;
-    double rnd = halton(index, 3);
-    double rad = Math.sqrt(1.0-rnd);
-    double X   = Math.cos(phi) * rad;
-    double Y   = Math.sin(phi) * rad;
-    double Z   = Math.sqrt(rnd);
-    return float3(X,Y,Z);
+    return cosineSampleHemisphere(halton(index, 2), halton(index, 3), new float[3], 0);
   }
   
+  
+  
+  
+  //////////////////////////////////////////////////////////////////////////////
+  // mapping of 2D samples [0,1)^2 to directions, written to dst[off...off+2]
+  //////////////////////////////////////////////////////////////////////////////
+  
+  public static float[] uniformSampleSphere(double u, double v, float[] dst, int off){
+    double phi = u * PI_TWO;    // [0,2*PI]
+    double rnd = v * 2.0 - 1.0; // [-1,+1]
+    double rad = Math.sqrt(1.0 - rnd*rnd);
+    dst[off + 0] = (float) (Math.cos(phi) * rad);
+    dst[off + 1] = (float) (Math.sin(phi) * rad);
+    dst[off + 2] = (float) (rnd);
+    return dst;
+  }
+  
+  public static float[] uniformSampleHemisphere(double u, double v, float[] dst, int off){
+    double phi = u * PI_TWO;
+    double rnd = v;
+    double rad = Math.sqrt(1.0 - rnd*rnd);
+    dst[off + 0] = (float) (Math.cos(phi) * rad);
+    dst[off + 1] = (float) (Math.sin(phi) * rad);
+    dst[off + 2] = (float) (rnd);
+    return dst;
+  }
+  
+  public static float[] cosineSampleHemisphere(double u, double v, float[] dst, int off){
+    double phi = u * PI_TWO;
+    double rnd = v;
+    double rad = Math.sqrt(1.0 - rnd);
+    dst[off + 0] = (float) (Math.cos(phi) * rad);
+    dst[off + 1] = (float) (Math.sin(phi) * rad);
+    dst[off + 2] = (float) (Math.sqrt(rnd));
+    return dst;
+  }
+  
+  
+  
+  
+  //////////////////////////////////////////////////////////////////////////////
+  // batch sampling, the next "count" points of a sequence are mapped to 
+  // directions, x,y,z each. dst is only allocated if it is null or too small.
+  //////////////////////////////////////////////////////////////////////////////
+  
+  public static final int SPHERE            = 0;
+  public static final int HEMISPHERE        = 1;
+  public static final int HEMISPHERE_COSINE = 2;
+  
+  public static float[] sampleDirections(DwSequence2D sequence, int mapping, int count, float[] dst){
+    if(dst == null || dst.length < count * 3){
+      dst = new float[count * 3];
+    }
+    float[] uv = new float[2];
+    for(int i = 0; i < count; i++){
+      sequence.next(uv, 0);
+      switch(mapping){
+        case SPHERE           : uniformSampleSphere    (uv[0], uv[1], dst, i * 3); break;
+        case HEMISPHERE       : uniformSampleHemisphere(uv[0], uv[1], dst, i * 3); break;
+        case HEMISPHERE_COSINE: cosineSampleHemisphere (uv[0], uv[1], dst, i * 3); break;
+      }
+    }
+    return dst;
+  }
+  
+  public static float[] uniformSampleSphere(DwSequence2D sequence, int count, float[] dst){
+    return sampleDirections(sequence, SPHERE, count, dst);
+  }
+  
+  public static float[] uniformSampleHemisphere(DwSequence2D sequence, int count, float[] dst){
+    return sampleDirections(sequence, HEMISPHERE, count, dst);
+  }
+  
+  public static float[] cosineSampleHemisphere(DwSequence2D sequence, int count, float[] dst){
+    return sampleDirections(sequence, HEMISPHERE_COSINE, count, dst);
+  }
+  
+  
+  
+  
+  //////////////////////////////////////////////////////////////////////////////
+  // bit utils, scrambling
+  //////////////////////////////////////////////////////////////////////////////
+  
+  // largest float < 1
+  public static final float ONE_MINUS_EPSILON = 0x1.fffffep-1f;
+  
+  // [0, 2^32) -> [0,1)
+  public static float toUnitFloat(int bits){
+    return (bits >>> 8) * 0x1.0p-24f;
+  }
+  
+  // [0,1] -> [0,1)
+  public static float toUnitFloat(double value){
+    return Math.min((float) value, ONE_MINUS_EPSILON);
+  }
+  
+  // integer hash (lowbias32, Chris Wellons)
+  public static int hash(int x){
+    x ^= x >>> 16;
+    x *= 0x7feb352d;
+    x ^= x >>> 15;
+    x *= 0x846ca68b;
+    x ^= x >>> 16;
+    return x;
+  }
+  
+  /**
+   * Permutes the bits of x, each bit only depends on the lower bits.
+   * "Stratified Sampling for Stochastic Transparency" (Laine, Karras 2011)
+   * improved constants from "Practical Hash-based Owen Scrambling" (Burley 2020)
+   */
+  public static int laineKarrasPermutation(int x, int seed){
+    x += seed;
+    x ^= x * 0x6c50b47c;
+    x ^= x * 0xb82f1e52;
+    x ^= x * 0xc7afe638;
+    x ^= x * 0x8d22f6e6;
+    return x;
+  }
+  
+  /**
+   * Nested uniform (Owen) scrambling of a 32bit fixed point value in [0,1).
+   * Each bit only depends on the higher bits.
+   */
+  public static int owenScramble(int x, int seed){
+    x = Integer.reverse(x);
+    x = laineKarrasPermutation(x, seed);
+    return Integer.reverse(x);
+  }
+  
+  
+  
+  
   public static float[] float3(double x, double y, double z){
     return new float[]{(float)x, (float)y, (float)z};
   }
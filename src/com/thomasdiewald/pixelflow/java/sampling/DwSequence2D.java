@@ -0,0 +1,30 @@
+/**
+ * 
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ * 
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+package com.thomasdiewald.pixelflow.java.sampling;
+
+
+/**
+ * 
+ * Incremental 2D point sequence in [0,1)^2, e.g. Halton, Sobol, R2.
+ * 
+ * The sequences are stateful, next() returns the point of the current index
+ * and advances it, at an amortized O(1) cost and without allocations.
+ * 
+ * @author Thomas Diewald
+ *
+ */
+public interface DwSequence2D {
+
+  // sets the index of the next point
+  public void setIndex(int index);
+  public int getIndex();
+
+  // writes the point of the current index to dst[off], dst[off+1] and advances the index
+  public void next(float[] dst, int off);
+}
@@ -0,0 +1,111 @@
+/**
+ * 
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ * 
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+package com.thomasdiewald.pixelflow.java.sampling;
+
+
+/**
+ * 
+ * Incremental 2D Sobol sequence, optionally Owen-scrambled.
+ * 
+ * The points are generated in Gray code order, so advancing the index is a 
+ * single table lookup and xor. Each block of 2^m points is the same point set
+ * as in the natural order.
+ * 
+ * The sequence has 2^32 points, the index is an unsigned 32 bit counter, so 
+ * getIndex() turns negative after 2^31 points and the sequence starts over 
+ * after 2^32 points.
+ * 
+ * Scrambling: hash-based nested uniform scrambling, see
+ * "Practical Hash-based Owen Scrambling" (Brent Burley, 2020).
+ * 
+ * @author Thomas Diewald
+ *
+ */
+public class DwSobolSequence implements DwSequence2D{
+  
+  // direction numbers
+  // dim 0: van der Corput
+  // dim 1: primitive polynomial x + 1
+  static private final int[] V0 = new int[32];
+  static private final int[] V1 = new int[32];
+  
+  static {
+    V0[0] = V1[0] = 1 << 31;
+    for(int i = 1; i < 32; i++){
+      V0[i] = V0[i-1] >>> 1;
+      V1[i] = V1[i-1] ^ (V1[i-1] >>> 1);
+    }
+  }
+  
+  private int index;
+  private int x0, x1;
+  
+  private boolean scramble = false;
+  private int seed0, seed1;
+  
+  public DwSobolSequence(){
+    setIndex(0);
+  }
+  
+  /**
+   * @param seed Owen-scrambling seed
+   */
+  public DwSobolSequence(int seed){
+    setScramble(seed);
+    setIndex(0);
+  }
+  
+  public void setScramble(int seed){
+    scramble = true;
+    seed0 = DwSampling.hash(seed);
+    seed1 = DwSampling.hash(seed0);
+  }
+  
+  public void setScramble(boolean scramble){
+    this.scramble = scramble;
+  }
+  
+  @Override
+  public void setIndex(int index){
+    this.index = index;
+    int gray = index ^ (index >>> 1);
+    x0 = x1 = 0;
+    for(int i = 0; gray != 0; i++, gray >>>= 1){
+      if((gray & 1) != 0){
+        x0 ^= V0[i];
+        x1 ^= V1[i];
+      }
+    }
+  }
+  
+  @Override
+  public int getIndex(){
+    return index;
+  }
+  
+  @Override
+  public void next(float[] dst, int off){
+    int s0 = x0;
+    int s1 = x1;
+    if(scramble){
+      s0 = DwSampling.owenScramble(s0, seed0);
+      s1 = DwSampling.owenScramble(s1, seed1);
+    }
+    dst[off + 0] = DwSampling.toUnitFloat(s0);
+    dst[off + 1] = DwSampling.toUnitFloat(s1);
+    
+    // gray code: the bit that changes is the lowest set bit of index+1
+    // on the wrap-around to 0 that's bit 31, which resets x0, x1 to 0
+    index++;
+    int c = Math.min(Integer.numberOfTrailingZeros(index), 31);
+    x0 ^= V0[c];
+    x1 ^= V1[c];
+  }
+  
+}
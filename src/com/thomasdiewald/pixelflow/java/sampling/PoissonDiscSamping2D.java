@@ -10,21 +10,28 @@ package com.thomasdiewald.pixelflow.java.sampling;
 
 import java.util.ArrayList;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import com.thomasdiewald.pixelflow.java.accelerationstructures.DwCollisionGrid;
 import com.thomasdiewald.pixelflow.java.accelerationstructures.DwCollisionObject;
-import com.thomasdiewald.pixelflow.java.accelerationstructures.DwStack;
+import com.thomasdiewald.pixelflow.java.accelerationstructures.DwIntStack;
 
 
 public abstract class PoissonDiscSamping2D<T extends DwCollisionObject> {
 
   protected Random rand = new Random(0);
 
+  // result of the last generate call. the list is reused, each call clears it,
+  // so make a copy to keep the samples of a previous run.
   public ArrayList<T> samples = new ArrayList<T>();
   
-  protected DwStack<Integer> stack = new  DwStack<Integer>();
+  protected DwIntStack stack = new DwIntStack();
   protected DwCollisionGrid grid = new DwCollisionGrid();
   
+  // parallel sampling, see PoissonDiscSampingParallel
+  protected boolean parallel = false;
+  protected PoissonDiscSampingParallel sampler_parallel = new PoissonDiscSampingParallel();
+  
   public PoissonDiscSamping2D(){
   }
   
@@ -35,6 +42,21 @@ public abstract class PoissonDiscSamping2D<T extends DwCollisionObject> {
     rand.setSeed(seed);
   }
   
+  /**
+   * Multi-threaded sampling, the result differs from the single-threaded one, 
+   * but only depends on the random seed.
+   * 
+   * @param pool the pool used for sampling, if null a new one is created on demand.
+   */
+  public void setParallel(boolean parallel, ForkJoinPool pool){
+    this.parallel = parallel;
+    sampler_parallel.setParallel(parallel, pool);
+  }
+  
+  public boolean isParallel(){
+    return parallel;
+  }
+  
   public void generatePoissonSampling2D(float[] bounds, float radius_min, float radius_max, float offset, int new_points){  
     // fix bounds
     float sx = bounds[3] - bounds[0], mx = (bounds[3] + bounds[0]) * 0.5f;
@@ -46,10 +68,15 @@ public abstract class PoissonDiscSamping2D<T extends DwCollisionObject> {
     if(sy < s_min * 2) { bounds[1] = my - s_min; bounds[4] = my + s_min; } 
     if(sz < s_min * 2) { bounds[2] = mz - s_min; bounds[5] = mz + s_min; } 
 
-    // allocate data structures
-    samples = new ArrayList<T>();
-    stack   = new DwStack<Integer>();
-    grid    = new DwCollisionGrid(bounds, radius_max);
+    if(parallel){
+      generatePoissonSamplingParallel(bounds, radius_min, radius_max, offset, new_points);
+      return;
+    }
+
+    // reset data structures, the buffers of the previous run are reused
+    samples.clear();
+    stack.clear();
+    grid.init(bounds, radius_max);
 
     // add first sample
     float pr_new = radius_min + rand.nextFloat() * (radius_max - radius_min);
@@ -70,6 +97,28 @@ public abstract class PoissonDiscSamping2D<T extends DwCollisionObject> {
     }
   }
   
+  private void generatePoissonSamplingParallel(float[] bounds, float radius_min, float radius_max, float offset, int new_points){
+    sampler_parallel.generatePoissonSampling(bounds, radius_min, radius_max, offset, new_points, rand.nextLong(), 2);
+    
+    float[] data = sampler_parallel.getSamples();
+    int num_samples = sampler_parallel.getNumSamples();
+    
+    // the grid is filled too, so addSample()/gotCollision() work as after the
+    // single-threaded sampling
+    samples.clear();
+    samples.ensureCapacity(num_samples);
+    stack.clear();
+    grid.init(bounds, radius_max);
+    for(int i = 0; i < num_samples; i++){
+      float x = data[i * 4 + 0];
+      float y = data[i * 4 + 1];
+      float r = data[i * 4 + 3];
+      T sample = newInstance(x, y, r, r + offset);
+      samples.add(sample);
+      grid.insertRealloc(sample);
+    }
+  }
+  
   public T createSample2D(T sample_old, float radius_min, float radius_max, float offset){
     float pr_old = sample_old.rad();
     float px_old = sample_old.x();
@@ -10,10 +10,11 @@ package com.thomasdiewald.pixelflow.java.sampling;
 
 import java.util.ArrayList;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import com.thomasdiewald.pixelflow.java.accelerationstructures.DwCollisionGrid;
 import com.thomasdiewald.pixelflow.java.accelerationstructures.DwCollisionObject;
-import com.thomasdiewald.pixelflow.java.accelerationstructures.DwStack;
+import com.thomasdiewald.pixelflow.java.accelerationstructures.DwIntStack;
 
 
 public abstract class PoissonDiscSamping3D<T extends DwCollisionObject> {
@@ -22,17 +23,42 @@ public abstract class PoissonDiscSamping3D<T extends DwCollisionObject> {
   
   int halton_idx = 1;
 
+  // result of the last generate call. the list is reused, each call clears it,
+  // so make a copy to keep the samples of a previous run.
   public ArrayList<T> samples = new ArrayList<T>();
   
-  protected DwStack<Integer> stack = new  DwStack<Integer>();
+  protected DwIntStack stack = new DwIntStack();
   protected DwCollisionGrid grid = new DwCollisionGrid();
   
+  // parallel sampling, see PoissonDiscSampingParallel
+  protected boolean parallel = false;
+  protected PoissonDiscSampingParallel sampler_parallel = new PoissonDiscSampingParallel();
+  
   public PoissonDiscSamping3D(){
     
   }
   
   public abstract T newInstance(float x, float y, float z, float r, float rcollision);
   
+  /**
+   * Multi-threaded sampling, the result differs from the single-threaded one, 
+   * but only depends on the random seed.
+   * 
+   * @param pool the pool used for sampling, if null a new one is created on demand.
+   */
+  public void setParallel(boolean parallel, ForkJoinPool pool){
+    this.parallel = parallel;
+    sampler_parallel.setParallel(parallel, pool);
+  }
+  
+  public boolean isParallel(){
+    return parallel;
+  }
+  
+  public void setRandomSeed(long seed){
+    rand.setSeed(seed);
+  }
+  
   public void generatePoissonSampling(float[] bounds, float radius_min, float radius_max, float offset, int new_points){  
     // fix bounds
     float sx = bounds[3] - bounds[0], mx = (bounds[3] + bounds[0]) * 0.5f;
@@ -44,10 +70,15 @@ public abstract class PoissonDiscSamping3D<T extends DwCollisionObject> {
     if(sy < s_min * 2) { bounds[1] = my - s_min; bounds[4] = my + s_min; } 
     if(sz < s_min * 2) { bounds[2] = mz - s_min; bounds[5] = mz + s_min; } 
 
-    // allocate data structures
-    samples = new ArrayList<T>();
-    stack   = new DwStack<Integer>();
-    grid    = new DwCollisionGrid(bounds, radius_max);
+    if(parallel){
+      generatePoissonSamplingParallel(bounds, radius_min, radius_max, offset, new_points);
+      return;
+    }
+
+    // reset data structures, the buffers of the previous run are reused
+    samples.clear();
+    stack.clear();
+    grid.init(bounds, radius_max);
 
     // add first sample
     float pr_new = radius_min + rand.nextFloat() * (radius_max - radius_min);
@@ -69,6 +100,29 @@ public abstract class PoissonDiscSamping3D<T extends DwCollisionObject> {
   }
   
 
+  private void generatePoissonSamplingParallel(float[] bounds, float radius_min, float radius_max, float offset, int new_points){
+    sampler_parallel.generatePoissonSampling(bounds, radius_min, radius_max, offset, new_points, rand.nextLong(), 3);
+    
+    float[] data = sampler_parallel.getSamples();
+    int num_samples = sampler_parallel.getNumSamples();
+    
+    // the grid is filled too, so addSample()/gotCollision() work as after the
+    // single-threaded sampling
+    samples.clear();
+    samples.ensureCapacity(num_samples);
+    stack.clear();
+    grid.init(bounds, radius_max);
+    for(int i = 0; i < num_samples; i++){
+      float x = data[i * 4 + 0];
+      float y = data[i * 4 + 1];
+      float z = data[i * 4 + 2];
+      float r = data[i * 4 + 3];
+      T sample = newInstance(x, y, z, r, r + offset);
+      samples.add(sample);
+      grid.insertRealloc(sample);
+    }
+  }
+  
   public T createSample3D(T sample_old, float radius_min, float radius_max, float offset){
     float pr_old = sample_old.rad();
     float px_old = sample_old.x();
@@ -0,0 +1,286 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+package com.thomasdiewald.pixelflow.java.sampling;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ *
+ * Poisson disc sampling (2D/3D) for a constant radius.
+ *
+ * "Fast Poisson Disk Sampling in Arbitrary Dimensions" (Robert Bridson, 2007)
+ *
+ * The background grid has a cell size of mindist/sqrt(dim), so each cell
+ * holds at most one sample, and the active list is an int array. The samples
+ * are stored as x, y, z coordinates, instances of T are only created on
+ * demand, by getSample() or getSamples().
+ *
+ * @author Thomas Diewald
+ *
+ */
+public abstract class PoissonDiscSampingBridson<T> {
+
+  protected Random rand = new Random(0);
+
+  // sampling params
+  private float radius;
+  private float offset;
+  private float mindist;
+
+  // samples: x, y, z
+  private int     num_samples;
+  private float[] samples = new float[0];
+
+  // active samples
+  private int   num_active;
+  private int[] active = new int[0];
+
+  // background grid: x, y, z of the sample in each cell, NaN ... empty.
+  // the grid has a border of 2 empty cells (only in xy for 2D), so the
+  // neighbor cells can be accessed without bounds checks.
+  private float[] bounds = new float[6];
+  private float   cell_size;
+  private float   cell_size_inv;
+  private int     gx, gy, gz;
+  private float[] grid = new float[0];
+  private int     pad_z;
+
+  // grid-offsets of the neighbor cells that may hold a collision, sorted by
+  // distance, so that most candidates get rejected early
+  private int     num_neighbors;
+  private int[]   neighbors = new int[125];
+
+
+  public PoissonDiscSampingBridson(){
+  }
+
+  public abstract T newInstance(float x, float y, float z, float r, float rcollision);
+
+  public void setRandomSeed(long seed){
+    rand.setSeed(seed);
+  }
+
+
+  public int getNumSamples(){
+    return num_samples;
+  }
+
+  /**
+   * @return x, y, z of each sample, 3 * getNumSamples() values are valid.
+   */
+  public float[] getSamplesArray(){
+    return samples;
+  }
+
+  public T getSample(int idx){
+    idx *= 3;
+    return newInstance(samples[idx+0], samples[idx+1], samples[idx+2], radius, radius + offset);
+  }
+
+  public ArrayList<T> getSamples(ArrayList<T> list){
+    if(list == null){
+      list = new ArrayList<T>(num_samples);
+    }
+    list.clear();
+    list.ensureCapacity(num_samples);
+    for(int i = 0; i < num_samples; i++){
+      list.add(getSample(i));
+    }
+    return list;
+  }
+
+
+
+  public void generatePoissonSampling2D(float[] bounds, float radius, float offset, int new_points){
+    generatePoissonSampling(bounds, radius, offset, new_points, 2);
+  }
+
+  public void generatePoissonSampling3D(float[] bounds, float radius, float offset, int new_points){
+    generatePoissonSampling(bounds, radius, offset, new_points, 3);
+  }
+
+
+  /**
+   * @param bounds xmin, ymin, zmin, xmax, ymax, zmax, samples (incl. radius + offset) stay inside.
+   * @param radius
+   * @param offset added to the radius, the min distance of two samples is 2 * (radius + offset)
+   * @param new_points number of candidates created around each sample
+   * @param dim 2 ... samples in the xy-plane (z = 0), 3 ... samples in 3D
+   */
+  private void generatePoissonSampling(float[] bounds_, float radius, float offset, int new_points, int dim){
+    this.radius  = radius;
+    this.offset  = offset;
+    this.mindist = (radius + offset) * 2;
+
+    // the sample centers are kept inside [bounds.min + rc, bounds.max - rc]
+    float rc = radius + offset;
+    for(int i = 0; i < 3; i++){
+      float min = bounds_[i    ] + rc;
+      float max = bounds_[i + 3] - rc;
+      if(min > max || (dim == 2 && i == 2)){
+        min = max = (bounds_[i] + bounds_[i + 3]) * 0.5f;
+      }
+      bounds[i    ] = min;
+      bounds[i + 3] = max;
+    }
+    if(dim == 2){
+      bounds[2] = bounds[5] = 0;
+    }
+
+    // 1) background grid, at most one sample per cell
+    cell_size = mindist / (float) Math.sqrt(dim);
+    cell_size_inv = 1f / cell_size;
+    pad_z = (dim == 2) ? 0 : 2;
+    gx = (int) ((bounds[3] - bounds[0]) / cell_size) + 1 + 4;
+    gy = (int) ((bounds[4] - bounds[1]) / cell_size) + 1 + 4;
+    gz = (int) ((bounds[5] - bounds[2]) / cell_size) + 1 + pad_z * 2;
+    int cells = gx * gy * gz;
+    if(cells * 3 > grid.length){
+      grid = new float[cells * 3];
+    }
+    Arrays.fill(grid, 0, cells * 3, Float.NaN);
+    createNeighbors();
+
+    if(samples.length < cells * 3){
+      samples = new float[cells * 3];
+      active  = new int[cells];
+    }
+    num_samples = 0;
+    num_active  = 0;
+
+    // xorshift64*, faster than java.util.Random
+    seed = rand.nextLong() | 1;
+
+    // 2) first sample, in the center
+    addSample((bounds[0] + bounds[3]) * 0.5f, (bounds[1] + bounds[4]) * 0.5f, (bounds[2] + bounds[5]) * 0.5f);
+
+    // 3) fill space
+    float d = mindist;
+    while(num_active > 0){
+      int active_idx = (int) (nextFloat() * num_active);
+      int idx = active[active_idx] * 3;
+      float px_old = samples[idx+0];
+      float py_old = samples[idx+1];
+      float pz_old = samples[idx+2];
+
+      boolean found = false;
+      for(int i = 0; i < new_points; i++){
+        // random point in the spherical shell [d, 2d], uniformly distributed in
+        // space, by rejection sampling of the enclosing square/cube
+        float dx, dy, dz, dd;
+        do {
+          dx = nextFloat() * 4 - 2;
+          dy = nextFloat() * 4 - 2;
+          dz = (dim == 2) ? 0 : nextFloat() * 4 - 2;
+          dd = dx*dx + dy*dy + dz*dz;
+        } while(dd < 1 || dd > 4);
+        float px_new = px_old + dx * d;
+        float py_new = py_old + dy * d;
+        float pz_new = pz_old + dz * d;
+
+        if(isValid(px_new, py_new, pz_new)){
+          addSample(px_new, py_new, pz_new);
+          found = true;
+        }
+      }
+
+      // no new samples around this one, remove it from the active list
+      if(!found){
+        active[active_idx] = active[--num_active];
+      }
+    }
+  }
+
+
+  private long seed;
+
+  private float nextFloat(){
+    seed ^= seed >>> 12;
+    seed ^= seed <<  25;
+    seed ^= seed >>> 27;
+    return ((seed * 0x2545F4914F6CDD1DL) >>> 40) * 0x1.0p-24f;
+  }
+
+
+  private int getCell(float x, float y, float z){
+    int cx = (int) ((x - bounds[0]) * cell_size_inv) + 2;
+    int cy = (int) ((y - bounds[1]) * cell_size_inv) + 2;
+    int cz = (int) ((z - bounds[2]) * cell_size_inv) + pad_z;
+    return (cz * gy + cy) * gx + cx;
+  }
+
+
+  /**
+   * The min distance of two samples is less than two cells. A neighbor cell
+   * can only hold a collision, if at most dim-1 of its offsets are +-2.
+   */
+  private void createNeighbors(){
+    int dim = (pad_z == 0) ? 2 : 3;
+    num_neighbors = 0;
+    long[] keys = new long[125];
+    for(int z = -pad_z; z <= pad_z; z++){
+      for(int y = -2; y <= 2; y++){
+        for(int x = -2; x <= 2; x++){
+          int dist = sq(Math.abs(x)-1) + sq(Math.abs(y)-1) + sq(Math.abs(z)-1);
+          if(dist < dim){
+            int offset = ((z * gy + y) * gx + x) * 3;
+            int order  = (x*x + y*y + z*z);
+            keys[num_neighbors++] = ((long) order << 32) | (offset & 0xFFFFFFFFL);
+          }
+        }
+      }
+    }
+    Arrays.sort(keys, 0, num_neighbors);
+    for(int i = 0; i < num_neighbors; i++){
+      neighbors[i] = (int) keys[i];
+    }
+  }
+
+  static private int sq(int a){
+    return a > 0 ? a * a : 0;
+  }
+
+
+  private void addSample(float x, float y, float z){
+    int idx = num_samples++;
+    samples[idx * 3 + 0] = x;
+    samples[idx * 3 + 1] = y;
+    samples[idx * 3 + 2] = z;
+    active[num_active++] = idx;
+    int cell = getCell(x, y, z) * 3;
+    grid[cell + 0] = x;
+    grid[cell + 1] = y;
+    grid[cell + 2] = z;
+  }
+
+
+  private boolean isValid(float px, float py, float pz){
+    if(px < bounds[0] || px > bounds[3]) return false;
+    if(py < bounds[1] || py > bounds[4]) return false;
+    if(pz < bounds[2] || pz > bounds[5]) return false;
+
+    int cell = getCell(px, py, pz) * 3;
+    float dd_min_sq = mindist * mindist;
+    for(int i = 0; i < num_neighbors; i++){
+      int idx = cell + neighbors[i];
+      float dx = grid[idx+0] - px;
+      float dy = grid[idx+1] - py;
+      float dz = grid[idx+2] - pz;
+      // empty cells are NaN, which never fails the test
+      if(dx*dx + dy*dy + dz*dz < dd_min_sq){
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
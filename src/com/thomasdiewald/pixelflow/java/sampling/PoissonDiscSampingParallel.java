@@ -0,0 +1,516 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+package com.thomasdiewald.pixelflow.java.sampling;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ *
+ * Parallel Poisson disc sampling (2D/3D), similar to "Parallel Poisson Disk
+ * Sampling" (Li-Yi Wei, 2008).
+ *
+ * The domain is split into grid cells of the size of the largest collision
+ * diameter, so two samples can only collide if they are in neighboring cells.
+ * The cells are grouped into 2^dim phases (even/odd cell index per axis), the
+ * cells of a phase are at least one cell apart and are processed concurrently.
+ *
+ * A cell only accepts samples inside its own bounds. Same as the sequential
+ * version, new candidates are created next to existing samples, candidates
+ * that fall into another cell are postponed until the phase of that cell.
+ *
+ * Each cell has its own seeded random number generator, so the result doesn't
+ * depend on the number of threads or the order in which the cells are solved.
+ *
+ * The samples are stored as primitives, x, y, z, r.
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class PoissonDiscSampingParallel {
+
+  // sampling params
+  private int     dim;
+  private float   radius_min;
+  private float   radius_max;
+  private float   offset;
+  private int     new_points;
+
+  // grid
+  private float[] bounds = new float[6];
+  private float   cell_size;
+  private int     gx, gy, gz;
+
+  // accepted samples of each cell: x, y, z, r
+  private float[][] CELL_DATA  = new float[0][];
+  private int[]     CELL_COUNT = new int[0];
+  private long[]    CELL_RAND  = new long[0];
+
+  // candidates, waiting for the phase of their cell: x, y, z, r
+  private int     num_pending;
+  private int[]   PENDING_CELL = new int[0];
+  private float[] PENDING      = new float[0];
+
+  // candidates of the current phase, sorted by cell
+  private long[]  SORT_KEY     = new long[0];
+  private float[] CURRENT      = new float[0];
+  private int     num_active;
+  private int[]   ACTIVE_CELL  = new int[0];
+  private int[]   ACTIVE_START = new int[1];
+
+  // per task buffers
+  private Chunk[] chunks = new Chunk[0];
+
+  // result: x, y, z, r
+  private int     num_samples;
+  private float[] samples = new float[0];
+
+  // parallel solve
+  private boolean      parallel = true;
+  private ForkJoinPool pool;
+  private int          chunk_size = 64;
+
+
+  public PoissonDiscSampingParallel(){
+  }
+
+
+  public void setParallel(boolean parallel){
+    this.parallel = parallel;
+  }
+
+  /**
+   * @param pool the pool used for the parallel solve, if null a new one is created on demand.
+   */
+  public void setParallel(boolean parallel, ForkJoinPool pool){
+    this.parallel = parallel;
+    this.pool = pool;
+  }
+
+  public boolean isParallel(){
+    return parallel;
+  }
+
+  /**
+   * @param chunk_size number of cells a single task solves at least.
+   */
+  public void setParallelChunkSize(int chunk_size){
+    this.chunk_size = Math.max(1, chunk_size);
+  }
+
+  public int getNumSamples(){
+    return num_samples;
+  }
+
+  /**
+   * @return x, y, z, r of each sample, 4 * getNumSamples() values are valid.
+   */
+  public float[] getSamples(){
+    return samples;
+  }
+
+
+
+  /**
+   *
+   * @param bounds xmin, ymin, zmin, xmax, ymax, zmax
+   * @param radius_min
+   * @param radius_max
+   * @param offset added to the radius for the collision test
+   * @param new_points number of candidates created around each sample
+   * @param seed
+   * @param dim 2 ... samples in the xy-plane (z = 0), 3 ... samples in 3D
+   */
+  public void generatePoissonSampling(float[] bounds, float radius_min, float radius_max, float offset, int new_points, long seed, int dim){
+    this.dim        = dim;
+    this.radius_min = radius_min;
+    this.radius_max = radius_max;
+    this.offset     = offset;
+    this.new_points = new_points;
+
+    System.arraycopy(bounds, 0, this.bounds, 0, 6);
+    if(dim == 2){
+      this.bounds[2] = this.bounds[5] = 0;
+    }
+
+    // 1) grid, colliding samples are at most one cell apart
+    cell_size = (radius_max + offset) * 2;
+    gx = (int) ((this.bounds[3] - this.bounds[0]) / cell_size) + 1;
+    gy = (int) ((this.bounds[4] - this.bounds[1]) / cell_size) + 1;
+    gz = (int) ((this.bounds[5] - this.bounds[2]) / cell_size) + 1;
+    int cells = gx * gy * gz;
+
+    if(cells > CELL_COUNT.length){
+      CELL_DATA  = new float[cells][];
+      CELL_COUNT = new int  [cells];
+      CELL_RAND  = new long [cells];
+    }
+    Arrays.fill(CELL_COUNT, 0, cells, 0);
+    for(int i = 0; i < cells; i++){
+      CELL_RAND[i] = mix(seed + i * GOLDEN_GAMMA);
+    }
+
+    // 2) first sample, in the center
+    float mx = (this.bounds[3] + this.bounds[0]) * 0.5f;
+    float my = (this.bounds[4] + this.bounds[1]) * 0.5f;
+    float mz = (this.bounds[5] + this.bounds[2]) * 0.5f;
+    float pr = radius_min + toFloat(mix(seed)) * (radius_max - radius_min);
+    int cell = getCell(mx, my, mz);
+
+    num_pending = 0;
+    addPending(cell, mx, my, mz, pr);
+
+    // 3) fill space, phase by phase, until no candidates are left
+    int num_phases = 1 << dim;
+    int phase = getPhase(cell);
+    while(num_pending > 0){
+      solvePhase(phase);
+      phase = (phase + 1) % num_phases;
+    }
+
+    // 4) collect samples, in cell order
+    num_samples = 0;
+    for(int i = 0; i < cells; i++){
+      num_samples += CELL_COUNT[i];
+    }
+    if(samples.length < num_samples * 4){
+      samples = new float[num_samples * 4];
+    }
+    int ptr = 0;
+    for(int i = 0; i < cells; i++){
+      int len = CELL_COUNT[i] * 4;
+      if(len > 0){
+        System.arraycopy(CELL_DATA[i], 0, samples, ptr, len);
+        ptr += len;
+      }
+    }
+  }
+
+
+
+  private int getCell(float x, float y, float z){
+    int cx = (int)((x - bounds[0]) / cell_size); cx = Math.max(Math.min(cx, gx-1), 0);
+    int cy = (int)((y - bounds[1]) / cell_size); cy = Math.max(Math.min(cy, gy-1), 0);
+    int cz = (int)((z - bounds[2]) / cell_size); cz = Math.max(Math.min(cz, gz-1), 0);
+    return (cz * gy + cy) * gx + cx;
+  }
+
+  private int getPhase(int cell){
+    int cx = cell % gx;
+    int cy = (cell / gx) % gy;
+    int cz = cell / (gx * gy);
+    return (cx & 1) | (cy & 1) << 1 | (cz & 1) << 2;
+  }
+
+
+  private void addPending(int cell, float x, float y, float z, float r){
+    if(num_pending >= PENDING_CELL.length){
+      int size_new = Math.max(num_pending * 2, 1024);
+      PENDING_CELL = Arrays.copyOf(PENDING_CELL, size_new);
+      PENDING      = Arrays.copyOf(PENDING, size_new * 4);
+    }
+    int idx = num_pending++;
+    PENDING_CELL[idx] = cell;
+    PENDING[idx * 4 + 0] = x;
+    PENDING[idx * 4 + 1] = y;
+    PENDING[idx * 4 + 2] = z;
+    PENDING[idx * 4 + 3] = r;
+  }
+
+
+
+  private void solvePhase(int phase){
+
+    // 1) candidates of this phase, sorted by cell, stable
+    int count = 0;
+    if(SORT_KEY.length < num_pending){
+      SORT_KEY = new long[PENDING_CELL.length];
+    }
+    for(int i = 0; i < num_pending; i++){
+      if(getPhase(PENDING_CELL[i]) == phase){
+        SORT_KEY[count++] = ((long) PENDING_CELL[i] << 32) | i;
+      }
+    }
+    if(count == 0){
+      return;
+    }
+    Arrays.sort(SORT_KEY, 0, count);
+
+    if(CURRENT.length < count * 4){
+      CURRENT      = new float[PENDING.length];
+      ACTIVE_CELL  = new int  [PENDING_CELL.length];
+      ACTIVE_START = new int  [PENDING_CELL.length + 1];
+    }
+    num_active = 0;
+    for(int i = 0; i < count; i++){
+      int cell = (int) (SORT_KEY[i] >>> 32);
+      int idx  = (int) (SORT_KEY[i]);
+      System.arraycopy(PENDING, idx * 4, CURRENT, i * 4, 4);
+      if(num_active == 0 || ACTIVE_CELL[num_active-1] != cell){
+        ACTIVE_CELL [num_active] = cell;
+        ACTIVE_START[num_active] = i;
+        num_active++;
+      }
+    }
+    ACTIVE_START[num_active] = count;
+
+    // 2) remove them from the pending candidates, stable
+    int ptr = 0;
+    for(int i = 0; i < num_pending; i++){
+      if(getPhase(PENDING_CELL[i]) != phase){
+        PENDING_CELL[ptr] = PENDING_CELL[i];
+        System.arraycopy(PENDING, i * 4, PENDING, ptr * 4, 4);
+        ptr++;
+      }
+    }
+    num_pending = ptr;
+
+    // 3) solve cells
+    int num_chunks = (num_active + chunk_size - 1) / chunk_size;
+    if(chunks.length < num_chunks){
+      chunks = Arrays.copyOf(chunks, num_chunks);
+    }
+    for(int i = 0; i < num_chunks; i++){
+      if(chunks[i] == null){
+        chunks[i] = new Chunk();
+      }
+      chunks[i].num_outbox = 0;
+    }
+
+    if(parallel && num_chunks > 1){
+      if(pool == null){
+        pool = new ForkJoinPool();
+      }
+      pool.invoke(new SolvePhaseTask(0, num_chunks));
+    } else {
+      for(int i = 0; i < num_chunks; i++){
+        solveChunk(i);
+      }
+    }
+
+    // 4) postpone candidates of other cells, in chunk order
+    for(int i = 0; i < num_chunks; i++){
+      Chunk chunk = chunks[i];
+      for(int j = 0; j < chunk.num_outbox; j++){
+        addPending(chunk.outbox_cell[j],
+            chunk.outbox[j * 4 + 0],
+            chunk.outbox[j * 4 + 1],
+            chunk.outbox[j * 4 + 2],
+            chunk.outbox[j * 4 + 3]);
+      }
+    }
+  }
+
+
+  private void solveChunk(int chunk_idx){
+    Chunk chunk = chunks[chunk_idx];
+    int lo = chunk_idx * chunk_size;
+    int hi = Math.min(lo + chunk_size, num_active);
+    for(int i = lo; i < hi; i++){
+      solveCell(chunk, ACTIVE_CELL[i], ACTIVE_START[i], ACTIVE_START[i+1]);
+    }
+  }
+
+
+  /**
+   * Inserts the candidates of a cell and keeps creating new candidates around
+   * each new sample. Only the cell itself is modified, its neighbors are read.
+   */
+  private void solveCell(Chunk chunk, int cell, int lo, int hi){
+    chunk.num_stack = 0;
+
+    // 1) postponed candidates
+    for(int i = lo; i < hi; i++){
+      float x = CURRENT[i * 4 + 0];
+      float y = CURRENT[i * 4 + 1];
+      float z = CURRENT[i * 4 + 2];
+      float r = CURRENT[i * 4 + 3];
+      if(insert(cell, x, y, z, r)){
+        chunk.push(x, y, z, r);
+      }
+    }
+
+    // 2) new candidates around new samples
+    float offset2 = offset * 2;
+    while(chunk.num_stack > 0){
+      int idx = --chunk.num_stack * 4;
+      float px_old = chunk.stack[idx + 0];
+      float py_old = chunk.stack[idx + 1];
+      float pz_old = chunk.stack[idx + 2];
+      float pr_old = chunk.stack[idx + 3];
+
+      for(int i = 0; i < new_points; i++){
+        float dx, dy, dz;
+        if(dim == 2){
+          double angle = Math.PI * 2 * nextFloat(cell);
+          dx = (float) Math.cos(angle);
+          dy = (float) Math.sin(angle);
+          dz = 0;
+        } else {
+          dz = nextFloat(cell) * 2 - 1;
+          double angle = Math.PI * 2 * nextFloat(cell);
+          float rxy = (float) Math.sqrt(1 - dz * dz);
+          dx = rxy * (float) Math.cos(angle);
+          dy = rxy * (float) Math.sin(angle);
+        }
+
+        float pr_new = radius_min + nextFloat(cell) * (radius_max - radius_min);
+        float dd = pr_old + pr_new + offset2;
+        float px_new = px_old + dx * dd;
+        float py_new = py_old + dy * dd;
+        float pz_new = pz_old + dz * dd;
+
+        // bounds
+        float rc = pr_new + offset;
+        if(px_new - rc < bounds[0] || px_new + rc > bounds[3]) continue;
+        if(py_new - rc < bounds[1] || py_new + rc > bounds[4]) continue;
+        if(dim == 3 && (pz_new - rc < bounds[2] || pz_new + rc > bounds[5])) continue;
+
+        int cell_new = getCell(px_new, py_new, pz_new);
+        if(cell_new == cell){
+          if(insert(cell, px_new, py_new, pz_new, pr_new)){
+            chunk.push(px_new, py_new, pz_new, pr_new);
+          }
+        } else {
+          chunk.postpone(cell_new, px_new, py_new, pz_new, pr_new);
+        }
+      }
+    }
+  }
+
+
+  /**
+   * Adds the sample to the cell, if it doesn't collide with any other sample.
+   */
+  private boolean insert(int cell, float px, float py, float pz, float pr){
+    int cx = cell % gx;
+    int cy = (cell / gx) % gy;
+    int cz = cell / (gx * gy);
+    int xmin = Math.max(cx - 1, 0), xmax = Math.min(cx + 1, gx - 1);
+    int ymin = Math.max(cy - 1, 0), ymax = Math.min(cy + 1, gy - 1);
+    int zmin = Math.max(cz - 1, 0), zmax = Math.min(cz + 1, gz - 1);
+
+    float prc = pr + offset * 2;
+    for(int z = zmin; z <= zmax; z++){
+      for(int y = ymin; y <= ymax; y++){
+        for(int x = xmin; x <= xmax; x++){
+          int cid = (z * gy + y) * gx + x;
+          float[] data = CELL_DATA[cid];
+          for(int i = 0, len = CELL_COUNT[cid] * 4; i < len; i += 4){
+            float dx = data[i + 0] - px;
+            float dy = data[i + 1] - py;
+            float dz = data[i + 2] - pz;
+            float rr = data[i + 3] + prc;
+            if(dx*dx + dy*dy + dz*dz < rr*rr){
+              return false;
+            }
+          }
+        }
+      }
+    }
+
+    float[] data = CELL_DATA[cell];
+    int idx = CELL_COUNT[cell]++ * 4;
+    if(data == null || idx + 4 > data.length){
+      CELL_DATA[cell] = data = (data == null) ? new float[16] : Arrays.copyOf(data, data.length * 2);
+    }
+    data[idx + 0] = px;
+    data[idx + 1] = py;
+    data[idx + 2] = pz;
+    data[idx + 3] = pr;
+    return true;
+  }
+
+
+
+  // splitmix64, one stream per cell
+  static private final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+  static private long mix(long z){
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  static private float toFloat(long z){
+    return (z >>> 40) * 0x1.0p-24f;
+  }
+
+  private float nextFloat(int cell){
+    return toFloat(mix(CELL_RAND[cell] += GOLDEN_GAMMA));
+  }
+
+
+
+  /**
+   * Buffers of a single task: the samples to expand and the candidates for
+   * other cells.
+   */
+  static private class Chunk {
+    int     num_stack;
+    float[] stack = new float[64];
+
+    int     num_outbox;
+    int[]   outbox_cell = new int[64];
+    float[] outbox = new float[64 * 4];
+
+    void push(float x, float y, float z, float r){
+      if(num_stack * 4 + 4 > stack.length){
+        stack = Arrays.copyOf(stack, stack.length * 2);
+      }
+      int idx = num_stack++ * 4;
+      stack[idx + 0] = x;
+      stack[idx + 1] = y;
+      stack[idx + 2] = z;
+      stack[idx + 3] = r;
+    }
+
+    void postpone(int cell, float x, float y, float z, float r){
+      if(num_outbox >= outbox_cell.length){
+        outbox_cell = Arrays.copyOf(outbox_cell, outbox_cell.length * 2);
+        outbox      = Arrays.copyOf(outbox, outbox.length * 2);
+      }
+      int idx = num_outbox++;
+      outbox_cell[idx] = cell;
+      outbox[idx * 4 + 0] = x;
+      outbox[idx * 4 + 1] = y;
+      outbox[idx * 4 + 2] = z;
+      outbox[idx * 4 + 3] = r;
+    }
+  }
+
+
+  /**
+   * Solves the chunks [lo, hi). Ranges of more than one chunk are split in two
+   * halves.
+   */
+  private class SolvePhaseTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    final int lo, hi;
+
+    SolvePhaseTask(int lo, int hi){
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected void compute() {
+      if(hi - lo <= 1){
+        solveChunk(lo);
+      } else {
+        int mid = (lo + hi) >>> 1;
+        invokeAll(new SolvePhaseTask(lo, mid), new SolvePhaseTask(mid, hi));
+      }
+    }
+  }
+
+}
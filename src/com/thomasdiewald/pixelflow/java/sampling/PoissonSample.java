@@ -48,6 +48,11 @@ public class PoissonSample implements DwCollisionObject{
     
     collision_count += dd_cur_sq < dd_min_sq ? 1 : 0;
   }
+  
+  @Override
+  public void updateUnique(DwCollisionObject othr) {
+    update(othr);
+  }
 
   @Override public float x() { return x; }
   @Override public float y() { return y; }
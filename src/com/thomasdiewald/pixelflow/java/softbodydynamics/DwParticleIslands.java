@@ -0,0 +1,227 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+package com.thomasdiewald.pixelflow.java.softbodydynamics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.thomasdiewald.pixelflow.java.softbodydynamics.constraint.DwSpringConstraint;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle;
+
+
+/**
+ * Groups particles into islands, i.e. the connected components of the
+ * spring graph. Particles without any spring are an island on their own.
+ *
+ * An island falls asleep when none of its particles moved faster than a given
+ * velocity for a given number of frames. It is woken up as a whole, as soon as
+ * one of its particles is no longer marked as sleeping (contact with an awake
+ * particle, addForce(), moveTo(), ...).
+ *
+ * The islands are only rebuilt when the number of particles or springs changes.
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwParticleIslands {
+
+  // particles of island i: particle[island_offset[i] ... island_offset[i+1]-1]
+  private int[] island_offset    = new int[]{0};
+  private int[] island_particles = new int[0];
+  private int   num_islands      = 0;
+  private int   num_particles    = -1;
+  private int   num_springs      = -1;
+
+  // per island state
+  private int[]     rest_frames = new int[0];
+  private boolean[] sleeping    = new boolean[0];
+  private int       num_sleeping = 0;
+
+  // particle -> island, also used as union-find buffer during the rebuild
+  private int[] island = new int[0];
+
+  public DwParticleIslands(){
+  }
+
+
+  public int getNumIslands(){
+    return num_islands;
+  }
+
+  public int getNumSleeping(){
+    return num_sleeping;
+  }
+
+  public int getIsland(int particle_idx){
+    return island[particle_idx];
+  }
+
+  public boolean isSleeping(int island_idx){
+    return sleeping[island_idx];
+  }
+
+  public void invalidate(){
+    num_springs = -1;
+  }
+
+
+  /**
+   * Rebuilds the islands if the particles or springs changed.
+   * All islands are awake after a rebuild.
+   *
+   * @return true, if the islands were rebuilt
+   */
+  public boolean update(DwParticle[] particles, int num_particles, ArrayList<DwSpringConstraint> springs){
+    if(num_particles != this.num_particles || springs.size() != num_springs){
+      create(particles, num_particles, springs);
+      return true;
+    }
+    return false;
+  }
+
+
+  private void create(DwParticle[] particles, int num_particles, ArrayList<DwSpringConstraint> springs){
+
+    this.num_particles = num_particles;
+    this.num_springs   = springs.size();
+
+    if(island.length < num_particles){
+      island           = new int[num_particles];
+      island_particles = new int[num_particles];
+      island_offset    = new int[num_particles + 1];
+      rest_frames      = new int[num_particles];
+      sleeping         = new boolean[num_particles];
+    }
+
+    // 1) union-find, island[i] is the parent of particle i
+    int[] parent = island;
+    for(int i = 0; i < num_particles; i++){
+      parent[i] = i;
+    }
+    for(DwSpringConstraint spring : springs){
+      int ra = find(parent, spring.idxPa());
+      int rb = find(parent, spring.idxPb());
+      if(ra != rb){
+        // the smaller index becomes the root, so roots come first
+        if(ra < rb) parent[rb] = ra; else parent[ra] = rb;
+      }
+    }
+
+    // 2) label islands, in the order of their roots.
+    //    a parent never has a larger index than its child, so after resolving
+    //    the particles in ascending order, parent[parent[i]] is the root of i.
+    int[] label = rest_frames; // temporary
+    num_islands = 0;
+    for(int i = 0; i < num_particles; i++){
+      parent[i] = parent[parent[i]];
+      if(parent[i] == i){
+        label[i] = num_islands++;
+      }
+    }
+    Arrays.fill(island_offset, 0, num_particles + 1, 0);
+    for(int i = 0; i < num_particles; i++){
+      island[i] = label[parent[i]];
+      island_offset[island[i] + 1]++;
+    }
+
+    // 3) sort particles by island
+    for(int i = 0; i < num_islands; i++){
+      island_offset[i + 1] += island_offset[i];
+    }
+    int[] pos = rest_frames; // temporary
+    System.arraycopy(island_offset, 0, pos, 0, num_islands);
+    for(int i = 0; i < num_particles; i++){
+      island_particles[pos[island[i]]++] = i;
+    }
+
+    // 4) all awake
+    Arrays.fill(rest_frames, 0, num_islands, 0);
+    Arrays.fill(sleeping   , 0, num_islands, false);
+    num_sleeping = 0;
+    for(int i = 0; i < num_particles; i++){
+      particles[i].sleeping = false;
+    }
+  }
+
+
+  static private int find(int[] parent, int i){
+    while(parent[i] != i){
+      parent[i] = parent[parent[i]]; // path halving
+      i = parent[i];
+    }
+    return i;
+  }
+
+
+  /**
+   * Puts resting islands to sleep and wakes up islands, that have at least
+   * one particle not marked as sleeping.
+   *
+   * @param particles
+   * @param velocity max velocity of a resting particle
+   * @param frames number of frames an island must rest before it falls asleep
+   * @return true, if at least one island changed its state
+   */
+  public boolean updateSleeping(DwParticle[] particles, float velocity, int frames){
+    boolean changed = false;
+    for(int i = 0; i < num_islands; i++){
+      int lo = island_offset[i];
+      int hi = island_offset[i+1];
+
+      if(sleeping[i]){
+        for(int j = lo; j < hi; j++){
+          if(!particles[island_particles[j]].sleeping){
+            setSleeping(particles, i, false);
+            changed = true;
+            break;
+          }
+        }
+      } else {
+        boolean resting = true;
+        for(int j = lo; j < hi && resting; j++){
+          resting = particles[island_particles[j]].getVelocity() <= velocity;
+        }
+        rest_frames[i] = resting ? rest_frames[i] + 1 : 0;
+        if(rest_frames[i] >= frames){
+          setSleeping(particles, i, true);
+          changed = true;
+        }
+      }
+    }
+    return changed;
+  }
+
+
+  /**
+   * Wakes up all islands.
+   *
+   * @return true, if at least one island changed its state
+   */
+  public boolean wakeUp(DwParticle[] particles){
+    boolean changed = false;
+    for(int i = 0; i < num_islands; i++){
+      if(sleeping[i]){
+        setSleeping(particles, i, false);
+        changed = true;
+      }
+    }
+    return changed;
+  }
+
+
+  private void setSleeping(DwParticle[] particles, int island_idx, boolean sleep){
+    sleeping   [island_idx] = sleep;
+    rest_frames[island_idx] = 0;
+    num_sleeping += sleep ? 1 : -1;
+    for(int j = island_offset[island_idx]; j < island_offset[island_idx+1]; j++){
+      particles[island_particles[j]].sleeping = sleep;
+    }
+  }
+
+}
@@ -8,14 +8,26 @@
  */
 package com.thomasdiewald.pixelflow.java.softbodydynamics;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
+import com.thomasdiewald.pixelflow.java.accelerationstructures.DwCollisionBroadphase;
+import com.thomasdiewald.pixelflow.java.accelerationstructures.DwCollisionCube;
 import com.thomasdiewald.pixelflow.java.accelerationstructures.DwCollisionGrid;
+import com.thomasdiewald.pixelflow.java.accelerationstructures.DwCollisionMultiLevelGrid;
+import com.thomasdiewald.pixelflow.java.accelerationstructures.DwCollisionSortedGrid;
+import com.thomasdiewald.pixelflow.java.accelerationstructures.DwLongMap;
 import com.thomasdiewald.pixelflow.java.accelerationstructures.DwPair;
 import com.thomasdiewald.pixelflow.java.softbodydynamics.constraint.DwSpringConstraint;
 import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle3D;
 
 public class DwPhysics<T extends DwParticle> {
   
@@ -31,25 +43,81 @@ public class DwPhysics<T extends DwParticle> {
     // 3D [xmin, ymin, zmin, xmax, ymax, zmax] 
     public float[] bounds = new float[6];
     
+    // solve particle collisions on multiple cores, same results as single-threaded
+    public boolean collisions_parallel = false;
+    
+    // 2D only: keep the collision grid between the iterations and frames and
+    // only relink particles whose cells changed. Same pairs are tested, but in
+    // a different order, so results differ in the last bits.
+    public boolean collisions_incremental = false;
+    
+    // 2D only: use the sort-based grid (DwCollisionSortedGrid) instead of the 
+    // linked-list grid. Same pairs, different order, results differ in the last bits.
+    public boolean collisions_sorted = false;
+    
+    // 2D only: use the hierarchical grid (DwCollisionMultiLevelGrid), for 
+    // particles with very different radii. Overrides collisions_sorted.
+    public boolean collisions_multilevel = false;
+    
+    // relax springs on multiple cores, in batches of springs that don't share 
+    // any particle. The order of the relaxation changes, so do the results.
+    public boolean springs_parallel = false;
+    
+    // puts resting bodies to sleep, see DwParticleIslands.
+    // A body (particles connected by springs) falls asleep when none of its
+    // particles moved more than sleep_velocity for sleep_frames frames, not 
+    // counting the displacement of a single gravity step. Sleeping
+    // bodies are skipped by springs, collisions and integration, but still 
+    // collide with awake particles, which wakes them up. The collision grid
+    // is still built over all particles, only the solver skips them.
+    public boolean sleeping       = false;
+    public float   sleep_velocity = 0.05f;
+    public int     sleep_frames   = 60;
+    
   }
   
   // 0 ... no collision (or not?)
   private int collision_group_id = 1; 
   public DwPhysics.Param param;
 
-  private DwCollisionGrid collision_grid = new DwCollisionGrid();
+  private DwCollisionGrid collision_grid = new DwCollisionGrid(); // 2D, x/y
+  private DwCollisionSortedGrid collision_grid_sorted = new DwCollisionSortedGrid(); // 2D, x/y
+  private DwCollisionMultiLevelGrid collision_grid_multilevel = new DwCollisionMultiLevelGrid(); // 2D, x/y
+  private DwCollisionCube collision_cube = new DwCollisionCube(); // 3D, x/y/z
+  private DwSpringColoring spring_coloring = new DwSpringColoring();
+  private ForkJoinPool pool;
+  // incremented by invalidateSprings(), spring colors and islands 
+  // are rebuilt when it changed since the last update
+  private int springs_modified = 0;
+  private int springs_modified_last = -1;
+  private DwParticleIslands islands = new DwParticleIslands();
+  private boolean islands_enabled = false;
   private int particles_count;
   private T[] particles;
   
+  // particles and springs the solver works on, either all or only the awake ones
+  private int particles_active_count;
+  private T[] particles_active;
+  private T[] particles_awake;
+  private ArrayList<DwSpringConstraint> springs_active;
+  private ArrayList<DwSpringConstraint> springs_awake = new ArrayList<DwSpringConstraint>();
+  
   
   public ArrayList<DwSpringConstraint> springs = new ArrayList<DwSpringConstraint>();
-  public HashMap<DwPair<DwParticle>, DwSpringConstraint> spring_map = new HashMap<DwPair<DwParticle>, DwSpringConstraint>();
+  // key: DwLongMap.pack(pa.idx, pb.idx), with pa.idx > pb.idx
+  public DwLongMap<DwSpringConstraint> spring_lookup = new DwLongMap<DwSpringConstraint>();
+  // key: new DwPair<DwParticle>(pa, pb), with pa.idx > pb.idx, a view of spring_lookup
+  public final Map<DwPair<DwParticle>, DwSpringConstraint> spring_map = new SpringMap();
   
   public DwPhysics(DwPhysics.Param param){
     this.param = param;
     reset();
   }
   
+  public DwParticleIslands getIslands(){
+    return islands;
+  }
+  
   public T[] getParticles(){
     return particles;
   }
@@ -57,6 +125,16 @@ public class DwPhysics<T extends DwParticle> {
     return particles_count;
   }
   
+  /**
+   * Has to be called after springs were removed, replaced or connected to 
+   * other particles. Adding springs with DwSpringConstraint.addSpring() calls
+   * it. The spring colors (springs_parallel) and the islands (sleeping) are 
+   * rebuilt with the next update, also when only the number of springs changed.
+   */
+  public void invalidateSprings(){
+    springs_modified++;
+  }
+  
   public ArrayList<DwSpringConstraint> getSprings(){
     return springs;
   }
@@ -80,6 +158,7 @@ public class DwPhysics<T extends DwParticle> {
       particles = Arrays.copyOf(particles, particles_count + particles_add_count);
       System.arraycopy(particles_add, 0, particles, particles_count, particles_add_count);
       particles_count += particles_add_count;
+      islands.invalidate();
     }
     
     if(CHECK_PARTICLE_INDEX_WHEN_ADDING){
@@ -94,6 +173,7 @@ public class DwPhysics<T extends DwParticle> {
   public void setParticles(T[] particles_set, int particles_set_count){
     this.particles = particles_set;
     this.particles_count = particles_set_count;
+    islands.invalidate();
   }
   
   
@@ -103,7 +183,8 @@ public class DwPhysics<T extends DwParticle> {
     particles_count = 0;
     particles = null;
     springs.clear();
-    spring_map.clear();
+    spring_lookup.clear();
+    invalidateSprings();
   }
   
   
@@ -112,49 +193,319 @@ public class DwPhysics<T extends DwParticle> {
 
   public void update(float timestep){
     
-    if(particles == null){
+    if(particles == null || particles_count == 0){
       return;
     }
     
-    // iterative spring refinement
+    if(springs_modified != springs_modified_last){
+      springs_modified_last = springs_modified;
+      spring_coloring.invalidate();
+      islands.invalidate();
+    }
+    
+    updateSleeping(timestep);
+    
+    int pending = updateSpringRefinement();
+    pending = updateCollisionRefinement(pending);
+
+    // verlet integration, fused with the pending work of the last iteration
+    boolean after_collision = (pending & PENDING_AFTER_COLLISION) != 0;
+    boolean bounds          = (pending & PENDING_BOUNDS         ) != 0;
+    for(int i = 0; i < particles_active_count; i++){
+      T particle = particles_active[i];
+      if(after_collision) particle.afterCollision();
+      if(bounds         ) particle.updateBounds(param.bounds);
+      
+      particle.addGravity(param.GRAVITY);
+      particle.updatePosition(timestep);
+      particle.updateBounds(param.bounds);
+      
+      if(update_particle_shapes){
+        particle.updateShape();
+      }
+    }
+
+  }
+  
+  
+  // per-particle work of the last iteration, that is not done yet, but fused 
+  // with the next pass over all particles. 8 instead of 13 passes per frame 
+  // (4/4 iterations), no measurable speedup though, the springs and 
+  // collisions dominate the update.
+  static private final int PENDING_BOUNDS          = 1; // updateBounds()
+  static private final int PENDING_AFTER_COLLISION = 2; // afterCollision()
+  
+  
+  /**
+   * iterative spring refinement.
+   * 
+   * @return PENDING_BOUNDS, if at least one iteration was done
+   */
+  private int updateSpringRefinement(){
+    
+    if(param.springs_parallel){
+      spring_coloring.update(springs_active, particles_count);
+    }
+    
+    int pending = 0;
     for(int k = 0; k < param.iterations_springs; k++){
-      for(DwSpringConstraint spring : springs) spring.update();
-      for(int i = 0; i < particles_count; i++){
-        particles[i].updateBounds(param.bounds);
+      if(pending != 0){
+        for(int i = 0; i < particles_active_count; i++){
+          particles_active[i].updateBounds(param.bounds);
+        }
+      }
+      if(param.springs_parallel){
+        spring_coloring.update(getPool());
+      } else {
+        for(DwSpringConstraint spring : springs_active) spring.update();
       }
+      pending = PENDING_BOUNDS;
     }
+    return pending;
+  }
+  
+  
+  /**
+   * iterative collision refinement.
+   * 
+   * afterCollision() and updateBounds() of one iteration are done in the same 
+   * loop as beforeCollision() of the next iteration, which saves two passes 
+   * over all particles per iteration.
+   * 
+   * @param pending work of the previous step, fused with the first iteration
+   * @return pending work of the last iteration
+   */
+  private int updateCollisionRefinement(int pending){
+    for(int k = 0; k < param.iterations_collisions; k++){
+      boolean after_collision = (pending & PENDING_AFTER_COLLISION) != 0;
+      boolean bounds          = (pending & PENDING_BOUNDS         ) != 0;
+      for(int i = 0; i < particles_active_count; i++){
+        T particle = particles_active[i];
+        if(after_collision) particle.afterCollision();
+        if(bounds         ) particle.updateBounds(param.bounds);
+        particle.beforeCollision();
+      }
       
-    // iterative collision refinement
-    for(int k = 0; k < param.iterations_collisions; k++){  
+      updateCollisions();
+      applyWakeRequests();
       
-      for(int i = 0; i < particles_count; i++){
-        particles[i].beforeCollision();
+      pending = PENDING_AFTER_COLLISION | PENDING_BOUNDS;
+    }
+    return pending;
+  }
+  
+  
+  /**
+   * updates the sleeping state of the islands, and the lists of particles and 
+   * springs the solver works on.
+   */
+  private void updateSleeping(float timestep){
+    boolean enabled = param.sleeping;
+    boolean changed = enabled != islands_enabled || particles_active == null;
+    
+    if(enabled){
+      // resting particles still move by one gravity step per frame
+      float gg = 0;
+      for(int i = 0; i < param.GRAVITY.length; i++){
+        gg += param.GRAVITY[i] * param.GRAVITY[i];
       }
+      float velocity = param.sleep_velocity + 0.5f * (float) Math.sqrt(gg) * timestep * timestep;
       
-      collision_grid.updateCollisions(particles, particles_count);
-      
-      for(int i = 0; i < particles_count; i++) {
-        particles[i].afterCollision();
-        particles[i].updateBounds(param.bounds);
+      changed |= islands.update(particles, particles_count, springs);
+      changed |= islands.updateSleeping(particles, velocity, param.sleep_frames);
+    } else if(islands_enabled){
+      islands.wakeUp(particles);
+    }
+    islands_enabled = enabled;
+    
+    if(!enabled){
+      particles_active       = particles;
+      particles_active_count = particles_count;
+      springs_active         = springs;
+    } else if(changed){
+      if(particles_awake == null || particles_awake.length < particles_count){
+        particles_awake = Arrays.copyOf(particles, particles_count);
       }
+      int count = 0;
+      for(int i = 0; i < particles_count; i++){
+        if(!particles[i].sleeping){
+          particles_awake[count++] = particles[i];
+        }
+      }
+      // both particles of a spring are on the same island
+      springs_awake.clear();
+      for(DwSpringConstraint spring : springs){
+        if(!particles[spring.idxPa()].sleeping){
+          springs_awake.add(spring);
+        }
+      }
+      particles_active       = particles_awake;
+      particles_active_count = count;
+      springs_active         = springs_awake;
     }
-
-    // verlet integration
-    for(int i = 0; i < particles_count; i++){
-      particles[i].addGravity(param.GRAVITY);
-      particles[i].updatePosition(timestep);
-      particles[i].updateBounds(param.bounds);
-      
-      if(update_particle_shapes){
-        particles[i].updateShape();
+    
+    if(changed){
+      spring_coloring.invalidate();
+    }
+  }
+  
+  
+  private ForkJoinPool getPool(){
+    if(pool == null){
+      pool = new ForkJoinPool();
+    }
+    return pool;
+  }
+  
+  
+  private void updateCollisions(){
+    if(particles_active_count == 0){
+      return;
+    }
+    DwCollisionBroadphase broadphase = getBroadphase();
+    if(param.collisions_parallel){
+      broadphase.setParallel(true, getPool());
+    } else {
+      broadphase.setParallel(false, pool);
+    }
+    // sleeping particles are in the grid, but only the active ones are solved
+    broadphase.updateCollisions(particles, particles_count, particles_active, particles_active_count);
+  }
+  
+  
+  /**
+   * Wakes up the sleeping particles, the active ones collided with. Each 
+   * particle requests at most one per collision pass, the next one follows in
+   * the next pass.
+   */
+  private void applyWakeRequests(){
+    if(!islands_enabled){
+      return;
+    }
+    for(int i = 0; i < particles_active_count; i++){
+      T particle = particles_active[i];
+      if(particle.wake_request != null){
+        particle.wake_request.sleeping = false;
+        particle.wake_request = null;
       }
     }
-
   }
   
   
+  private DwCollisionBroadphase getBroadphase(){
+    // the generic type is erased at runtime, so the particles decide
+    if(particles[0] instanceof DwParticle3D){
+      return collision_cube;
+    }
+    if(param.collisions_multilevel){
+      return collision_grid_multilevel;
+    }
+    if(param.collisions_sorted){
+      return collision_grid_sorted;
+    }
+    if(param.collisions_incremental != collision_grid.isIncremental()){
+      collision_grid.setIncremental(param.collisions_incremental);
+    }
+    return collision_grid;
+  }
   
   
   
   
+  
+  
+  
+  /**
+   * spring_map, backed by spring_lookup, no entry objects per spring.
+   * Entries are only created when iterating, with the particles of this 
+   * physics (getParticles()), by DwParticle.idx.
+   */
+  private class SpringMap extends AbstractMap<DwPair<DwParticle>, DwSpringConstraint>{
+    
+    private long key(Object key){
+      if(key instanceof DwPair){
+        Object a = ((DwPair<?>) key).a();
+        Object b = ((DwPair<?>) key).b();
+        if(a instanceof DwParticle && b instanceof DwParticle){
+          return DwLongMap.pack(((DwParticle) a).idx, ((DwParticle) b).idx);
+        }
+      }
+      return -1;
+    }
+    
+    @Override
+    public DwSpringConstraint get(Object key){
+      return spring_lookup.get(key(key));
+    }
+    
+    @Override
+    public boolean containsKey(Object key){
+      return get(key) != null;
+    }
+    
+    @Override
+    public DwSpringConstraint put(DwPair<DwParticle> key, DwSpringConstraint spring){
+      invalidateSprings();
+      return spring_lookup.put(DwLongMap.pack(key.a().idx, key.b().idx), spring);
+    }
+    
+    @Override
+    public DwSpringConstraint remove(Object key){
+      invalidateSprings();
+      return spring_lookup.remove(key(key));
+    }
+    
+    @Override
+    public int size(){
+      return spring_lookup.size();
+    }
+    
+    @Override
+    public void clear(){
+      invalidateSprings();
+      spring_lookup.clear();
+    }
+    
+    @Override
+    public Set<Map.Entry<DwPair<DwParticle>, DwSpringConstraint>> entrySet(){
+      return new AbstractSet<Map.Entry<DwPair<DwParticle>, DwSpringConstraint>>(){
+        @Override
+        public int size(){
+          return spring_lookup.size();
+        }
+        @Override
+        public Iterator<Map.Entry<DwPair<DwParticle>, DwSpringConstraint>> iterator(){
+          return new Iterator<Map.Entry<DwPair<DwParticle>, DwSpringConstraint>>(){
+            int slot = next(0);
+            
+            private int next(int slot){
+              while(slot < spring_lookup.capacity() && spring_lookup.valueAt(slot) == null) slot++;
+              return slot;
+            }
+            @Override
+            public boolean hasNext(){
+              return slot < spring_lookup.capacity();
+            }
+            @Override
+            public Map.Entry<DwPair<DwParticle>, DwSpringConstraint> next(){
+              if(!hasNext()) throw new NoSuchElementException();
+              long key = spring_lookup.keyAt(slot);
+              DwParticle pa = particles[(int) (key >>> 32)];
+              DwParticle pb = particles[(int) (key       )];
+              Map.Entry<DwPair<DwParticle>, DwSpringConstraint> entry = 
+                  new AbstractMap.SimpleImmutableEntry<DwPair<DwParticle>, DwSpringConstraint>(
+                      new DwPair<DwParticle>(pa, pb), spring_lookup.valueAt(slot));
+              slot = next(slot + 1);
+              return entry;
+            }
+            @Override
+            public void remove(){
+              throw new UnsupportedOperationException();
+            }
+          };
+        }
+      };
+    }
+  }
+  
 }
@@ -0,0 +1,197 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+package com.thomasdiewald.pixelflow.java.softbodydynamics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.thomasdiewald.pixelflow.java.softbodydynamics.constraint.DwSpringConstraint;
+
+
+/**
+ * Partitions a list of springs into color-batches, so that no two springs of
+ * the same batch share a particle.
+ *
+ * The springs of one batch can then be relaxed in parallel, batch after batch.
+ * The coloring is only rebuilt when the number of springs changes, or after
+ * invalidate(), e.g. when springs were replaced at the same count.
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwSpringColoring {
+
+  // color batches, batch[c][0 ... batch_size[c]-1]
+  private DwSpringConstraint[][] batch = new DwSpringConstraint[0][];
+  private int[]                  batch_size = new int[0];
+  private int                    num_colors = 0;
+  private int                    num_springs = -1;
+
+  // number of springs a single task relaxes at least
+  private int chunk_size = 4096;
+
+  // temporary buffers, kept for the next rebuild
+  private int[]                stamp = new int[0];
+  private DwSpringConstraint[] todo  = new DwSpringConstraint[0];
+
+  public DwSpringColoring(){
+  }
+
+
+  public void setChunkSize(int chunk_size){
+    this.chunk_size = Math.max(1, chunk_size);
+  }
+
+  public int getNumColors(){
+    return num_colors;
+  }
+  
+  public int getNumSprings(){
+    return Math.max(num_springs, 0);
+  }
+  
+  public DwSpringConstraint[] getBatch(int color){
+    return batch[color];
+  }
+  
+  public int getBatchSize(int color){
+    return batch_size[color];
+  }
+
+  public void invalidate(){
+    num_springs = -1;
+  }
+
+
+  /**
+   * Rebuilds the coloring if the spring list changed.
+   *
+   * @param springs
+   * @param num_particles number of particles, springs index particles by DwParticle.idx
+   */
+  public void update(ArrayList<DwSpringConstraint> springs, int num_particles){
+    if(springs.size() != num_springs){
+      create(springs, num_particles);
+    }
+  }
+
+
+  /**
+   * Greedy coloring, one color per round.
+   * Each round takes every remaining spring whose particles are not yet
+   * used in this round. Springs that don't fit are kept for the next round.
+   */
+  private void create(ArrayList<DwSpringConstraint> springs, int num_particles){
+
+    num_springs = springs.size();
+    num_colors  = 0;
+
+    if(stamp.length < num_particles){
+      stamp = new int[num_particles];
+    }
+    Arrays.fill(stamp, 0, num_particles, -1);
+
+    if(todo.length < num_springs){
+      todo = new DwSpringConstraint[num_springs];
+    }
+
+    int todo_count = 0;
+    for(DwSpringConstraint spring : springs){
+      todo[todo_count++] = spring;
+    }
+
+    while(todo_count > 0){
+      int color = num_colors++;
+
+      // realloc batch list
+      if(color >= batch.length){
+        int new_len = Math.max(8, color * 2);
+        batch      = Arrays.copyOf(batch     , new_len);
+        batch_size = Arrays.copyOf(batch_size, new_len);
+      }
+      if(batch[color] == null || batch[color].length < todo_count){
+        batch[color] = new DwSpringConstraint[todo_count];
+      }
+
+      DwSpringConstraint[] batch_cur = batch[color];
+      int batch_count = 0;
+      int todo_next   = 0;
+
+      for(int i = 0; i < todo_count; i++){
+        DwSpringConstraint spring = todo[i];
+        int ia = spring.idxPa();
+        int ib = spring.idxPb();
+        if(stamp[ia] != color && stamp[ib] != color){
+          stamp[ia] = color;
+          stamp[ib] = color;
+          batch_cur[batch_count++] = spring;
+        } else {
+          todo[todo_next++] = spring;
+        }
+      }
+
+      batch_size[color] = batch_count;
+      todo_count = todo_next;
+    }
+
+    // release references
+    Arrays.fill(todo, null);
+  }
+
+
+  /**
+   * Relaxes all springs once, color-batch by color-batch.
+   *
+   * @param pool
+   */
+  public void update(ForkJoinPool pool){
+    for(int c = 0; c < num_colors; c++){
+      DwSpringConstraint[] springs = batch[c];
+      int count = batch_size[c];
+      if(count <= chunk_size){
+        for(int i = 0; i < count; i++){
+          springs[i].update();
+        }
+      } else {
+        pool.invoke(new SpringTask(springs, 0, count));
+      }
+    }
+  }
+
+
+
+  private class SpringTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    final DwSpringConstraint[] springs;
+    final int lo, hi;
+
+    SpringTask(DwSpringConstraint[] springs, int lo, int hi){
+      this.springs = springs;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected void compute() {
+      if(hi - lo <= chunk_size){
+        for(int i = lo; i < hi; i++){
+          springs[i].update();
+        }
+      } else {
+        int mid = (lo + hi) >>> 1;
+        invokeAll(new SpringTask(springs, lo, mid),
+                  new SpringTask(springs, mid, hi));
+      }
+    }
+  }
+
+}
@@ -0,0 +1,235 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+package com.thomasdiewald.pixelflow.java.softbodydynamics.constraint;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.thomasdiewald.pixelflow.java.softbodydynamics.DwSpringColoring;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticleStore;
+
+
+/**
+ * Packed spring storage, used together with the DwParticleStore.
+ *
+ * All attributes that are needed for relaxing the springs are kept in
+ * primitive arrays: particle indices, rest length, squared rest length,
+ * damping and an enabled-bitset.
+ *
+ * The springs can be ordered in batches of springs that don't share a particle
+ * (see DwSpringColoring). Each batch can then be relaxed in parallel.
+ *
+ * The DwSpringConstraint objects remain the public interface: pull() reads the
+ * attributes that can change at runtime, push() writes the remaining force back.
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwSpringBuffer {
+
+  public int size = 0;
+
+  public int[]   ia         = new int[0];
+  public int[]   ib         = new int[0];
+  public float[] dd_rest    = new float[0];
+  public float[] dd_rest_sq = new float[0];
+  public float[] damp_inc   = new float[0];
+  public float[] damp_dec   = new float[0];
+  public float[] force      = new float[0];
+  public long[]  enabled    = new long[0]; // bitset
+
+  // batch c: [batch_offset[c], batch_offset[c+1])
+  private int[] batch_offset = new int[]{0, 0};
+  private int   num_batches  = 1;
+
+  // number of springs a single task relaxes at least
+  private int chunk_size = 4096;
+
+  // spring objects, in the same order as the buffer
+  private DwSpringConstraint[] springs = new DwSpringConstraint[0];
+
+
+  public DwSpringBuffer(){
+  }
+
+
+  private void resize(int size_new){
+    size = size_new;
+    if(size <= ia.length){
+      return;
+    }
+    int len = (int) Math.ceil(size * 1.25f);
+    ia         = new int  [len];
+    ib         = new int  [len];
+    dd_rest    = new float[len];
+    dd_rest_sq = new float[len];
+    damp_inc   = new float[len];
+    damp_dec   = new float[len];
+    force      = new float[len];
+    enabled    = new long [(len + 63) >> 6];
+    springs    = new DwSpringConstraint[len];
+  }
+
+
+  /**
+   * creates the buffer, springs are relaxed in list order.
+   */
+  public void create(ArrayList<DwSpringConstraint> list){
+    resize(list.size());
+    for(int i = 0; i < size; i++){
+      set(i, list.get(i));
+    }
+    num_batches = 1;
+    batch_offset[0] = 0;
+    batch_offset[1] = size;
+    pull();
+  }
+
+
+  /**
+   * creates the buffer, ordered by color-batches.
+   */
+  public void create(DwSpringColoring coloring){
+    resize(coloring.getNumSprings());
+
+    num_batches = coloring.getNumColors();
+    if(batch_offset.length < num_batches + 1){
+      batch_offset = new int[num_batches + 1];
+    }
+
+    int pos = 0;
+    for(int c = 0; c < num_batches; c++){
+      batch_offset[c] = pos;
+      DwSpringConstraint[] batch = coloring.getBatch(c);
+      int batch_size = coloring.getBatchSize(c);
+      for(int i = 0; i < batch_size; i++){
+        set(pos++, batch[i]);
+      }
+    }
+    batch_offset[num_batches] = pos;
+    pull();
+  }
+
+
+  private void set(int i, DwSpringConstraint spring){
+    springs[i] = spring;
+    ia[i] = spring.idxPa();
+    ib[i] = spring.idxPb();
+  }
+
+
+  public int getNumSprings(){
+    return size;
+  }
+
+  public int getNumBatches(){
+    return num_batches;
+  }
+
+  public void setChunkSize(int chunk_size){
+    this.chunk_size = Math.max(1, chunk_size);
+  }
+
+  public final boolean isEnabled(int i){
+    return (enabled[i >> 6] & (1L << i)) != 0;
+  }
+
+  public final void setEnabled(int i, boolean enable){
+    if(enable){
+      enabled[i >> 6] |=  (1L << i);
+    } else {
+      enabled[i >> 6] &= ~(1L << i);
+    }
+  }
+
+
+  /**
+   * reads rest length, damping and enabled-state from the spring objects.
+   */
+  public void pull(){
+    for(int i = 0; i < size; i++){
+      DwSpringConstraint spring = springs[i];
+      dd_rest   [i] = spring.dd_rest;
+      dd_rest_sq[i] = spring.dd_rest_sq;
+      damp_inc  [i] = spring.param.damp_inc;
+      damp_dec  [i] = spring.param.damp_dec;
+      setEnabled(i, spring.enabled);
+    }
+  }
+
+  /**
+   * writes the force, remaining after the last relaxation, to the spring objects.
+   */
+  public void push(){
+    for(int i = 0; i < size; i++){
+      springs[i].force = force[i];
+    }
+  }
+
+
+
+  /**
+   * relaxes all springs once, sequentially.
+   */
+  public void update(DwParticleStore store){
+    update(store, 0, size);
+  }
+
+  public void update(DwParticleStore store, int lo, int hi){
+    for(int i = lo; i < hi; i++){
+      if(isEnabled(i)){
+        force[i] = store.updateSpring(ia[i], ib[i], dd_rest_sq[i], damp_inc[i], damp_dec[i]);
+      }
+    }
+  }
+
+  /**
+   * relaxes all springs once, batch after batch, each batch in parallel.
+   * requires the buffer to be created from a DwSpringColoring.
+   */
+  public void update(DwParticleStore store, ForkJoinPool pool){
+    for(int c = 0; c < num_batches; c++){
+      int lo = batch_offset[c];
+      int hi = batch_offset[c+1];
+      if(hi - lo <= chunk_size){
+        update(store, lo, hi);
+      } else {
+        pool.invoke(new SpringTask(store, lo, hi));
+      }
+    }
+  }
+
+
+
+  private class SpringTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    final DwParticleStore store;
+    final int lo, hi;
+
+    SpringTask(DwParticleStore store, int lo, int hi){
+      this.store = store;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected void compute() {
+      if(hi - lo <= chunk_size){
+        update(store, lo, hi);
+      } else {
+        int mid = (lo + hi) >>> 1;
+        invokeAll(new SpringTask(store, lo, mid),
+                  new SpringTask(store, mid, hi));
+      }
+    }
+  }
+
+}
@@ -31,7 +31,7 @@ public abstract class DwSpringConstraint {
   }
   
   
-  public Param param = new Param();
+  public Param param;
   public TYPE  type;
   public boolean enabled = true;
   
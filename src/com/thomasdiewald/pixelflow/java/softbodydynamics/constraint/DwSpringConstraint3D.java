@@ -10,7 +10,7 @@
 
 package com.thomasdiewald.pixelflow.java.softbodydynamics.constraint;
 
-import com.thomasdiewald.pixelflow.java.accelerationstructures.DwPair;
+import com.thomasdiewald.pixelflow.java.accelerationstructures.DwLongMap;
 import com.thomasdiewald.pixelflow.java.softbodydynamics.DwPhysics;
 import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle;
 import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle3D;
@@ -93,12 +93,13 @@ public class DwSpringConstraint3D extends DwSpringConstraint{
     
     if(pa.idx < pb.idx){ DwParticle3D pt = pa; pa = pb; pb = pt; } // swap
  
-    DwPair<DwParticle> pair = new DwPair<DwParticle>(pa, pb);
-    DwSpringConstraint spring = physics.spring_map.get(pair);
+    long key = DwLongMap.pack(pa.idx, pb.idx);
+    DwSpringConstraint spring = physics.spring_lookup.get(key);
     if(spring == null){
       spring = new DwSpringConstraint3D(pa, pb, param, type);
-      physics.spring_map.put(pair, spring);
+      physics.spring_lookup.put(key, spring);
       physics.springs.add(spring);
+      physics.invalidateSprings();
       
       pa.addSpring(spring);
       pb.addSpring(spring);
@@ -43,6 +43,14 @@ public abstract class DwParticle implements DwCollisionObject{
   public boolean enable_springs    = true;
   public boolean enable_forces     = true;
   
+  // resting, skipped by the solver (see DwPhysics.Param.sleeping)
+  // cleared on contact with an awake particle, by addForce() and by moveTo()
+  public boolean sleeping = false;
+  
+  // sleeping particle this one collided with, to be woken up after the 
+  // (parallel) collision pass. Only written by this particle.
+  public DwParticle wake_request = null;
+  
 
   public float rad  = 0;           // radius
   public float rad_collision  = 0; // collision radius
@@ -64,12 +64,14 @@ public class DwParticle2D extends DwParticle{
     py  = cy;
     cx += (cnew[0] - cx) * damping;
     cy += (cnew[1] - cy) * damping;
+    sleeping = false;
   }
   
   @Override
   public void addForce(float[] anew){
     this.ax += anew[0] / mass;
     this.ay += anew[1] / mass;
+    sleeping = false;
   }
 
   @Override
@@ -107,6 +109,24 @@ public class DwParticle2D extends DwParticle{
     if(this == othr.collision_ptr) return; // already collided with "othr"
     
     othr.collision_ptr = this; // mark as checked
+    
+    solveCollision(othr);
+  }
+  
+  
+  // same as updateCollision(), but "othr" doesn't get marked as checked.
+  // the caller must make sure, this is called only once per pair.
+  public void updateCollisionUnique(DwParticle2D othr) {
+
+    if(!enable_collisions) return;
+    if(othr.collision_group == this.collision_group) return; // particles are of the same group
+    if(this == othr              ) return; // not colliding with myself
+    
+    solveCollision(othr);
+  }
+  
+  
+  private void solveCollision(DwParticle2D othr) {
       
     float dx        = othr.cx - this.cx;
     float dy        = othr.cy - this.cy;
@@ -122,6 +142,9 @@ public class DwParticle2D extends DwParticle{
       this.collision_x -= dx * force * this_mass_factor;
       this.collision_y -= dy * force * this_mass_factor;
       this.collision_count++;
+      
+      // wake up on contact, applied by DwPhysics after the collision pass
+      if(othr.sleeping && wake_request == null) wake_request = othr;
     }
   }
   
@@ -203,6 +226,11 @@ public class DwParticle2D extends DwParticle{
     updateCollision((DwParticle2D)othr);
   }
   
+  @Override
+  public final void updateUnique(DwCollisionObject othr) {
+    updateCollisionUnique((DwParticle2D)othr);
+  }
+  
 
   
   
@@ -59,6 +59,7 @@ public class DwParticle3D extends DwParticle{
     cx += (cnew[0] - cx) * damping;
     cy += (cnew[1] - cy) * damping;
     cz += (cnew[2] - cz) * damping;
+    sleeping = false;
   }
   
   @Override
@@ -66,6 +67,7 @@ public class DwParticle3D extends DwParticle{
     this.ax += anew[0] / mass;
     this.ay += anew[1] / mass;
     this.az += anew[2] / mass;
+    sleeping = false;
   }
 
   @Override
@@ -109,6 +111,24 @@ public class DwParticle3D extends DwParticle{
     if(this == othr.collision_ptr) return; // already collided with "othr"
     
     othr.collision_ptr = this; // mark as checked
+    
+    solveCollision(othr);
+  }
+  
+  
+  // same as updateCollision(), but "othr" doesn't get marked as checked.
+  // the caller must make sure, this is called only once per pair.
+  public void updateCollisionUnique(DwParticle3D othr) {
+
+    if(!enable_collisions) return;
+    if(othr.collision_group == this.collision_group) return; // particles are of the same group
+    if(this == othr              ) return; // not colliding with myself
+    
+    solveCollision(othr);
+  }
+  
+  
+  private void solveCollision(DwParticle3D othr) {
       
     float dx        = othr.cx - this.cx;
     float dy        = othr.cy - this.cy;
@@ -126,6 +146,9 @@ public class DwParticle3D extends DwParticle{
       this.collision_y -= dy * force * this_mass_factor;
       this.collision_z -= dz * force * this_mass_factor;
       this.collision_count++;
+      
+      // wake up on contact, applied by DwPhysics after the collision pass
+      if(othr.sleeping && wake_request == null) wake_request = othr;
     }
   }
   
@@ -197,6 +220,11 @@ public class DwParticle3D extends DwParticle{
     updateCollision((DwParticle3D)othr);
   }
   
+  @Override
+  public final void updateUnique(DwCollisionObject othr) {
+    updateCollisionUnique((DwParticle3D)othr);
+  }
+  
   
 
   
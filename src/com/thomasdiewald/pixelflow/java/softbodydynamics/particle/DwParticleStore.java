@@ -0,0 +1,395 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+package com.thomasdiewald.pixelflow.java.softbodydynamics.particle;
+
+import java.util.ArrayList;
+
+import com.thomasdiewald.pixelflow.java.softbodydynamics.constraint.DwSpringConstraint;
+
+
+/**
+ * Structure-of-Arrays (SoA) storage for DwParticle2D/DwParticle3D.
+ *
+ * All particle attributes, that are used during a physics update, are kept in
+ * contiguous primitive arrays, indexed by DwParticle.idx.
+ *
+ * The particle objects remain the public interface: gather() copies their state
+ * into the arrays, scatter() copies the result back. In between, all hot loops
+ * (springs, bounds, integration) run on the arrays.
+ *
+ * The kernels are the same as in DwParticle2D/DwParticle3D and produce the
+ * same results. Overridden methods of custom particle classes are not called.
+ *
+ * The store is a copy, not a view of the particle objects, and DwPhysics
+ * doesn't use it: for the built-in passes, the sync costs about as much as
+ * the arrays save. It is meant for custom solvers, that run many passes per
+ * sync, e.g. with DwSpringBuffer and integrate().
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwParticleStore {
+
+  // flags
+  static public final int COLLISIONS = 1;
+  static public final int SPRINGS    = 2;
+  static public final int FORCES     = 4;
+
+  // 2 ... DwParticle2D, 3 ... DwParticle3D
+  public int dim = 2;
+  public int size = 0;
+
+  public float[] cx = new float[0], cy = new float[0], cz = new float[0]; // current position
+  public float[] px = new float[0], py = new float[0], pz = new float[0]; // previous position
+  public float[] ax = new float[0], ay = new float[0], az = new float[0]; // acceleration
+
+  public float[] rad           = new float[0];
+  public float[] rad_collision = new float[0];
+  public float[] mass          = new float[0];
+
+  // DwParticle.Param, by value
+  public float[] damp_bounds   = new float[0];
+  public float[] damp_velocity = new float[0];
+
+  public int[] collision_group = new int[0];
+  public int[] flags           = new int[0];
+  
+  // 1 ... forces enabled, 0 ... disabled, used as multiplier by integrate()
+  public float[] forces = new float[0];
+
+
+  public DwParticleStore(){
+  }
+
+
+  public void resize(int size_new){
+    size = size_new;
+    if(size <= cx.length){
+      return;
+    }
+    int len = (int) Math.ceil(size * 1.25f);
+    cx = new float[len]; cy = new float[len]; cz = new float[len];
+    px = new float[len]; py = new float[len]; pz = new float[len];
+    ax = new float[len]; ay = new float[len]; az = new float[len];
+    rad           = new float[len];
+    rad_collision = new float[len];
+    mass          = new float[len];
+    damp_bounds   = new float[len];
+    damp_velocity = new float[len];
+    collision_group = new int[len];
+    flags           = new int[len];
+    forces          = new float[len];
+  }
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // SYNC
+  //////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * copies the complete state of the given particles into the arrays.
+   */
+  public void gather(DwParticle[] particles, int count){
+    resize(count);
+    if(count == 0) return;
+
+    dim = (particles[0] instanceof DwParticle3D) ? 3 : 2;
+
+    for(int i = 0; i < count; i++){
+      DwParticle p = particles[i];
+      rad          [i] = p.rad;
+      rad_collision[i] = p.rad_collision;
+      mass         [i] = p.mass;
+      damp_bounds  [i] = p.param.DAMP_BOUNDS;
+      damp_velocity[i] = p.param.DAMP_VELOCITY;
+      collision_group[i] = p.collision_group;
+      flags          [i] = (p.enable_collisions ? COLLISIONS : 0) |
+                           (p.enable_springs    ? SPRINGS    : 0) |
+                           (p.enable_forces     ? FORCES     : 0);
+      forces         [i] = p.enable_forces ? 1f : 0f;
+    }
+    gatherPositions(particles, count);
+  }
+
+  /**
+   * copies positions and accelerations of the given particles into the arrays.
+   */
+  public void gatherPositions(DwParticle[] particles, int count){
+    gatherPositions(particles, count, true);
+  }
+  
+  /**
+   * copies current and previous positions, and optionally the accelerations, 
+   * of the given particles into the arrays.
+   */
+  public void gatherPositions(DwParticle[] particles, int count, boolean acceleration){
+    if(dim == 3){
+      for(int i = 0; i < count; i++){
+        DwParticle3D p = (DwParticle3D) particles[i];
+        cx[i] = p.cx; cy[i] = p.cy; cz[i] = p.cz;
+        px[i] = p.px; py[i] = p.py; pz[i] = p.pz;
+        if(acceleration){
+          ax[i] = p.ax; ay[i] = p.ay; az[i] = p.az;
+        }
+      }
+    } else {
+      for(int i = 0; i < count; i++){
+        DwParticle2D p = (DwParticle2D) particles[i];
+        cx[i] = p.cx; cy[i] = p.cy;
+        px[i] = p.px; py[i] = p.py;
+        if(acceleration){
+          ax[i] = p.ax; ay[i] = p.ay;
+        }
+      }
+    }
+  }
+
+  /**
+   * copies positions and accelerations back to the given particles.
+   */
+  public void scatterPositions(DwParticle[] particles, int count){
+    scatterPositions(particles, count, true);
+  }
+  
+  /**
+   * copies current and previous positions, and optionally the accelerations, 
+   * back to the given particles.
+   */
+  public void scatterPositions(DwParticle[] particles, int count, boolean acceleration){
+    if(dim == 3){
+      for(int i = 0; i < count; i++){
+        DwParticle3D p = (DwParticle3D) particles[i];
+        p.cx = cx[i]; p.cy = cy[i]; p.cz = cz[i];
+        p.px = px[i]; p.py = py[i]; p.pz = pz[i];
+        if(acceleration){
+          p.ax = ax[i]; p.ay = ay[i]; p.az = az[i];
+        }
+      }
+    } else {
+      for(int i = 0; i < count; i++){
+        DwParticle2D p = (DwParticle2D) particles[i];
+        p.cx = cx[i]; p.cy = cy[i];
+        p.px = px[i]; p.py = py[i];
+        if(acceleration){
+          p.ax = ax[i]; p.ay = ay[i];
+        }
+      }
+    }
+  }
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // VERLET INTEGRATION
+  //////////////////////////////////////////////////////////////////////////////
+
+  public void addGravity(float[] gravity){
+    addGravity(gravity, 0, size);
+  }
+
+  public void addGravity(float[] gravity, int lo, int hi){
+    final float gx = gravity[0];
+    final float gy = gravity[1];
+    for(int i = lo; i < hi; i++){
+      ax[i] += gx;
+      ay[i] += gy;
+    }
+    if(dim == 3){
+      final float gz = gravity[2];
+      for(int i = lo; i < hi; i++){
+        az[i] += gz;
+      }
+    }
+  }
+
+  public void updatePosition(float timestep){
+    updatePosition(timestep, 0, size);
+  }
+
+  public void updatePosition(float timestep, int lo, int hi){
+    for(int i = lo; i < hi; i++){
+      if((flags[i] & FORCES) != 0){
+        // velocity
+        float damp = damp_velocity[i];
+        float vx = (cx[i] - px[i]) * damp;
+        float vy = (cy[i] - py[i]) * damp;
+        px[i] = cx[i];
+        py[i] = cy[i];
+        // verlet integration
+        cx[i] += vx + ax[i] * 0.5 * timestep * timestep;
+        cy[i] += vy + ay[i] * 0.5 * timestep * timestep;
+        if(dim == 3){
+          float vz = (cz[i] - pz[i]) * damp;
+          pz[i] = cz[i];
+          cz[i] += vz + az[i] * 0.5 * timestep * timestep;
+        }
+      }
+      ax[i] = ay[i] = az[i] = 0;
+    }
+  }
+
+
+
+  /**
+   * Gravity and verlet integration in one pass, vectorization friendly.
+   * 
+   * Other than updatePosition(), there are no branches and no double 
+   * arithmetic in the loops: each loop only streams over float arrays, so the
+   * JIT compiler can turn them into SIMD instructions (SSE/AVX/NEON). 
+   * Disabled forces are handled with the 0/1 multiplier "forces", 
+   * which selects exactly either the old or the new value.
+   * 
+   * The integration step is computed in float precision, results can differ
+   * from updatePosition() in the last bits.
+   */
+  public void integrate(float[] gravity, float timestep){
+    integrate(gravity, timestep, 0, size);
+  }
+  
+  public void integrate(float[] gravity, float timestep, int lo, int hi){
+    final float dt2 = 0.5f * timestep * timestep;
+    integrate(cx, px, ax, gravity[0], dt2, lo, hi);
+    integrate(cy, py, ay, gravity[1], dt2, lo, hi);
+    if(dim == 3){
+      integrate(cz, pz, az, gravity[2], dt2, lo, hi);
+    }
+  }
+  
+  private void integrate(final float[] c, final float[] p, final float[] a, final float g, final float dt2, int lo, int hi){
+    final float[] damp = damp_velocity;
+    final float[] mask = forces;
+    for(int i = lo; i < hi; i++){
+      float m  = mask[i];
+      float ci = c[i];
+      float pi = p[i];
+      float v  = (ci - pi) * damp[i];
+      c[i] = ci + m * (v + (a[i] + g) * dt2);
+      p[i] = m * ci + (1f - m) * pi;
+      a[i] = 0;
+    }
+  }
+  
+  
+  
+  //////////////////////////////////////////////////////////////////////////////
+  // BOUNDARY COLLISION
+  //////////////////////////////////////////////////////////////////////////////
+
+  public void updateBounds(float[] bounds){
+    updateBounds(bounds, 0, size);
+  }
+
+  public void updateBounds(float[] bounds, int lo, int hi){
+    if(dim == 3){
+      updateBounds3D(bounds, lo, hi);
+    } else {
+      updateBounds2D(bounds, lo, hi);
+    }
+  }
+
+  // Same as DwParticle2D/3D.updateBounds(), but without branches: each of the 
+  // cases is computed for every particle and only selected (h) if the particle 
+  // is outside, so the JIT can use conditional moves, or SIMD blends.
+  // Particles outside the bounds cause no branch mispredictions. 
+  
+  // bounds: [xmin, ymin, xmax, ymax]
+  private void updateBounds2D(float[] bd, int lo, int hi){
+    final float x0 = bd[0], y0 = bd[1];
+    final float x1 = bd[2], y1 = bd[3];
+    for(int i = lo; i < hi; i++){
+      boolean on = (flags[i] & COLLISIONS) != 0;
+      float d  = damp_bounds[i];
+      float r  = rad[i];
+      float cx = this.cx[i], cy = this.cy[i];
+      float px = this.px[i], py = this.py[i];
+      float vx, vy;
+      boolean h;
+      h = on & (cx - r < x0); vx=cx-px;vy=cy-py; cx=h?x0+r:cx; px=h?cx+vx*d:px; py=h?cy-vy*d:py;
+      h = on & (cx + r > x1); vx=cx-px;vy=cy-py; cx=h?x1-r:cx; px=h?cx+vx*d:px; py=h?cy-vy*d:py;
+      h = on & (cy - r < y0); vx=cx-px;vy=cy-py; cy=h?y0+r:cy; px=h?cx-vx*d:px; py=h?cy+vy*d:py;
+      h = on & (cy + r > y1); vx=cx-px;vy=cy-py; cy=h?y1-r:cy; px=h?cx-vx*d:px; py=h?cy+vy*d:py;
+      this.cx[i] = cx; this.cy[i] = cy;
+      this.px[i] = px; this.py[i] = py;
+    }
+  }
+
+  // bounds: [xmin, ymin, zmin, xmax, ymax, zmax]
+  private void updateBounds3D(float[] bd, int lo, int hi){
+    final float x0 = bd[0], y0 = bd[1], z0 = bd[2];
+    final float x1 = bd[3], y1 = bd[4], z1 = bd[5];
+    for(int i = lo; i < hi; i++){
+      boolean on = (flags[i] & COLLISIONS) != 0;
+      float d  = damp_bounds[i];
+      float r  = rad_collision[i];
+      float cx = this.cx[i], cy = this.cy[i], cz = this.cz[i];
+      float px = this.px[i], py = this.py[i], pz = this.pz[i];
+      float vx, vy, vz;
+      boolean h;
+      h = on & (cx - r < x0); vx=cx-px;vy=cy-py;vz=cz-pz; cx=h?x0+r:cx; px=h?cx+vx*d:px; py=h?cy-vy*d:py; pz=h?cz-vz*d:pz;
+      h = on & (cx + r > x1); vx=cx-px;vy=cy-py;vz=cz-pz; cx=h?x1-r:cx; px=h?cx+vx*d:px; py=h?cy-vy*d:py; pz=h?cz-vz*d:pz;
+      h = on & (cy - r < y0); vx=cx-px;vy=cy-py;vz=cz-pz; cy=h?y0+r:cy; px=h?cx-vx*d:px; py=h?cy+vy*d:py; pz=h?cz-vz*d:pz;
+      h = on & (cy + r > y1); vx=cx-px;vy=cy-py;vz=cz-pz; cy=h?y1-r:cy; px=h?cx-vx*d:px; py=h?cy+vy*d:py; pz=h?cz-vz*d:pz;
+      h = on & (cz - r < z0); vx=cx-px;vy=cy-py;vz=cz-pz; cz=h?z0+r:cz; px=h?cx-vx*d:px; py=h?cy-vy*d:py; pz=h?cz+vz*d:pz;
+      h = on & (cz + r > z1); vx=cx-px;vy=cy-py;vz=cz-pz; cz=h?z1-r:cz; px=h?cx-vx*d:px; py=h?cy-vy*d:py; pz=h?cz+vz*d:pz;
+      this.cx[i] = cx; this.cy[i] = cy; this.cz[i] = cz;
+      this.px[i] = px; this.py[i] = py; this.pz[i] = pz;
+    }
+  }
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // SPRING CONSTRAINTS
+  //////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * relaxes the given springs once, on the arrays.
+   * same as DwSpringConstraint2D/3D.update()
+   */
+  public void updateSprings(ArrayList<DwSpringConstraint> springs){
+    for(DwSpringConstraint spring : springs){
+      if(!spring.enabled) continue;
+      int ia = spring.idxPa();
+      int ib = spring.idxPb();
+      spring.force = updateSpring(ia, ib, spring.dd_rest_sq, spring.param.damp_inc, spring.param.damp_dec);
+    }
+  }
+
+  /**
+   * relaxes a single spring between the particles ia and ib.
+   *
+   * @return the remaining force
+   */
+  public final float updateSpring(int ia, int ib, float dd_rest_sq, float damp_inc, float damp_dec){
+    float dx = cx[ib] - cx[ia];
+    float dy = cy[ib] - cy[ia];
+    float dz = (dim == 3) ? cz[ib] - cz[ia] : 0;
+    float dd_sq = (dim == 3) ? dx*dx + dy*dy + dz*dz : dx*dx + dy*dy;
+    float force = (dd_rest_sq / (dd_sq + dd_rest_sq) - 0.5f);
+    force      *= (dd_sq < dd_rest_sq) ? damp_inc : damp_dec;
+
+    float pa_mass_factor = 2f * mass[ib] / (mass[ia] + mass[ib]);
+    float pb_mass_factor = 2f - pa_mass_factor;
+
+    if((flags[ia] & SPRINGS) != 0){
+      cx[ia] -= dx * force * pa_mass_factor;
+      cy[ia] -= dy * force * pa_mass_factor;
+      if(dim == 3) cz[ia] -= dz * force * pa_mass_factor;
+    }
+    if((flags[ib] & SPRINGS) != 0){
+      cx[ib] += dx * force * pb_mass_factor;
+      cy[ib] += dy * force * pb_mass_factor;
+      if(dim == 3) cz[ib] += dz * force * pb_mass_factor;
+    }
+    return force;
+  }
+
+}
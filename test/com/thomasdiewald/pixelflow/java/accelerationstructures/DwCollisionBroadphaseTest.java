@@ -0,0 +1,150 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+
+package com.thomasdiewald.pixelflow.java.accelerationstructures;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+/**
+ *
+ * 2D broadphases: colliding pairs against brute force, degenerate radii.
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwCollisionBroadphaseTest {
+
+  /**
+   * collects the objects it overlaps with, a pair may be reported more than once
+   */
+  static private class Disc implements DwCollisionObject {
+    final float x, y, r;
+    final HashSet<DwCollisionObject> collisions = new HashSet<DwCollisionObject>();
+
+    Disc(float x, float y, float r){
+      this.x = x;
+      this.y = y;
+      this.r = r;
+    }
+
+    @Override
+    public void resetCollisionPtr(){
+      collisions.clear();
+    }
+
+    @Override
+    public void update(DwCollisionObject othr){
+      if(this == othr) return;
+      float rr = othr.radCollision() + r;
+      float dx = othr.x() - x;
+      float dy = othr.y() - y;
+      if(dx*dx + dy*dy < rr*rr){
+        collisions.add(othr);
+      }
+    }
+
+    @Override
+    public void updateUnique(DwCollisionObject othr){
+      update(othr);
+      ((Disc) othr).update(this);
+    }
+
+    @Override public float x(){ return x; }
+    @Override public float y(){ return y; }
+    @Override public float z(){ return 0; }
+    @Override public float rad(){ return r; }
+    @Override public float radCollision(){ return r; }
+    @Override public int getCollisionCount(){ return collisions.size(); }
+  }
+
+  static private DwCollisionBroadphase[] createBroadphases(){
+    return new DwCollisionBroadphase[]{
+      new DwCollisionGrid(),
+      new DwCollisionSortedGrid(),
+      new DwCollisionMultiLevelGrid(),
+    };
+  }
+
+  static private Disc[] createSamples(int count, float r_min, float r_max, long seed){
+    Random rand = new Random(seed);
+    Disc[] samples = new Disc[count];
+    for(int i = 0; i < count; i++){
+      float r = r_min + rand.nextFloat() * (r_max - r_min);
+      samples[i] = new Disc(rand.nextFloat() * 400, rand.nextFloat() * 300, r);
+    }
+    return samples;
+  }
+
+  @SuppressWarnings("unchecked")
+  static private HashSet<DwCollisionObject>[] bruteForce(Disc[] samples){
+    HashSet<DwCollisionObject>[] expected = new HashSet[samples.length];
+    for(int i = 0; i < samples.length; i++){
+      samples[i].resetCollisionPtr();
+      for(int j = 0; j < samples.length; j++){
+        samples[i].update(samples[j]);
+      }
+      expected[i] = new HashSet<DwCollisionObject>(samples[i].collisions);
+    }
+    return expected;
+  }
+
+  static private void assertCollisions(DwCollisionBroadphase broadphase, Disc[] samples, HashSet<DwCollisionObject>[] expected){
+    for(Disc sample : samples){
+      sample.resetCollisionPtr();
+    }
+    broadphase.updateCollisions(samples, samples.length);
+    String name = broadphase.getClass().getSimpleName();
+    for(int i = 0; i < samples.length; i++){
+      assertEquals(name+", sample "+i, expected[i], samples[i].collisions);
+    }
+  }
+
+
+  @Test
+  public void mixedRadiiMatchBruteForce(){
+    Disc[] samples = createSamples(2000, 0.5f, 12, 1);
+    HashSet<DwCollisionObject>[] expected = bruteForce(samples);
+    for(DwCollisionBroadphase broadphase : createBroadphases()){
+      assertCollisions(broadphase, samples, expected);
+    }
+  }
+
+  @Test
+  public void zeroRadius(){
+    Disc[] samples = createSamples(3, 0, 0, 2);
+    for(DwCollisionBroadphase broadphase : createBroadphases()){
+      broadphase.updateCollisions(samples, samples.length);
+      for(Disc sample : samples){
+        assertEquals(0, sample.getCollisionCount());
+      }
+    }
+  }
+
+  @Test
+  public void coincidentPoints(){
+    Disc[] samples = new Disc[4];
+    for(int i = 0; i < samples.length; i++){
+      samples[i] = new Disc(10, 10, 0);
+    }
+    for(DwCollisionBroadphase broadphase : createBroadphases()){
+      broadphase.updateCollisions(samples, samples.length);
+      for(Disc sample : samples){
+        assertEquals(0, sample.getCollisionCount());
+      }
+    }
+  }
+
+}
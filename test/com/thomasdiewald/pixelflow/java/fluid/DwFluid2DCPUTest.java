@@ -0,0 +1,153 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+
+package com.thomasdiewald.pixelflow.java.fluid;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+
+/**
+ *
+ * Projection of DwFluid2DCPU: RMS divergence of the velocity after the
+ * gradient pass, for each pressure solver.
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwFluid2DCPUTest {
+
+  static private final int SIZE = 128;
+
+
+  static private DwFluid2DCPU createFluid(int pressure_solver){
+    DwFluid2DCPU fluid = new DwFluid2DCPU(SIZE, SIZE, 1);
+    fluid.setParallel(false);
+    fluid.param.pressure_solver    = pressure_solver;
+    fluid.param.pressure_tolerance = 0;
+    fluid.param.vorticity          = 0;
+    fluid.param.apply_buoyancy     = false;
+
+    // obstacle in the center
+    int[] pixels = new int[SIZE * SIZE];
+    for(int y = SIZE/2 - 10; y < SIZE/2 + 10; y++){
+      for(int x = SIZE/2 - 6; x < SIZE/2 + 6; x++){
+        pixels[y * SIZE + x] = 0xFFFFFFFF;
+      }
+    }
+    fluid.addObstacles(pixels, SIZE, SIZE);
+    return fluid;
+  }
+
+  static private void addSplats(DwFluid2DCPU fluid, Random rand){
+    for(int i = 0; i < 4; i++){
+      float px = 10 + rand.nextFloat() * (SIZE - 20);
+      float py = 10 + rand.nextFloat() * (SIZE - 20);
+      fluid.addVelocity(px, py, 8, rand.nextFloat() * 20 - 10, rand.nextFloat() * 20 - 10);
+    }
+  }
+
+  /**
+   * same stencil and boundary conditions as the divergence pass
+   */
+  static private double rmsDivergence(DwFluid2DCPU fluid){
+    int w = fluid.fluid_w, h = fluid.fluid_h;
+    float[] vel = fluid.grid_velocity.src;
+    float[] oC  = fluid.grid_obstacleC.src;
+    float[] oN  = fluid.grid_obstacleN.src;
+    float halfrdx = 0.5f / fluid.param.gridscale;
+
+    double sum = 0;
+    int count = 0;
+    for(int y = 0; y < h; y++){
+      for(int x = 0, i = y * w; x < w; x++, i++){
+        if(oC[i] == 1.0f) continue;
+        float vTy = (y < h-1) ? vel[(i+w)*2+1] : 0;
+        float vBy = (y > 0  ) ? vel[(i-w)*2+1] : 0;
+        float vRx = (x < w-1) ? vel[(i+1)*2+0] : 0;
+        float vLx = (x > 0  ) ? vel[(i-1)*2+0] : 0;
+        float vCx = vel[i*2+0];
+        float vCy = vel[i*2+1];
+        vTy += (-vCy - vTy) * oN[i*4+0];
+        vBy += (-vCy - vBy) * oN[i*4+1];
+        vRx += (-vCx - vRx) * oN[i*4+2];
+        vLx += (-vCx - vLx) * oN[i*4+3];
+        float div = halfrdx * ((vRx - vLx) + (vTy - vBy));
+        sum += div * div;
+        count++;
+      }
+    }
+    return Math.sqrt(sum / count);
+  }
+
+  /**
+   * @return divergence before and after the projection of the last update
+   */
+  static private double[] project(int pressure_solver, int frames){
+    DwFluid2DCPU fluid = createFluid(pressure_solver);
+    Random rand = new Random(1);
+    for(int i = 0; i < frames; i++){
+      addSplats(fluid, rand);
+      fluid.update(0.25f);
+    }
+    addSplats(fluid, rand);
+    double before = rmsDivergence(fluid);
+    fluid.update(0.25f);
+    return new double[]{ before, rmsDivergence(fluid) };
+  }
+
+
+  @Test
+  public void convergedSolversRemoveDivergence(){
+    int[] solvers = { DwFluid2D.PRESSURE_MULTIGRID, DwFluid2D.PRESSURE_SOR, DwFluid2D.PRESSURE_CG };
+    for(int solver : solvers){
+      double[] div = project(solver, 0);
+      assertTrue("solver "+solver+": "+div[0]+" -> "+div[1], div[1] < div[0] * 0.2);
+    }
+  }
+
+  @Test
+  public void convergedSolversStayDivergenceFree(){
+    int[] solvers = { DwFluid2D.PRESSURE_MULTIGRID, DwFluid2D.PRESSURE_SOR, DwFluid2D.PRESSURE_CG };
+    double jacobi = project(DwFluid2D.PRESSURE_JACOBI, 20)[1];
+    for(int solver : solvers){
+      double[] div = project(solver, 20);
+      assertTrue("solver "+solver+": "+div[1]+", jacobi "+jacobi, div[1] < jacobi);
+    }
+  }
+
+  @Test
+  public void jacobiReducesDivergence(){
+    double[] div = project(DwFluid2D.PRESSURE_JACOBI, 0);
+    assertTrue(div[0]+" -> "+div[1], div[1] < div[0]);
+  }
+
+  @Test
+  public void parallelUpdateIsDeterministic(){
+    DwFluid2DCPU serial   = createFluid(DwFluid2D.PRESSURE_MULTIGRID);
+    DwFluid2DCPU parallel = createFluid(DwFluid2D.PRESSURE_MULTIGRID);
+    parallel.setParallel(true);
+    parallel.setParallelChunkSize(256);
+    Random rand_s = new Random(2);
+    Random rand_p = new Random(2);
+    for(int i = 0; i < 5; i++){
+      addSplats(serial  , rand_s);
+      addSplats(parallel, rand_p);
+      serial  .update(0.25f);
+      parallel.update(0.25f);
+    }
+    assertArrayEquals(serial.grid_velocity.src, parallel.grid_velocity.src, 0);
+  }
+
+}
@@ -0,0 +1,222 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+
+package com.thomasdiewald.pixelflow.java.fluid;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
+
+import org.junit.Test;
+
+
+/**
+ *
+ * Batch dumps of DwFluid2DCPU: resuming a float dump, half float conversion.
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwFluidBatch2DTest {
+
+  static private final int SIZE = 64;
+
+  static private final int[] FIELDS = {
+    DwFluidBatch2D.VELOCITY, DwFluidBatch2D.DENSITY, DwFluidBatch2D.TEMPERATURE
+  };
+
+
+  static private DwFluidBatch2D createBatch(){
+    DwFluid2DCPU fluid = new DwFluid2DCPU(SIZE, SIZE, 1);
+    fluid.setParallel(false);
+    DwFluidBatch2D batch = new DwFluidBatch2D(new DwFluidBatch2D.FluidCPU(fluid));
+    batch.schedule = new DwFluidBatch2D.Schedule() {
+      @Override
+      public void update(DwFluidBatch2D.Fluid fluid, int step) {
+        float px = SIZE * 0.5f + 16 * (float) Math.cos(step * 0.3f);
+        float py = SIZE * 0.5f + 16 * (float) Math.sin(step * 0.3f);
+        fluid.addVelocity   (px, py, 6, 5, -3);
+        fluid.addDensity    (px, py, 6, 1, 0.5f, 0.2f, 1);
+        fluid.addTemperature(px, py, 6, 2);
+      }
+    };
+    return batch;
+  }
+
+  static private File createTempFile() throws IOException {
+    File file = File.createTempFile("DwFluidBatch2DTest", ".dump");
+    file.deleteOnExit();
+    return file;
+  }
+
+
+  @Test
+  public void resumeIsBitExact() throws IOException {
+    File file_a = createTempFile();
+    File file_b = createTempFile();
+
+    DwFluidBatch2D batch_a = createBatch();
+    batch_a.stride = 2;
+    batch_a.run(file_a, 20);
+
+    // a different run, then resumed from the reference at step 10
+    DwFluidBatch2D batch_b = createBatch();
+    batch_b.stride = 2;
+    batch_b.run(file_b, 4);
+    copy(file_a, file_b);
+    batch_b.resume(file_b, 10, 20);
+
+    DwFluidBatch2D.Dump dump_a = DwFluidBatch2D.Dump.open(file_a);
+    DwFluidBatch2D.Dump dump_b = DwFluidBatch2D.Dump.open(file_b);
+    try {
+      assertEquals(11, dump_a.num_frames);
+      assertEquals(11, dump_b.num_frames);
+      for(int frame = 0; frame < dump_a.num_frames; frame++){
+        assertEquals(frame * 2, dump_a.step(frame));
+        assertEquals(frame * 2, dump_b.step(frame));
+        for(int field : FIELDS){
+          assertArrayEquals(dump_a.read(frame, field, null), dump_b.read(frame, field, null), 0);
+        }
+      }
+    } finally {
+      dump_a.close();
+      dump_b.close();
+    }
+  }
+
+  @Test
+  public void rerunReplacesFile() throws IOException {
+    File file = createTempFile();
+    DwFluidBatch2D batch = createBatch();
+    batch.run(file, 8);
+    batch.fields = DwFluidBatch2D.DENSITY;
+    batch.run(file, 3);
+
+    DwFluidBatch2D.Dump dump = DwFluidBatch2D.Dump.open(file);
+    try {
+      assertEquals(4, dump.num_frames);
+      assertEquals(DwFluidBatch2D.HEADER_SIZE + 4 * dump.frame_size, file.length());
+      assertEquals(null, dump.read(0, DwFluidBatch2D.VELOCITY, null));
+    } finally {
+      dump.close();
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void openErrorsPropagate() throws IOException {
+    File dir = createTempFile();
+    dir.delete();
+    dir.mkdir();
+    dir.deleteOnExit();
+    createBatch().run(dir, 1);
+  }
+
+  @Test
+  public void frameWriteErrorsPropagate() throws IOException {
+    File file = createTempFile();
+    DwFluidBatch2D batch = createBatch();
+    final DwFluidBatch2D.Schedule schedule = batch.schedule;
+    batch.schedule = new DwFluidBatch2D.Schedule() {
+      @Override
+      public void update(DwFluidBatch2D.Fluid fluid, int step) {
+        schedule.update(fluid, step);
+        // the file channel is closed on the next write of this thread
+        if(step == 2) Thread.currentThread().interrupt();
+      }
+    };
+
+    IOException error = null;
+    try {
+      batch.run(file, 10);
+    } catch (IOException e){
+      error = e;
+    } finally {
+      Thread.interrupted();
+    }
+    assertNotNull(error);
+    assertTrue(error.toString(), error instanceof ClosedByInterruptException);
+
+    // the frames before the failed one are complete
+    DwFluidBatch2D.Dump dump = DwFluidBatch2D.Dump.open(file);
+    try {
+      assertEquals(3, dump.num_frames);
+      assertEquals(2, dump.step(2));
+    } finally {
+      dump.close();
+    }
+  }
+
+  @Test
+  public void callbackIsChainedAndRestored() throws IOException {
+    DwFluidBatch2D batch = createBatch();
+    DwFluid2DCPU fluid = ((DwFluidBatch2D.FluidCPU) batch.fluid).fluid;
+    final int[] calls = new int[1];
+    DwFluid2DCPU.FluidData callback = new DwFluid2DCPU.FluidData() {
+      @Override
+      public void update(DwFluid2DCPU fluid) {
+        calls[0]++;
+      }
+    };
+    fluid.addCallback_FluiData(callback);
+
+    File file = createTempFile();
+    batch.run(file, 5);
+    assertEquals(5, calls[0]);
+    assertSame(callback, fluid.getCallback_FluiData());
+
+    batch.schedule = null;
+    batch.resume(file, 2, 4);
+    assertEquals(7, calls[0]);
+    assertSame(callback, fluid.getCallback_FluiData());
+  }
+
+  @Test
+  public void halfFloatRoundTrip(){
+    // every half, except NaN payloads, maps back to itself
+    for(int i = 0; i < 0x10000; i++){
+      short h = (short) i;
+      float f = DwFluidBatch2D.fromHalf(h);
+      if(Float.isNaN(f)){
+        assertTrue(Float.isNaN(DwFluidBatch2D.fromHalf(DwFluidBatch2D.toHalf(f))));
+      } else {
+        assertEquals("half 0x"+Integer.toHexString(i), h, DwFluidBatch2D.toHalf(f));
+      }
+    }
+  }
+
+  @Test
+  public void halfFloatRounding(){
+    assertEquals(1.0f        , DwFluidBatch2D.fromHalf(DwFluidBatch2D.toHalf(1.0f + 1.0f/4096)), 0);
+    assertEquals(1.0f        , DwFluidBatch2D.fromHalf(DwFluidBatch2D.toHalf(1.0f + 1.0f/2048)), 0); // tie, even
+    assertEquals(1.0f + 2.0f/1024, DwFluidBatch2D.fromHalf(DwFluidBatch2D.toHalf(1.0f + 3.0f/2048)), 0); // tie, even
+    assertEquals(65504f      , DwFluidBatch2D.fromHalf(DwFluidBatch2D.toHalf(65519f)), 0);
+    assertEquals(Float.POSITIVE_INFINITY, DwFluidBatch2D.fromHalf(DwFluidBatch2D.toHalf(65520f)), 0);
+    assertEquals(Float.NEGATIVE_INFINITY, DwFluidBatch2D.fromHalf(DwFluidBatch2D.toHalf(-1e6f)), 0);
+    assertEquals(0.0f        , DwFluidBatch2D.fromHalf(DwFluidBatch2D.toHalf(1e-9f)), 0);
+
+    // relative error of normal values
+    for(float f = 6.2e-5f; f < 65000f; f *= 1.01f){
+      float r = DwFluidBatch2D.fromHalf(DwFluidBatch2D.toHalf(f));
+      assertTrue(f+" -> "+r, Math.abs(r - f) <= f / 2048);
+    }
+  }
+
+
+  static private void copy(File src, File dst) throws IOException {
+    java.nio.file.Files.copy(src.toPath(), dst.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+  }
+
+}
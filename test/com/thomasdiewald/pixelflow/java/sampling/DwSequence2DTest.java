@@ -0,0 +1,152 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+
+package com.thomasdiewald.pixelflow.java.sampling;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+/**
+ *
+ * Values of the incremental sequences: Halton and R2 against their closed
+ * forms, Sobol against its net property, and setIndex() against stepping.
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwSequence2DTest {
+
+  static private final int N = 1 << 12;
+
+
+  static private float[] points(DwSequence2D sequence, int index, int count){
+    float[] dst = new float[count * 2];
+    sequence.setIndex(index);
+    for(int i = 0; i < count; i++){
+      sequence.next(dst, i * 2);
+    }
+    return dst;
+  }
+
+  static private void assertSetIndexMatchesStepping(DwSequence2D sequence){
+    float[] all = points(sequence, 0, N);
+    for(int index = 0; index < N; index += 37){
+      float[] xy = points(sequence, index, 1);
+      assertEquals(index + 1, sequence.getIndex());
+      assertEquals("index "+index, all[index * 2 + 0], xy[0], 0);
+      assertEquals("index "+index, all[index * 2 + 1], xy[1], 0);
+    }
+  }
+
+  /**
+   * each of the 2^m boxes of size 2^-a x 2^-b, a + b = m, holds one point
+   */
+  static private void assertNet(float[] xy, int m){
+    int count = 1 << m;
+    for(int a = 0; a <= m; a++){
+      int b = m - a;
+      int[] boxes = new int[count];
+      for(int i = 0; i < count; i++){
+        int bx = (int) (xy[i * 2 + 0] * (1 << a));
+        int by = (int) (xy[i * 2 + 1] * (1 << b));
+        boxes[(by << a) | bx]++;
+      }
+      for(int i = 0; i < count; i++){
+        assertEquals("m = "+m+", a = "+a+", box "+i, 1, boxes[i]);
+      }
+    }
+  }
+
+
+  @Test
+  public void haltonMatchesDwSampling(){
+    float[] xy = points(new DwHaltonSequence(), 0, N);
+    for(int i = 0; i < N; i++){
+      assertEquals(DwSampling.halton(i, 2), xy[i * 2 + 0], 1e-6);
+      assertEquals(DwSampling.halton(i, 3), xy[i * 2 + 1], 1e-6);
+    }
+
+    int index = 1_000_000_007;
+    xy = points(new DwHaltonSequence(5, 7), index, 1);
+    assertEquals(DwSampling.halton(index, 5), xy[0], 1e-6);
+    assertEquals(DwSampling.halton(index, 7), xy[1], 1e-6);
+  }
+
+  @Test
+  public void r2MatchesClosedForm(){
+    float[] xy = points(new DwR2Sequence(), 0, N);
+    for(int i = 0; i < N; i++){
+      double x0 = 0.5 + i * DwR2Sequence.A0;
+      double x1 = 0.5 + i * DwR2Sequence.A1;
+      assertEquals(x0 - Math.floor(x0), xy[i * 2 + 0], 1e-6);
+      assertEquals(x1 - Math.floor(x1), xy[i * 2 + 1], 1e-6);
+    }
+  }
+
+  @Test
+  public void sobolFirstPoints(){
+    float[] xy = points(new DwSobolSequence(), 0, 8);
+    float[] expected = {
+      0.0f  , 0.0f  ,
+      0.5f  , 0.5f  ,
+      0.75f , 0.25f ,
+      0.25f , 0.75f ,
+      0.375f, 0.375f,
+      0.875f, 0.875f,
+      0.625f, 0.125f,
+      0.125f, 0.625f,
+    };
+    assertArrayEquals(expected, xy, 0);
+  }
+
+  @Test
+  public void sobolIsNet(){
+    float[] xy = points(new DwSobolSequence(), 0, N);
+    float[] xy_scrambled = points(new DwSobolSequence(7), 0, N);
+    for(int m = 1; m <= 12; m++){
+      assertNet(xy, m);
+      assertNet(xy_scrambled, m);
+    }
+  }
+
+  @Test
+  public void sobolWrapsAround(){
+    DwSobolSequence sobol = new DwSobolSequence();
+    float[] xy = points(sobol, -1, 2); // index 2^32 - 1, then 0
+    assertEquals(1, sobol.getIndex());
+    assertEquals(0, xy[2], 0);
+    assertEquals(0, xy[3], 0);
+  }
+
+  @Test
+  public void setIndexMatchesStepping(){
+    assertSetIndexMatchesStepping(new DwHaltonSequence());
+    assertSetIndexMatchesStepping(new DwHaltonSequence(5, 7));
+    assertSetIndexMatchesStepping(new DwSobolSequence());
+    assertSetIndexMatchesStepping(new DwSobolSequence(7));
+    assertSetIndexMatchesStepping(new DwR2Sequence());
+  }
+
+  @Test
+  public void valuesInUnitInterval(){
+    DwSequence2D[] sequences = { new DwHaltonSequence(), new DwSobolSequence(3), new DwR2Sequence() };
+    for(DwSequence2D sequence : sequences){
+      float[] xy = points(sequence, 0, N);
+      for(float v : xy){
+        assertTrue(sequence.getClass().getSimpleName()+": "+v, v >= 0 && v < 1);
+      }
+    }
+  }
+
+}
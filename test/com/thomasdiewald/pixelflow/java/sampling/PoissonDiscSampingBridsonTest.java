@@ -0,0 +1,156 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+
+package com.thomasdiewald.pixelflow.java.sampling;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+/**
+ *
+ * PoissonDiscSampingBridson: min distance, bounds and coverage of the samples,
+ * checked by brute force.
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class PoissonDiscSampingBridsonTest {
+
+  static private class Sampling extends PoissonDiscSampingBridson<PoissonSample> {
+    @Override
+    public PoissonSample newInstance(float x, float y, float z, float r, float rcollision) {
+      return new PoissonSample(x, y, z, r, rcollision);
+    }
+  }
+
+  static private final float[] BOUNDS_2D = { 0, 0, 0, 500, 300, 0 };
+  static private final float[] BOUNDS_3D = { 0, 0, 0, 100,  80, 60 };
+
+
+  static private Sampling generate(float[] bounds, float radius, float offset, int dim, long seed){
+    Sampling sampling = new Sampling();
+    sampling.setRandomSeed(seed);
+    if(dim == 2){
+      sampling.generatePoissonSampling2D(bounds, radius, offset, 20);
+    } else {
+      sampling.generatePoissonSampling3D(bounds, radius, offset, 20);
+    }
+    return sampling;
+  }
+
+  static private float minDistance(Sampling sampling){
+    float[] xyz = sampling.getSamplesArray();
+    int num = sampling.getNumSamples();
+    double dd_min = Double.MAX_VALUE;
+    for(int i = 0; i < num; i++){
+      for(int j = i + 1; j < num; j++){
+        double dx = xyz[i*3+0] - xyz[j*3+0];
+        double dy = xyz[i*3+1] - xyz[j*3+1];
+        double dz = xyz[i*3+2] - xyz[j*3+2];
+        dd_min = Math.min(dd_min, dx*dx + dy*dy + dz*dz);
+      }
+    }
+    return (float) Math.sqrt(dd_min);
+  }
+
+  static private void assertInside(Sampling sampling, float[] bounds, float rc, int dim){
+    float[] xyz = sampling.getSamplesArray();
+    for(int i = 0; i < sampling.getNumSamples(); i++){
+      for(int k = 0; k < dim; k++){
+        float v = xyz[i*3+k];
+        assertTrue("sample "+i+": "+v, v >= bounds[k] + rc && v <= bounds[k+3] - rc);
+      }
+      if(dim == 2){
+        assertEquals(0, xyz[i*3+2], 0);
+      }
+    }
+  }
+
+  /**
+   * every point of a regular grid inside the bounds is close to a sample.
+   * The sampling is not maximal, single holes may be left where all of the
+   * random candidates failed, but none is larger than the candidate shell.
+   */
+  static private void assertCovered(Sampling sampling, float[] bounds, float rc, int dim){
+    float[] xyz = sampling.getSamplesArray();
+    int num = sampling.getNumSamples();
+    float mindist = rc * 2;
+    float step = mindist * 0.5f;
+    float zmin = (dim == 2) ? 0 : bounds[2] + rc;
+    float zmax = (dim == 2) ? 0 : bounds[5] - rc;
+    for(float z = zmin; z <= zmax; z += step){
+      for(float y = bounds[1] + rc; y <= bounds[4] - rc; y += step){
+        for(float x = bounds[0] + rc; x <= bounds[3] - rc; x += step){
+          double dd_min = Double.MAX_VALUE;
+          for(int i = 0; i < num; i++){
+            double dx = xyz[i*3+0] - x;
+            double dy = xyz[i*3+1] - y;
+            double dz = xyz[i*3+2] - z;
+            dd_min = Math.min(dd_min, dx*dx + dy*dy + dz*dz);
+          }
+          assertTrue("hole at "+x+", "+y+", "+z, Math.sqrt(dd_min) < mindist * 2);
+        }
+      }
+    }
+  }
+
+
+  @Test
+  public void minDistance2D(){
+    Sampling sampling = generate(BOUNDS_2D, 5, 1, 2, 1);
+    assertTrue(sampling.getNumSamples() > 500);
+    float dist = minDistance(sampling);
+    assertTrue("min distance "+dist, dist >= 12 * (1 - 1e-5f));
+  }
+
+  @Test
+  public void minDistance3D(){
+    Sampling sampling = generate(BOUNDS_3D, 3, 0, 3, 1);
+    assertTrue(sampling.getNumSamples() > 1000);
+    float dist = minDistance(sampling);
+    assertTrue("min distance "+dist, dist >= 6 * (1 - 1e-5f));
+  }
+
+  @Test
+  public void samplesStayInside(){
+    assertInside(generate(BOUNDS_2D, 5, 1, 2, 2), BOUNDS_2D, 6, 2);
+    assertInside(generate(BOUNDS_3D, 3, 0, 3, 2), BOUNDS_3D, 3, 3);
+  }
+
+  @Test
+  public void samplesCoverBounds(){
+    assertCovered(generate(BOUNDS_2D, 5, 1, 2, 3), BOUNDS_2D, 6, 2);
+    assertCovered(generate(BOUNDS_3D, 3, 0, 3, 3), BOUNDS_3D, 3, 3);
+  }
+
+  @Test
+  public void reusedSamplerIsDeterministic(){
+    Sampling sampling = generate(BOUNDS_3D, 3, 0, 3, 4);
+    float[] xyz = sampling.getSamplesArray().clone();
+    int num = sampling.getNumSamples();
+
+    // larger run in between, the buffers are reused
+    sampling.generatePoissonSampling2D(BOUNDS_2D, 2, 0, 20);
+    sampling.setRandomSeed(4);
+    sampling.generatePoissonSampling3D(BOUNDS_3D, 3, 0, 20);
+
+    assertEquals(num, sampling.getNumSamples());
+    float[] xyz2 = new float[num * 3];
+    System.arraycopy(sampling.getSamplesArray(), 0, xyz2, 0, num * 3);
+    float[] xyz1 = new float[num * 3];
+    System.arraycopy(xyz, 0, xyz1, 0, num * 3);
+    assertArrayEquals(xyz1, xyz2, 0);
+  }
+
+}